@@ -0,0 +1,152 @@
+package multialarms;
+
+/*
+ * Title:        AlarmCycleBench
+ * Description:  Switching alarms on and off, and going off
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The life of an alarm through the engine, with no journal:
+ *
+ *   startStop      - switch on an alarm set for tomorrow, then off again,
+ *                    over a table of ALARMS rows
+ *   scheduleCancel - switch one alarm off and on again while every other
+ *                    alarm of a table of 10k or 100k counts down, so the
+ *                    scheduler holds them all. Records the live threads
+ *                    with them all armed - one scheduler thread between
+ *                    them, not one or two each as with a Timer per alarm.
+ *   goOff          - switch on an alarm due now, wait for it to go off (the
+ *                    listener is told on the scheduler thread), switch it off
+ */
+class AlarmCycleBench {
+
+    private static final int ALARMS = 1000;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("AlarmCycleBench.startStop",
+                          new String[] { "alarms=" + ALARMS }) {
+
+                private AlarmEngine engine;
+                private int         next;
+
+                protected void setUp() {
+
+                    engine = new AlarmEngine(null);
+                    long tomorrow = System.currentTimeMillis() + DAY;
+
+                    for (int x = 0; x < ALARMS; x++) {
+                        engine.create();
+                        engine.getStore().setGoOffTime(x, tomorrow, "");
+                    }
+                }
+
+                protected long run(int ops) {
+                    for (int x = 0; x < ops; x++) {
+                        int row = next++ % ALARMS;
+                        engine.arm(row);
+                        engine.cancel(row);
+                    }
+                    return next;
+                }
+
+                protected void tearDown() {
+                    engine.shutdown();
+                }
+            },
+
+            scheduleCancel(10000),
+
+            scheduleCancel(100000),
+
+            new Benchmark("AlarmCycleBench.goOff") {
+
+                private AlarmEngine engine;
+                private Semaphore   goneOff = new Semaphore(0);
+
+                protected void setUp() {
+
+                    engine = new AlarmEngine(null);
+                    engine.create();
+                    engine.addAlarmListener(new AlarmListener() {
+
+                        public void alarmGoneOff(Alarm alarm) {
+                            goneOff.release();
+                        }
+                    });
+                }
+
+                protected long run(int ops) throws InterruptedException {
+                    for (int x = 0; x < ops; x++) {
+                        engine.getStore().setGoOffTime(
+                            0, System.currentTimeMillis(), "");
+                        engine.arm(0);
+                        goneOff.acquire();
+                        engine.cancel(0);
+                    }
+                    return engine.getAlarm(0).getStartMillis();
+                }
+
+                protected void tearDown() {
+                    engine.shutdown();
+                }
+            }
+        };
+    }
+
+    private static Benchmark scheduleCancel(final int alarms) {
+
+        return new Benchmark("AlarmCycleBench.scheduleCancel",
+                             new String[] { "alarms=" + alarms }) {
+
+            private AlarmEngine engine;
+            private int         next;
+
+            protected void setUp() {
+
+                engine = new AlarmEngine(null);
+                AlarmScheduler.getInstance();   // counted in 'before'
+
+                long tomorrow = System.currentTimeMillis() + DAY;
+                int  before   = ManagementFactory.getThreadMXBean()
+                                                 .getThreadCount();
+
+                // spread over a few hours, so the outer wheels hold some
+                for (int x = 0; x < alarms; x++) {
+                    engine.create();
+                    engine.getStore().setGoOffTime(x, tomorrow + x * 100L, "");
+                    engine.arm(x);
+                }
+
+                int after = ManagementFactory.getThreadMXBean()
+                                             .getThreadCount();
+
+                record("threads", after, "threads");
+                record("threadsAdded", after - before, "threads");
+            }
+
+            protected long run(int ops) {
+                for (int x = 0; x < ops; x++) {
+                    int row = next++ % alarms;
+                    engine.cancel(row);
+                    engine.arm(row);
+                }
+                return next;
+            }
+
+            protected void tearDown() {
+                engine.shutdown();
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package multialarms;
+
+/*
+ * Title:        AlarmStateBench
+ * Description:  Reading alarm state while other threads change it
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * What painting the table costs in state reads: one operation reads the
+ * flags of a screenful of rows (as setColBackground() does for every cell)
+ * while WRITERS threads keep switching the same alarms on and off and
+ * making them go off, as the scheduler thread does.
+ */
+class AlarmStateBench {
+
+    private static final int ROWS = 25;
+
+    private static final int WRITERS = 2;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("AlarmStateBench.readWhileWriting", new String[] {
+                "rows=" + ROWS,
+                "writers=" + WRITERS
+            }) {
+
+                private AlarmEngine       engine;
+                private Thread[]          writers = new Thread[WRITERS];
+                private volatile boolean  running = true;
+
+                protected void setUp() {
+
+                    engine = new AlarmEngine(null);
+                    long tomorrow = System.currentTimeMillis() + DAY;
+
+                    for (int x = 0; x < ROWS; x++) {
+                        engine.create();
+                        engine.getStore().setGoOffTime(x, tomorrow, "");
+                    }
+
+                    for (int x = 0; x < WRITERS; x++) {
+                        final int first = x;
+
+                        writers[x] = new Thread("writer " + x) {
+
+                            public void run() {
+                                for (int row = first; running;
+                                     row = (row + WRITERS) % ROWS) {
+                                    engine.arm(row);
+                                    engine.getAlarm(row).goOff(false);
+                                    engine.cancel(row);
+                                }
+                            }
+                        };
+                        writers[x].setDaemon(true);
+                        writers[x].start();
+                    }
+                }
+
+                protected long run(int ops) {
+                    AlarmStore store = engine.getStore();
+                    long       armed = 0;
+                    for (int x = 0; x < ops; x++) {
+                        for (int row = 0; row < ROWS; row++) {
+                            if (store.getFlags(row) == AlarmStore.ARMED) {
+                                armed++;
+                            }
+                        }
+                    }
+                    return armed;
+                }
+
+                protected void tearDown() throws InterruptedException {
+
+                    running = false;
+                    for (int x = 0; x < WRITERS; x++) {
+                        writers[x].join();
+                    }
+                    engine.shutdown();
+                }
+            }
+        };
+    }
+}
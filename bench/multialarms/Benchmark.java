@@ -0,0 +1,110 @@
+package multialarms;
+
+/*
+ * Title:        Benchmark
+ * Description:  One timed operation, run by BenchmarkRunner
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.ArrayList;
+
+/**
+ * A benchmark: set up once, then run() is called with ever larger batches
+ * until a batch fills a measurable slice of the iteration, and the batches
+ * are repeated to the end of the iteration. The score is the average time
+ * per operation. Anything else worth reporting (threads, bytes) can be
+ * recorded with record(), and goes in the results as a secondary metric.
+ *
+ * Benchmarks live in the multialarms package, so they can reach the
+ * package-private classes they measure.
+ */
+abstract class Benchmark {
+
+    /** Name in the results, as class.method in JMH */
+    private final String name;
+
+    /** Parameters, as "name=value" pairs - shown in the results */
+    private final String[] params;
+
+    /** Recorded metrics - names, units and values, in order */
+    private final ArrayList<String> metricNames  = new ArrayList<String>();
+    private final ArrayList<String> metricUnits  = new ArrayList<String>();
+    private final ArrayList<Double> metricValues = new ArrayList<Double>();
+
+    /** Keeps results live, so the JIT can't drop the work */
+    static volatile long sink;
+
+    Benchmark(String name, String[] params) {
+        this.name   = name;
+        this.params = params;
+    }
+
+    Benchmark(String name) {
+        this(name, new String[0]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getParams() {
+        return params;
+    }
+
+    /** Return the number of metrics recorded */
+    public int getMetricCount() {
+        return metricNames.size();
+    }
+
+    public String getMetricName(int index) {
+        return metricNames.get(index);
+    }
+
+    public String getMetricUnit(int index) {
+        return metricUnits.get(index);
+    }
+
+    public double getMetricValue(int index) {
+        return metricValues.get(index).doubleValue();
+    }
+
+    /** Record a measurement besides the time, replacing one of that name */
+    protected void record(String name, double value, String unit) {
+
+        int index = metricNames.indexOf(name);
+
+        if (index < 0) {
+            metricNames.add(name);
+            metricUnits.add(unit);
+            metricValues.add(Double.valueOf(value));
+        } else {
+            metricUnits.set(index, unit);
+            metricValues.set(index, Double.valueOf(value));
+        }
+    }
+
+    /** Prepare the state measured - not timed */
+    protected void setUp() throws Exception {}
+
+    /**
+     * Perform 'ops' operations. Return something derived from each result
+     * (it is added to sink).
+     */
+    protected abstract long run(int ops) throws Exception;
+
+    /** Release what setUp() made - not timed */
+    protected void tearDown() throws Exception {}
+
+    public String toString() {
+
+        StringBuffer text = new StringBuffer(name);
+
+        for (int x = 0; x < params.length; x++) {
+            text.append(x == 0 ? " (" : ", ").append(params[x]);
+        }
+
+        return params.length > 0 ? text.append(")").toString() : name;
+    }
+}
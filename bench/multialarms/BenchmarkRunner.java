@@ -0,0 +1,407 @@
+package multialarms;
+
+/*
+ * Title:        BenchmarkRunner
+ * Description:  Runs the benchmarks and writes their results as JSON
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Runs every benchmark (or those whose names contain one of the given
+ * words) and writes the results as JSON, in the layout JMH uses for
+ * -rf json, so the files can be compared between releases with the same
+ * tools:
+ *
+ *   java multialarms.BenchmarkRunner [-wi N] [-i N] [-t ms] [-o file] [word...]
+ *
+ *   -wi  warm-up iterations (default 3)
+ *   -i   measured iterations (default 5)
+ *   -t   length of each iteration in milliseconds (default 1000)
+ *   -o   results file (default bench-results.json)
+ *
+ * Run with -Djava.awt.headless=true; nothing here needs a display. Alarm
+ * logging (System.out) is discarded while benchmarks run.
+ */
+public class BenchmarkRunner {
+
+    /** Student's t for a 99.9% confidence interval, as JMH reports */
+    private static final int[]    T_DEGREES = { 1, 2, 3, 4, 5, 6, 7, 8, 9,
+                                                10, 15, 20, 30 };
+    private static final double[] T_VALUES  = { 636.62, 31.599, 12.924, 8.610,
+                                                6.869, 5.959, 5.408, 5.041,
+                                                4.781, 4.587, 4.073, 3.850,
+                                                3.646 };
+    private static final double   T_LIMIT   = 3.291;
+
+    private int    warmupIterations = 3;
+    private int    iterations       = 5;
+    private long   iterationMillis  = 1000;
+    private String resultFile       = "bench-results.json";
+
+    /** Words selecting benchmarks by name - empty for all */
+    private ArrayList<String> filters = new ArrayList<String>();
+
+    /** Progress goes here; System.out is swallowed while running */
+    private PrintStream progress = System.out;
+
+    /** Every benchmark, in the order run */
+    static Benchmark[] all() {
+
+        ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+
+        add(list, TimeFormatBench.benchmarks());
+        add(list, ProgressFormatBench.benchmarks());
+        add(list, AlarmCycleBench.benchmarks());
+        add(list, AlarmStateBench.benchmarks());
+        add(list, ProgressTickBench.benchmarks());
+        add(list, RendererBench.benchmarks());
+        add(list, FootprintBench.benchmarks());
+        add(list, FireActionBench.benchmarks());
+        add(list, GroupBench.benchmarks());
+        add(list, DeadlineIndexBench.benchmarks());
+        add(list, DescriptionFilterBench.benchmarks());
+
+        return list.toArray(new Benchmark[list.size()]);
+    }
+
+    private static void add(ArrayList<Benchmark> list, Benchmark[] benchmarks) {
+        for (int x = 0; x < benchmarks.length; x++) {
+            list.add(benchmarks[x]);
+        }
+    }
+
+    /** Main method */
+    public static void main(String[] args) throws Exception {
+
+        BenchmarkRunner runner = new BenchmarkRunner();
+
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-wi")) {
+                runner.warmupIterations = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-i")) {
+                runner.iterations = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-t")) {
+                runner.iterationMillis = Long.parseLong(args[++x]);
+            } else if (args[x].equals("-o")) {
+                runner.resultFile = args[++x];
+            } else {
+                runner.filters.add(args[x]);
+            }
+        }
+
+        runner.runAll();
+
+        // alarms and renderers leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    private void runAll() throws IOException {
+
+        Benchmark[]        benchmarks = all();
+        ArrayList<Result>  results    = new ArrayList<Result>();
+
+        System.setOut(new PrintStream(new OutputStream() {
+
+            public void write(int b) {}
+
+            public void write(byte[] b, int off, int len) {}
+        }));
+
+        for (int x = 0; x < benchmarks.length; x++) {
+            if (selected(benchmarks[x].getName())) {
+                try {
+                    results.add(run(benchmarks[x]));
+                } catch (Exception ex) {
+                    progress.println("BenchmarkRunner - " + benchmarks[x]
+                                     + " failed: " + ex);
+                }
+            }
+        }
+
+        System.setOut(progress);
+
+        writeJSON(results, new File(resultFile));
+        progress.println("results written to " + resultFile);
+    }
+
+    private boolean selected(String name) {
+
+        if (filters.isEmpty()) {
+            return true;
+        }
+
+        for (int x = 0; x < filters.size(); x++) {
+            if (name.indexOf(filters.get(x)) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** Warm up, then measure, one benchmark */
+    private Result run(Benchmark benchmark) throws Exception {
+
+        progress.println("# " + benchmark);
+
+        benchmark.setUp();
+
+        try {
+            int batch = calibrate(benchmark);
+
+            for (int x = 0; x < warmupIterations; x++) {
+                double score = iteration(benchmark, batch);
+                progress.println(format("  warm-up %d: %.3f ns/op", x + 1,
+                                        score));
+            }
+
+            double[] scores = new double[iterations];
+
+            for (int x = 0; x < iterations; x++) {
+                scores[x] = iteration(benchmark, batch);
+                progress.println(format("  iteration %d: %.3f ns/op", x + 1,
+                                        scores[x]));
+            }
+
+            Result result = new Result(benchmark, scores);
+            progress.println(format("  %.3f +- %.3f ns/op", result.score,
+                                    result.error));
+
+            for (int x = 0; x < benchmark.getMetricCount(); x++) {
+                progress.println(format("  %s: %.3f %s",
+                                        benchmark.getMetricName(x),
+                                        benchmark.getMetricValue(x),
+                                        benchmark.getMetricUnit(x)));
+            }
+
+            return result;
+
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Find a batch size that takes at least a tenth of an iteration, so the
+     * clock is read rarely enough not to matter
+     */
+    private int calibrate(Benchmark benchmark) throws Exception {
+
+        long target = iterationMillis * 1000000L / 10;
+        int  batch  = 1;
+
+        while (batch < (1 << 30)) {
+            long start = System.nanoTime();
+            Benchmark.sink += benchmark.run(batch);
+            if (System.nanoTime() - start >= target) {
+                break;
+            }
+            batch *= 2;
+        }
+
+        return batch;
+    }
+
+    /** Run batches for one iteration; return nanoseconds per operation */
+    private double iteration(Benchmark benchmark, int batch) throws Exception {
+
+        long start = System.nanoTime();
+        long end   = start + iterationMillis * 1000000L;
+        long ops   = 0;
+        long now;
+
+        do {
+            Benchmark.sink += benchmark.run(batch);
+            ops += batch;
+            now  = System.nanoTime();
+        } while (now < end);
+
+        return (double) (now - start) / ops;
+    }
+
+    // -------------------------------------------------------------------------
+    // RESULTS
+    //--------------------------------------------------------------------------
+
+    private void writeJSON(ArrayList<Result> results, File file)
+            throws IOException {
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+            new FileOutputStream(file), "UTF-8"));
+
+        try {
+            out.println("[");
+
+            for (int x = 0; x < results.size(); x++) {
+                Result      result    = results.get(x);
+                Benchmark   benchmark = result.benchmark;
+                String[]    params    = benchmark.getParams();
+
+                out.println("    {");
+                out.println("        \"benchmark\" : " + quote(
+                    "multialarms." + benchmark.getName()) + ",");
+                out.println("        \"mode\" : \"avgt\",");
+                out.println("        \"threads\" : 1,");
+                out.println("        \"forks\" : 0,");
+                out.println("        \"jdkVersion\" : " + quote(
+                    System.getProperty("java.version")) + ",");
+                out.println("        \"vmName\" : " + quote(
+                    System.getProperty("java.vm.name")) + ",");
+                out.println("        \"vmVersion\" : " + quote(
+                    System.getProperty("java.vm.version")) + ",");
+                out.println("        \"warmupIterations\" : "
+                            + warmupIterations + ",");
+                out.println("        \"warmupTime\" : \"" + iterationMillis
+                            + " ms\",");
+                out.println("        \"measurementIterations\" : "
+                            + iterations + ",");
+                out.println("        \"measurementTime\" : \"" + iterationMillis
+                            + " ms\",");
+
+                out.print("        \"params\" : {");
+                for (int p = 0; p < params.length; p++) {
+                    int equals = params[p].indexOf('=');
+                    out.print((p == 0 ? " " : ", ")
+                              + quote(params[p].substring(0, equals)) + " : "
+                              + quote(params[p].substring(equals + 1)));
+                }
+                out.println(params.length > 0 ? " }," : "},");
+
+                out.println("        \"primaryMetric\" : {");
+                out.println("            \"score\" : " + number(result.score)
+                            + ",");
+                out.println("            \"scoreError\" : "
+                            + number(result.error) + ",");
+                out.println("            \"scoreConfidence\" : [ "
+                            + number(result.score - result.error) + ", "
+                            + number(result.score + result.error) + " ],");
+                out.println("            \"scoreUnit\" : \"ns/op\",");
+                out.print("            \"rawData\" : [ [ ");
+                for (int s = 0; s < result.scores.length; s++) {
+                    out.print((s == 0 ? "" : ", ") + number(result.scores[s]));
+                }
+                out.println(" ] ]");
+                out.println("        },");
+                writeMetrics(out, benchmark);
+                out.println(x < results.size() - 1 ? "    }," : "    }");
+            }
+
+            out.println("]");
+
+        } finally {
+            out.close();
+        }
+    }
+
+    /** The benchmark's recorded metrics, each measured once */
+    private static void writeMetrics(PrintWriter out, Benchmark benchmark) {
+
+        int count = benchmark.getMetricCount();
+
+        if (count == 0) {
+            out.println("        \"secondaryMetrics\" : {}");
+            return;
+        }
+
+        out.println("        \"secondaryMetrics\" : {");
+
+        for (int x = 0; x < count; x++) {
+            String value = number(benchmark.getMetricValue(x));
+
+            out.println("            " + quote(benchmark.getMetricName(x))
+                        + " : {");
+            out.println("                \"score\" : " + value + ",");
+            out.println("                \"scoreError\" : \"NaN\",");
+            out.println("                \"scoreConfidence\" : [ " + value
+                        + ", " + value + " ],");
+            out.println("                \"scoreUnit\" : "
+                        + quote(benchmark.getMetricUnit(x)) + ",");
+            out.println("                \"rawData\" : [ [ " + value
+                        + " ] ]");
+            out.println(x < count - 1 ? "            }," : "            }");
+        }
+
+        out.println("        }");
+    }
+
+    private static String quote(String s) {
+
+        StringBuffer text = new StringBuffer("\"");
+
+        for (int x = 0; x < s.length(); x++) {
+            char c = s.charAt(x);
+            if (c == '"' || c == '\\') {
+                text.append('\\').append(c);
+            } else if (c < ' ') {
+                text.append(format("\\u%04x", (int) c));
+            } else {
+                text.append(c);
+            }
+        }
+
+        return text.append('"').toString();
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : format("%.6f", value);
+    }
+
+    /** Format with '.' decimals whatever the default locale */
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.ROOT, pattern, args);
+    }
+
+    /** One benchmark's scores, with their mean and 99.9% error */
+    private static final class Result {
+
+        final Benchmark benchmark;
+        final double[]  scores;
+        final double    score;
+        final double    error;
+
+        Result(Benchmark benchmark, double[] scores) {
+
+            this.benchmark = benchmark;
+            this.scores    = scores;
+
+            double sum = 0;
+            for (int x = 0; x < scores.length; x++) {
+                sum += scores[x];
+            }
+            score = sum / scores.length;
+
+            if (scores.length < 2) {
+                error = Double.NaN;
+                return;
+            }
+
+            double squares = 0;
+            for (int x = 0; x < scores.length; x++) {
+                squares += (scores[x] - score) * (scores[x] - score);
+            }
+            double deviation = Math.sqrt(squares / (scores.length - 1));
+
+            double t = T_LIMIT;
+            for (int x = T_DEGREES.length - 1; x >= 0; x--) {
+                if (T_DEGREES[x] <= scores.length - 1) {
+                    t = scores.length - 1 > 30 ? T_LIMIT : T_VALUES[x];
+                    break;
+                }
+            }
+
+            error = t * deviation / Math.sqrt(scores.length);
+        }
+    }
+}
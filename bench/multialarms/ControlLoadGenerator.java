@@ -0,0 +1,369 @@
+package multialarms;
+
+/*
+ * Title:        ControlLoadGenerator
+ * Description:  Drives the control port from many connections at once
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Opens many connections to a ControlServer and keeps a fixed number of
+ * commands in flight on each, then reports the commands per second and
+ * the response latency percentiles:
+ *
+ *   java multialarms.ControlLoadGenerator [-c N] [-p N] [-a N] [-w s] [-d s]
+ *                                         [-port N]
+ *
+ *   -c     connections (default 2000)
+ *   -p     commands in flight per connection (default 4)
+ *   -a     alarms the commands are spread over (default 10000)
+ *   -w     warm-up seconds, not measured (default 3)
+ *   -d     measured seconds (default 10)
+ *   -port  drive a running MultiAlarms (-Dmultialarms.control.port) rather
+ *          than a server started here - it is given 'a' new alarms
+ *
+ * The server started here applies its batches on the event dispatch
+ * thread, as the program does (headless, with no table listening). The
+ * commands are a mix of GET, ARM, DISARM, DESC and TIME on random alarms,
+ * all set for a day ahead so none goes off.
+ */
+public class ControlLoadGenerator {
+
+    private int  connectionCount = 2000;
+    private int  depth           = 4;
+    private int  alarms          = 10000;
+    private long warmupMillis    = 3000;
+    private long runMillis       = 10000;
+    private int  port            = -1;
+
+    /** Alarm numbers the commands address */
+    private int[] numbers;
+
+    private Random random = new Random(42);
+
+    /** Response latency, reset after the warm-up */
+    private LatencyHistogram latency = new LatencyHistogram("response");
+
+    private long errors;
+
+    /** Main method */
+    public static void main(String[] args) throws Exception {
+
+        ControlLoadGenerator generator = new ControlLoadGenerator();
+
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-c")) {
+                generator.connectionCount = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-p")) {
+                generator.depth = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-a")) {
+                generator.alarms = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-w")) {
+                generator.warmupMillis = Long.parseLong(args[++x]) * 1000;
+            } else if (args[x].equals("-d")) {
+                generator.runMillis = Long.parseLong(args[++x]) * 1000;
+            } else if (args[x].equals("-port")) {
+                generator.port = Integer.parseInt(args[++x]);
+            } else {
+                System.err.println("unknown option " + args[x]);
+                System.exit(1);
+            }
+        }
+
+        generator.run();
+
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+
+        PrintStream   report = System.out;
+        ControlServer server = null;
+
+        // alarm logging would swamp the report
+        System.setOut(new PrintStream(new OutputStream() {
+
+            public void write(int b) {}
+
+            public void write(byte[] b, int off, int len) {}
+        }));
+
+        if (port < 0) {
+            server = startServer();
+            port   = server.getAddress().getPort();
+        } else {
+            numbers = addAlarms();
+        }
+
+        report.println("# " + connectionCount + " connections, " + depth
+                       + " in flight each, " + alarms + " alarms, port "
+                       + port);
+
+        Client[] clients  = new Client[connectionCount];
+        Selector selector = Selector.open();
+
+        for (int x = 0; x < connectionCount; x++) {
+            clients[x] = new Client(connect());
+            clients[x].key = clients[x].channel.register(
+                selector, SelectionKey.OP_READ, clients[x]);
+        }
+
+        long start   = System.nanoTime();
+        long measure = start + warmupMillis * 1000000L;
+        long end     = measure + runMillis * 1000000L;
+
+        long commandsAtMeasure = 0;
+        long batchesAtMeasure  = 0;
+        long completed         = 0;
+        boolean measuring      = false;
+
+        for (int x = 0; x < connectionCount; x++) {
+            clients[x].fill();
+        }
+
+        while (true) {
+            long now = System.nanoTime();
+
+            if (!measuring && now >= measure) {
+                measuring         = true;
+                commandsAtMeasure = completed;
+                batchesAtMeasure  = server != null ? server.getBatches() : 0;
+                latency.reset();
+                errors = 0;
+            }
+            if (now >= end) {
+                break;
+            }
+
+            selector.select(100);
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                Client client = (Client) key.attachment();
+                if (key.isReadable()) {
+                    completed += client.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    client.write();
+                }
+            }
+        }
+
+        double seconds  = runMillis / 1000.0;
+        long   commands = completed - commandsAtMeasure;
+
+        report.println(format("%.0f commands/s, %d errors", commands / seconds,
+                              errors));
+        report.println(format("latency p50 %s  p99 %s  p99.9 %s  max %s",
+                              LatencyHistogram.duration(latency.getPercentile(50)),
+                              LatencyHistogram.duration(latency.getPercentile(99)),
+                              LatencyHistogram.duration(latency.getPercentile(99.9)),
+                              LatencyHistogram.duration(latency.getMax())));
+
+        if (server != null) {
+            long batches = server.getBatches() - batchesAtMeasure;
+            report.println(format("%.0f batches/s, %.1f commands per batch",
+                                  batches / seconds,
+                                  batches == 0 ? 0.0
+                                               : (double) commands / batches));
+        }
+    }
+
+    /** Start a server over a new engine, with 'alarms' alarms */
+    private ControlServer startServer() throws IOException {
+
+        AlarmEngine engine   = new AlarmEngine(null);
+        long        tomorrow = System.currentTimeMillis() + 24 * 60 * 60 * 1000L;
+
+        numbers = new int[alarms];
+        for (int x = 0; x < alarms; x++) {
+            engine.create();
+            engine.getStore().setGoOffTime(x, tomorrow, "");
+            numbers[x] = engine.getStore().getAlarmNum(x).intValue();
+        }
+
+        ControlServer server = new ControlServer(engine, 0, new Executor() {
+
+            public void execute(Runnable batch) {
+                SwingUtilities.invokeLater(batch);
+            }
+        }, null);
+        server.start();
+
+        return server;
+    }
+
+    /** Add the alarms to a running program, returning their numbers */
+    private int[] addAlarms() throws IOException {
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), port));
+        StringBuilder request = new StringBuilder();
+
+        for (int x = 0; x < alarms; x++) {
+            request.append("ADD\t+24h\tload ").append(x).append('\n');
+        }
+        channel.write(ByteBuffer.wrap(request.toString().getBytes("UTF-8")));
+
+        int[]      added  = new int[alarms];
+        int        count  = 0;
+        int        value  = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        while (count < alarms && channel.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                } else if (b == '\n') {
+                    added[count++] = value;
+                    value = 0;
+                }
+            }
+            buffer.clear();
+        }
+
+        channel.close();
+        return added;
+    }
+
+    private SocketChannel connect() throws IOException {
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), port));
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        return channel;
+    }
+
+    /** The next command, on a random alarm */
+    private String command() {
+
+        int num  = numbers[random.nextInt(numbers.length)];
+        int kind = random.nextInt(10);
+
+        if (kind < 4) {
+            return "GET\t" + num + "\n";
+        }
+        if (kind < 6) {
+            return "ARM\t" + num + "\n";
+        }
+        if (kind < 8) {
+            return "DISARM\t" + num + "\n";
+        }
+        if (kind < 9) {
+            return "DESC\t" + num + "\tload " + random.nextInt(100) + "\n";
+        }
+        return "TIME\t" + num + "\t+24h\n";
+    }
+
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.ROOT, pattern, args);
+    }
+
+    /** One connection, keeping 'depth' commands in flight */
+    private class Client {
+
+        final SocketChannel channel;
+        SelectionKey        key;
+
+        /** Send times of the commands in flight, oldest first */
+        final long[] sent  = new long[depth];
+        int          first;
+        int          inFlight;
+
+        ByteBuffer out = ByteBuffer.allocate(0);
+        ByteBuffer in  = ByteBuffer.allocate(8 * 1024);
+
+        /** The reply line being read starts with 'E' (ERR) */
+        boolean lineStart = true;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Send commands until 'depth' are in flight */
+        void fill() throws IOException {
+
+            StringBuilder commands = new StringBuilder();
+            long          now      = System.nanoTime();
+
+            while (inFlight < depth) {
+                commands.append(command());
+                sent[(first + inFlight++) % depth] = now;
+            }
+
+            byte[]     bytes  = commands.toString().getBytes("UTF-8");
+            ByteBuffer joined = ByteBuffer.allocate(out.remaining()
+                                                    + bytes.length);
+            joined.put(out).put(bytes).flip();
+            out = joined;
+
+            write();
+        }
+
+        void write() throws IOException {
+
+            channel.write(out);
+            key.interestOps(out.hasRemaining()
+                            ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                            : SelectionKey.OP_READ);
+        }
+
+        /** Read replies, returning how many were completed */
+        int read() throws IOException {
+
+            in.clear();
+            if (channel.read(in) < 0) {
+                throw new IOException("server closed the connection");
+            }
+            in.flip();
+
+            long now     = System.nanoTime();
+            int  replies = 0;
+
+            while (in.hasRemaining()) {
+                byte b = in.get();
+                if (lineStart && b == 'E') {
+                    errors++;
+                }
+                lineStart = b == '\n';
+                if (lineStart) {
+                    latency.record((now - sent[first]) / 1000);
+                    first = (first + 1) % depth;
+                    inFlight--;
+                    replies++;
+                }
+            }
+
+            if (replies > 0) {
+                fill();
+            }
+
+            return replies;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package multialarms;
+
+/*
+ * Title:        DeadlineIndexBench
+ * Description:  Keeping the alarms in the order they are due
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ALARMS armed alarms at random times over the next day, with no journal.
+ * One operation is:
+ *
+ *   retime - one alarm given a new go-off time, moving it in the index
+ *   page   - the alarms of one screenful (PAGE rows) read at a random
+ *            position, as the table does when listing soonest first
+ *   resort - sorting every go-off time, which is what re-sorting the
+ *            table on each progress tick would cost (for comparison)
+ */
+class DeadlineIndexBench {
+
+    private static final int ALARMS = 100000;
+
+    private static final int PAGE = 30;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("DeadlineIndexBench.retime",
+                          new String[] { "alarms=" + ALARMS }) {
+
+                private AlarmStore store;
+                private Random     random = new Random(42);
+
+                protected void setUp() {
+                    store = createStore();
+                }
+
+                protected long run(int ops) {
+                    long now = System.currentTimeMillis();
+                    for (int x = 0; x < ops; x++) {
+                        store.setGoOffTime(random.nextInt(ALARMS),
+                                           now + (long) (random.nextDouble() * DAY),
+                                           "");
+                    }
+                    return store.getDeadlines().size();
+                }
+            },
+
+            new Benchmark("DeadlineIndexBench.page",
+                          new String[] { "alarms=" + ALARMS, "rows=" + PAGE }) {
+
+                private DeadlineIndex deadlines;
+                private Random        random = new Random(42);
+
+                protected void setUp() {
+                    deadlines = createStore().getDeadlines();
+                }
+
+                protected long run(int ops) {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        int first = random.nextInt(ALARMS - PAGE);
+                        for (int row = first; row < first + PAGE; row++) {
+                            sum += deadlines.get(row).num;
+                        }
+                    }
+                    return sum;
+                }
+            },
+
+            new Benchmark("DeadlineIndexBench.resort",
+                          new String[] { "alarms=" + ALARMS }) {
+
+                private AlarmStore store;
+                private long[]     times = new long[ALARMS];
+
+                protected void setUp() {
+                    store = createStore();
+                }
+
+                protected long run(int ops) {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        for (int row = 0; row < ALARMS; row++) {
+                            times[row] = store.getGoOffTime(row);
+                        }
+                        Arrays.sort(times);
+                        sum += times[0];
+                    }
+                    return sum;
+                }
+            }
+        };
+    }
+
+    /** A store of ALARMS alarms, armed at random times over the next day */
+    private static AlarmStore createStore() {
+
+        AlarmStore store  = new AlarmStore();
+        Random     random = new Random(1);
+        long       now    = System.currentTimeMillis();
+
+        for (int x = 0; x < ALARMS; x++) {
+            store.add();
+            store.setGoOffTime(x, now + (long) (random.nextDouble() * DAY), "");
+            store.setFlags(x, AlarmStore.ARMED);
+        }
+
+        return store;
+    }
+}
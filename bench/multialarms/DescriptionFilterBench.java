@@ -0,0 +1,96 @@
+package multialarms;
+
+/*
+ * Title:        DescriptionFilterBench
+ * Description:  Filtering a very large table by description, as typed
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * ALARMS alarms described as "screen 7 show 23 reel 4", with no journal.
+ * One operation is one keystroke of typing QUERY into the filter box, in
+ * turn - from "s", which matches every alarm, to the whole text:
+ *
+ *   index - AlarmTableModel.setFilter(), through the DescriptionIndex
+ *   scan  - testing every description in turn, as a RowFilter would (for
+ *           comparison)
+ */
+class DescriptionFilterBench {
+
+    private static final int ALARMS = 100000;
+
+    private static final String QUERY = "show 23 reel 4";
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("DescriptionFilterBench.index", new String[] {
+                "alarms=" + ALARMS, "query=" + QUERY
+            }) {
+
+                private AlarmTableModel model;
+                private int             typed;
+
+                protected void setUp() {
+                    model = new AlarmTableModel(createEngine());
+                    model.stopTimers();
+                }
+
+                protected long run(int ops) {
+                    long rows = 0;
+                    for (int x = 0; x < ops; x++) {
+                        typed = typed % QUERY.length() + 1;
+                        model.setFilter(QUERY.substring(0, typed));
+                        rows += model.getRowCount();
+                    }
+                    return rows;
+                }
+            },
+
+            new Benchmark("DescriptionFilterBench.scan", new String[] {
+                "alarms=" + ALARMS, "query=" + QUERY
+            }) {
+
+                private AlarmStore store;
+                private int        typed;
+
+                protected void setUp() {
+                    store = createEngine().getStore();
+                }
+
+                protected long run(int ops) {
+                    long rows = 0;
+                    for (int x = 0; x < ops; x++) {
+                        typed = typed % QUERY.length() + 1;
+                        String text = QUERY.substring(0, typed).toLowerCase();
+                        for (int row = 0; row < store.size(); row++) {
+                            if (store.getDescription(row).toLowerCase()
+                                     .contains(text)) {
+                                rows++;
+                            }
+                        }
+                    }
+                    return rows;
+                }
+            }
+        };
+    }
+
+    private static AlarmEngine createEngine() {
+
+        AlarmEngine engine = new AlarmEngine(null);
+        AlarmStore  store  = engine.getStore();
+
+        for (int x = 0; x < ALARMS; x++) {
+            engine.create();
+            store.setDescription(x, "screen " + (x % 12 + 1) + " show "
+                                    + (x / 12 % 40 + 1) + " reel "
+                                    + (x % 6 + 1));
+        }
+
+        return engine;
+    }
+}
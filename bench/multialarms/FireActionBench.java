@@ -0,0 +1,88 @@
+package multialarms;
+
+/*
+ * Title:        FireActionBench
+ * Description:  Many alarms going off at once, each with a slow action
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A burst of ALARMS alarms all due at the same moment, each with a fire
+ * action that blocks for ACTION_MILLIS. One operation is a whole burst:
+ * from switching the alarms on until every one has gone off and every
+ * action has finished. Going off doesn't wait for the actions, so the
+ * score is close to ALARMS * ACTION_MILLIS / ActionDispatcher.THREADS.
+ */
+class FireActionBench {
+
+    private static final int ALARMS = 10000;
+
+    private static final long ACTION_MILLIS = 1;
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("FireActionBench.burst", new String[] {
+                "alarms=" + ALARMS,
+                "action=" + ACTION_MILLIS + "ms",
+                "threads=" + ActionDispatcher.THREADS
+            }) {
+
+                private AlarmEngine engine;
+                private Semaphore   goneOff = new Semaphore(0);
+                private Semaphore   acted   = new Semaphore(0);
+
+                protected void setUp() {
+
+                    engine = new AlarmEngine(null);
+                    engine.addAlarmListener(new AlarmListener() {
+
+                        public void alarmGoneOff(Alarm alarm) {
+                            goneOff.release();
+                        }
+                    });
+
+                    FireAction action = new FireAction() {
+
+                        public void fire(Alarm alarm) throws Exception {
+                            try {
+                                Thread.sleep(ACTION_MILLIS);
+                            } finally {
+                                acted.release();
+                            }
+                        }
+                    };
+
+                    for (int x = 0; x < ALARMS; x++) {
+                        engine.create().addAction(action);
+                    }
+                }
+
+                protected long run(int ops) throws InterruptedException {
+                    for (int op = 0; op < ops; op++) {
+                        long now = System.currentTimeMillis();
+                        for (int x = 0; x < ALARMS; x++) {
+                            engine.getStore().setGoOffTime(x, now, "");
+                            engine.arm(x);
+                        }
+                        goneOff.acquire(ALARMS);
+                        acted.acquire(ALARMS);
+                        for (int x = 0; x < ALARMS; x++) {
+                            engine.cancel(x);
+                        }
+                    }
+                    return ActionDispatcher.getInstance().getCompleted();
+                }
+
+                protected void tearDown() {
+                    engine.shutdown();
+                }
+            }
+        };
+    }
+}
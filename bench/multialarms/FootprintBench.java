@@ -0,0 +1,100 @@
+package multialarms;
+
+/*
+ * Title:        FootprintBench
+ * Description:  Heap kept per alarm row, and setting up a progress cell
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.awt.Component;
+
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * ALARMS counting-down alarms with their table model and table, as the
+ * program has them. Setting them up records the heap they keep, per row
+ * (bytesPerAlarm): the used heap after a full collection, with and
+ * without them. One operation is the progress column's shared renderer
+ * set up for the next row, as painting a cell does.
+ */
+class FootprintBench {
+
+    private static final int ALARMS = 10000;
+
+    /** Some go off in over a month, more milliseconds than an int holds */
+    private static final long MONTH = 31 * 24 * 60 * 60 * 1000L;
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("FootprintBench.progressCell",
+                          new String[] { "alarms=" + ALARMS }) {
+
+                private AlarmTableModel   model;
+                private AlarmTable        table;
+                private TableCellRenderer renderer;
+                private int               next;
+
+                protected void setUp() {
+
+                    long before = usedHeap();
+
+                    AlarmEngine engine = new AlarmEngine(null);
+                    AlarmStore  store  = engine.getStore();
+                    long        now    = System.currentTimeMillis();
+
+                    for (int x = 0; x < ALARMS; x++) {
+                        long time = now + MONTH * x / ALARMS + 60000;
+                        engine.create();
+                        store.setGoOffTime(x, time, AlarmTime.format(time, now));
+                        store.setStartTime(x, now);
+                        store.setFlag(x, AlarmStore.ACTIVE, true);
+                    }
+
+                    // the benchmark sets up the cells itself
+                    model = new AlarmTableModel(engine);
+                    model.stopTimers();
+                    table = new AlarmTable(model);
+
+                    record("bytesPerAlarm",
+                           (double) (usedHeap() - before) / ALARMS, "B");
+
+                    renderer = table.getCellRenderer(0, AlarmTableModel.PROGRESS);
+                }
+
+                protected long run(int ops) {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        Component bar = renderer.getTableCellRendererComponent(
+                            table, null, false, false, next++ % ALARMS,
+                            AlarmTableModel.PROGRESS);
+                        sum += bar.getWidth();
+                    }
+                    return sum + next;
+                }
+            }
+        };
+    }
+
+    /** Bytes of heap in use once garbage has been collected */
+    private static long usedHeap() {
+
+        Runtime runtime = Runtime.getRuntime();
+        long    used    = Long.MAX_VALUE;
+
+        // a few times, until collecting frees nothing more
+        for (int x = 0; x < 10; x++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+
+        return used;
+    }
+}
@@ -0,0 +1,95 @@
+package multialarms;
+
+/*
+ * Title:        GroupBench
+ * Description:  Shifting, arming and disarming a whole group of alarms
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * One group of ALARMS alarms, set a second apart from tomorrow, with no
+ * journal. One operation is a whole group:
+ *
+ *   shift     - move every alarm (all counting down) a minute later, then
+ *               a minute earlier on the next operation
+ *   armDisarm - switch the whole group on, then off again
+ */
+class GroupBench {
+
+    private static final int ALARMS = 10000;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static final String GROUP = "screen 1";
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("GroupBench.shift",
+                          new String[] { "alarms=" + ALARMS }) {
+
+                private AlarmEngine engine;
+                private long        minutes = 1;
+
+                protected void setUp() {
+                    engine = createGroup();
+                    engine.armGroup(GROUP);
+                }
+
+                protected long run(int ops) {
+                    long moved = 0;
+                    for (int x = 0; x < ops; x++) {
+                        moved  += engine.shiftGroup(GROUP, minutes * 60000L);
+                        minutes = -minutes;
+                    }
+                    return moved;
+                }
+
+                protected void tearDown() {
+                    engine.shutdown();
+                }
+            },
+
+            new Benchmark("GroupBench.armDisarm",
+                          new String[] { "alarms=" + ALARMS }) {
+
+                private AlarmEngine engine;
+
+                protected void setUp() {
+                    engine = createGroup();
+                }
+
+                protected long run(int ops) {
+                    long changed = 0;
+                    for (int x = 0; x < ops; x++) {
+                        changed += engine.armGroup(GROUP);
+                        changed += engine.disarmGroup(GROUP);
+                    }
+                    return changed;
+                }
+
+                protected void tearDown() {
+                    engine.shutdown();
+                }
+            }
+        };
+    }
+
+    /** An engine holding one group of ALARMS alarms, all switched off */
+    private static AlarmEngine createGroup() {
+
+        AlarmEngine engine   = new AlarmEngine(null);
+        long        tomorrow = System.currentTimeMillis() + DAY;
+
+        for (int x = 0; x < ALARMS; x++) {
+            engine.create();
+            engine.getStore().setGoOffTime(x, tomorrow + x * 1000L, "");
+            engine.setGroup(x, GROUP);
+        }
+
+        return engine;
+    }
+}
@@ -0,0 +1,39 @@
+package multialarms;
+
+/*
+ * Title:        ProgressFormatBench
+ * Description:  The progress column's countdown text
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * Alarm.formatTimeLeft(), which the progress renderer calls for every
+ * active row it paints (it replaced the String building of the old
+ * updateProgressBar()).
+ */
+class ProgressFormatBench {
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("ProgressFormatBench.formatTimeLeft") {
+
+                private char[] timeToGo = new char[32];
+
+                protected long run(int ops) {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        // seconds to a day and a bit, so hours come and go
+                        long timeLeft = (x * 7919L) % (26 * 60 * 60) * 1000;
+                        sum += Alarm.formatTimeLeft(timeLeft, timeToGo)
+                               + timeToGo[0];
+                    }
+                    return sum;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package multialarms;
+
+/*
+ * Title:        ProgressTickBench
+ * Description:  The table model's progress tick over many alarms
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+/**
+ * AlarmTableModel.updateProgress() with every row switched on, for a
+ * screenful of visible rows and for all rows visible. A listener counts
+ * the repaint events in place of the JTable.
+ */
+class ProgressTickBench {
+
+    /** Rows on screen in the default window */
+    private static final int SCREEN_ROWS = 25;
+
+    static Benchmark[] benchmarks() {
+
+        int[]     sizes = { 100, 10000 };
+        Benchmark[] benchmarks = new Benchmark[sizes.length * 2];
+
+        for (int x = 0; x < sizes.length; x++) {
+            benchmarks[x * 2]     = tick(sizes[x], SCREEN_ROWS);
+            benchmarks[x * 2 + 1] = tick(sizes[x], Integer.MAX_VALUE);
+        }
+
+        return benchmarks;
+    }
+
+    private static Benchmark tick(final int alarms, final int visible) {
+
+        return new Benchmark("ProgressTickBench.updateProgress", new String[] {
+            "alarms=" + alarms,
+            "visible=" + (visible == Integer.MAX_VALUE ? "all" : "" + visible)
+        }) {
+
+            private AlarmTableModel model;
+            private long            events;
+
+            protected void setUp() {
+
+                AlarmEngine engine = new AlarmEngine(null);
+                AlarmStore  store  = engine.getStore();
+
+                for (int x = 0; x < alarms; x++) {
+                    engine.create();
+                    store.setFlag(x, AlarmStore.ACTIVE, true);
+                }
+
+                // the benchmark drives the tick itself
+                model = new AlarmTableModel(engine);
+                model.stopTimers();
+                model.setVisibleRows(0, visible == Integer.MAX_VALUE
+                                        ? visible : visible - 1);
+                model.addTableModelListener(new TableModelListener() {
+
+                    public void tableChanged(TableModelEvent e) {
+                        events++;
+                    }
+                });
+            }
+
+            protected long run(int ops) {
+                for (int x = 0; x < ops; x++) {
+                    model.updateProgress();
+                }
+                return events;
+            }
+        };
+    }
+}
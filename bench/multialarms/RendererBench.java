@@ -0,0 +1,106 @@
+package multialarms;
+
+/*
+ * Title:        RendererBench
+ * Description:  Offscreen painting of the alarm table
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import javax.swing.UIManager;
+
+import com.incors.plaf.kunststoff.KunststoffLookAndFeel;
+import com.incors.plaf.kunststoff.KunststoffTheme;
+
+/**
+ * Paints a screenful of the alarm table (with the look and feel the
+ * program uses) into an image, as a repaint of the window would:
+ *
+ *   paint         - every column of the visible rows
+ *   paintProgress - only the progress column, as the progress tick does
+ *
+ * A third of the rows are switched off, a third counting down and a third
+ * ringing, so each renderer takes all its paths.
+ */
+class RendererBench {
+
+    private static final int ALARMS      = 200;
+    private static final int SCREEN_ROWS = 25;
+    private static final int WIDTH       = 490;
+
+    static Benchmark[] benchmarks() {
+        return new Benchmark[] { paint(false), paint(true) };
+    }
+
+    private static Benchmark paint(final boolean progressOnly) {
+
+        return new Benchmark(progressOnly ? "RendererBench.paintProgress"
+                                          : "RendererBench.paint",
+                             new String[] { "alarms=" + ALARMS,
+                                            "rows=" + SCREEN_ROWS }) {
+
+            private AlarmTableModel model;
+            private AlarmTable      table;
+            private BufferedImage   image;
+            private Graphics2D      graphics;
+            private Rectangle       clip;
+
+            protected void setUp() throws Exception {
+
+                KunststoffLookAndFeel.setCurrentTheme(new KunststoffTheme());
+                UIManager.setLookAndFeel(new KunststoffLookAndFeel());
+
+                AlarmEngine engine = new AlarmEngine(null);
+                AlarmStore  store  = engine.getStore();
+                long        now    = System.currentTimeMillis();
+
+                for (int x = 0; x < ALARMS; x++) {
+                    engine.create();
+                    store.setStartTime(x, now - 60000);
+                    store.setGoOffTime(x, now + x * 61000L,
+                                       AlarmTime.format(now + x * 61000L, now));
+                    store.setFlag(x, AlarmStore.ACTIVE, x % 3 != 0);
+                    store.setFlag(x, AlarmStore.GONE_OFF, x % 3 == 2);
+                }
+
+                // the benchmark paints when it chooses
+                model = new AlarmTableModel(engine);
+                model.stopTimers();
+
+                table = new AlarmTable(model);
+                table.setSize(WIDTH, ALARMS * table.getRowHeight());
+                table.doLayout();
+
+                image    = new BufferedImage(WIDTH,
+                                             SCREEN_ROWS * table.getRowHeight(),
+                                             BufferedImage.TYPE_INT_RGB);
+                graphics = image.createGraphics();
+
+                clip = new Rectangle(0, 0, WIDTH, image.getHeight());
+                if (progressOnly) {
+                    Rectangle column = table.getCellRect(
+                        0, AlarmTableModel.PROGRESS, true);
+                    clip.x     = column.x;
+                    clip.width = column.width;
+                }
+            }
+
+            protected long run(int ops) {
+                for (int x = 0; x < ops; x++) {
+                    graphics.setClip(clip);
+                    table.paint(graphics);
+                }
+                return image.getRGB(WIDTH / 2, image.getHeight() / 2);
+            }
+
+            protected void tearDown() {
+                graphics.dispose();
+            }
+        };
+    }
+}
@@ -0,0 +1,196 @@
+package multialarms;
+
+/*
+ * Title:        StartupBench
+ * Description:  Times starting the program, from launch to a usable window
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Starts MultiAlarms over and over in a new JVM, each time until it is
+ * interactive (see Startup), and reports the time to the first frame and
+ * to interactive:
+ *
+ *   java multialarms.StartupBench [-n N] [-jar file] [-cds file] [-a N]
+ *
+ *   -n    starts per configuration (default 10), after one not counted
+ *   -jar  start the jar rather than this classpath
+ *   -cds  also start with this class-data-sharing archive, to compare
+ *         (see the cds target in build.xml - it needs the same jar)
+ *   -a    alarms in the journal it starts with (default 0)
+ *
+ * The starts share a scratch home directory, so they read the journal
+ * written there before the first one (plus the alarms a program adds to
+ * an empty one), never the user's. It needs a display.
+ */
+public class StartupBench {
+
+    private int  starts = 10;
+    private File jar;
+    private File archive;
+    private int  alarms;
+
+    /** Home directory the started programs keep their journal in */
+    private File home;
+
+    /** Main method */
+    public static void main(String[] args) throws Exception {
+
+        StartupBench bench = new StartupBench();
+
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-n")) {
+                bench.starts = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-jar")) {
+                bench.jar = new File(args[++x]);
+            } else if (args[x].equals("-cds")) {
+                bench.archive = new File(args[++x]);
+            } else if (args[x].equals("-a")) {
+                bench.alarms = Integer.parseInt(args[++x]);
+            } else {
+                System.err.println("unknown option " + args[x]);
+                System.exit(1);
+            }
+        }
+
+        bench.run();
+
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+
+        home = new File(System.getProperty("java.io.tmpdir"),
+                        "multialarms-startup-" + System.nanoTime());
+        writeJournal();
+
+        System.out.println("# " + starts + " starts, " + alarms + " alarms, "
+                           + (jar != null ? jar.getPath() : "classpath"));
+
+        measure("default", new String[0]);
+        measure("no sharing", new String[] { "-Xshare:off" });
+
+        if (archive != null) {
+            measure("archive", new String[] {
+                "-XX:SharedArchiveFile=" + archive.getPath() });
+        }
+
+        delete(home);
+    }
+
+    /** Start the program 'starts' times with the JVM options, and report */
+    private void measure(String name, String[] options) throws Exception {
+
+        long[] frames      = new long[starts];
+        long[] interactive = new long[starts];
+
+        start(options);     // the file cache is warm for every counted one
+
+        for (int x = 0; x < starts; x++) {
+            long[] times = start(options);
+            frames[x]      = times[0];
+            interactive[x] = times[1];
+        }
+
+        System.out.println(format("%-11s first frame %s  interactive %s",
+                                  name, summary(frames), summary(interactive)));
+    }
+
+    /** One start - returns the milliseconds to first frame and interactive */
+    private long[] start(String[] options) throws Exception {
+
+        List<String> command = new ArrayList<String>();
+
+        command.add(new File(new File(System.getProperty("java.home"), "bin"),
+                             "java").getPath());
+        command.addAll(Arrays.asList(options));
+        command.add("-Duser.home=" + home.getPath());
+        command.add("-Dmultialarms.startup.report=true");
+        command.add("-Dmultialarms.startup.exit=true");
+
+        if (jar != null) {
+            command.add("-jar");
+            command.add(jar.getPath());
+        } else {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("multialarms.MultiAlarms");
+        }
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                                                     .start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            process.getInputStream(), "UTF-8"));
+
+        long[] times = null;
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("startup: first frame ")) {
+                String[] words = line.split(" ");
+                times = new long[] { Long.parseLong(words[3]),
+                                     Long.parseLong(words[6]) };
+            }
+        }
+
+        if (process.waitFor() != 0 || times == null) {
+            throw new IOException("MultiAlarms didn't report its startup"
+                                  + " (exit " + process.exitValue() + ")");
+        }
+
+        return times;
+    }
+
+    /** Write the journal every start reads */
+    private void writeJournal() {
+
+        AlarmEngine engine   = new AlarmEngine(new File(home, ".multialarms"));
+        long        now      = System.currentTimeMillis();
+        long        tomorrow = now + 24 * 60 * 60 * 1000L;
+        String      time     = AlarmTime.format(tomorrow, now);
+
+        for (int x = 0; x < alarms; x++) {
+            engine.create();
+            engine.getStore().setGoOffTime(x, tomorrow, time);
+            engine.getStore().setDescription(x, "startup " + x);
+        }
+
+        engine.shutdown();
+    }
+
+    /** "p50 (min - max)" */
+    private static String summary(long[] millis) {
+
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+
+        return format("%4d ms (%d - %d)", sorted[sorted.length / 2], sorted[0],
+                      sorted[sorted.length - 1]);
+    }
+
+    private static void delete(File file) {
+
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int x = 0; x < files.length; x++) {
+                delete(files[x]);
+            }
+        }
+        file.delete();
+    }
+
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.ROOT, pattern, args);
+    }
+}
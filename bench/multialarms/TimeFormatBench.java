@@ -0,0 +1,156 @@
+package multialarms;
+
+/*
+ * Title:        TimeFormatBench
+ * Description:  Compares AlarmTime with the SimpleDateFormat code it replaced
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Parse and format throughput of the Set column text, old against new.
+ * The old code is Alarm.setTimeString() and Alarm.getTimeString() as they
+ * were before AlarmTime, copied here so they can still be measured.
+ * Parsing includes formatting the result, as setTimeString() does.
+ */
+class TimeFormatBench {
+
+    /** The old shared format */
+    private static final SimpleDateFormat timeFormat =
+        new SimpleDateFormat("E HH:mm");
+
+    /** What the table holds: today and tomorrow, a minute or so apart */
+    private static String[] texts = new String[1024];
+    private static long[]   times = new long[1024];
+
+    private static long now = System.currentTimeMillis();
+
+    static {
+        String today    = new SimpleDateFormat("E").format(new Date(now));
+        String tomorrow = new SimpleDateFormat("E").format(
+            new Date(now + 24 * 60 * 60 * 1000L));
+
+        for (int x = 0; x < texts.length; x++) {
+            texts[x] = (x % 2 == 0 ? today : tomorrow) + " "
+                       + two(x % 24) + ":" + two(x % 60);
+            times[x] = now + x * 61000L;
+        }
+    }
+
+    static Benchmark[] benchmarks() {
+
+        return new Benchmark[] {
+
+            new Benchmark("TimeFormatBench.parseOld") {
+
+                protected long run(int ops) throws ParseException {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        sum += oldParse(texts[x & 1023]);
+                    }
+                    return sum;
+                }
+            },
+
+            new Benchmark("TimeFormatBench.parse") {
+
+                protected long run(int ops) throws ParseException {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        long time = AlarmTime.parse(texts[x & 1023], now);
+                        sum += time + AlarmTime.format(time, now).length();
+                    }
+                    return sum;
+                }
+            },
+
+            new Benchmark("TimeFormatBench.setTimeString") {
+
+                private Alarm alarm;
+
+                protected void setUp() {
+                    alarm = new AlarmEngine(null).create();
+                }
+
+                protected long run(int ops) {
+                    for (int x = 0; x < ops; x++) {
+                        alarm.setTimeString(texts[x & 1023]);
+                    }
+                    return alarm.getGoOffMillis();
+                }
+            },
+
+            new Benchmark("TimeFormatBench.formatOld") {
+
+                protected long run(int ops) {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        sum += timeFormat.format(new Date(times[x & 1023]))
+                                         .length();
+                    }
+                    return sum;
+                }
+            },
+
+            new Benchmark("TimeFormatBench.format") {
+
+                protected long run(int ops) {
+                    long sum = 0;
+                    for (int x = 0; x < ops; x++) {
+                        sum += AlarmTime.format(times[x & 1023], now).length();
+                    }
+                    return sum;
+                }
+            }
+        };
+    }
+
+    /** The old Alarm.setTimeString(), returning the go-off time */
+    private static long oldParse(String alarmString) throws ParseException {
+
+        Calendar dayCal     = new GregorianCalendar();
+        Calendar timesetCal = new GregorianCalendar();
+        Calendar calFinal   = new GregorianCalendar();
+
+        dayCal.setTime(new Date());
+
+        SimpleDateFormat dayFormat = new SimpleDateFormat("E");
+        String dayString = dayFormat.format(new Date());
+
+        boolean tomorrow = (alarmString.indexOf(dayString) == -1);
+
+        if (alarmString.length() <= 6) {
+            tomorrow = false;
+        }
+
+        if (tomorrow) {
+            dayCal.add(Calendar.DATE, 1);
+        }
+
+        timesetCal.setTime(timeFormat.parse(alarmString));
+
+        calFinal.set(dayCal.get(Calendar.YEAR),
+                     dayCal.get(Calendar.MONTH),
+                     dayCal.get(Calendar.DATE),
+                     timesetCal.get(Calendar.HOUR_OF_DAY),
+                     timesetCal.get(Calendar.MINUTE),
+                     0);
+
+        Date alarmGoOffTime = calFinal.getTime();
+
+        // the old code formatted the result for the table as well
+        return alarmGoOffTime.getTime()
+               + timeFormat.format(alarmGoOffTime).length();
+    }
+
+    private static String two(int value) {
+        return value < 10 ? "0" + value : String.valueOf(value);
+    }
+}
@@ -0,0 +1,228 @@
+package multialarms;
+
+/*
+ * Title:        ActionDispatcher
+ * Description:  Runs alarms' fire actions on a bounded pool of threads
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the FireActions of alarms as they go off. Going off only queues the
+ * actions, so however long they block they never hold up the scheduler
+ * (and so other alarms) or the event dispatch thread.
+ *
+ * At most THREADS actions run at once (the multialarms.actions.threads
+ * property, 16 by default), the rest wait in a queue of up to QUEUE_LIMIT;
+ * beyond that they are dropped and counted as rejected. Each action is
+ * interrupted if it runs for longer than the timeout it was attached with.
+ * How long actions wait to start is kept in LatencyHistogram.DISPATCHED.
+ */
+class ActionDispatcher {
+
+    /** Most actions run at once */
+    public static final int THREADS =
+        Integer.getInteger("multialarms.actions.threads", 16).intValue();
+
+    /** Most actions waiting to run */
+    public static final int QUEUE_LIMIT = 100000;
+
+    /** Timeout of an action attached without one - milliseconds */
+    public static final long DEFAULT_TIMEOUT = 30 * 1000;
+
+    /** The shared dispatcher */
+    private static ActionDispatcher instance;
+
+    /** Runs the actions - threads are started as needed, and end when idle */
+    private ThreadPoolExecutor pool;
+
+    // counters
+    private AtomicLong dispatched = new AtomicLong();
+    private AtomicLong completed  = new AtomicLong();
+    private AtomicLong failed     = new AtomicLong();
+    private AtomicLong timedOut   = new AtomicLong();
+    private AtomicLong rejected   = new AtomicLong();
+
+    /** Return the dispatcher shared by all alarms */
+    public static synchronized ActionDispatcher getInstance() {
+
+        if (instance == null) {
+            instance = new ActionDispatcher();
+        }
+
+        return instance;
+    }
+
+    /** Use getInstance() */
+    private ActionDispatcher() {
+
+        final AtomicInteger threadNum = new AtomicInteger();
+
+        pool = new ThreadPoolExecutor(
+            THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(QUEUE_LIMIT),
+            new ThreadFactory() {
+
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(
+                        task, "FireAction-" + threadNum.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue the actions of an alarm that has just gone off. Never blocks.
+     */
+    public void dispatch(Alarm alarm, Binding[] actions) {
+
+        long now = System.nanoTime();
+
+        for (int x = 0; x < actions.length; x++) {
+            try {
+                pool.execute(new Invocation(alarm, actions[x], now));
+                dispatched.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                System.out.println("dispatch() - queue full, dropped action of "
+                                   + alarm);
+            }
+        }
+    }
+
+    /** Actions queued since the program started */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /** Actions that have returned normally */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /** Actions that have thrown */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** Actions interrupted for running past their timeout */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /** Actions dropped because the queue was full */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Actions waiting for a thread */
+    public int getQueued() {
+        return pool.getQueue().size();
+    }
+
+    /** Actions running now */
+    public int getRunning() {
+        return pool.getActiveCount();
+    }
+
+    public String toString() {
+
+        return "actions: dispatched " + getDispatched()
+               + ", completed " + getCompleted()
+               + ", failed " + getFailed()
+               + " (timed out " + getTimedOut() + ")"
+               + ", rejected " + getRejected()
+               + ", waited " + LatencyHistogram.DISPATCHED.getSummary();
+    }
+
+    /**
+     * An action attached to an alarm, with its timeout - see
+     * Alarm.addAction()
+     */
+    static final class Binding {
+
+        final FireAction action;
+        final long       timeout;
+
+        Binding(FireAction action, long timeout) {
+            this.action  = action;
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * One run of an action, interrupted by the scheduler if it runs past
+     * its timeout
+     */
+    private class Invocation implements Runnable {
+
+        private final Alarm   alarm;
+        private final Binding binding;
+        private final long    queuedNanos;
+
+        private Thread  thread;
+        private boolean done;
+        private boolean expired;
+
+        Invocation(Alarm alarm, Binding binding, long queuedNanos) {
+            this.alarm       = alarm;
+            this.binding     = binding;
+            this.queuedNanos = queuedNanos;
+        }
+
+        public void run() {
+
+            LatencyHistogram.DISPATCHED.record(
+                (System.nanoTime() - queuedNanos) / 1000);
+
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+
+            AlarmScheduler.Timeout timeout =
+                AlarmScheduler.getInstance().schedule(new Runnable() {
+                    public void run() {
+                        expire();
+                    }
+                }, binding.timeout);
+
+            try {
+                binding.action.fire(alarm);
+                completed.incrementAndGet();
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                System.out.println("run() - action of " + alarm + " failed: "
+                                   + e);
+            } finally {
+                timeout.cancel();
+                synchronized (this) {
+                    done = true;
+                    if (expired) {
+                        timedOut.incrementAndGet();
+                    }
+                }
+                Thread.interrupted();   // clear a late interrupt
+            }
+        }
+
+        /** The timeout has run out - interrupt the action if still running */
+        private synchronized void expire() {
+
+            if (!done) {
+                expired = true;
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -8,84 +8,170 @@ package multialarms;
  * @version      1.1
  */
  
-import java.applet.Applet;
-import java.applet.AudioClip;
+import java.io.IOException;
 import java.net.URL;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.Timer;
-import java.util.TimerTask;
-
-import javax.swing.BorderFactory;
-import javax.swing.JProgressBar;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 
 public class Alarm {
 
-    /** 24-hour time format for editing alarm go-off time */
-    private static final SimpleDateFormat timeFormat =
-        new SimpleDateFormat("E HH:mm");
+    /** How long a repeating alarm rings before counting down to the next */
+    public static final int REPEAT_RING_TIME = 60 * 1000;
+
+    /**
+     * The scheduled go-off event, while the alarm is running (read without
+     * the lock by group operations - see AlarmEngine.shiftGroup())
+     */
+    private volatile AlarmScheduler.Timeout alarmTimeout;
+
+    /** The scheduled end of a repeating alarm's ring */
+    private AlarmScheduler.Timeout silenceTimeout;
 
-    /** The delay in milliseconds for the alarm sound */
-    private static final int SOUND_LOOP_DELAY = 900;
+    /** The store holding this alarm's state */
+    private AlarmStore store;
 
-    /** Alarm progress bar */
-    private JProgressBar progressBar = new JProgressBar();
+    /** This alarm's row in the store (-1 once removed) */
+    volatile int row;
 
-    /** The main timer that determines when the alarm goes off */
-    private Timer alarmTimer = new Timer();
+    /** This alarm's number - it never changes */
+    final int num;
+
+    /** Its place in the store's DeadlineIndex - guarded by the index */
+    DeadlineIndex.Node deadlineNode;
+
+    /**
+     * The state word: AlarmStore's flags (IDLE, ARMED, RINGING or STOPPED)
+     * in the low bits and, above them, the generation - the number of times
+     * the alarm has been switched on. It is only ever changed by
+     * compare-and-set, so reading it never blocks (the table reads it for
+     * every cell it paints). Go-off events carry the generation they were
+     * scheduled in, so one left over from an earlier arming can't go off.
+     */
+    private volatile int state;
 
-    /** Date/Time the alarm is to go off */
-    private Date alarmGoOffTime;
+    private static final AtomicIntegerFieldUpdater<Alarm> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Alarm.class, "state");
 
-    /** Date/Time the alarm was started/initiated */
-    private Date alarmStartTime;
+    /** Bits below the generation in the state word */
+    private static final int GENERATION_SHIFT = 2;
 
-    /** Alarm number reference */
-    private Integer alarmNum;
+    /** The sound being rung by the audio engine, while going off */
+    private AlarmAudio.Sound ringingSound;
 
-    /** Boolean to indicate active status of the alarm */
-    private Boolean active;
+    /**
+     * Key and go-off time of the lease held in the store's LeaseTable while
+     * counting down (0 when none)
+     */
+    private long leaseKey;
+    private long leaseTime;
 
-    /** Audio clip to play */
-    private AudioClip audioClip;
+    /** Run when the alarm goes off - replaced, never changed in place */
+    private volatile ActionDispatcher.Binding[] actions = NO_ACTIONS;
 
-    /** Sound file to play */
-    private URL soundFileURL;
+    private static final ActionDispatcher.Binding[] NO_ACTIONS =
+        new ActionDispatcher.Binding[0];
 
-    /** Description of the alarm (supplied by user) */
-    private String description;
+    /** Private constructor to prevent object creation other than by store */
+    private Alarm() {
+        this(null, -1, 0, 0);
+    }
 
-    /** The timer used to loop sound when alarm goes off */
-    private Timer ringSoundTimer;
+    /** Create the handle for a row of the store - see AlarmStore.add() */
+    Alarm(AlarmStore store, int row, int num, int flags) {
 
-    /** Boolean to determine alarm goneOff status */
-    private boolean goneOff = false;
+        this.store = store;
+        this.row   = row;
+        this.num   = num;
+        this.state = flags & AlarmStore.FLAGS;
+    }
 
-    /** String to formulate time - re-used for efficiency */
-    StringBuffer timeToGo = new StringBuffer();
+    // -------------------------------------------------------------------------
+    // STATE WORD
+    //--------------------------------------------------------------------------
 
-    /** Private constructor to prevent object creation other than 1-arg */
-    private Alarm() {}
+    /** Return the state flags (see AlarmStore.ARMED and so on) */
+    int getFlags() {
+        return state & AlarmStore.FLAGS;
+    }
 
-    /** 1-arg constructor */
-    public Alarm(Integer alarmNum) {
+    /** Return the number of times the alarm has been switched on */
+    int getGeneration() {
+        return state >>> GENERATION_SHIFT;
+    }
 
-        this.alarmNum       = alarmNum;
-        this.alarmGoOffTime = new Date();   // default goOff time to now
-        active              = Boolean.FALSE;
-        description         = "alarm " + alarmNum;
+    /**
+     * Set and clear state flags, whatever the generation. Returns 'true'
+     * if they changed.
+     */
+    boolean updateFlags(int set, int clear) {
 
-        progressBar.setBorder(BorderFactory.createLoweredBevelBorder());
-        progressBar.setStringPainted(true);
-        progressBar.setString("");
+        while (true) {
+            int word = state;
+            int next = (word | set) & ~clear;
 
-        soundFileURL = this.getClass().getResource("alarm.au");
-        if (soundFileURL != null) {
-            audioClip = Applet.newAudioClip(soundFileURL);
+            if (next == word) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, word, next)) {
+                store.flagsChanged(this);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Switch on - ARMED in a new generation, which is returned. Go-off
+     * events of earlier generations are ignored from now on.
+     */
+    int switchOn() {
+
+        while (true) {
+            int word = state;
+            int next = (((word >>> GENERATION_SHIFT) + 1) << GENERATION_SHIFT)
+                       | AlarmStore.ARMED;
+
+            if (STATE.compareAndSet(this, word, next)) {
+                store.flagsChanged(this);
+                return next >>> GENERATION_SHIFT;
+            }
+        }
+    }
+
+    /**
+     * Move from one state to another (eg. ARMED to RINGING) within the
+     * given generation. Returns 'false' if the alarm isn't in state 'from'
+     * in that generation - it has been switched off or on again since, or
+     * another thread made the move first.
+     */
+    private boolean transition(int generation, int from, int to) {
+
+        int word = (generation << GENERATION_SHIFT) | from;
+
+        if (from == to) {
+            return state == word;
+        }
+
+        if (STATE.compareAndSet(this, word,
+                                (generation << GENERATION_SHIFT) | to)) {
+            store.flagsChanged(this);
+            return true;
+        }
+
+        return false;
+    }
+
+    /** The go-off event of one generation */
+    private class GoOff implements Runnable {
+
+        private final int generation;
+
+        GoOff(int generation) {
+            this.generation = generation;
+        }
+
+        public void run() {
+            goOff(generation, true);
         }
     }
 
@@ -94,18 +180,36 @@ public class Alarm {
      */
     public synchronized void stop() {
         System.out.println("stop() - " + this);
+        halt();
+    }
+
+    /**
+     * Stop ringing and cancel the scheduled events, without logging. Events
+     * already cancelled (see AlarmEngine.disarmGroup()) aren't cancelled
+     * again.
+     */
+    synchronized void halt() {
 
-        // cancel the alarm sound loop, if running
-        if (ringSoundTimer != null) {
-            ringSoundTimer.cancel();
+        // stop the alarm sound, if ringing
+        if (ringingSound != null) {
+            AlarmAudio.getInstance().stopRinging(ringingSound);
+            ringingSound = null;
         }
 
-        // cancel main timer (cater for interrupted timer as well as completed)
-        alarmTimer.cancel();
+        // cancel go-off event (cater for interrupted as well as completed)
+        if (alarmTimeout != null) {
+            if (!alarmTimeout.isCancelled()) {
+                alarmTimeout.cancel();
+            }
+            alarmTimeout = null;
+        }
+
+        if (silenceTimeout != null) {
+            silenceTimeout.cancel();
+            silenceTimeout = null;
+        }
 
-        // reset the progress bar
-        progressBar.setString("");
-        progressBar.setValue(0);
+        releaseLease();
     }
 
     /**
@@ -113,174 +217,565 @@ public class Alarm {
      */
     private synchronized void start() {
 
-        alarmStartTime = new Date();
+        long alarmStartTime = AlarmClock.get().currentTimeMillis();
+        long alarmGoOffTime = store.getGoOffTime(row);
+
+        store.setStartTime(row, alarmStartTime);
+        switchOn();
         System.out.println("start() - " + this);
 
-        // (48*60*60*1000=86,400,000 is maximum possible milliseconds
-        progressBar.setMaximum((int) (alarmGoOffTime.getTime()
-                                      - alarmStartTime.getTime()));
-        progressBar.setValue(0);
+        prefetchSound();
+        schedule(alarmGoOffTime);
+    }
+
+    /**
+     * Arm an alarm whose row was added already switched on, with its start
+     * time set (see AlarmStore.addAll())
+     */
+    synchronized void arm() {
+        prefetchSound();
+        schedule(store.getGoOffTime(row));
+    }
+
+    /**
+     * Take over a go-off event scheduled for this alarm by a group
+     * operation, with its row already switched on (see
+     * AlarmEngine.armGroup())
+     */
+    synchronized void armed(AlarmScheduler.Timeout timeout, int generation) {
+
+        if (generation != getGeneration()) {
+            timeout.cancel();       // switched off or on again meanwhile
+            return;
+        }
+
+        if (alarmTimeout != null && alarmTimeout != timeout) {
+            alarmTimeout.cancel();
+        }
+
+        alarmTimeout = timeout;
+        claimLease(store.getGoOffTime(row));
+    }
+
+    /**
+     * The go-off event has been moved to a new time by a group operation
+     * (see AlarmEngine.shiftGroup()) - follow it with the lease
+     */
+    synchronized void moved() {
+
+        if (alarmTimeout != null && row >= 0) {
+            claimLease(store.getGoOffTime(row));
+        }
+    }
+
+    /** Return the scheduled go-off event, or null */
+    AlarmScheduler.Timeout getTimeout() {
+        return alarmTimeout;
+    }
+
+    /** Return the task of the go-off event for the given generation */
+    Runnable getGoOffTask(int generation) {
+        return new GoOff(generation);
+    }
+
+    /** Decode the sound now rather than when it is needed to ring */
+    private void prefetchSound() {
+
+        String sound = store.getSound(row);
+        if (sound != null) {
+            SoundCache.getInstance().load(sound);
+        } else {
+            AlarmAudio.getDefaultSound();
+        }
+    }
+
+    /** Register the go-off event with the shared scheduler */
+    private void schedule(long alarmGoOffTime) {
+        alarmTimeout = AlarmScheduler.getInstance().scheduleAt(
+            new GoOff(getGeneration()), alarmGoOffTime);
+        claimLease(alarmGoOffTime);
+    }
+
+    /**
+     * Claim the lease of this go-off with the other processes sharing the
+     * store's LeaseTable, if any, giving up the one for the last
+     */
+    private void claimLease(long alarmGoOffTime) {
+
+        LeaseTable leases = store.getLeases();
+        if (leases == null) {
+            return;
+        }
+
+        String description;
+
+        synchronized (store) {
+            if (row < 0) {
+                return;     // removed meanwhile
+            }
+            description = store.getDescription(row);
+        }
+
+        long key = LeaseTable.key(description, alarmGoOffTime);
+        if (key == leaseKey) {
+            return;
+        }
+
+        releaseLease();
 
-        goneOff = false;
         try {
-            alarmTimer = new Timer();
-            alarmTimer.schedule(new TimerTask() {
-                                    public void run() {
-                                        goOff();
-                                    }
-                                }, alarmGoOffTime);
+            leases.claim(key, alarmGoOffTime);
+            leaseKey  = key;
+            leaseTime = alarmGoOffTime;
+        } catch (IOException ex) {
+            System.out.println("claimLease() - " + ex);
+        }
+    }
+
+    private void releaseLease() {
 
-        } catch (IllegalStateException ex) {
-            System.out.println(ex.getMessage());
-            active = Boolean.FALSE;
+        LeaseTable leases = store.getLeases();
+        if (leases == null || leaseKey == 0) {
+            return;
         }
+
+        try {
+            leases.release(leaseKey);
+        } catch (IOException ex) {
+            System.out.println("releaseLease() - " + ex);
+        }
+        leaseKey = 0;
     }
 
-    /** the alarm 'ring' event */
-    private synchronized void goOff() {
-    	
-        goneOff = true;
-        System.out.println("goOff() - " + this);
+    /**
+     * Re-arm an alarm that was active when the program last stopped,
+     * keeping its original start time. If its time passed while the program
+     * wasn't running it is marked as gone off instead.
+     */
+    synchronized void rearm() {
+
+        if (getGoneOff()) {
+            return;
+        }
+
+        long alarmGoOffTime = store.getGoOffTime(row);
+
+        if (alarmGoOffTime > AlarmClock.get().currentTimeMillis()) {
+            schedule(alarmGoOffTime);
+        } else {
+            skip();
+        }
+    }
+
+    /**
+     * Pass over a go-off time that was missed, without ringing: a repeating
+     * alarm counts down to its next occurrence, any other is marked as gone
+     * off
+     */
+    synchronized void skip() {
 
-        progressBar.setString("Ring, ring...");
+        System.out.println("skip() - " + this);
 
-        if (audioClip == null) {
+        Recurrence rule;
+        long       previous;
+
+        synchronized (store) {
+            if (row < 0) {
+                return;     // removed meanwhile
+            }
+            rule     = store.getRecurrence(row);
+            previous = store.getGoOffTime(row);
+        }
+
+        if (rule != null) {
+            repeat(rule, previous);
+        } else {
+            updateFlags(AlarmStore.GONE_OFF, 0);
+        }
+    }
+
+    /**
+     * Re-arm a counting-down alarm after the wall clock has jumped by the
+     * given milliseconds: its start time moves with the clock, so the time
+     * it has been counting stays the same, and the go-off event is
+     * rescheduled for the go-off time on the new clock. Returns 'true' if
+     * that time has now passed, leaving the caller to decide how to catch
+     * up (see AlarmEngine).
+     */
+    synchronized boolean retime(long jump) {
+
+        if (row < 0 || alarmTimeout == null || getGoneOff()) {
+            return false;
+        }
+
+        alarmTimeout.cancel();
+        alarmTimeout = null;
+
+        store.setStartTime(row, store.getStartTime(row) + jump);
+
+        long alarmGoOffTime = store.getGoOffTime(row);
+
+        if (alarmGoOffTime > AlarmClock.get().currentTimeMillis()) {
+            schedule(alarmGoOffTime);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Go off now, ringing or (when catching up on several at once) not.
+     * Listeners are told either way. When the alarm is shared with other
+     * processes (see LeaseTable) only one of them goes off; the others
+     * skip it, waiting first for its owner to go off if need be.
+     */
+    void goOff(boolean ring) {
+        goOff(getGeneration(), ring);
+    }
+
+    /** Go off, unless switched off or on again since the given generation */
+    private synchronized void goOff(final int generation, final boolean ring) {
+
+        if (generation != getGeneration()
+            || (state & AlarmStore.ACTIVE) == 0) {
             return;
         }
 
-        ringSoundTimer = new Timer();
+        LeaseTable leases = store.getLeases();
+
+        if (leases != null && leaseKey != 0) {
+            int decision;
+            try {
+                decision = leases.tryFire(leaseKey, leaseTime);
+            } catch (IOException ex) {
+                System.out.println("goOff() - " + ex);
+                decision = LeaseTable.FIRE;
+            }
 
-        class AlarmRingTask extends TimerTask {
-             public void run() {
-                audioClip.play();
+            if (decision == LeaseTable.SKIP) {
+                skip();
+                return;
+            }
+            if (decision == LeaseTable.WAIT) {
+                alarmTimeout = AlarmScheduler.getInstance().schedule(
+                    new Runnable() {
+                        public void run() {
+                            goOffLate(generation, ring);
+                        }
+                    }, LeaseTable.LEASE_TIMEOUT);
+                return;
             }
         }
-        ringSoundTimer.schedule(new AlarmRingTask(), 0, SOUND_LOOP_DELAY);
+
+        fire(generation, ring);
+    }
+
+    /**
+     * The owner of this alarm's lease hasn't gone off in LEASE_TIMEOUT: go
+     * off instead, unless another process has by now
+     */
+    private synchronized void goOffLate(int generation, boolean ring) {
+
+        if (generation != getGeneration()) {
+            return;
+        }
+
+        boolean fire;
+        try {
+            fire = store.getLeases().fireLate(leaseKey, leaseTime);
+        } catch (IOException ex) {
+            System.out.println("goOffLate() - " + ex);
+            fire = true;
+        }
+
+        if (fire) {
+            fire(generation, ring);
+        } else {
+            skip();
+        }
+    }
+
+    /** Go off here - see goOff() */
+    private void fire(int generation, boolean ring) {
+
+        // read while the row can't be removed - only these are used after
+        long       deadline;
+        String     sound;
+        Recurrence rule;
+
+        synchronized (store) {
+            if (row < 0) {
+                return;     // removed from the table while going off
+            }
+            rule = store.getRecurrence(row);
+            // a one-shot alarm goes off once per generation; a repeating
+            // one may go off again while still ringing
+            if (!transition(generation, AlarmStore.ARMED, AlarmStore.RINGING)
+                && (rule == null
+                    || !transition(generation, AlarmStore.RINGING,
+                                   AlarmStore.RINGING))) {
+                return;     // switched off meanwhile, or gone off already
+            }
+            deadline = store.getGoOffTime(row);
+            sound    = store.getSound(row);
+            LatencyHistogram.FIRED.recordSince(deadline);
+        }
+        System.out.println("goOff() - " + this);
+
+        // a repeating alarm may go off again before it is switched off
+        if (ringingSound != null) {
+            AlarmAudio.getInstance().stopRinging(ringingSound);
+            ringingSound = null;
+        }
+
+        // ring the alarm's own sound if it is decoded, else the default
+        if (ring) {
+            if (sound != null) {
+                ringingSound = SoundCache.getInstance().get(sound);
+            }
+            if (ringingSound == null) {
+                ringingSound = AlarmAudio.getDefaultSound();
+            }
+            if (ringingSound != null) {
+                AlarmAudio.getInstance().startRinging(ringingSound, deadline);
+            }
+        }
+
+        store.fireGoneOff(this);
+
+        ActionDispatcher.Binding[] current = actions;
+        if (current.length > 0) {
+            ActionDispatcher.getInstance().dispatch(this, current);
+        }
+
+        if (rule != null) {
+            repeat(rule, deadline);
+        }
+    }
+
+    /**
+     * Run an action each time the alarm goes off, on an action thread (see
+     * ActionDispatcher), interrupting it after 'timeout' milliseconds
+     */
+    public synchronized void addAction(FireAction action, long timeout) {
+
+        ActionDispatcher.Binding[] larger =
+            new ActionDispatcher.Binding[actions.length + 1];
+        System.arraycopy(actions, 0, larger, 0, actions.length);
+        larger[actions.length] = new ActionDispatcher.Binding(action, timeout);
+        actions = larger;
+    }
+
+    public void addAction(FireAction action) {
+        addAction(action, ActionDispatcher.DEFAULT_TIMEOUT);
+    }
+
+    public synchronized void removeAction(FireAction action) {
+
+        for (int x = 0; x < actions.length; x++) {
+            if (actions[x].action == action) {
+                ActionDispatcher.Binding[] smaller =
+                    new ActionDispatcher.Binding[actions.length - 1];
+                System.arraycopy(actions, 0, smaller, 0, x);
+                System.arraycopy(actions, x + 1, smaller, x,
+                                 smaller.length - x);
+                actions = smaller;
+                return;
+            }
+        }
+    }
+
+    /** Return the actions run when the alarm goes off */
+    public FireAction[] getActions() {
+
+        ActionDispatcher.Binding[] current = actions;
+        FireAction[]               result  = new FireAction[current.length];
+
+        for (int x = 0; x < current.length; x++) {
+            result[x] = current[x].action;
+        }
+
+        return result;
+    }
+
+    /**
+     * Re-arm a repeating alarm for its next occurrence after the given one.
+     * If it is ringing, it rings for REPEAT_RING_TIME (or until just before
+     * the next occurrence) and then counts down again.
+     */
+    private void repeat(Recurrence rule, long previous) {
+
+        long now  = AlarmClock.get().currentTimeMillis();
+        long next = rule.next(previous, now);
+
+        if (next < 0) {
+            return;     // no more occurrences - it stays gone off
+        }
+
+        String text = rule.format(next);
+
+        synchronized (store) {
+            if (row < 0) {
+                return;     // removed while going off
+            }
+            store.setStartTime(row, now);
+            store.setGoOffTime(row, next, text);
+        }
+        schedule(next);
+
+        final int generation = getGeneration();
+
+        if (ringingSound != null) {
+            long ringTime = Math.min(REPEAT_RING_TIME, next - now - 1000);
+
+            silenceTimeout = AlarmScheduler.getInstance().schedule(
+                new Runnable() {
+                    public void run() {
+                        silence(generation);
+                    }
+                }, Math.max(ringTime, 0));
+        } else {
+            transition(generation, AlarmStore.RINGING, AlarmStore.ARMED);
+        }
+    }
+
+    /** Stop a repeating alarm ringing, leaving it counting down */
+    private synchronized void silence(int generation) {
+
+        if (ringingSound != null) {
+            AlarmAudio.getInstance().stopRinging(ringingSound);
+            ringingSound = null;
+        }
+
+        silenceTimeout = null;
+
+        transition(generation, AlarmStore.RINGING, AlarmStore.ARMED);
     }
 
     /** return number of this alarm */
     public Integer getAlarmNum() {    	
-        return alarmNum;
+        return store.getAlarmNum(row);
     }
 
     /** return the alarm goOff time formatted as String */
     public String getTimeString() {    	
-        return timeFormat.format(alarmGoOffTime);
+        return store.getTimeString(row);
     }
 
-    /**
-     * Return active status
-     * This method is synchronized since UpdateProgressTask thread may call at
-     * same time as thread on the even dispatch queue
-     */
-    public synchronized Boolean getActive() {    	
-        return active;
+    /** Re-format the cached go-off time string after the time has changed */
+    void refreshTimeString() {
+        long time = store.getGoOffTime(row);
+        long now  = AlarmClock.get().currentTimeMillis();
+        store.setTimeString(row, AlarmTime.format(time, now));
     }
 
     /**
-     * Determine progress of alarm in milliseconds from time started.
-     * This is used by the progress bar (after alarmGoOffTime is used as maximum)
-     * to determine percentage complete.
+     * Return active status
+     * This reads the state word, so it never waits for the scheduler thread
      */
-    private int getTimeElapsed() {
-
-        // the int won't overflow because we only use time within one 48hr
-        // period (48*60*60*1000=86,400,000 is maximum possible milliseconds)
-        return (int)(System.currentTimeMillis() - alarmStartTime.getTime());
+    public Boolean getActive() {
+        return (state & AlarmStore.ACTIVE) != 0 ? Boolean.TRUE : Boolean.FALSE;
     }
 
     /** Return description of the alarm */
     public String getDescription() {    	
-        return description;
+        return store.getDescription(row);
     }
 
     /** Set description of the alarm */
     public void setDescription(String description) {
     	
         if (description != null) {
-            this.description = description;
+            store.setDescription(row, description);
+        }
+    }
+
+    /** Return the alarm's repeat rule, or "" if it goes off once */
+    public String getRepeat() {
+
+        Recurrence rule = store.getRecurrence(row);
+
+        return rule == null ? "" : rule.toString();
+    }
+
+    /** Set the repeat rule (see Recurrence) - "" for a one-off alarm */
+    public void setRepeat(String repeat) {
+
+        try {
+            store.setRecurrence(row, Recurrence.parse(repeat));
+        } catch (IllegalArgumentException ex) {
+            System.out.println("setRepeat() - " + ex.getMessage());
+        }
+    }
+
+    /** Return the URL of the alarm's sound, or null for the default */
+    public String getSound() {
+        return store.getSound(row);
+    }
+
+    /**
+     * Set the sound file to ring (null for the bundled sound). It is
+     * decoded in the background when the alarm is next started.
+     */
+    public void setSound(URL soundFileURL) {
+
+        if (soundFileURL == null) {
+            store.setSound(row, null, null);
+            return;
         }
+
+        String url  = soundFileURL.toExternalForm();
+        String name = url.substring(url.lastIndexOf('/') + 1);
+
+        store.setSound(row, url, name);
     }
 
     /** Set the active status of the alarm and react accordingly */
     public synchronized void setActive(Boolean active) {
 
-        this.active = active;
-
-        if (this.active.equals(Boolean.TRUE)) {
+        if (active.equals(Boolean.TRUE)) {
+            halt();     // switching on again starts a new countdown
             start();
         } else {
+            updateFlags(0, AlarmStore.ACTIVE);
             stop();
         }
     }
 
     /**
-     * Parse String in format HH:mm
-     * First, work out today's date (otherwise it defaults to epoch 1970)
-     * Then, set time given (typed in by user)
+     * Set the go-off time from text typed into the table: "HH:mm" for
+     * today, "E HH:mm" for the next such day, a date, or a time from now
+     * such as "+15m" or "in 1h30" (see AlarmTime.parse())
      */
     public void setTimeString(String alarmString) {
 
-        try {
-            Calendar dayCal   = new GregorianCalendar();
-            Calendar timesetCal = new GregorianCalendar();
-            Calendar calFinal   = new GregorianCalendar();
-
-            // get today's date
-            dayCal.setTime(new Date());
-            
-            // set to today or tomorrow?
-            SimpleDateFormat dayFormat = new SimpleDateFormat("E");
-            String dayString = dayFormat.format(new Date());
-            
-            boolean tomorrow = (alarmString.indexOf(dayString) == -1);
-            
-            if (alarmString.length() <= 6) {
-                // in this case, the day string has been deleted - assume is today
-                tomorrow = false;
-            }
-            
-            if (tomorrow) {
-                dayCal.add(Calendar.DATE, 1);
-            }
-
-            // get the time that was given (albeit with 1970 year)
-            Date timesetDate = timeFormat.parse(alarmString);
-
-            timesetCal.setTime(timesetDate);
-
-            // now we have a new time and the current date, join them both
-            calFinal.set(dayCal.get(Calendar.YEAR),    // set to today
-                         dayCal.get(Calendar.MONTH),
-                         dayCal.get(Calendar.DATE),
-                         timesetCal.get(Calendar.HOUR_OF_DAY),  // set new time
-                         timesetCal.get(Calendar.MINUTE),
-                         0);    // assume beginng of the minute (ie. no seconds)
+        long now = AlarmClock.get().currentTimeMillis();
 
-            alarmGoOffTime = calFinal.getTime();
+        try {
+            long time = AlarmTime.parse(alarmString, now);
+            store.setGoOffTime(row, time, AlarmTime.format(time, now));
         } catch (ParseException ex) {
             System.out.println("setTimeString() - " + ex.getMessage());
         }
     }
 
-    /** External access to the progress bar */
-    public JProgressBar getProgressBar() {    	
-        return progressBar;
+    /** Date/Time (epoch milliseconds) the alarm was last started */
+    public long getStartMillis() {
+        return store.getStartTime(row);
     }
 
-    /** Update progress bar */
-    public synchronized void updateProgressBar() {
-
-        if (active.equals(Boolean.FALSE)) {
-            return;
-        }
-
-        progressBar.setValue(getTimeElapsed());
+    /** Date/Time (epoch milliseconds) the alarm is to go off */
+    public long getGoOffMillis() {
+        return store.getGoOffTime(row);
+    }
 
-        long timeLeft = alarmGoOffTime.getTime() - System.currentTimeMillis();
-        if (timeLeft <= 0 ) {
-            return;     // this will occur if the alarm is completed (gone off)
-        }
+    /**
+     * Format the time left before an alarm goes off as "Xh Ym Zs left"
+     * into the given buffer (hours are only shown if necessary) and return
+     * the number of characters written. Nothing is allocated, so this is
+     * safe to call on every repaint.
+     */
+    public static int formatTimeLeft(long timeLeft, char[] timeToGo) {
 
         int timeInSeconds = (int)(timeLeft / 1000);
 
@@ -291,22 +786,52 @@ public class Alarm {
         timeInSeconds = timeInSeconds - (minutes * 60);
         int seconds = timeInSeconds;
 
-        timeToGo.setLength(0);
+        int length = 0;
         if (hours > 0) {    // only print hours if necessary
-            timeToGo.append(hours).append("h ");
+            length = appendInt(hours, timeToGo, length);
+            length = appendString("h ", timeToGo, length);
         }
-        timeToGo.append(minutes).append("m ").append(seconds).append("s left");
+        length = appendInt(minutes, timeToGo, length);
+        length = appendString("m ", timeToGo, length);
+        length = appendInt(seconds, timeToGo, length);
+        length = appendString("s left", timeToGo, length);
 
-        progressBar.setString(timeToGo.toString());
+        return length;
+    }
+
+    /** Write the decimal digits of a non-negative int at pos */
+    private static int appendInt(int value, char[] buffer, int pos) {
+
+        int digits = 1;
+        for (int x = value; x >= 10; x /= 10) {
+            digits++;
+        }
+
+        for (int x = pos + digits - 1; x >= pos; x--) {
+            buffer[x] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return pos + digits;
+    }
+
+    /** Write a constant string at pos */
+    private static int appendString(String s, char[] buffer, int pos) {
+        s.getChars(0, s.length(), buffer, pos);
+        return pos + s.length();
     }
 
     /**
      * Return 'true' if the alarm has gone off
-     * This method is synchronized because the ProgressTimer thread may call
-     * it at same time as an event dispatch thread
+     * This reads the state word, so it never waits for the scheduler thread
      */
-    public synchronized boolean getGoneOff() {
-        return goneOff;
+    public boolean getGoneOff() {
+        return (state & AlarmStore.GONE_OFF) != 0;
+    }
+
+    /** Return 'true' while the alarm is ringing its sound */
+    synchronized boolean isRinging() {
+        return ringingSound != null;
     }
 
     /** 
@@ -315,17 +840,25 @@ public class Alarm {
      */
     public String toString() {
 
-        StringBuffer alarmString = new StringBuffer("[" + alarmNum + "]->");
+        int row = this.row;
 
-        if (alarmStartTime != null) {
-            alarmString.append(" started[" + timeFormat.format(alarmStartTime) + "]");
+        if (row < 0) {
+            return "[removed]";
         }
 
-        if (alarmGoOffTime != null) {
-            alarmString.append(" set[" + timeFormat.format(alarmGoOffTime) + "]");
+        StringBuffer alarmString =
+            new StringBuffer("[" + store.getAlarmNum(row) + "]->");
+
+        long alarmStartTime = store.getStartTime(row);
+        if (alarmStartTime != 0) {
+            alarmString.append(" started["
+                + AlarmTime.format(alarmStartTime,
+                                   AlarmClock.get().currentTimeMillis())
+                + "]");
         }
 
-        alarmString.append(" goneOff=" + goneOff);
+        alarmString.append(" set[" + store.getTimeString(row) + "]");
+        alarmString.append(" goneOff=" + getGoneOff());
 
         return alarmString.toString();
     }
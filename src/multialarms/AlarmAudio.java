@@ -0,0 +1,404 @@
+package multialarms;
+
+/*
+ * Title:        AlarmAudio
+ * Description:  Mixes the sound of every ringing alarm into one audio line
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * The audio engine shared by all alarms.
+ *
+ * Sounds are decoded once into 16-bit mono PCM at the engine's sample rate.
+ * One render thread mixes every ringing sound into a single open
+ * SourceDataLine. Alarms ringing the same sound share one voice (the voice
+ * just counts how many alarms are ringing it), so the mixing cost depends
+ * on the number of different sounds, not the number of ringing alarms.
+ */
+class AlarmAudio implements Runnable {
+
+    /** Output sample rate - sounds are resampled to this when decoded */
+    public static final float SAMPLE_RATE = 22050f;
+
+    /** The delay in milliseconds between the starts of each ring */
+    public static final int RING_PERIOD = 900;
+
+    /** Frames mixed per write to the line (about 12ms) */
+    private static final int BLOCK_FRAMES = 256;
+
+    /** Line buffer, in blocks - bounds the latency of a new ring */
+    private static final int LINE_BLOCKS = 4;
+
+    /** The shared engine */
+    private static AlarmAudio instance;
+
+    /** The default alarm sound, decoded on first use */
+    private static Sound defaultSound;
+
+    private static boolean defaultSoundLoaded;
+
+    /** 16-bit signed mono little-endian output */
+    private final AudioFormat format =
+        new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    /** Sounds currently ringing */
+    private Voice[] voices = new Voice[4];
+    private int     voiceCount;
+
+    /** Output line, null if there is no audio device */
+    private SourceDataLine line;
+
+    /** Mixing buffers - only used by the render thread */
+    private int[]  mix   = new int[BLOCK_FRAMES];
+    private byte[] block = new byte[BLOCK_FRAMES * 2];
+
+    /** Go-off times of rings started since the last block was mixed */
+    private long[] pending = new long[4];
+    private int    pendingCount;
+
+    /** Those of rings starting in the block being written (render thread) */
+    private long[] starting = new long[4];
+    private int    startingCount;
+
+    /** Return the shared engine, opening the audio line on first use */
+    public static synchronized AlarmAudio getInstance() {
+
+        if (instance == null) {
+            instance = new AlarmAudio();
+            instance.open();
+        }
+
+        return instance;
+    }
+
+    /** Return the bundled alarm.au, decoded (null if it can't be loaded) */
+    public static synchronized Sound getDefaultSound() {
+
+        if (!defaultSoundLoaded) {
+            defaultSoundLoaded = true;
+
+            URL soundFileURL = AlarmAudio.class.getResource("alarm.au");
+            if (soundFileURL != null) {
+                defaultSound = decode(soundFileURL);
+            }
+        }
+
+        return defaultSound;
+    }
+
+    /** Use getInstance() */
+    private AlarmAudio() {}
+
+    /**
+     * Decode a sound file into a Sound at the engine's sample rate.
+     * Returns null (after printing the reason) if it can't be decoded.
+     */
+    public static Sound decode(URL url) {
+
+        try {
+            AudioInputStream in     = AudioSystem.getAudioInputStream(url);
+            AudioFormat      source = in.getFormat();
+            int              channels = source.getChannels();
+            AudioFormat      pcm    = new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED, source.getSampleRate(), 16,
+                channels, channels * 2, source.getSampleRate(), false);
+
+            byte[] bytes = readAll(AudioSystem.getAudioInputStream(pcm, in));
+            int    frames = bytes.length / (channels * 2);
+
+            // mix down to mono
+            short[] mono = new short[frames];
+            for (int f = 0; f < frames; f++) {
+                int sum = 0;
+                for (int c = 0; c < channels; c++) {
+                    int i = (f * channels + c) * 2;
+                    sum += (short) ((bytes[i] & 0xff) | (bytes[i + 1] << 8));
+                }
+                mono[f] = (short) (sum / channels);
+            }
+
+            return new Sound(url, resample(mono, source.getSampleRate()));
+
+        } catch (UnsupportedAudioFileException ex) {
+            System.out.println("decode() - " + url + " " + ex.getMessage());
+        } catch (IllegalArgumentException ex) {
+            System.out.println("decode() - " + url + " " + ex.getMessage());
+        } catch (IOException ex) {
+            System.out.println("decode() - " + url + " " + ex.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Start ringing a sound (again, if other alarms are ringing it) for an
+     * alarm due at the given time (epoch milliseconds). How late its first
+     * sample is played is recorded in LatencyHistogram.RUNG.
+     */
+    public synchronized void startRinging(Sound sound, long deadline) {
+
+        if (line != null) {
+            if (pendingCount == pending.length) {
+                long[] larger = new long[pendingCount * 2];
+                System.arraycopy(pending, 0, larger, 0, pendingCount);
+                pending = larger;
+            }
+            pending[pendingCount++] = deadline;
+        }
+
+        for (int x = 0; x < voiceCount; x++) {
+            if (voices[x].sound == sound) {
+                voices[x].ringing++;
+                return;
+            }
+        }
+
+        if (voiceCount == voices.length) {
+            Voice[] larger = new Voice[voiceCount * 2];
+            System.arraycopy(voices, 0, larger, 0, voiceCount);
+            voices = larger;
+        }
+
+        voices[voiceCount++] = new Voice(sound);
+        notify();   // wake the render thread
+    }
+
+    /** Stop one alarm ringing a sound */
+    public synchronized void stopRinging(Sound sound) {
+
+        for (int x = 0; x < voiceCount; x++) {
+            if (voices[x].sound == sound) {
+                if (--voices[x].ringing == 0) {
+                    voices[x] = voices[--voiceCount];
+                    voices[voiceCount] = null;
+                }
+                return;
+            }
+        }
+    }
+
+    /** Open the output line and start the render thread */
+    private void open() {
+
+        try {
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, BLOCK_FRAMES * 2 * LINE_BLOCKS);
+
+        } catch (LineUnavailableException ex) {
+            System.out.println("AlarmAudio - no audio line: " + ex.getMessage());
+            line = null;
+        } catch (IllegalArgumentException ex) {
+            System.out.println("AlarmAudio - no audio line: " + ex.getMessage());
+            line = null;
+        }
+
+        Thread thread = new Thread(this, "AlarmAudio");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** The render thread: mix a block of every voice, then write it */
+    public void run() {
+
+        while (true) {
+
+            synchronized (this) {
+                try {
+                    if (voiceCount == 0) {
+                        if (line != null) {
+                            line.stop();
+                            line.flush();   // so the next ring starts at once
+                        }
+
+                        while (voiceCount == 0) {
+                            wait();
+                        }
+
+                        if (line != null) {
+                            line.start();
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                mixBlock();
+
+                // rings started since the last block begin in this one
+                if (pendingCount > 0) {
+                    long[] swap = starting;
+                    starting      = pending;
+                    startingCount = pendingCount;
+                    pending       = swap;
+                    pendingCount  = 0;
+                }
+            }
+
+            if (line != null) {
+                line.write(block, 0, block.length);   // blocks - paces mixing
+
+                if (startingCount > 0) {
+                    recordStarts();
+                }
+            } else {
+                try {
+                    // no device - keep time so the voices still advance
+                    Thread.sleep((long) (BLOCK_FRAMES * 1000 / SAMPLE_RATE));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Record how late the rings starting in the block just written are.
+     * The block's first sample plays once the line has played what was
+     * queued ahead of it.
+     */
+    private void recordStarts() {
+
+        int  queued = line.getBufferSize() - line.available() - block.length;
+        long ahead  = (long) (Math.max(queued, 0) / 2 * 1000000L / SAMPLE_RATE);
+        long played = LatencyHistogram.nowMicros() + ahead;
+
+        for (int x = 0; x < startingCount; x++) {
+            LatencyHistogram.RUNG.record(played - starting[x] * 1000);
+        }
+
+        startingCount = 0;
+    }
+
+    /** Mix the next block of every voice into the output buffer */
+    private void mixBlock() {
+
+        for (int f = 0; f < BLOCK_FRAMES; f++) {
+            mix[f] = 0;
+        }
+
+        for (int x = 0; x < voiceCount; x++) {
+
+            Voice   voice   = voices[x];
+            short[] samples = voice.sound.samples;
+            int     period  = voice.sound.period;
+            int     pos     = voice.position;
+
+            for (int f = 0; f < BLOCK_FRAMES; f++) {
+                if (pos < samples.length) {
+                    mix[f] += samples[pos];
+                }
+                if (++pos == period) {
+                    pos = 0;
+                }
+            }
+
+            voice.position = pos;
+        }
+
+        for (int f = 0; f < BLOCK_FRAMES; f++) {
+            int sample = Math.max(Short.MIN_VALUE,
+                                  Math.min(Short.MAX_VALUE, mix[f]));
+            block[f * 2]     = (byte) sample;
+            block[f * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /** Linear resample from the given rate to SAMPLE_RATE */
+    private static short[] resample(short[] in, float rate) {
+
+        if (rate == SAMPLE_RATE || in.length == 0) {
+            return in;
+        }
+
+        double  step = rate / SAMPLE_RATE;
+        short[] out  = new short[(int) (in.length / step)];
+
+        for (int x = 0; x < out.length; x++) {
+            double pos  = x * step;
+            int    i    = (int) pos;
+            double frac = pos - i;
+            int    next = Math.min(i + 1, in.length - 1);
+
+            out[x] = (short) (in[i] + (in[next] - in[i]) * frac);
+        }
+
+        return out;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+
+        ByteArrayOutputStream out    = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[4096];
+
+        try {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * A decoded sound: 16-bit mono samples at SAMPLE_RATE
+     */
+    public static final class Sound {
+
+        private final URL     url;
+        private final short[] samples;
+
+        /** Length of one ring loop in frames (sound plus any silence) */
+        private final int period;
+
+        private Sound(URL url, short[] samples) {
+            this.url     = url;
+            this.samples = samples;
+            this.period  = Math.max(samples.length,
+                                    (int) (SAMPLE_RATE * RING_PERIOD / 1000));
+        }
+
+        public URL getURL() {
+            return url;
+        }
+
+        /** Size of the decoded samples in bytes */
+        public int getByteSize() {
+            return samples.length * 2;
+        }
+    }
+
+    /**
+     * A sound being rung by one or more alarms
+     */
+    private static final class Voice {
+
+        private final Sound sound;
+
+        /** Number of alarms ringing this sound */
+        private int ringing = 1;
+
+        /** Next frame to mix, within the sound's period */
+        private int position;
+
+        private Voice(Sound sound) {
+            this.sound = sound;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package multialarms;
+
+/*
+ * Title:        AlarmChangeTracker
+ * Description:  Records which alarm rows have changed since the last repaint
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Set of dirty row numbers, marked from any thread and drained on the event
+ * dispatch thread. The bit set stops a row being queued twice, and the
+ * queue means draining costs only as much as the number of changed rows.
+ */
+class AlarmChangeTracker {
+
+    /** Rows currently queued */
+    private BitSet dirty = new BitSet();
+
+    /** Queued rows, in the order they were marked */
+    private int[] queue = new int[16];
+    private int   queued;
+
+    /** Rows returned by the last drain(), sorted */
+    private int[] drained = new int[16];
+
+    /** Mark a row as needing a repaint */
+    public synchronized void mark(int row) {
+
+        if (dirty.get(row)) {
+            return;
+        }
+
+        dirty.set(row);
+
+        if (queued == queue.length) {
+            int[] larger = new int[queued * 2];
+            System.arraycopy(queue, 0, larger, 0, queued);
+            queue = larger;
+        }
+
+        queue[queued++] = row;
+    }
+
+    /** Forget every mark (eg. after rows are inserted or deleted) */
+    public synchronized void clear() {
+
+        for (int x = 0; x < queued; x++) {
+            dirty.clear(queue[x]);
+        }
+
+        queued = 0;
+    }
+
+    /**
+     * Move the queued rows into the drained buffer in ascending order and
+     * return how many there are - see getDrained()
+     */
+    public synchronized int drain() {
+
+        if (drained.length < queued) {
+            drained = new int[queue.length];
+        }
+
+        for (int x = 0; x < queued; x++) {
+            drained[x] = queue[x];
+            dirty.clear(queue[x]);
+        }
+
+        int count = queued;
+
+        queued = 0;
+        Arrays.sort(drained, 0, count);
+
+        return count;
+    }
+
+    /** The rows from the last drain() - only valid on the draining thread */
+    public int[] getDrained() {
+        return drained;
+    }
+}
@@ -0,0 +1,131 @@
+package multialarms;
+
+/*
+ * Title:        AlarmClock
+ * Description:  Wall and monotonic time for alarms, with jump detection
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * The time source of the alarms. Go-off times are wall-clock times (a
+ * showtime is "20:00", whatever the machine has been doing), but waiting
+ * for them is measured on the monotonic clock, which NTP steps and clock
+ * changes don't move. The scheduler calls checkJump() as it ticks: if the
+ * two clocks have drifted apart by more than JUMP_THRESHOLD since the last
+ * check, the wall clock has been stepped (or the machine was suspended,
+ * which stops the monotonic clock), and the listeners are told so they can
+ * re-arm against the new wall time (see AlarmEngine.clockJumped()).
+ *
+ * The clock in use can be replaced with set(), before any alarm is
+ * created, by tools and tests that need to control time; subclasses
+ * override currentTimeMillis() and nanoTime().
+ */
+class AlarmClock {
+
+    /** Smallest step of the wall clock reported as a jump - milliseconds */
+    public static final long JUMP_THRESHOLD = 500;
+
+    /** The clock in use */
+    private static volatile AlarmClock clock = new AlarmClock();
+
+    /** Wall time minus monotonic time at the last check - milliseconds */
+    private long offset;
+    private boolean checked;
+
+    /** Told of jumps - replaced, never changed in place */
+    private volatile JumpListener[] listeners = new JumpListener[0];
+
+    /** Return the clock in use */
+    public static AlarmClock get() {
+        return clock;
+    }
+
+    /** Replace the clock in use - for tools and tests */
+    static void set(AlarmClock replacement) {
+        clock = replacement;
+    }
+
+    /** Wall-clock time - epoch milliseconds */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Monotonic time - nanoseconds from an arbitrary origin */
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Compare the wall clock with the monotonic clock. Returns how far (in
+     * milliseconds) the wall clock has jumped since the last call - forward
+     * is positive - or 0 if it hasn't moved by JUMP_THRESHOLD or more.
+     */
+    public synchronized long checkJump() {
+
+        long now  = currentTimeMillis() - nanoTime() / 1000000L;
+        long jump = now - offset;
+
+        if (!checked || Math.abs(jump) < JUMP_THRESHOLD) {
+            if (!checked) {
+                offset  = now;
+                checked = true;
+            }
+            return 0;
+        }
+
+        offset = now;
+
+        return jump;
+    }
+
+    /**
+     * Take the present as the reference for the next checkJump(), as when
+     * nothing was waiting on the clock while it may have jumped
+     */
+    public synchronized void resetJump() {
+        checked = false;
+    }
+
+    /** Tell the listeners of a jump found by checkJump() */
+    void fireJumped(long jump) {
+
+        JumpListener[] current = listeners;
+
+        for (int x = 0; x < current.length; x++) {
+            current[x].clockJumped(jump);
+        }
+    }
+
+    public synchronized void addJumpListener(JumpListener listener) {
+
+        JumpListener[] larger = new JumpListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, larger, 0, listeners.length);
+        larger[listeners.length] = listener;
+        listeners = larger;
+    }
+
+    public synchronized void removeJumpListener(JumpListener listener) {
+
+        for (int x = 0; x < listeners.length; x++) {
+            if (listeners[x] == listener) {
+                JumpListener[] smaller = new JumpListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, smaller, 0, x);
+                System.arraycopy(listeners, x + 1, smaller, x,
+                                 smaller.length - x);
+                listeners = smaller;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Told when the wall clock jumps - on the scheduler thread
+     */
+    interface JumpListener {
+
+        /** The wall clock has moved by 'jump' milliseconds (may be < 0) */
+        public void clockJumped(long jump);
+    }
+}
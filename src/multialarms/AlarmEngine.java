@@ -0,0 +1,538 @@
+package multialarms;
+
+/*
+ * Title:        AlarmEngine
+ * Description:  The alarms themselves, with no user interface
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Creates, arms and cancels alarms, reports their progress and tells
+ * listeners when they go off. Nothing here uses AWT or Swing: the table
+ * model is a view over an engine, and MultiAlarmsHeadless runs one with no
+ * display at all.
+ *
+ * Alarms are addressed by row, as in the table; rows shift up when an
+ * earlier alarm is removed.
+ *
+ * When the wall clock jumps (see AlarmClock) every counting-down alarm is
+ * re-armed against the new time. Those whose time has now passed are
+ * caught up according to the catch-up policy: FIRE_NOW, SKIP or COLLAPSE.
+ * The default comes from the system property multialarms.catchup
+ * ("fire", "skip" or "collapse").
+ *
+ * Alarms may be put in named groups (one per screen, say) and shifted,
+ * armed or disarmed a group at a time. Each group operation changes its
+ * rows under one acquisition of the store's lock, so other threads see the
+ * whole group change at once, then re-arms the scheduler in one batch.
+ */
+class AlarmEngine implements AlarmClock.JumpListener {
+
+    /** Catch-up policy: missed alarms go off now, in go-off order */
+    public static final int FIRE_NOW = 0;
+
+    /** Catch-up policy: missed alarms don't ring (see Alarm.skip()) */
+    public static final int SKIP = 1;
+
+    /**
+     * Catch-up policy: missed alarms go off together - listeners are told
+     * of each, but only the last due rings
+     */
+    public static final int COLLAPSE = 2;
+
+    /** Catch-up policy names, by policy */
+    private static final String[] CATCH_UP_NAMES = { "fire", "skip",
+                                                     "collapse" };
+
+    /** State of every alarm */
+    private AlarmStore store = new AlarmStore();
+
+    /** Saves the store as it changes (null if it can't be saved) */
+    private AlarmJournal journal;
+
+    /** What to do with alarms missed across a clock jump */
+    private volatile int catchUp = parseCatchUp(
+        System.getProperty("multialarms.catchup", "fire"));
+
+    /** Number of wall clock jumps handled */
+    private volatile int clockJumps;
+
+    /**
+     * Create an engine with the alarms saved in the given directory (if
+     * any), re-arming those that were on. Pass null to keep nothing.
+     * Alarms are shared with other processes through the LeaseTable named
+     * by multialarms.leases, if set (not when directory is null).
+     */
+    public AlarmEngine(File directory) {
+        this(directory, directory != null ? LeaseTable.getConfigured() : null);
+    }
+
+    /**
+     * Create an engine as above, sharing its alarms through the given
+     * table (null for none)
+     */
+    AlarmEngine(File directory, LeaseTable leases) {
+
+        store.setLeases(leases);
+
+        if (directory != null) {
+            journal = AlarmJournal.open(directory, store);
+        }
+
+        // alarms set for the same minute share one formatted time string
+        long   minute     = -1;
+        String timeString = null;
+
+        for (int x = 0; x < store.size(); x++) {
+            Alarm alarm = store.getAlarm(x);
+
+            if (store.getGoOffTime(x) / 60000 != minute) {
+                alarm.refreshTimeString();
+                minute     = store.getGoOffTime(x) / 60000;
+                timeString = store.getTimeString(x);
+            } else {
+                store.setTimeString(x, timeString);
+            }
+
+            if (store.isActive(x)) {
+                alarm.rearm();
+            }
+        }
+
+        AlarmClock.get().addJumpListener(this);
+    }
+
+    /** Return the catch-up policy (FIRE_NOW, SKIP or COLLAPSE) */
+    public int getCatchUp() {
+        return catchUp;
+    }
+
+    public void setCatchUp(int policy) {
+
+        if (policy < FIRE_NOW || policy > COLLAPSE) {
+            throw new IllegalArgumentException("catch-up policy " + policy);
+        }
+
+        catchUp = policy;
+    }
+
+    /** Return the name of a catch-up policy, as parseCatchUp() reads */
+    public static String getCatchUpName(int policy) {
+        return CATCH_UP_NAMES[policy];
+    }
+
+    /** Return the policy named "fire", "skip" or "collapse" */
+    public static int parseCatchUp(String name) {
+
+        for (int x = 0; x < CATCH_UP_NAMES.length; x++) {
+            if (CATCH_UP_NAMES[x].equalsIgnoreCase(name.trim())) {
+                return x;
+            }
+        }
+
+        throw new IllegalArgumentException("unknown catch-up policy '" + name
+            + "' (use fire, skip or collapse)");
+    }
+
+    /** Return the number of wall clock jumps handled */
+    public int getClockJumps() {
+        return clockJumps;
+    }
+
+    /**
+     * Re-arm every counting-down alarm after the wall clock has jumped, in
+     * one pass in go-off order, and catch up on those now missed
+     */
+    public void clockJumped(long jump) {
+
+        clockJumps++;
+
+        // the counting-down alarms, earliest first - sorted while the store
+        // is locked, so no row moves and no go-off time changes meanwhile
+        Alarm[] alarms;
+        int     count = 0;
+
+        synchronized (store) {
+            alarms = new Alarm[store.size()];
+
+            for (int x = 0; x < store.size(); x++) {
+                if (store.getFlags(x) == AlarmStore.ACTIVE) {
+                    alarms[count++] = store.getAlarm(x);
+                }
+            }
+
+            Arrays.sort(alarms, 0, count, new Comparator<Alarm>() {
+
+                public int compare(Alarm a, Alarm b) {
+                    long timeA = store.getGoOffTime(a.row);
+                    long timeB = store.getGoOffTime(b.row);
+                    return timeA < timeB ? -1 : timeA > timeB ? 1 : 0;
+                }
+            });
+        }
+
+        // re-arm, collecting the missed alarms (in order) as we go; an
+        // alarm removed since is passed over (see Alarm.retime())
+        Alarm[] missed      = new Alarm[count];
+        int     missedCount = 0;
+
+        for (int x = 0; x < count; x++) {
+            if (alarms[x].retime(jump)) {
+                missed[missedCount++] = alarms[x];
+            }
+        }
+
+        System.out.println("clockJumped() - " + jump + "ms, re-armed " + count
+                           + ", missed " + missedCount + " ("
+                           + getCatchUpName(catchUp) + ")");
+
+        int policy = catchUp;
+
+        for (int x = 0; x < missedCount; x++) {
+            if (policy == SKIP) {
+                missed[x].skip();
+            } else {
+                missed[x].goOff(policy == FIRE_NOW || x == missedCount - 1);
+            }
+        }
+    }
+
+    /** The engine's state storage - for views that read it row by row */
+    AlarmStore getStore() {
+        return store;
+    }
+
+    /** Return the number of alarms */
+    public int size() {
+        return store.size();
+    }
+
+    /** Return alarm given row */
+    public Alarm getAlarm(int row) {
+        return store.getAlarm(row);
+    }
+
+    /** Add a new alarm, switched off, as the last row */
+    public Alarm create() {
+        return store.add();
+    }
+
+    /**
+     * Start adding a large batch of alarms - call endImport() when done.
+     * The batch is saved in one snapshot at the end (see
+     * AlarmJournal.beginImport()).
+     */
+    public void beginImport() {
+        if (journal != null) {
+            journal.beginImport();
+        }
+    }
+
+    public void endImport() {
+        if (journal != null) {
+            journal.endImport();
+        }
+    }
+
+    /**
+     * Add the rows of an import chunk and arm those that are switched on.
+     * Returns the first new row.
+     */
+    public int addAll(AlarmImporter.Chunk chunk) {
+
+        int first = store.addAll(chunk);
+
+        // armed outside the store lock, as goOff() takes the alarm's lock
+        // and then the store's
+        for (int x = 0; x < chunk.size; x++) {
+            if (chunk.active[x]) {
+                store.getAlarm(first + x).arm();
+            }
+        }
+
+        return first;
+    }
+
+    /** Switch on the alarm in the given row, so that it counts down */
+    public void arm(int row) {
+        store.getAlarm(row).setActive(Boolean.TRUE);
+    }
+
+    /** Switch off the alarm in the given row (silencing it if ringing) */
+    public void cancel(int row) {
+        store.getAlarm(row).setActive(Boolean.FALSE);
+    }
+
+    /** Stop and remove the alarm in the given row */
+    public void remove(int row) {
+
+        store.getAlarm(row).stop();
+        store.remove(row);
+    }
+
+    /** Return the names of the alarm groups in use, sorted */
+    public String[] getGroups() {
+        return store.getGroups();
+    }
+
+    /** Put the alarm in the given row in the named group ("" for none) */
+    public void setGroup(int row, String group) {
+        store.setGroup(row, group.trim());
+    }
+
+    /**
+     * Move every alarm in the group that isn't ringing by the given
+     * milliseconds (negative for earlier). Those counting down keep their
+     * go-off events, which are moved to the new times. Returns the number
+     * of alarms moved.
+     */
+    public int shiftGroup(String group, long millis) {
+
+        Alarm[]                  alarms;
+        AlarmScheduler.Timeout[] timeouts;
+        long[]                   times;
+        int                      count    = 0;
+        int                      counting = 0;
+
+        synchronized (store) {
+            int[] rows = store.getGroupRows(group);
+            long  now  = AlarmClock.get().currentTimeMillis();
+
+            alarms   = new Alarm[rows.length];
+            timeouts = new AlarmScheduler.Timeout[rows.length];
+            times    = new long[rows.length];
+
+            // alarms set for the same second share one formatted time string
+            long   second     = Long.MIN_VALUE;
+            String timeString = null;
+
+            for (int x = 0; x < rows.length; x++) {
+                int row   = rows[x];
+                int flags = store.getFlags(row);
+
+                if (flags == (AlarmStore.ACTIVE | AlarmStore.GONE_OFF)) {
+                    continue;   // ringing - its time has been and gone
+                }
+
+                long       time = store.getGoOffTime(row) + millis;
+                Recurrence rule = store.getRecurrence(row);
+
+                if (rule != null) {
+                    store.setGoOffTime(row, time, rule.format(time));
+                } else {
+                    if (time / 1000 != second) {
+                        second     = time / 1000;
+                        timeString = AlarmTime.format(time, now);
+                    }
+                    store.setGoOffTime(row, time, timeString);
+                }
+                alarms[count] = store.getAlarm(row);
+
+                AlarmScheduler.Timeout timeout = alarms[count++].getTimeout();
+                if (flags == AlarmStore.ACTIVE && timeout != null) {
+                    timeouts[counting] = timeout;
+                    times[counting++]  = time;
+                }
+            }
+        }
+
+        AlarmScheduler.getInstance().rescheduleAllAt(timeouts, times, counting);
+
+        if (store.getLeases() != null) {
+            for (int x = 0; x < count; x++) {
+                alarms[x].moved();
+            }
+        }
+
+        System.out.println("shiftGroup() - " + group + " by " + millis
+                           + "ms, moved " + count + " (" + counting
+                           + " counting down)");
+
+        return count;
+    }
+
+    /**
+     * Switch on every alarm in the group that is off, so that it counts
+     * down. Returns the number of alarms switched on.
+     */
+    public int armGroup(String group) {
+
+        Alarm[]    alarms;
+        Runnable[] tasks;
+        long[]     times;
+        int[]      generations;
+        int        count = 0;
+
+        synchronized (store) {
+            int[] rows = store.getGroupRows(group);
+            long  now  = AlarmClock.get().currentTimeMillis();
+
+            alarms      = new Alarm[rows.length];
+            tasks       = new Runnable[rows.length];
+            times       = new long[rows.length];
+            generations = new int[rows.length];
+
+            for (int x = 0; x < rows.length; x++) {
+                int   row   = rows[x];
+                Alarm alarm = store.getAlarm(row);
+
+                if (store.isActive(row)) {
+                    continue;
+                }
+
+                store.setStartTime(row, now);
+
+                alarms[count]      = alarm;
+                generations[count] = alarm.switchOn();
+                tasks[count]       = alarm.getGoOffTask(generations[count]);
+                times[count]       = store.getGoOffTime(row);
+                count++;
+            }
+        }
+
+        prefetchSounds(alarms, count);
+
+        AlarmScheduler.Timeout[] timeouts =
+            AlarmScheduler.getInstance().scheduleAllAt(tasks, times, count);
+
+        for (int x = 0; x < count; x++) {
+            alarms[x].armed(timeouts[x], generations[x]);
+        }
+
+        System.out.println("armGroup() - " + group + ", armed " + count);
+
+        return count;
+    }
+
+    /**
+     * Switch off every alarm in the group that is on, silencing those
+     * ringing. Returns the number of alarms switched off.
+     */
+    public int disarmGroup(String group) {
+
+        Alarm[]                  alarms;
+        AlarmScheduler.Timeout[] timeouts;
+        int                      count = 0;
+
+        synchronized (store) {
+            int[] rows = store.getGroupRows(group);
+
+            alarms   = new Alarm[rows.length];
+            timeouts = new AlarmScheduler.Timeout[rows.length];
+
+            for (int x = 0; x < rows.length; x++) {
+                int row = rows[x];
+
+                if (!store.isActive(row)) {
+                    continue;
+                }
+
+                store.setFlag(row, AlarmStore.ACTIVE, false);
+
+                alarms[count]   = store.getAlarm(row);
+                timeouts[count] = alarms[count].getTimeout();
+                count++;
+            }
+        }
+
+        AlarmScheduler.getInstance().cancelAll(timeouts, count);
+
+        // the events are cancelled already, so this only silences any
+        // ringing and hands back leases
+        for (int x = 0; x < count; x++) {
+            alarms[x].halt();
+        }
+
+        System.out.println("disarmGroup() - " + group + ", disarmed " + count);
+
+        return count;
+    }
+
+    /** Decode each distinct sound of the alarms once, before they ring */
+    private void prefetchSounds(Alarm[] alarms, int count) {
+
+        String  last          = null;
+        boolean defaultLoaded = false;
+
+        for (int x = 0; x < count; x++) {
+            String sound = alarms[x].getSound();
+
+            if (sound == null) {
+                if (!defaultLoaded) {
+                    AlarmAudio.getDefaultSound();
+                    defaultLoaded = true;
+                }
+            } else if (!sound.equals(last)) {
+                SoundCache.getInstance().load(sound);
+                last = sound;
+            }
+        }
+    }
+
+    /** Return the milliseconds left before an alarm goes off (0 if past) */
+    public long getTimeLeft(int row) {
+        return Math.max(store.getGoOffTime(row)
+                        - AlarmClock.get().currentTimeMillis(), 0);
+    }
+
+    /** Subscribe to go-off events of every alarm */
+    public void addAlarmListener(AlarmListener listener) {
+        store.addAlarmListener(listener);
+    }
+
+    public void removeAlarmListener(AlarmListener listener) {
+        store.removeAlarmListener(listener);
+    }
+
+    /**
+     * Stop every alarm and save the journal, handing any shared alarms to
+     * the other processes at once. Only the armed and ringing alarms have
+     * anything to stop; their events are cancelled in one go, as
+     * disarmGroup() does, and their flags are left as they are, to be
+     * re-armed when the alarms are next loaded.
+     */
+    public void shutdown() {
+
+        AlarmClock.get().removeJumpListener(this);
+
+        Alarm[]                  alarms;
+        AlarmScheduler.Timeout[] timeouts;
+        int                      count = 0;
+
+        synchronized (store) {
+            alarms   = new Alarm[store.size()];
+            timeouts = new AlarmScheduler.Timeout[store.size()];
+
+            for (int row = 0; row < store.size(); row++) {
+                if (store.isActive(row)) {
+                    alarms[count]   = store.getAlarm(row);
+                    timeouts[count] = alarms[count].getTimeout();
+                    count++;
+                }
+            }
+        }
+
+        AlarmScheduler.getInstance().cancelAll(timeouts, count);
+
+        // silences any ringing and hands back leases, without logging each
+        for (int x = 0; x < count; x++) {
+            alarms[x].halt();
+        }
+
+        System.out.println("shutdown() - stopped " + count + " alarms");
+
+        if (store.getLeases() != null) {
+            store.getLeases().close();
+        }
+
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package multialarms;
+
+/*
+ * Title:        AlarmEngineMXBean
+ * Description:  Management interface of a running alarm engine
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * What JMX tools (jconsole, VisualVM, a JMX exporter ...) see of a running
+ * MultiAlarms, as "multialarms:type=AlarmEngine" - see AlarmMonitor.
+ * Times are in microseconds.
+ */
+public interface AlarmEngineMXBean {
+
+    /** Number of alarms */
+    public int getAlarms();
+
+    /** Alarms switched on and counting down */
+    public int getArmedAlarms();
+
+    /** Alarms switched on that have gone off */
+    public int getRingingAlarms();
+
+    /** Alarms switched off */
+    public int getIdleAlarms();
+
+    /** Go-off events (and ring timeouts) waiting in the scheduler */
+    public int getSchedulerQueueDepth();
+
+    /** Live scheduler and timer threads */
+    public int getTimerThreads();
+
+    /** Live audio render threads */
+    public int getAudioThreads();
+
+    /** Progress ticks of the table (0 when running headless) */
+    public long getTicks();
+
+    /** Duration of the last progress tick */
+    public long getLastTickMicros();
+
+    /** Mean duration of a progress tick */
+    public long getMeanTickMicros();
+
+    /** Longest progress tick */
+    public long getMaxTickMicros();
+
+    /** Alarms gone off since the engine started */
+    public long getTotalFires();
+
+    /** Alarms gone off in the last minute */
+    public int getFiresPerMinute();
+
+    /** 99th percentile of how late alarms go off (see LatencyHistogram) */
+    public long getFireLatencyP99Micros();
+
+    /** Latest an alarm has gone off */
+    public long getFireLatencyMaxMicros();
+
+    /** Fire actions queued (see ActionDispatcher) */
+    public long getActionsDispatched();
+
+    /** Fire actions that have thrown */
+    public long getActionsFailed();
+
+    /** Fire actions interrupted for running past their timeout */
+    public long getActionsTimedOut();
+
+    /** Fire actions dropped because the queue was full */
+    public long getActionsRejected();
+
+    /** Fire actions waiting for a thread */
+    public int getActionQueueDepth();
+
+    /** Live fire action threads */
+    public int getActionThreads();
+
+    /** 99th percentile of how long fire actions wait to start */
+    public long getActionDispatchP99Micros();
+
+    /** Wall clock jumps the engine has re-armed for (see AlarmClock) */
+    public int getClockJumps();
+
+    /** What happens to alarms missed across a jump: fire, skip or collapse */
+    public String getCatchUp();
+
+    public void setCatchUp(String policy);
+
+    /** Switch on the alarm with the given number; false if there is none */
+    public boolean arm(int alarmNumber);
+
+    /** Switch off the alarm with the given number; false if there is none */
+    public boolean disarm(int alarmNumber);
+}
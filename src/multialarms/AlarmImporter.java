@@ -0,0 +1,276 @@
+package multialarms;
+
+/*
+ * Title:        AlarmImporter
+ * Description:  Streams alarm schedules from a CSV file in fixed-size chunks
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.text.ParseException;
+
+/**
+ * Reads alarms from CSV, one per line:
+ *
+ *   time, description [, sound [, active]]
+ *
+ * The time is written as it would be typed into the table's Set column
+ * ("HH:mm", "E HH:mm", "yyyy-MM-dd HH:mm" or "+15m" - see AlarmTime). The
+ * sound is a file name or URL (empty for the default sound), and active is
+ * true/false, yes/no, on/off or 1/0 (default false). Fields may be quoted
+ * with "..." (a doubled "" is a quote), but not across lines. A first line
+ * that starts with "time" is taken as a header.
+ *
+ * Rows are parsed and checked into one re-used Chunk of at most CHUNK_ROWS
+ * rows, so memory stays bounded however long the file is. Bad lines are
+ * counted and reported, and skipped.
+ */
+class AlarmImporter {
+
+    /** Rows per chunk - each chunk is added to the table in one go */
+    public static final int CHUNK_ROWS = 4096;
+
+    /** Bad lines reported before the rest are only counted */
+    private static final int MAX_REPORTED = 20;
+
+    private BufferedReader in;
+
+    /** When the import started - relative times are from here */
+    private long now = AlarmClock.get().currentTimeMillis();
+
+    /** Last sound field and its URL - sounds are usually repeated */
+    private String lastSound;
+    private String lastSoundURL;
+
+    /** The chunk handed out by next() */
+    private Chunk chunk = new Chunk(CHUNK_ROWS);
+
+    /** Fields of the line being parsed */
+    private String[] fields = new String[4];
+
+    private StringBuffer field = new StringBuffer();
+
+    private int lineNumber;
+    private int imported;
+    private int rejected;
+
+    /** Create an importer reading the given CSV text */
+    public AlarmImporter(Reader reader) {
+
+        in = new BufferedReader(reader, 64 * 1024);
+    }
+
+    /**
+     * Parse the next chunk of good rows. Returns null at the end of the
+     * file. The chunk is re-used by the next call.
+     */
+    public Chunk next() throws IOException {
+
+        chunk.size = 0;
+
+        String line;
+        while (chunk.size < CHUNK_ROWS && (line = in.readLine()) != null) {
+
+            lineNumber++;
+
+            if (line.trim().length() == 0) {
+                continue;
+            }
+
+            if (lineNumber == 1 && line.regionMatches(true, 0, "time", 0, 4)) {
+                continue;   // header
+            }
+
+            String error = parse(line);
+            if (error != null) {
+                if (++rejected <= MAX_REPORTED) {
+                    System.out.println("AlarmImporter - line " + lineNumber
+                                       + ": " + error);
+                }
+            } else {
+                chunk.size++;
+                imported++;
+            }
+        }
+
+        return chunk.size > 0 ? chunk : null;
+    }
+
+    /** Close the file */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** Number of lines read so far */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /** Number of rows returned so far */
+    public int getImported() {
+        return imported;
+    }
+
+    /** Number of bad lines skipped so far */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /** Parse a line into the next chunk row; return an error or null */
+    private String parse(String line) {
+
+        int count = split(line);
+        if (count < 0) {
+            return "unterminated quote";
+        }
+        if (count < 2) {
+            return "expected time, description [, sound [, active]]";
+        }
+
+        int  row  = chunk.size;
+        long time = parseTime(fields[0]);
+
+        if (time < 0) {
+            return "bad time '" + fields[0] + "'";
+        }
+
+        chunk.goOffTime[row]   = time;
+        chunk.timeString[row]  = AlarmTime.format(time, now);
+        chunk.description[row] = fields[1];
+        chunk.sound[row]       = null;
+        chunk.active[row]      = false;
+
+        if (count > 2 && fields[2].length() > 0) {
+            if (!fields[2].equals(lastSound)) {
+                try {
+                    lastSoundURL = soundURL(fields[2]);
+                } catch (MalformedURLException ex) {
+                    return "bad sound '" + fields[2] + "'";
+                }
+                lastSound = fields[2];
+            }
+            chunk.sound[row] = lastSoundURL;
+        }
+
+        if (count > 3) {
+            String active = fields[3];
+
+            if (active.equalsIgnoreCase("true") || active.equalsIgnoreCase("yes")
+                || active.equalsIgnoreCase("on") || active.equals("1")) {
+                chunk.active[row] = true;
+            } else if (!(active.equalsIgnoreCase("false")
+                         || active.equalsIgnoreCase("no")
+                         || active.equalsIgnoreCase("off")
+                         || active.equals("0") || active.length() == 0)) {
+                return "bad active flag '" + active + "'";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Split a CSV line into fields (at most fields.length; any more are
+     * ignored). Returns the number of fields, or -1 for an open quote.
+     */
+    private int split(String line) {
+
+        int count = 0;
+        int pos   = 0;
+        int end   = line.length();
+
+        while (pos <= end && count < fields.length) {
+
+            field.setLength(0);
+
+            // skip leading blanks
+            while (pos < end && line.charAt(pos) == ' ') {
+                pos++;
+            }
+
+            if (pos < end && line.charAt(pos) == '"') {
+                pos++;
+                while (true) {
+                    if (pos >= end) {
+                        return -1;
+                    }
+                    char c = line.charAt(pos++);
+                    if (c == '"') {
+                        if (pos < end && line.charAt(pos) == '"') {
+                            field.append('"');
+                            pos++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+                int comma = line.indexOf(',', pos);
+                pos = comma < 0 ? end : comma;
+                fields[count++] = field.toString();
+            } else {
+                int comma = line.indexOf(',', pos);
+                int stop  = comma < 0 ? end : comma;
+                fields[count++] = line.substring(pos, stop).trim();
+                pos = stop;
+            }
+
+            pos++;      // past the comma
+        }
+
+        return count;
+    }
+
+    /**
+     * Parse a time the way the table's Set column does (see
+     * AlarmTime.parse()). Returns the go-off time, or -1 if it isn't valid.
+     */
+    private long parseTime(String s) {
+
+        try {
+            return AlarmTime.parse(s, now);
+        } catch (ParseException ex) {
+            return -1;
+        }
+    }
+
+    /** Turn a sound field (file name or URL) into a URL string */
+    private static String soundURL(String sound) throws MalformedURLException {
+
+        if (sound.indexOf(":/") > 1) {
+            return new java.net.URL(sound).toExternalForm();
+        }
+
+        return new File(sound).toURI().toURL().toExternalForm();
+    }
+
+    /**
+     * A batch of parsed rows, as parallel arrays - see AlarmStore.addAll()
+     */
+    static final class Chunk {
+
+        final long[]    goOffTime;
+        final String[]  timeString;
+        final String[]  description;
+        final String[]  sound;          // URL, or null for the default
+        final boolean[] active;
+
+        /** Number of rows in use */
+        int size;
+
+        Chunk(int capacity) {
+            goOffTime   = new long[capacity];
+            timeString  = new String[capacity];
+            description = new String[capacity];
+            sound       = new String[capacity];
+            active      = new boolean[capacity];
+        }
+    }
+}
@@ -0,0 +1,1020 @@
+package multialarms;
+
+/*
+ * Title:        AlarmJournal
+ * Description:  Memory-mapped, append-only journal of alarm changes
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Records every change made to an AlarmStore so alarms survive a restart.
+ *
+ * Changes are appended to a memory-mapped journal file, which costs a
+ * memory copy on the calling thread - the mapping is forced to disk once a
+ * second by a background thread. When the journal is half full it is
+ * compacted: the store's rows are copied and appends switch to a second
+ * journal file, cleared and mapped beforehand, which is all that holds up
+ * changes to the store. The background thread then forces the old journal,
+ * writes the copy out as a snapshot and clears the old file for next time.
+ *
+ * Journals and snapshots carry a generation number. Snapshot G holds
+ * everything written before journal G was started, so recovery loads the
+ * snapshot and replays the journals of generation G and above, in order.
+ * A journal file is only re-used once the snapshot that covers it is safely
+ * on disk, so a crash at any point loses at most the last second.
+ *
+ * Journal layout: a header of MAGIC and generation, then records of
+ * [length][type, alarm number, fields][CRC32 of the body]. A zero length
+ * (the file is zero-filled) or a bad checksum marks the end.
+ */
+class AlarmJournal {
+
+    /** Size of each mapped journal file - in bytes */
+    public static final int JOURNAL_SIZE = 8 * 1024 * 1024;
+
+    /** How often the journal is forced to disk - in milliseconds */
+    public static final int FORCE_INTERVAL = 1000;
+
+    private static final int MAGIC = 0x4d414a31;     // "MAJ1"
+
+    /** Snapshots since alarm groups were added */
+    private static final int SNAPSHOT_MAGIC = 0x4d415333;     // "MAS3"
+
+    /** Snapshots with repeat rules but no groups (older ones use MAGIC) */
+    private static final int REPEAT_SNAPSHOT_MAGIC = 0x4d415332;   // "MAS2"
+
+    /** Header size - magic, generation and padding */
+    private static final int HEADER = 16;
+
+    /** Length and checksum around each record body */
+    private static final int FRAME = 8;
+
+    // record types
+    private static final byte ADD         = 1;
+    private static final byte REMOVE      = 2;
+    private static final byte TIME        = 3;
+    private static final byte DESCRIPTION = 4;
+    private static final byte FLAGS       = 5;
+    private static final byte START       = 6;
+    private static final byte SOUND       = 7;
+    private static final byte ROW         = 8;
+    private static final byte REPEAT      = 9;
+    private static final byte GROUP       = 10;
+
+    /** Directory holding the journal and snapshot files */
+    private File directory;
+
+    /** The journal files, used alternately */
+    private File[] journalFiles = new File[2];
+
+    private File snapshotFile;
+
+    /** The store being journalled */
+    private AlarmStore store;
+
+    /** Mapping of the journal currently appended to */
+    private MappedByteBuffer journal;
+
+    private FileChannel channel;
+
+    /**
+     * The other journal file, cleared and mapped ready for the next
+     * compaction, or null if it isn't ready (or is still needed)
+     */
+    private MappedByteBuffer spare;
+
+    private FileChannel spareChannel;
+
+    /** Which of journalFiles is current, and its generation */
+    private int  current;
+    private long generation;
+
+    /** Set by close() */
+    private boolean closed;
+
+    /** Set once a compaction has been queued, until it has completed */
+    private boolean compacting;
+
+    /** Set if a record could not be appended because the journal was full */
+    private boolean overflowed;
+
+    /** Set while an import is running - compaction waits until it is done */
+    private boolean importing;
+
+    private boolean compactionDeferred;
+
+    /**
+     * Set if a snapshot could not be written - the older journal is still
+     * needed for recovery, so no more compaction is attempted
+     */
+    private boolean compactionFailed;
+
+    /** Record body being built - re-used for every append */
+    private ByteBuffer body = ByteBuffer.allocate(64 * 1024);
+
+    private CRC32 crc = new CRC32();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // recovery state - only used while opening
+
+    /** Row of each alarm number, plus one (0 for none) */
+    private int[] rowOf;
+
+    /** Offset after the last good record of the journal replayed last */
+    private int journalEnd;
+
+    /**
+     * Rows whose alarms were removed - taken out in one go once every
+     * journal has been replayed, so later rows aren't shifted for each
+     */
+    private boolean[] removedRows;
+
+    private int removedCount;
+
+    /** String bytes being decoded */
+    private byte[] chars = new byte[256];
+
+    /** Forces the mapping to disk and writes snapshots */
+    private ScheduledExecutorService writer =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "AlarmJournal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /** Use open() */
+    private AlarmJournal(File directory) {
+
+        this.directory  = directory;
+        journalFiles[0] = new File(directory, "alarms.journal.0");
+        journalFiles[1] = new File(directory, "alarms.journal.1");
+        snapshotFile    = new File(directory, "alarms.snapshot");
+    }
+
+    /** The default journal directory, ~/.multialarms */
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("user.home"), ".multialarms");
+    }
+
+    /**
+     * Rebuild the store from the journal in the given directory (if there is
+     * one), then attach a journal to it so all further changes are recorded.
+     * Returns null, after printing the reason, if the journal can't be used.
+     */
+    public static AlarmJournal open(File directory, AlarmStore store) {
+
+        final AlarmJournal journal = new AlarmJournal(directory);
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("unable to create " + directory);
+            }
+
+            journal.store = store;
+
+            if (journal.recover(store)) {
+                // carry on appending where the last run stopped
+                journal.continueJournal(store);
+            } else {
+                // the recovered state becomes the next snapshot, so both
+                // journal files are free to be re-used from here on
+                journal.writeSnapshot(serialize(journal.copyRows(),
+                                                journal.generation + 1));
+                journal.prepareSpare();
+                journal.startNextJournal();
+                journal.force();
+                store.setJournal(journal);
+            }
+
+        } catch (IOException ex) {
+            System.out.println("AlarmJournal - " + ex.getMessage()
+                               + " (alarms will not be saved)");
+            return null;
+        }
+
+        // the other file is covered by the snapshot, so is free to clear
+        journal.writer.execute(new Runnable() {
+
+            public void run() {
+                journal.prepareSpare();
+            }
+        });
+
+        journal.writer.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                journal.force();
+            }
+        }, FORCE_INTERVAL, FORCE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        return journal;
+    }
+
+    // -------------------------------------------------------------------------
+    // APPENDING - called by AlarmStore after each change
+    //--------------------------------------------------------------------------
+
+    public synchronized void added(int num, long goOffTime) {
+        begin(ADD, num);
+        body.putLong(goOffTime);
+        append();
+    }
+
+    public synchronized void removed(int num) {
+        begin(REMOVE, num);
+        append();
+    }
+
+    public synchronized void timeSet(int num, long goOffTime) {
+        begin(TIME, num);
+        body.putLong(goOffTime);
+        append();
+    }
+
+    public synchronized void descriptionSet(int num, String description) {
+        begin(DESCRIPTION, num);
+        putString(description);
+        append();
+    }
+
+    public synchronized void flagsSet(int num, int flags) {
+        begin(FLAGS, num);
+        body.putInt(flags);
+        append();
+    }
+
+    public synchronized void startSet(int num, long startTime) {
+        begin(START, num);
+        body.putLong(startTime);
+        append();
+    }
+
+    public synchronized void soundSet(int num, String url, String name) {
+        begin(SOUND, num);
+        putString(url == null ? "" : url);
+        putString(name == null ? "" : name);
+        append();
+    }
+
+    public synchronized void recurrenceSet(int num, Recurrence rule) {
+        begin(REPEAT, num);
+        putString(rule == null ? "" : rule.toString());
+        append();
+    }
+
+    public synchronized void groupSet(int num, String group) {
+        begin(GROUP, num);
+        putString(group);
+        append();
+    }
+
+    /** A whole row added at once, eg. by an import */
+    public synchronized void rowAdded(int num, long goOffTime, long startTime,
+                                      int flags, String description,
+                                      String url, String name) {
+        begin(ROW, num);
+        body.putLong(goOffTime);
+        body.putLong(startTime);
+        body.putInt(flags);
+        putString(description);
+        putString(url == null ? "" : url);
+        putString(url == null ? "" : name);
+        append();
+    }
+
+    private void begin(byte type, int num) {
+        body.clear();
+        body.put(type);
+        body.putInt(num);
+    }
+
+    private void putString(String s) {
+
+        byte[] bytes = utf8(s);
+        int    max   = body.remaining() - 2;
+        int    len   = Math.min(bytes.length, Math.min(max, 0xffff));
+
+        body.putShort((short) len);
+        body.put(bytes, 0, len);
+    }
+
+    /** Frame the record body and copy it into the mapped journal */
+    private void append() {
+
+        if (journal == null) {
+            return;     // closed
+        }
+
+        int length = body.position();
+
+        if (journal.remaining() < length + FRAME) {
+            // the next snapshot holds this change, so just make sure one
+            // is on its way
+            overflowed = true;
+            requestCompaction();
+            return;
+        }
+
+        crc.reset();
+        crc.update(body.array(), 0, length);
+
+        journal.putInt(length);
+        journal.put(body.array(), 0, length);
+        journal.putInt((int) crc.getValue());
+
+        if (journal.position() > JOURNAL_SIZE / 2) {
+            requestCompaction();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // COMPACTION
+    //--------------------------------------------------------------------------
+
+    /**
+     * Hold back compaction while a large batch of rows is added. Rows that
+     * don't fit in the journal are dropped, and one snapshot taken by
+     * endImport() covers them all, rather than a snapshot of the growing
+     * store each time the journal fills. If the program stops part-way,
+     * those rows (and edits made meanwhile) are lost.
+     */
+    public synchronized void beginImport() {
+        importing = true;
+    }
+
+    /** Compact now if the import filled the journal */
+    public synchronized void endImport() {
+
+        importing = false;
+
+        if (compactionDeferred) {
+            compactionDeferred = false;
+            requestCompaction();
+        }
+    }
+
+    private void requestCompaction() {
+
+        if (importing) {
+            compactionDeferred = true;
+            return;
+        }
+
+        if (compacting || compactionFailed) {
+            return;
+        }
+
+        compacting = true;
+        writer.execute(new Runnable() {
+
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Copy the store's rows and switch to the other journal, then write the
+     * copy out as a snapshot. Runs on the writer thread; the store and the
+     * journal are locked only while the rows are copied and the journals
+     * switched - forcing, writing and clearing files all happen after.
+     */
+    private void compact() {
+
+        Rows             rows;
+        MappedByteBuffer previous;
+        FileChannel      previousChannel;
+        long             snapshotGeneration;
+
+        try {
+            // lock the store first, as the store does when it calls us
+            synchronized (store) {
+                synchronized (this) {
+                    if (journal == null) {
+                        return;
+                    }
+
+                    rows            = copyRows();
+                    previous        = journal;
+                    previousChannel = channel;
+                    startNextJournal();
+                    snapshotGeneration = generation;
+                }
+            }
+
+            // nothing appends to the previous journal now
+            previous.force();
+            previousChannel.close();
+            force();
+
+            writeSnapshot(serialize(rows, snapshotGeneration));
+
+            if (overflowed) {
+                System.out.println("AlarmJournal - journal filled before "
+                    + "compaction; snapshot " + snapshotGeneration
+                    + " covers the dropped records");
+            }
+
+            // the snapshot covers the previous journal, so its file is free
+            prepareSpare();
+
+        } catch (IOException ex) {
+            System.out.println("AlarmJournal - compaction failed: "
+                               + ex.getMessage());
+            synchronized (this) {
+                compactionFailed = true;
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                overflowed = false;
+            }
+        }
+    }
+
+    /** The store's rows, copied under its lock to be written out after */
+    private static class Rows {
+
+        int          nextAlarmNum;
+        int          size;
+        int[]        num;
+        long[]       goOffTime;
+        long[]       startTime;
+        int[]        flags;
+        String[]     description;
+        String[]     sound;
+        String[]     soundName;
+        Recurrence[] rule;
+        String[]     group;
+    }
+
+    /** Copy the store's rows - the store must be locked */
+    private Rows copyRows() {
+
+        Rows rows = new Rows();
+        int  size = store.size();
+
+        rows.nextAlarmNum = store.getNextAlarmNum();
+        rows.size         = size;
+        rows.num          = new int[size];
+        rows.goOffTime    = new long[size];
+        rows.startTime    = new long[size];
+        rows.flags        = new int[size];
+        rows.description  = new String[size];
+        rows.sound        = new String[size];
+        rows.soundName    = new String[size];
+        rows.rule         = new Recurrence[size];
+        rows.group        = new String[size];
+
+        for (int row = 0; row < size; row++) {
+            rows.num[row]         = store.getAlarmNum(row).intValue();
+            rows.goOffTime[row]   = store.getGoOffTime(row);
+            rows.startTime[row]   = store.getStartTime(row);
+            rows.flags[row]       = store.getFlags(row);
+            rows.description[row] = store.getDescription(row);
+            rows.sound[row]       = store.getSound(row);
+            rows.soundName[row]   = store.getSoundName(row);
+            rows.rule[row]        = store.getRecurrence(row);
+            rows.group[row]       = store.getGroup(row);
+        }
+
+        return rows;
+    }
+
+    /** Write copied rows in snapshot format */
+    private static byte[] serialize(Rows rows, long snapshotGeneration)
+            throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            64 + rows.size * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(snapshotGeneration);
+        out.writeInt(rows.nextAlarmNum);
+        out.writeInt(rows.size);
+
+        for (int row = 0; row < rows.size; row++) {
+            String     sound = rows.sound[row];
+            Recurrence rule  = rows.rule[row];
+
+            out.writeInt(rows.num[row]);
+            out.writeLong(rows.goOffTime[row]);
+            out.writeLong(rows.startTime[row]);
+            out.writeInt(rows.flags[row]);
+            writeString(out, rows.description[row]);
+            writeString(out, sound == null ? "" : sound);
+            writeString(out, sound == null ? "" : rows.soundName[row]);
+            writeString(out, rule == null ? "" : rule.toString());
+            writeString(out, rows.group[row]);
+        }
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /** Write a string as its UTF-8 length and bytes, as in journal records */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+
+        byte[] bytes = utf8(s);
+        int    len   = Math.min(bytes.length, 0xffff);
+
+        out.writeShort(len);
+        out.write(bytes, 0, len);
+    }
+
+    /** Write a snapshot to a temporary file, sync it, then move it in place */
+    private void writeSnapshot(byte[] snapshot) throws IOException {
+
+        File             temp = new File(directory, "alarms.snapshot.tmp");
+        FileOutputStream out  = new FileOutputStream(temp);
+
+        try {
+            out.write(snapshot);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        Files.move(temp.toPath(), snapshotFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Clear the journal file not in use and map it, ready for the next
+     * compaction. Called on the writer thread (or while opening), once no
+     * snapshot needs the file's records; the slow part holds no lock.
+     */
+    private void prepareSpare() {
+
+        synchronized (this) {
+            if (spare != null || closed || compactionFailed) {
+                return;
+            }
+        }
+
+        File file = journalFiles[(current + 1) % journalFiles.length];
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            raf.setLength(0);       // drop the old records ...
+            raf.setLength(JOURNAL_SIZE);    // ... and zero-fill
+
+            FileChannel      fileChannel = raf.getChannel();
+            MappedByteBuffer mapped      = fileChannel.map(
+                FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+
+            synchronized (this) {
+                if (closed) {
+                    fileChannel.close();    // closed meanwhile
+                    return;
+                }
+                spare        = mapped;
+                spareChannel = fileChannel;
+            }
+
+        } catch (IOException ex) {
+            // startNextJournal() will try again when it is needed
+            System.out.println("AlarmJournal - " + file + ": "
+                               + ex.getMessage());
+        }
+    }
+
+    /**
+     * Switch appends to the spare journal file as the next generation -
+     * clearing it here if prepareSpare() hasn't. The caller holds the lock
+     * (or is still opening), and closes the previous channel once its
+     * journal is forced; the new header is forced by the next force().
+     */
+    private void startNextJournal() throws IOException {
+
+        if (spare == null) {
+            prepareSpare();
+            if (spare == null) {
+                throw new IOException("unable to clear "
+                    + journalFiles[(current + 1) % journalFiles.length]);
+            }
+        }
+
+        channel      = spareChannel;
+        journal      = spare;
+        spareChannel = null;
+        spare        = null;
+
+        generation++;
+        current = (current + 1) % journalFiles.length;
+
+        journal.putInt(MAGIC);
+        journal.putLong(generation);
+        journal.position(HEADER);
+    }
+
+    /**
+     * Re-open the current journal file (left by recover()) and append after
+     * its last good record. Only called while opening.
+     */
+    private void continueJournal(AlarmStore store) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(journalFiles[current],
+                                                     "rw");
+
+        channel = file.getChannel();
+        journal = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                              JOURNAL_SIZE);
+        journal.position(journalEnd);
+
+        store.setJournal(this);
+
+        if (journalEnd > JOURNAL_SIZE / 2) {
+            requestCompaction();
+        }
+    }
+
+    /** Force the journal mapping to disk */
+    private void force() {
+
+        MappedByteBuffer mapped;
+
+        synchronized (this) {
+            mapped = journal;
+        }
+
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /** Force everything to disk and stop journalling */
+    public void close() {
+
+        synchronized (this) {
+            if (journal == null) {
+                return;
+            }
+
+            journal.force();
+            journal = null;
+            spare   = null;
+            closed  = true;
+
+            try {
+                channel.close();
+                if (spareChannel != null) {
+                    spareChannel.close();
+                    spareChannel = null;
+                }
+            } catch (IOException ex) {
+                System.out.println("AlarmJournal - " + ex.getMessage());
+            }
+        }
+
+        writer.shutdown();
+    }
+
+    // -------------------------------------------------------------------------
+    // RECOVERY
+    //--------------------------------------------------------------------------
+
+    /**
+     * Load the snapshot, then replay the journals of the same generation
+     * and newer into the (empty) store. Returns true if the newest journal
+     * can simply be appended to: the snapshot is of the same generation, so
+     * the other journal file is no longer needed.
+     */
+    private boolean recover(AlarmStore store) throws IOException {
+
+        long start = System.currentTimeMillis();
+
+        // the store is not journalled while it is being rebuilt
+        store.setJournal(null);
+
+        long snapshotGeneration = readSnapshot(store);
+
+        generation = snapshotGeneration;
+
+        long[] journalGeneration = new long[journalFiles.length];
+        for (int x = 0; x < journalFiles.length; x++) {
+            journalGeneration[x] = readGeneration(journalFiles[x]);
+        }
+
+        // replay oldest first
+        int     first    = journalGeneration[0] <= journalGeneration[1] ? 0 : 1;
+        int     records  = 0;
+        boolean replayed = false;
+
+        for (int x = first; x < first + journalFiles.length; x++) {
+            int index = x % journalFiles.length;
+
+            if (journalGeneration[index] >= snapshotGeneration
+                && journalGeneration[index] > 0) {
+
+                records   += replay(journalFiles[index], store);
+                generation = journalGeneration[index];
+                current    = index;
+                replayed   = true;
+            }
+        }
+
+        if (removedCount > 0) {
+            store.removeRows(removedRows);
+        }
+
+        rowOf       = null;
+        removedRows = null;
+
+        if (store.size() > 0 || records > 0) {
+            System.out.println("AlarmJournal - recovered " + store.size()
+                + " alarms (" + records + " journal records) in "
+                + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        return replayed && generation == snapshotGeneration;
+    }
+
+    /** Load the snapshot into the store, returning its generation (or 0) */
+    private long readSnapshot(AlarmStore store) throws IOException {
+
+        rowOf = new int[64];
+
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r");
+
+        try {
+            MappedByteBuffer in = raf.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+            int magic = in.getInt();
+            if (magic != MAGIC && magic != REPEAT_SNAPSHOT_MAGIC
+                && magic != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshotFile + " is not a snapshot");
+            }
+
+            long snapshotGeneration = in.getLong();
+            int  nextAlarmNum       = in.getInt();
+            int  count              = in.getInt();
+
+            rowOf = new int[Math.max(nextAlarmNum, 64)];
+            store.ensureCapacity(count);
+
+            for (int x = 0; x < count; x++) {
+                int    num       = in.getInt();
+                long   goOffTime = in.getLong();
+                long   startTime = in.getLong();
+                int    flags     = in.getInt();
+                String desc      = getString(in);
+                String sound     = getString(in);
+                String soundName = getString(in);
+                String repeat    = magic == MAGIC ? "" : getString(in);
+                String group     = magic == SNAPSHOT_MAGIC ? getString(in)
+                                                           : "";
+
+                int row = store.restore(num, goOffTime, startTime, flags,
+                                        desc);
+                if (sound.length() > 0) {
+                    store.setSound(row, sound, soundName);
+                }
+                if (repeat.length() > 0) {
+                    store.setRecurrence(row, recurrence(repeat));
+                }
+                if (group.length() > 0) {
+                    store.setGroup(row, group);
+                }
+                setRow(num, row);
+            }
+
+            store.setNextAlarmNum(nextAlarmNum);
+
+            return snapshotGeneration;
+
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Return the generation of a journal file, or 0 if there isn't one */
+    private long readGeneration(File file) throws IOException {
+
+        if (!file.exists() || file.length() < HEADER) {
+            return 0;
+        }
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try {
+            return in.readInt() == MAGIC ? in.readLong() : 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Apply the records of one journal file, returning how many there were.
+     * Leaves journalEnd at the end of the last good record.
+     */
+    private int replay(File file, AlarmStore store) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        int              records = 0;
+
+        try {
+            MappedByteBuffer in = raf.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+            in.position(HEADER);
+            journalEnd = HEADER;
+
+            while (in.remaining() >= FRAME) {
+                int length = in.getInt();
+
+                if (length <= 0 || length > in.remaining() - 4) {
+                    break;      // end of the journal
+                }
+
+                byte[] record = new byte[length];
+                in.get(record);
+
+                crc.reset();
+                crc.update(record, 0, length);
+                if (in.getInt() != (int) crc.getValue()) {
+                    System.out.println("AlarmJournal - torn record in "
+                                       + file + ", replay stopped");
+                    break;
+                }
+
+                apply(ByteBuffer.wrap(record), store);
+                records++;
+                journalEnd = in.position();
+            }
+        } finally {
+            raf.close();
+        }
+
+        return records;
+    }
+
+    /** Apply one journal record to the store */
+    private void apply(ByteBuffer record, AlarmStore store) throws IOException {
+
+        byte type = record.get();
+        int  num  = record.getInt();
+
+        if (type == ADD) {
+            setRow(num, store.restore(num, record.getLong(), 0, 0,
+                                      "alarm " + num));
+            store.setNextAlarmNum(Math.max(store.getNextAlarmNum(), num + 1));
+            return;
+        }
+
+        if (type == ROW) {
+            long   goOffTime = record.getLong();
+            long   startTime = record.getLong();
+            int    flags     = record.getInt();
+            String desc      = getString(record);
+            String sound     = getString(record);
+            String soundName = getString(record);
+
+            int row = store.restore(num, goOffTime, startTime, flags, desc);
+            if (sound.length() > 0) {
+                store.setSound(row, sound, soundName);
+            }
+            setRow(num, row);
+            store.setNextAlarmNum(Math.max(store.getNextAlarmNum(), num + 1));
+            return;
+        }
+
+        int r = num < rowOf.length ? rowOf[num] - 1 : -1;
+
+        if (r < 0) {
+            return;     // alarm already removed
+        }
+
+        switch (type) {
+
+        case REMOVE :
+            // the row stays, unreachable, until recover() takes them all out
+            if (removedRows == null || r >= removedRows.length) {
+                boolean[] larger = new boolean[Math.max(r + 1,
+                                                        store.size() * 2)];
+                if (removedRows != null) {
+                    System.arraycopy(removedRows, 0, larger, 0,
+                                     removedRows.length);
+                }
+                removedRows = larger;
+            }
+            removedRows[r] = true;
+            removedCount++;
+            rowOf[num] = 0;
+            break;
+
+        case TIME :
+            store.setGoOffTime(r, record.getLong(), "");
+            break;
+
+        case DESCRIPTION :
+            store.setDescription(r, getString(record));
+            break;
+
+        case FLAGS :
+            store.setFlags(r, record.getInt());
+            break;
+
+        case START :
+            store.setStartTime(r, record.getLong());
+            break;
+
+        case SOUND :
+            String url  = getString(record);
+            String name = getString(record);
+            store.setSound(r, url.length() == 0 ? null : url, name);
+            break;
+
+        case REPEAT :
+            store.setRecurrence(r, recurrence(getString(record)));
+            break;
+
+        case GROUP :
+            store.setGroup(r, getString(record));
+            break;
+
+        default :
+            throw new IOException("unknown journal record type " + type);
+        }
+    }
+
+    /** Parse a saved repeat rule (null if it is no longer valid) */
+    private static Recurrence recurrence(String rule) {
+
+        try {
+            return Recurrence.parse(rule);
+        } catch (IllegalArgumentException ex) {
+            System.out.println("AlarmJournal - " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /** Record the row of an alarm number while recovering */
+    private void setRow(int num, int row) {
+
+        if (num >= rowOf.length) {
+            int[] larger = new int[Math.max(num + 1, rowOf.length * 2)];
+            System.arraycopy(rowOf, 0, larger, 0, rowOf.length);
+            rowOf = larger;
+        }
+
+        rowOf[num] = row + 1;   // 0 means no row
+    }
+
+    /** Read a string written by putString() or writeString() */
+    private String getString(ByteBuffer in) {
+
+        int len = in.getShort() & 0xffff;
+
+        if (len == 0) {
+            return "";      // most rows have the default sound
+        }
+
+        if (chars.length < len) {
+            chars = new byte[Math.max(len, chars.length * 2)];
+        }
+        in.get(chars, 0, len);
+
+        return new String(chars, 0, len, UTF8);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(UTF8);
+    }
+}
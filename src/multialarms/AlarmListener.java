@@ -0,0 +1,23 @@
+package multialarms;
+
+/*
+ * Title:        AlarmListener
+ * Description:  Notified when an alarm goes off
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * Receives go-off events from an AlarmEngine - see
+ * AlarmEngine.addAlarmListener()
+ */
+public interface AlarmListener {
+
+    /**
+     * The given alarm has just gone off. Called on the scheduler thread, so
+     * implementations should return quickly (and hand any Swing work to the
+     * event dispatch thread).
+     */
+    public void alarmGoneOff(Alarm alarm);
+}
@@ -0,0 +1,266 @@
+package multialarms;
+
+/*
+ * Title:        AlarmMonitor
+ * Description:  Exposes an alarm engine's state and counters through JMX
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The AlarmEngineMXBean of the process's engine, registered with the
+ * platform MBean server by register(). Counts are read from the store
+ * when asked for; fires are counted by listening to the engine, and the
+ * table model reports its progress ticks through tickDone().
+ */
+class AlarmMonitor implements AlarmEngineMXBean, AlarmListener {
+
+    /** Name the engine is registered under */
+    public static final String OBJECT_NAME = "multialarms:type=AlarmEngine";
+
+    private final AlarmEngine engine;
+
+    /** Fires counted per second, over the last 60 seconds */
+    private final long[] fireSeconds = new long[60];
+    private final int[]  fireCounts  = new int[60];
+    private long         totalFires;
+
+    /** Progress tick durations - in nanoseconds */
+    private volatile long lastTick;
+    private long          tickTotal;
+    private long          maxTick;
+    private long          ticks;
+
+    private AlarmMonitor(AlarmEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Register a monitor of the engine with the platform MBean server.
+     * Returns it, or null (after printing the reason) if it can't be.
+     */
+    public static AlarmMonitor register(AlarmEngine engine) {
+
+        AlarmMonitor monitor = new AlarmMonitor(engine);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName  name   = new ObjectName(OBJECT_NAME);
+
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(monitor, name);
+
+        } catch (JMException ex) {
+            System.out.println("AlarmMonitor - " + ex.getMessage());
+            return null;
+        }
+
+        engine.addAlarmListener(monitor);
+
+        return monitor;
+    }
+
+    /** Count a fire (on the scheduler thread) */
+    public synchronized void alarmGoneOff(Alarm alarm) {
+
+        long second = System.currentTimeMillis() / 1000;
+        int  slot   = (int) (second % fireSeconds.length);
+
+        if (fireSeconds[slot] != second) {
+            fireSeconds[slot] = second;
+            fireCounts[slot]  = 0;
+        }
+
+        fireCounts[slot]++;
+        totalFires++;
+    }
+
+    /** Record the duration of a progress tick, in nanoseconds */
+    public synchronized void tickDone(long nanos) {
+
+        lastTick   = nanos;
+        tickTotal += nanos;
+        maxTick    = Math.max(maxTick, nanos);
+        ticks++;
+    }
+
+    // -------------------------------------------------------------------------
+    // ATTRIBUTES
+    //--------------------------------------------------------------------------
+
+    public int getAlarms() {
+        return engine.size();
+    }
+
+    public int getArmedAlarms() {
+        return engine.getStore().countFlags(
+            AlarmStore.ACTIVE | AlarmStore.GONE_OFF, AlarmStore.ACTIVE);
+    }
+
+    public int getRingingAlarms() {
+        return engine.getStore().countFlags(
+            AlarmStore.ACTIVE | AlarmStore.GONE_OFF,
+            AlarmStore.ACTIVE | AlarmStore.GONE_OFF);
+    }
+
+    public int getIdleAlarms() {
+        return engine.getStore().countFlags(AlarmStore.ACTIVE, 0);
+    }
+
+    public int getSchedulerQueueDepth() {
+        return AlarmScheduler.getInstance().getPending();
+    }
+
+    public int getTimerThreads() {
+        return countThreads(new String[] { "AlarmScheduler", "Timer-",
+                                           "TimerQueue" });
+    }
+
+    public int getAudioThreads() {
+        return countThreads(new String[] { "AlarmAudio" });
+    }
+
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    public long getLastTickMicros() {
+        return lastTick / 1000;
+    }
+
+    public synchronized long getMeanTickMicros() {
+        return ticks == 0 ? 0 : tickTotal / ticks / 1000;
+    }
+
+    public synchronized long getMaxTickMicros() {
+        return maxTick / 1000;
+    }
+
+    public synchronized long getTotalFires() {
+        return totalFires;
+    }
+
+    public synchronized int getFiresPerMinute() {
+
+        long now   = System.currentTimeMillis() / 1000;
+        int  count = 0;
+
+        for (int x = 0; x < fireSeconds.length; x++) {
+            if (now - fireSeconds[x] < fireSeconds.length) {
+                count += fireCounts[x];
+            }
+        }
+
+        return count;
+    }
+
+    public long getFireLatencyP99Micros() {
+        return LatencyHistogram.FIRED.getPercentile(99);
+    }
+
+    public long getFireLatencyMaxMicros() {
+        return LatencyHistogram.FIRED.getMax();
+    }
+
+    public long getActionsDispatched() {
+        return ActionDispatcher.getInstance().getDispatched();
+    }
+
+    public long getActionsFailed() {
+        return ActionDispatcher.getInstance().getFailed();
+    }
+
+    public long getActionsTimedOut() {
+        return ActionDispatcher.getInstance().getTimedOut();
+    }
+
+    public long getActionsRejected() {
+        return ActionDispatcher.getInstance().getRejected();
+    }
+
+    public int getActionQueueDepth() {
+        return ActionDispatcher.getInstance().getQueued();
+    }
+
+    public int getActionThreads() {
+        return countThreads(new String[] { "FireAction" });
+    }
+
+    public long getActionDispatchP99Micros() {
+        return LatencyHistogram.DISPATCHED.getPercentile(99);
+    }
+
+    public int getClockJumps() {
+        return engine.getClockJumps();
+    }
+
+    public String getCatchUp() {
+        return AlarmEngine.getCatchUpName(engine.getCatchUp());
+    }
+
+    public void setCatchUp(String policy) {
+        engine.setCatchUp(AlarmEngine.parseCatchUp(policy));
+    }
+
+    // -------------------------------------------------------------------------
+    // OPERATIONS
+    //--------------------------------------------------------------------------
+
+    public boolean arm(int alarmNumber) {
+
+        int row = engine.getStore().findRow(alarmNumber);
+
+        if (row < 0) {
+            return false;
+        }
+
+        engine.arm(row);
+        return true;
+    }
+
+    public boolean disarm(int alarmNumber) {
+
+        int row = engine.getStore().findRow(alarmNumber);
+
+        if (row < 0) {
+            return false;
+        }
+
+        engine.cancel(row);
+        return true;
+    }
+
+    /** Count live threads whose names start with one of the prefixes */
+    private static int countThreads(String[] prefixes) {
+
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+
+        Thread[] threads = new Thread[root.activeCount() + 8];
+        int      live    = root.enumerate(threads, true);
+        int      count   = 0;
+
+        for (int x = 0; x < live; x++) {
+            String name = threads[x].getName();
+            for (int p = 0; p < prefixes.length; p++) {
+                if (name.startsWith(prefixes[p])) {
+                    count++;
+                    break;
+                }
+            }
+        }
+
+        return count;
+    }
+}
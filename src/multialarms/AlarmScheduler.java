@@ -0,0 +1,473 @@
+package multialarms;
+
+/*
+ * Title:        AlarmScheduler
+ * Description:  Shared hierarchical timing wheel that fires alarm deadlines
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * A single scheduler thread shared by every alarm in the process.
+ *
+ * Deadlines are kept in a hierarchical timing wheel: LEVELS wheels of
+ * WHEEL_SIZE slots each, where every slot is a doubly linked list of
+ * timeouts. Scheduling and cancelling only link or unlink a node, so both
+ * are O(1) regardless of how many alarms are pending. Timeouts in the outer
+ * wheels are cascaded down a level each time the inner wheel wraps.
+ *
+ * The thread only ticks while something is scheduled; when the wheel is
+ * empty it waits until the next call to schedule().
+ *
+ * Ticks are counted on AlarmClock's monotonic clock. Each tick also checks
+ * the wall clock against it, so that listeners can re-arm alarms when the
+ * wall clock is stepped or the machine resumes from suspend.
+ */
+class AlarmScheduler implements Runnable {
+
+    /** Length of one wheel tick - in milliseconds */
+    public static final int TICK_MILLIS = 10;
+
+    /** Number of tick bits handled by each wheel */
+    private static final int WHEEL_BITS = 6;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /** Number of wheels (64^5 ticks of 10ms covers roughly 124 days) */
+    private static final int LEVELS = 5;
+
+    /** Furthest tick offset the wheels can hold directly */
+    private static final long MAX_OFFSET = (1L << (LEVELS * WHEEL_BITS)) - 1;
+
+    private static final long TICK_NANOS = TICK_MILLIS * 1000000L;
+
+    /** The shared scheduler instance */
+    private static AlarmScheduler instance;
+
+    /** Slot list heads, indexed by [level][slot] */
+    private final Timeout[][] wheels = new Timeout[LEVELS][WHEEL_SIZE];
+
+    /** Time origin for tick numbers */
+    private final long startNanos = AlarmClock.get().nanoTime();
+
+    /** The next tick to be processed */
+    private long currentTick;
+
+    /** Number of timeouts currently linked into the wheels */
+    private int pending;
+
+    /** The scheduler thread */
+    private Thread thread;
+
+    /** Return the scheduler shared by all alarms, starting it if necessary */
+    public static synchronized AlarmScheduler getInstance() {
+
+        if (instance == null) {
+            instance = new AlarmScheduler();
+            instance.thread = new Thread(instance, "AlarmScheduler");
+            instance.thread.setDaemon(true);
+            instance.thread.start();
+        }
+
+        return instance;
+    }
+
+    /** Use getInstance() */
+    private AlarmScheduler() {}
+
+    /** Run task once at the given wall-clock time (epoch milliseconds) */
+    public Timeout scheduleAt(Runnable task, long epochMillis) {
+        return schedule(task,
+                        epochMillis - AlarmClock.get().currentTimeMillis(), 0);
+    }
+
+    /** Run task once after delay milliseconds */
+    public Timeout schedule(Runnable task, long delay) {
+        return schedule(task, delay, 0);
+    }
+
+    /**
+     * Run task after delay milliseconds, then every period milliseconds
+     * until cancelled (a period of 0 means run once only)
+     */
+    public synchronized Timeout schedule(Runnable task, long delay,
+                                         long period) {
+
+        wake();
+
+        Timeout timeout = new Timeout(this, task, toTicks(period));
+        timeout.deadline = currentTick + toTicks(delay);
+        add(timeout);
+
+        if (pending == 1) {
+            notify();   // wake the thread from its idle wait
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Run each of the first count tasks once at its wall-clock time, all
+     * scheduled under one acquisition of the lock. Returns their handles.
+     */
+    public synchronized Timeout[] scheduleAllAt(Runnable[] tasks,
+                                                long[] epochMillis,
+                                                int count) {
+
+        boolean   idle     = pending == 0;
+        long      now      = AlarmClock.get().currentTimeMillis();
+        Timeout[] timeouts = new Timeout[count];
+
+        wake();
+
+        for (int x = 0; x < count; x++) {
+            timeouts[x] = new Timeout(this, tasks[x], 0);
+            timeouts[x].deadline = currentTick + toTicks(epochMillis[x] - now);
+            add(timeouts[x]);
+        }
+
+        if (idle && pending > 0) {
+            notify();
+        }
+
+        return timeouts;
+    }
+
+    /**
+     * Move each of the first count timeouts to a new wall-clock time, under
+     * one acquisition of the lock. Those that have already run or been
+     * cancelled are left alone; returns how many were moved.
+     */
+    public synchronized int rescheduleAllAt(Timeout[] timeouts,
+                                            long[] epochMillis, int count) {
+
+        boolean idle  = pending == 0;
+        long    now   = AlarmClock.get().currentTimeMillis();
+        int     moved = 0;
+
+        wake();
+
+        for (int x = 0; x < count; x++) {
+            Timeout timeout = timeouts[x];
+
+            if (timeout == null || timeout.level < 0) {
+                continue;
+            }
+
+            unlink(timeout);
+            timeout.deadline = currentTick + toTicks(epochMillis[x] - now);
+            add(timeout);
+            moved++;
+        }
+
+        if (idle && pending > 0) {
+            notify();
+        }
+
+        return moved;
+    }
+
+    /** Cancel each of the first count timeouts under one acquisition */
+    public synchronized void cancelAll(Timeout[] timeouts, int count) {
+
+        for (int x = 0; x < count; x++) {
+            if (timeouts[x] != null) {
+                cancel(timeouts[x]);
+            }
+        }
+    }
+
+    /**
+     * Bring an idle wheel up to the present before scheduling on it (and
+     * take no notice of the wall clock moving meanwhile)
+     */
+    private void wake() {
+
+        if (pending == 0) {
+            currentTick = nowTick();
+            AlarmClock.get().resetJump();
+        }
+    }
+
+    /** Number of timeouts waiting to run */
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    /** Unlink a timeout from its slot, if it is still waiting */
+    synchronized void cancel(Timeout timeout) {
+
+        timeout.cancelled = true;
+
+        if (timeout.level < 0) {
+            return;     // already run (or running)
+        }
+
+        unlink(timeout);
+    }
+
+    /** Take a linked timeout out of its slot list */
+    private void unlink(Timeout timeout) {
+
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheels[timeout.level][timeout.slot] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+
+        timeout.prev  = null;
+        timeout.next  = null;
+        timeout.level = -1;
+        pending--;
+    }
+
+    /** Link a timeout into the slot matching its deadline */
+    private void add(Timeout timeout) {
+
+        long offset = timeout.deadline - currentTick;
+        long expires;
+        int  level;
+
+        if (offset < 0) {
+            // already due - run it on the tick about to be processed
+            expires = currentTick;
+            level   = 0;
+        } else {
+            if (offset > MAX_OFFSET) {
+                offset = MAX_OFFSET;    // parked until the top wheel cascades
+            }
+
+            expires = currentTick + offset;
+            level   = 0;
+
+            while (offset >= WHEEL_SIZE) {
+                offset >>>= WHEEL_BITS;
+                level++;
+            }
+        }
+
+        int slot = (int) ((expires >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+
+        timeout.level = level;
+        timeout.slot  = slot;
+        timeout.prev  = null;
+        timeout.next  = wheels[level][slot];
+
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+
+        wheels[level][slot] = timeout;
+        pending++;
+    }
+
+    /**
+     * Re-distribute the current slot of an outer wheel into the inner wheels.
+     * Returns the slot index, which is 0 when the next wheel out should also
+     * be cascaded.
+     */
+    private int cascade(int level) {
+
+        int     slot    = (int) ((currentTick >>> (level * WHEEL_BITS))
+                                 & WHEEL_MASK);
+        Timeout timeout = wheels[level][slot];
+
+        wheels[level][slot] = null;
+
+        while (timeout != null) {
+            Timeout next = timeout.next;
+
+            pending--;
+            add(timeout);
+            timeout = next;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Process every tick up to now, unlinking the timeouts that are due.
+     * Returns them as a list chained through their next field.
+     */
+    private Timeout expire() {
+
+        Timeout expired = null;
+        long    now     = nowTick();
+
+        while (currentTick <= now && pending > 0) {
+
+            int slot = (int) (currentTick & WHEEL_MASK);
+
+            if (slot == 0) {
+                for (int level = 1; level < LEVELS; level++) {
+                    if (cascade(level) != 0) {
+                        break;
+                    }
+                }
+            }
+
+            Timeout timeout = wheels[0][slot];
+
+            wheels[0][slot] = null;
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+
+                timeout.level = -1;
+                timeout.prev  = null;
+                timeout.next  = expired;
+                expired       = timeout;
+                pending--;
+                timeout = next;
+            }
+
+            currentTick++;
+        }
+
+        return expired;
+    }
+
+    /** The scheduler thread: run due timeouts, then sleep until the next tick */
+    public void run() {
+
+        while (true) {
+
+            Timeout expired;
+
+            // re-arming for a wall clock jump schedules and cancels, so it
+            // is done outside the lock
+            AlarmClock clock = AlarmClock.get();
+            long       jump  = clock.checkJump();
+            if (jump != 0) {
+                System.out.println("AlarmScheduler - wall clock jumped "
+                                   + jump + "ms");
+                clock.fireJumped(jump);
+            }
+
+            synchronized (this) {
+                try {
+                    while (pending == 0) {
+                        wait();
+                    }
+
+                    expired = expire();
+
+                    if (expired == null) {
+                        long sleepNanos = startNanos + currentTick * TICK_NANOS
+                                          - clock.nanoTime();
+                        if (sleepNanos > 0) {
+                            wait(sleepNanos / 1000000L,
+                                 (int) (sleepNanos % 1000000L));
+                        }
+                        continue;
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+
+            // run tasks outside the lock, so they may schedule or cancel
+            while (expired != null) {
+                Timeout next = expired.next;
+
+                expired.next = null;
+                expired.fire();
+                expired = next;
+            }
+        }
+    }
+
+    /** Re-queue a periodic timeout after it has run */
+    private synchronized void reschedule(Timeout timeout) {
+
+        if (timeout.cancelled) {
+            return;
+        }
+
+        if (pending == 0) {
+            currentTick = nowTick();
+        }
+
+        timeout.deadline += timeout.period;
+        add(timeout);
+    }
+
+    /** The tick number for the current instant */
+    private long nowTick() {
+        return (AlarmClock.get().nanoTime() - startNanos) / TICK_NANOS;
+    }
+
+    /** Convert milliseconds to whole ticks, rounding up */
+    private static long toTicks(long millis) {
+
+        if (millis <= 0) {
+            return 0;
+        }
+
+        return (millis + TICK_MILLIS - 1) / TICK_MILLIS;
+    }
+
+    /**
+     * Handle for a scheduled task, used to cancel it
+     */
+    public static final class Timeout {
+
+        private final AlarmScheduler scheduler;
+        private final Runnable       task;
+
+        /** Repeat period in ticks (0 for a one-shot) */
+        private final long period;
+
+        /** Tick on which the task is due */
+        private long deadline;
+
+        /** Wheel position while linked, level is -1 when not linked */
+        private int level = -1;
+        private int slot;
+
+        private Timeout prev;
+        private Timeout next;
+
+        private volatile boolean cancelled;
+
+        private Timeout(AlarmScheduler scheduler, Runnable task, long period) {
+            this.scheduler = scheduler;
+            this.task      = task;
+            this.period    = period;
+        }
+
+        /** Stop the task from running (again) */
+        public void cancel() {
+            scheduler.cancel(this);
+        }
+
+        /** Return 'true' once cancel() has been called */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void fire() {
+
+            if (cancelled) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                ex.printStackTrace();
+            }
+
+            if (period > 0) {
+                scheduler.reschedule(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,831 @@
+package multialarms;
+
+/*
+ * Title:        AlarmStore
+ * Description:  Growable, column-oriented storage for alarm state
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Holds the state of every alarm as parallel primitive arrays, one element
+ * per table row, so the table can grow to a very large number of rows
+ * without a heavy object per row. Strings (descriptions, group names and
+ * formatted go-off times) are interned and stored as an index into a shared
+ * table. Each string counts the rows using it, and its slot is reused once
+ * none do, so editing descriptions and times doesn't grow the table.
+ *
+ * Rows are added and removed on the event dispatch thread, synchronized on
+ * the store. The state flags are also written by the scheduler thread, so
+ * they are kept in each Alarm's state word, changed by compare-and-set:
+ * reading them never takes a lock.
+ *
+ * The store also keeps the alarms in the order they are due, in a
+ * DeadlineIndex told of every change to their flags or go-off time, and
+ * indexes their descriptions for searching in a DescriptionIndex.
+ */
+class AlarmStore {
+
+    /** State flag - alarm is switched on */
+    public static final int ACTIVE = 1;
+
+    /** State flag - alarm has gone off */
+    public static final int GONE_OFF = 2;
+
+    /** Both state flags */
+    public static final int FLAGS = ACTIVE | GONE_OFF;
+
+    // the states the flags make
+    public static final int IDLE    = 0;
+    public static final int ARMED   = ACTIVE;
+    public static final int RINGING = ACTIVE | GONE_OFF;
+    public static final int STOPPED = GONE_OFF;
+
+    /** Name shown for an alarm that rings the bundled sound */
+    public static final String DEFAULT_SOUND_NAME = "(default)";
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Number of rows in use */
+    private int size;
+
+    // one element per row
+    private int[]        alarmNum   = new int[INITIAL_CAPACITY];
+    private long[]       goOffTime  = new long[INITIAL_CAPACITY];
+    private long[]       startTime  = new long[INITIAL_CAPACITY];
+    private int[]        descIndex  = new int[INITIAL_CAPACITY];
+    private int[]        timeIndex  = new int[INITIAL_CAPACITY];
+    private int[]        soundIndex = new int[INITIAL_CAPACITY];
+    private int[]        soundName  = new int[INITIAL_CAPACITY];
+    private int[]        groupIndex = new int[INITIAL_CAPACITY];
+    private Recurrence[] recurrence = new Recurrence[INITIAL_CAPACITY];
+    private Alarm[]      alarms     = new Alarm[INITIAL_CAPACITY];
+
+    /** Interned strings referenced by descIndex, timeIndex and so on */
+    private String[] strings = new String[INITIAL_CAPACITY];
+    private int      stringCount;
+    private HashMap<String, Integer> stringIndex =
+        new HashMap<String, Integer>();
+
+    /** Number of row references to each string (0 for a free slot) */
+    private int[] stringRefs = new int[INITIAL_CAPACITY];
+
+    /** Slots of strings no longer used, to be reused first */
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int   freeCount;
+
+    /** Boxed alarm numbers, indexed by number, shared by the table */
+    private Integer[] numbers = new Integer[INITIAL_CAPACITY];
+
+    /** Number to give the next alarm added */
+    private int nextAlarmNum = 1;
+
+    /** Rows whose state flags have changed since the last repaint */
+    private AlarmChangeTracker changes = new AlarmChangeTracker();
+
+    /** Records every change, so alarms survive a restart (may be null) */
+    private volatile AlarmJournal journal;
+
+    /** Shares alarms with other processes (may be null) */
+    private volatile LeaseTable leases;
+
+    /** Told when an alarm goes off - replaced, never changed in place */
+    private volatile AlarmListener[] listeners = new AlarmListener[0];
+
+    /** The alarms in the order they are due - see getDeadlines() */
+    private final DeadlineIndex deadlines = new DeadlineIndex(this);
+
+    /** The alarms by the words of their descriptions - see getDescriptions() */
+    private final DescriptionIndex descriptions = new DescriptionIndex();
+
+    /** Return the number of rows */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a new alarm row and return its Alarm handle
+     */
+    public synchronized Alarm add() {
+
+        int num = nextAlarmNum++;
+        int row = restore(num, AlarmClock.get().currentTimeMillis(), 0, 0,
+                          "alarm " + num);
+
+        alarms[row].refreshTimeString();
+
+        if (journal != null) {
+            journal.added(alarmNum[row], goOffTime[row]);
+        }
+
+        return alarms[row];
+    }
+
+    /**
+     * Append every row of an import chunk, each journalled as one record,
+     * and return the first new row. Rows to be switched on get a start time
+     * of now; they still have to be armed (see Alarm.arm()).
+     */
+    public synchronized int addAll(AlarmImporter.Chunk chunk) {
+
+        int    first     = size;
+        long   now       = AlarmClock.get().currentTimeMillis();
+        String lastSound = null;
+        String lastName  = null;
+
+        ensureCapacity(size + chunk.size);
+
+        for (int x = 0; x < chunk.size; x++) {
+            int    num   = nextAlarmNum++;
+            int    state = chunk.active[x] ? ACTIVE : 0;
+            long   start = chunk.active[x] ? now : 0;
+            String sound = chunk.sound[x];
+            int    row   = restore(num, chunk.goOffTime[x], start, state,
+                                   chunk.description[x]);
+
+            timeIndex[row] = replace(timeIndex[row], chunk.timeString[x]);
+
+            if (sound != null) {
+                if (!sound.equals(lastSound)) {
+                    lastSound = sound;
+                    lastName  = sound.substring(sound.lastIndexOf('/') + 1);
+                }
+                soundIndex[row] = intern(sound);
+                soundName[row]  = replace(soundName[row], lastName);
+            }
+
+            if (journal != null) {
+                journal.rowAdded(num, chunk.goOffTime[x], start, state,
+                                 chunk.description[x], sound, lastName);
+            }
+        }
+
+        return first;
+    }
+
+    /**
+     * Append a row for the given alarm number, with the default sound, and
+     * return the row. This is not journalled - it is used to rebuild the
+     * store from the journal.
+     */
+    synchronized int restore(int num, long time, long start, int state,
+                             String description) {
+
+        if (size == alarmNum.length) {
+            grow(size * 2);
+        }
+
+        int row = size++;
+
+        if (num >= numbers.length) {
+            // restored numbers can skip ahead of the row count
+            Integer[] boxed = new Integer[Math.max(num + 1, numbers.length * 2)];
+            System.arraycopy(numbers, 0, boxed, 0, numbers.length);
+            numbers = boxed;
+        }
+        numbers[num] = Integer.valueOf(num);
+
+        alarmNum[row]   = num;
+        goOffTime[row]  = time;
+        startTime[row]  = start;
+        descIndex[row]  = intern(description);
+        timeIndex[row]  = intern("");
+        soundIndex[row] = -1;
+        soundName[row]  = intern(DEFAULT_SOUND_NAME);
+        groupIndex[row] = intern("");
+        recurrence[row] = null;
+        alarms[row]     = new Alarm(this, row, num, state);
+
+        deadlines.update(alarms[row]);
+        descriptions.update(alarms[row], null, description);
+
+        return row;
+    }
+
+    /**
+     * Remove the given row, shifting later rows up by one.
+     * The alarm should be stopped first.
+     */
+    public synchronized void remove(int row) {
+
+        int   tail  = size - row - 1;
+        int   num   = alarmNum[row];
+        Alarm alarm = alarms[row];
+
+        descriptions.update(alarm, strings[descIndex[row]], null);
+
+        release(descIndex[row]);
+        release(timeIndex[row]);
+        release(soundIndex[row]);
+        release(soundName[row]);
+        release(groupIndex[row]);
+
+        // the index reads go-off times by row, so they mustn't move under it
+        synchronized (deadlines) {
+
+            alarm.row = -1;
+            deadlines.remove(alarm);
+
+            System.arraycopy(alarmNum, row + 1, alarmNum, row, tail);
+            System.arraycopy(goOffTime, row + 1, goOffTime, row, tail);
+            System.arraycopy(startTime, row + 1, startTime, row, tail);
+            System.arraycopy(descIndex, row + 1, descIndex, row, tail);
+            System.arraycopy(timeIndex, row + 1, timeIndex, row, tail);
+            System.arraycopy(soundIndex, row + 1, soundIndex, row, tail);
+            System.arraycopy(soundName, row + 1, soundName, row, tail);
+            System.arraycopy(groupIndex, row + 1, groupIndex, row, tail);
+            System.arraycopy(recurrence, row + 1, recurrence, row, tail);
+            System.arraycopy(alarms, row + 1, alarms, row, tail);
+
+            size--;
+            recurrence[size] = null;
+            alarms[size]     = null;
+
+            for (int x = row; x < size; x++) {
+                alarms[x].row = x;
+            }
+        }
+
+        changes.clear();    // row numbers have shifted - table repaints anyway
+
+        if (journal != null) {
+            journal.removed(num);
+        }
+    }
+
+    /**
+     * Remove every row marked in 'gone' (by row), closing up the rest in
+     * one pass rather than shifting them once per row. This is not
+     * journalled - it is used to rebuild the store from the journal.
+     */
+    synchronized void removeRows(boolean[] gone) {
+
+        for (int row = 0; row < size && row < gone.length; row++) {
+            if (gone[row]) {
+                descriptions.update(alarms[row], strings[descIndex[row]], null);
+
+                release(descIndex[row]);
+                release(timeIndex[row]);
+                release(soundIndex[row]);
+                release(soundName[row]);
+                release(groupIndex[row]);
+            }
+        }
+
+        // the index reads go-off times by row, so they mustn't move under it
+        synchronized (deadlines) {
+
+            int kept = 0;
+
+            for (int row = 0; row < size; row++) {
+                Alarm alarm = alarms[row];
+
+                if (row < gone.length && gone[row]) {
+                    alarm.row = -1;
+                    deadlines.remove(alarm);
+                    continue;
+                }
+
+                alarmNum[kept]   = alarmNum[row];
+                goOffTime[kept]  = goOffTime[row];
+                startTime[kept]  = startTime[row];
+                descIndex[kept]  = descIndex[row];
+                timeIndex[kept]  = timeIndex[row];
+                soundIndex[kept] = soundIndex[row];
+                soundName[kept]  = soundName[row];
+                groupIndex[kept] = groupIndex[row];
+                recurrence[kept] = recurrence[row];
+                alarms[kept]     = alarm;
+                alarm.row        = kept++;
+            }
+
+            for (int row = kept; row < size; row++) {
+                recurrence[row] = null;
+                alarms[row]     = null;
+            }
+            size = kept;
+        }
+
+        changes.clear();
+    }
+
+    /** Share the alarms with other processes through a table (or null) */
+    public void setLeases(LeaseTable leases) {
+        this.leases = leases;
+    }
+
+    /** Return the table shared with other processes, or null */
+    public LeaseTable getLeases() {
+        return leases;
+    }
+
+    /** Attach the journal that records changes (null to stop recording) */
+    public void setJournal(AlarmJournal journal) {
+        this.journal = journal;
+    }
+
+    public synchronized void addAlarmListener(AlarmListener listener) {
+
+        AlarmListener[] larger = new AlarmListener[listeners.length + 1];
+
+        System.arraycopy(listeners, 0, larger, 0, listeners.length);
+        larger[listeners.length] = listener;
+        listeners = larger;
+    }
+
+    public synchronized void removeAlarmListener(AlarmListener listener) {
+
+        for (int x = 0; x < listeners.length; x++) {
+            if (listeners[x] == listener) {
+                AlarmListener[] smaller = new AlarmListener[listeners.length - 1];
+
+                System.arraycopy(listeners, 0, smaller, 0, x);
+                System.arraycopy(listeners, x + 1, smaller, x,
+                                 smaller.length - x);
+                listeners = smaller;
+                return;
+            }
+        }
+    }
+
+    /** Tell every listener that an alarm has gone off */
+    void fireGoneOff(Alarm alarm) {
+
+        AlarmListener[] current = listeners;
+
+        for (int x = 0; x < current.length; x++) {
+            current[x].alarmGoneOff(alarm);
+        }
+    }
+
+    /** Return the number the next alarm added will be given */
+    public synchronized int getNextAlarmNum() {
+        return nextAlarmNum;
+    }
+
+    synchronized void setNextAlarmNum(int num) {
+        nextAlarmNum = num;
+    }
+
+    /** Return the index of the alarms in the order they are due */
+    public DeadlineIndex getDeadlines() {
+        return deadlines;
+    }
+
+    /** Return the index of the alarms' descriptions */
+    public DescriptionIndex getDescriptions() {
+        return descriptions;
+    }
+
+    /** Return the tracker of rows changed since the last repaint */
+    public AlarmChangeTracker getChanges() {
+        return changes;
+    }
+
+    /** Return the alarm handle for a row */
+    public Alarm getAlarm(int row) {
+        return alarms[row];
+    }
+
+    /** Return the alarm number of a row, boxed without allocation */
+    public Integer getAlarmNum(int row) {
+        return numbers[alarmNum[row]];
+    }
+
+    /** Return the alarm number of a row, without the Integer */
+    int getNum(int row) {
+        return alarmNum[row];
+    }
+
+    public long getGoOffTime(int row) {
+        return goOffTime[row];
+    }
+
+    public long getStartTime(int row) {
+        return startTime[row];
+    }
+
+    public String getDescription(int row) {
+        return strings[descIndex[row]];
+    }
+
+    /** Return the go-off time as formatted by Alarm.getTimeString() */
+    public String getTimeString(int row) {
+        return strings[timeIndex[row]];
+    }
+
+    /** Return all the state flags of a row in one read, without locking */
+    public int getFlags(int row) {
+        return alarms[row].getFlags();
+    }
+
+    public boolean isActive(int row) {
+        return (alarms[row].getFlags() & ACTIVE) != 0;
+    }
+
+    public boolean isGoneOff(int row) {
+        return (alarms[row].getFlags() & GONE_OFF) != 0;
+    }
+
+    /** Return the number of rows whose flags, under mask, equal value */
+    public synchronized int countFlags(int mask, int value) {
+
+        int count = 0;
+
+        for (int x = 0; x < size; x++) {
+            if ((alarms[x].getFlags() & mask) == value) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Put the alarms with the given numbers (in ascending order) into
+     * 'into', in row order, and return how many of them there still are.
+     * Rows are kept in number order (see findRow()), so each is looked for
+     * from the row after the last: in that row when the numbers run on,
+     * else by binary search.
+     */
+    public synchronized int getAlarms(int[] nums, int count, Alarm[] into) {
+
+        int found = 0;
+        int next  = 0;
+
+        for (int x = 0; x < count; x++) {
+
+            int num = nums[x];
+            int row = next < size && alarmNum[next] == num ? next
+                                                           : search(num, next);
+            if (row < 0) {
+                row = findRow(num);     // removed, or rows out of order
+                if (row < 0) {
+                    continue;
+                }
+            }
+
+            into[found++] = alarms[row];
+            next          = row + 1;
+        }
+
+        return found;
+    }
+
+    /**
+     * Put the alarms in 'matches' into 'into' in row order, as many as fit,
+     * and return how many that was - reading every row, which is quicker
+     * than getAlarms() when most alarms are matches
+     */
+    public synchronized int getMatched(DescriptionIndex.Matches matches,
+                                       Alarm[] into) {
+
+        int count = 0;
+
+        for (int row = 0; row < size && count < into.length; row++) {
+            if (matches.contains(alarmNum[row])) {
+                into[count++] = alarms[row];
+            }
+        }
+
+        return count;
+    }
+
+    /** Binary search for a number from the given row on - -1 if not there */
+    private int search(int num, int low) {
+
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (alarmNum[mid] < num) {
+                low = mid + 1;
+            } else if (alarmNum[mid] > num) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Return the row of the alarm with the given number, or -1. Rows are
+     * kept in number order (new alarms are numbered upwards and added at
+     * the end), so this is a binary search, falling back to a scan in case
+     * a restored journal left them out of order.
+     */
+    public synchronized int findRow(int num) {
+
+        int row = search(num, 0);
+        if (row >= 0) {
+            return row;
+        }
+
+        for (int x = 0; x < size; x++) {
+            if (alarmNum[x] == num) {
+                return x;
+            }
+        }
+
+        return -1;
+    }
+
+    /** Set or clear a state flag, marking the row dirty if it changed */
+    public void setFlag(int row, int flag, boolean on) {
+        alarms[row].updateFlags(on ? flag : 0, on ? 0 : flag);
+    }
+
+    /** Replace all the state flags of a row */
+    public void setFlags(int row, int state) {
+        alarms[row].updateFlags(state, FLAGS & ~state);
+    }
+
+    /**
+     * An alarm's state word has changed (see Alarm.updateFlags()): mark its
+     * row dirty and journal the flags
+     */
+    void flagsChanged(Alarm alarm) {
+
+        int row = alarm.row;
+        if (row >= 0) {
+            changes.mark(row);
+        }
+
+        deadlines.update(alarm);
+
+        AlarmJournal journal = this.journal;
+        if (journal != null) {
+            // the flags are read under the journal's lock, so when two
+            // changes race the record written last holds the later flags
+            synchronized (journal) {
+                journal.flagsSet(alarm.num, alarm.getFlags());
+            }
+        }
+    }
+
+    public void setGoOffTime(int row, long time, String timeString) {
+
+        synchronized (this) {
+            goOffTime[row] = time;
+            timeIndex[row] = replace(timeIndex[row], timeString);
+        }
+
+        deadlines.update(alarms[row]);
+
+        if (journal != null) {
+            journal.timeSet(alarmNum[row], time);
+        }
+    }
+
+    /** Replace the cached go-off time string, eg. after recovery */
+    synchronized void setTimeString(int row, String timeString) {
+        timeIndex[row] = replace(timeIndex[row], timeString);
+    }
+
+    /** Return the URL of the sound to ring, or null for the default */
+    public String getSound(int row) {
+        return soundIndex[row] < 0 ? null : strings[soundIndex[row]];
+    }
+
+    /** Return the file name of the sound to ring, for display */
+    public String getSoundName(int row) {
+        return strings[soundName[row]];
+    }
+
+    /** Set the URL (and display name) of the sound, null for the default */
+    public void setSound(int row, String url, String name) {
+
+        synchronized (this) {
+            if (url == null) {
+                release(soundIndex[row]);
+                soundIndex[row] = -1;
+                soundName[row]  = replace(soundName[row], DEFAULT_SOUND_NAME);
+            } else {
+                soundIndex[row] = replace(soundIndex[row], url);
+                soundName[row]  = replace(soundName[row], name);
+            }
+        }
+
+        if (journal != null) {
+            journal.soundSet(alarmNum[row], url, name);
+        }
+    }
+
+    /** Return the name of the row's group, or "" if it is in none */
+    public String getGroup(int row) {
+        return strings[groupIndex[row]];
+    }
+
+    /** Put a row in the named group ("" for none) */
+    public void setGroup(int row, String group) {
+
+        synchronized (this) {
+            groupIndex[row] = replace(groupIndex[row], group);
+        }
+
+        if (journal != null) {
+            journal.groupSet(alarmNum[row], group);
+        }
+    }
+
+    /**
+     * Return the rows in the named group, in row order - the store must be
+     * locked for as long as the rows are used. Group names are interned, so
+     * this compares indexes rather than strings.
+     */
+    synchronized int[] getGroupRows(String group) {
+
+        Integer index = stringIndex.get(group);
+
+        if (index == null || group.length() == 0) {
+            return new int[0];
+        }
+
+        int g     = index.intValue();
+        int count = 0;
+
+        for (int x = 0; x < size; x++) {
+            if (groupIndex[x] == g) {
+                count++;
+            }
+        }
+
+        int[] rows = new int[count];
+
+        count = 0;
+        for (int x = 0; x < size; x++) {
+            if (groupIndex[x] == g) {
+                rows[count++] = x;
+            }
+        }
+
+        return rows;
+    }
+
+    /** Return the names of the groups in use, sorted */
+    public synchronized String[] getGroups() {
+
+        TreeSet<String> groups = new TreeSet<String>();
+        int             last   = -1;
+
+        for (int x = 0; x < size; x++) {
+            if (groupIndex[x] != last) {    // groups tend to come in runs
+                last = groupIndex[x];
+                groups.add(strings[last]);
+            }
+        }
+
+        groups.remove("");
+
+        return groups.toArray(new String[groups.size()]);
+    }
+
+    /** Return the repeat rule of a row, or null for a one-off alarm */
+    public Recurrence getRecurrence(int row) {
+        return recurrence[row];
+    }
+
+    public void setRecurrence(int row, Recurrence rule) {
+
+        recurrence[row] = rule;
+
+        if (journal != null) {
+            journal.recurrenceSet(alarmNum[row], rule);
+        }
+    }
+
+    public void setStartTime(int row, long time) {
+
+        startTime[row] = time;
+
+        if (journal != null) {
+            journal.startSet(alarmNum[row], time);
+        }
+    }
+
+    public void setDescription(int row, String description) {
+
+        // under the store's lock, so the old description read is the one
+        // the alarm is indexed under
+        synchronized (this) {
+            int old = descIndex[row];
+            descIndex[row] = intern(description);
+            descriptions.update(alarms[row], strings[old], description);
+            release(old);
+        }
+
+        if (journal != null) {
+            journal.descriptionSet(alarmNum[row], description);
+        }
+    }
+
+    /**
+     * Return the index of a string in the string table, adding it if new,
+     * and count one more row using it
+     */
+    private synchronized int intern(String s) {
+
+        Integer index = stringIndex.get(s);
+
+        if (index != null) {
+            stringRefs[index.intValue()]++;
+            return index.intValue();
+        }
+
+        int slot;
+
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (stringCount == strings.length) {
+                String[] larger = new String[stringCount * 2];
+                System.arraycopy(strings, 0, larger, 0, stringCount);
+                strings    = larger;
+                stringRefs = copyOf(stringRefs, stringCount * 2, stringCount);
+                freeSlots  = new int[stringCount * 2];
+            }
+            slot = stringCount++;
+        }
+
+        strings[slot]    = s;
+        stringRefs[slot] = 1;
+        stringIndex.put(s, Integer.valueOf(slot));
+
+        return slot;
+    }
+
+    /**
+     * A row no longer uses the string at the index (-1 for none). The last
+     * one frees its slot; the string stays in it until the slot is reused,
+     * so a reader that has just read the old index still finds it.
+     */
+    private synchronized void release(int index) {
+
+        if (index >= 0 && --stringRefs[index] == 0) {
+            stringIndex.remove(strings[index]);
+            freeSlots[freeCount++] = index;
+        }
+    }
+
+    /** Intern s in place of the string at the index, returning its index */
+    private synchronized int replace(int index, String s) {
+
+        int replaced = intern(s);     // first, so an unchanged one stays put
+        release(index);
+
+        return replaced;
+    }
+
+    /** Make room for at least the given number of rows, eg. before restoring */
+    synchronized void ensureCapacity(int rows) {
+
+        if (rows > alarmNum.length) {
+            grow(Math.max(rows, alarmNum.length * 2));
+        }
+    }
+
+    /** Grow every row array to the given capacity */
+    private void grow(int capacity) {
+
+        alarmNum  = copyOf(alarmNum, capacity);
+        descIndex = copyOf(descIndex, capacity);
+        timeIndex = copyOf(timeIndex, capacity);
+        soundIndex = copyOf(soundIndex, capacity);
+        soundName  = copyOf(soundName, capacity);
+        groupIndex = copyOf(groupIndex, capacity);
+
+        long[] longs = new long[capacity];
+        System.arraycopy(goOffTime, 0, longs, 0, size);
+        goOffTime = longs;
+
+        longs = new long[capacity];
+        System.arraycopy(startTime, 0, longs, 0, size);
+        startTime = longs;
+
+        Recurrence[] rules = new Recurrence[capacity];
+        System.arraycopy(recurrence, 0, rules, 0, size);
+        recurrence = rules;
+
+        Alarm[] larger = new Alarm[capacity];
+        System.arraycopy(alarms, 0, larger, 0, size);
+        alarms = larger;
+    }
+
+    private int[] copyOf(int[] array, int capacity) {
+        return copyOf(array, capacity, size);
+    }
+
+    private static int[] copyOf(int[] array, int capacity, int length) {
+
+        int[] larger = new int[capacity];
+        System.arraycopy(array, 0, larger, 0, length);
+
+        return larger;
+    }
+}
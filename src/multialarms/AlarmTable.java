@@ -0,0 +1,430 @@
+package multialarms;
+
+/*
+ * Title:        AlarmTable
+ * Description:  The alarm JTable, with its column renderers
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Rectangle;
+
+import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JProgressBar;
+import javax.swing.JTable;
+import javax.swing.UIManager;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumnModel;
+
+/**
+ * The table of alarms shown in the main window. It needs no frame, so it
+ * can also be painted offscreen (see bench/multialarms/RendererBench).
+ */
+class AlarmTable extends JTable {
+
+    /** Progress column text for an alarm that has gone off */
+    private static final char[] RINGING = "Ring, ring...".toCharArray();
+
+    /** The alarms shown */
+    private AlarmTableModel alarmTableModel;
+
+    /** Construct the table over a model, with all its column renderers */
+    public AlarmTable(AlarmTableModel model) {
+
+        alarmTableModel = model;
+
+        // no preferred size - rows come and go
+        setCellSelectionEnabled(true);
+        setModel(alarmTableModel);
+        setRowHeight(25);
+        setColumnWidths();
+
+        // setup and initialise table's column renderers/editors
+        initAlarmCol();
+        initDescriptionCol();
+        initGroupCol();
+        initTimeCol();
+        initRepeatCol();
+        initProgressCol();
+        initSoundCol();
+        initActiveCol();
+    }
+
+    /**
+     * Set the widths for each of the JTable columns
+     */
+    private void setColumnWidths() {
+
+        TableColumnModel alarmColModel = getColumnModel();
+
+        alarmColModel.getColumn(AlarmTableModel.ALARM).setPreferredWidth(25);
+        alarmColModel.getColumn(AlarmTableModel.GROUP).setPreferredWidth(40);
+        alarmColModel.getColumn(AlarmTableModel.TIME).setPreferredWidth(45);
+        alarmColModel.getColumn(AlarmTableModel.REPEAT).setPreferredWidth(50);
+        alarmColModel.getColumn(AlarmTableModel.PROGRESS).setPreferredWidth(100);
+        alarmColModel.getColumn(AlarmTableModel.SOUND).setPreferredWidth(50);
+        alarmColModel.getColumn(AlarmTableModel.ACTIVE).setPreferredWidth(25);
+    }
+
+    /**
+     * A label renderer that doesn't tell listeners its text has changed.
+     * Only the label's UI listens, to set up HTML text, which the table
+     * doesn't show - and the event would be made for nearly every cell
+     * painted, as each row's text differs from the one before.
+     */
+    static class CellRenderer extends DefaultTableCellRenderer {
+
+        protected void firePropertyChange(String propertyName,
+                                          Object oldValue, Object newValue) {
+            if (!"text".equals(propertyName)) {
+                super.firePropertyChange(propertyName, oldValue, newValue);
+            }
+        }
+    }
+
+    /**
+     * Convenience method to enable renderers to decide which colour to make
+     * the background
+     */
+    public void setColBackground(Component component, int row) {
+
+        int   state     = alarmTableModel.getState(row);   // never blocks
+        Color colColour = getBackground();
+
+        if (state == AlarmStore.RINGING) {
+            colColour = Color.lightGray;
+        } else if (state == AlarmStore.ARMED) {
+            colColour = Color.yellow;
+        }    // else normal background colour (as initialised)
+
+        component.setBackground(colColour);
+    }
+
+    /**
+     * Setup and initialise the ALARM table column
+     */
+    public void initAlarmCol() {
+
+        class AlarmNumRenderer extends CellRenderer {
+
+            /** Alarm number labels, indexed by number - formatted once each */
+            private String[] labels = new String[16];
+
+            public AlarmNumRenderer() {
+                setHorizontalAlignment(CENTER);
+                setFont(new Font("Sans Serif", Font.BOLD, 16));
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                setColBackground(this, row);
+                setValue(value);
+
+                return this;
+            }
+
+            public void setValue(Object value) {
+
+                int num = ((Integer) value).intValue();
+
+                if (num >= labels.length) {
+                    String[] larger = new String[num * 2];
+                    System.arraycopy(labels, 0, larger, 0, labels.length);
+                    labels = larger;
+                }
+
+                if (labels[num] == null) {
+                    labels[num] = value.toString();
+                }
+
+                setText(labels[num]);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.ALARM)
+            .setCellRenderer(new AlarmNumRenderer());
+    }
+
+    /**
+     * Setup and initialise the TIME table column
+     */
+    public void initTimeCol() {
+
+        class TimeRenderer extends CellRenderer {
+
+            public TimeRenderer() {
+                setHorizontalAlignment(CENTER);
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                setColBackground(this, row);
+
+                return super.getTableCellRendererComponent(table, value,
+                    isSelected, hasFocus, row, col);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.TIME)
+            .setCellRenderer(new TimeRenderer());
+    }
+
+    /**
+     * Setup and initialise the REPEAT table column
+     */
+    public void initRepeatCol() {
+
+        class RepeatRenderer extends CellRenderer {
+
+            public RepeatRenderer() {
+                setToolTipText("daily, weekdays, every N[m|h] or "
+                               + "cron minute hour day month weekday");
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                setColBackground(this, row);
+
+                return super.getTableCellRendererComponent(table, value,
+                    isSelected, hasFocus, row, col);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.REPEAT)
+            .setCellRenderer(new RepeatRenderer());
+    }
+
+    /**
+     * Setup and initialise the PROGRESS table column
+     */
+    public void initProgressCol() {
+
+        /*
+         * One progress bar shared by every row, set up from the alarm's
+         * start and go-off times each time a cell is painted. The countdown
+         * is formatted into a char buffer and painted from it directly, so
+         * no String is created per paint.
+         */
+        class ProgressRenderer extends JProgressBar
+                               implements TableCellRenderer {
+
+            /** Text to paint over the bar - re-used for efficiency */
+            private char[] timeToGo = new char[32];
+            private int    timeToGoLength;
+
+            /** Re-used when working out where to paint the text */
+            private Insets    insets = new Insets(0, 0, 0, 0);
+            private Rectangle clip   = new Rectangle();
+
+            public ProgressRenderer() {
+                setBorder(BorderFactory.createLoweredBevelBorder());
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                int state = alarmTableModel.getState(row);
+
+                if ((state & AlarmStore.ACTIVE) == 0) {
+                    setValue(0);
+                    timeToGoLength = 0;
+                    return this;
+                }
+
+                Alarm alarm     = alarmTableModel.getAlarm(row);
+                long  startTime = alarm.getStartMillis();
+                long  goOffTime = alarm.getGoOffMillis();
+                long  now       = AlarmClock.get().currentTimeMillis();
+
+                // an alarm can be set for any date, so a span too long for
+                // an int (about 24 days of milliseconds) is scaled down
+                long span    = Math.max(goOffTime - startTime, 0);
+                long elapsed = Math.min(Math.max(now - startTime, 0), span);
+                int  shift   = 0;
+
+                while ((span >> shift) > Integer.MAX_VALUE) {
+                    shift++;
+                }
+
+                setMaximum((int) (span >> shift));
+                setValue((int) (elapsed >> shift));
+
+                if ((state & AlarmStore.GONE_OFF) != 0) {
+                    timeToGoLength = RINGING.length;
+                    System.arraycopy(RINGING, 0, timeToGo, 0, timeToGoLength);
+                } else {
+                    timeToGoLength = Alarm.formatTimeLeft(
+                        Math.max(goOffTime - now, 0), timeToGo);
+                }
+
+                return this;
+            }
+
+            /** Paint the bar, then the text centred over it */
+            protected void paintComponent(Graphics g) {
+
+                super.paintComponent(g);
+
+                if (timeToGoLength == 0) {
+                    return;
+                }
+
+                FontMetrics metrics = g.getFontMetrics(getFont());
+                getInsets(insets);
+
+                int barWidth = getWidth() - insets.left - insets.right;
+                int filled   = (int) (barWidth * getPercentComplete());
+                int x = (getWidth() - metrics.charsWidth(timeToGo, 0,
+                                                         timeToGoLength)) / 2;
+                int y = (getHeight() - metrics.getHeight()) / 2
+                        + metrics.getAscent();
+
+                // like the standard progress bar, use one colour over the
+                // filled part of the bar and another over the rest
+                g.getClipBounds(clip);
+                g.clipRect(insets.left, 0, filled, getHeight());
+                g.setColor(UIManager.getColor("ProgressBar.selectionForeground"));
+                g.drawChars(timeToGo, 0, timeToGoLength, x, y);
+
+                g.setClip(clip.x, clip.y, clip.width, clip.height);
+                g.clipRect(insets.left + filled, 0, barWidth - filled,
+                           getHeight());
+                g.setColor(UIManager.getColor("ProgressBar.selectionBackground"));
+                g.drawChars(timeToGo, 0, timeToGoLength, x, y);
+
+                g.setClip(clip.x, clip.y, clip.width, clip.height);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.PROGRESS)
+            .setCellRenderer(new ProgressRenderer());
+    }
+
+    /**
+     * Setup and initialise the DESCRIPTION table column
+     */
+    public void initDescriptionCol() {
+
+        class DescriptionRenderer extends CellRenderer {
+
+            public DescriptionRenderer() {
+                setHorizontalAlignment(CENTER);
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                setColBackground(this, row);
+
+                return super.getTableCellRendererComponent(table, value,
+                    isSelected, hasFocus, row, col);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.DESCRIPTION)
+            .setCellRenderer(new DescriptionRenderer());
+    }
+
+    /**
+     * Setup and initialise the GROUP table column
+     */
+    public void initGroupCol() {
+
+        class GroupRenderer extends CellRenderer {
+
+            public GroupRenderer() {
+                setHorizontalAlignment(CENTER);
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                setColBackground(this, row);
+
+                return super.getTableCellRendererComponent(table, value,
+                    isSelected, hasFocus, row, col);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.GROUP)
+            .setCellRenderer(new GroupRenderer());
+    }
+
+    /**
+     * Setup and initialise the SOUND table column
+     */
+    public void initSoundCol() {
+
+        class SoundRenderer extends CellRenderer {
+
+            public SoundRenderer() {
+                setHorizontalAlignment(CENTER);
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                setColBackground(this, row);
+
+                return super.getTableCellRendererComponent(table, value,
+                    isSelected, hasFocus, row, col);
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.SOUND)
+            .setCellRenderer(new SoundRenderer());
+    }
+
+    /**
+     * Setup and initialise the ACTIVE table column
+     */
+    public void initActiveCol() {
+
+        class ActiveRenderer implements TableCellRenderer {
+
+            // one ticked and one not, so painting never changes their
+            // state (which makes an event each time)
+            private JCheckBox on  = new JCheckBox();
+            private JCheckBox off = new JCheckBox();
+
+            public ActiveRenderer() {
+                on.setSelected(true);
+                on.setHorizontalAlignment(JCheckBox.CENTER);
+                off.setHorizontalAlignment(JCheckBox.CENTER);
+            }
+
+            public Component getTableCellRendererComponent(JTable table,
+                    Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+
+                JCheckBox checkBox = ((Boolean) value).booleanValue() ? on
+                                                                      : off;
+                setColBackground(checkBox, row);
+
+                return checkBox;
+            }
+        }
+
+        getColumnModel().getColumn(AlarmTableModel.ACTIVE)
+            .setCellRenderer(new ActiveRenderer());
+    }
+}
@@ -8,59 +8,459 @@ package multialarms;
  * @version      1.0
  */
  
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-
-import javax.swing.Timer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
 
 
 class AlarmTableModel extends AbstractTableModel {
 
-    public final static int NUM_ALARMS = 5;
+    /** Number of alarm rows the table starts with */
+    public final static int INITIAL_ALARMS = 5;
 
     // column order constants
     public final static int ALARM       = 0;
     public final static int DESCRIPTION = 1;
-    public final static int TIME        = 2;
-    public final static int PROGRESS    = 3;
-    public final static int ACTIVE      = 4;
+    public final static int GROUP       = 2;
+    public final static int TIME        = 3;
+    public final static int REPEAT      = 4;
+    public final static int PROGRESS    = 5;
+    public final static int SOUND       = 6;
+    public final static int ACTIVE      = 7;
 
     /** Column name array */
-    final String[] columnNames = { "Alarm", "Description", "Set (24h)",
-                                   "Progress", "On" };
+    final String[] columnNames = { "Alarm", "Description", "Group",
+                                   "Set (24h)", "Repeat", "Progress", "Sound",
+                                   "On" };
+
+    /** Column class array */
+    final Class[] columnClasses = { Integer.class, String.class, String.class,
+                                    String.class, String.class, Object.class,
+                                    String.class, Boolean.class };
+
+    /** The alarms - this model is a view over the engine */
+    private AlarmEngine engine;
 
-    /** Alarm array */
-    private Alarm[] alarms = new Alarm[NUM_ALARMS];
+    /** The engine's state storage, read directly for painting */
+    private AlarmStore store;
 
-    /** Timer to check progress bars */
-    private Timer progressTimer;
+    /** Ticks the progress bars (see UITicker) */
+    private UITicker.Listener progressTick;
 
-    /** Interval to check progress bars */
+    /** Told how long each progress tick takes (null if not monitored) */
+    private volatile AlarmMonitor monitor;
+
+    /** Serves the local control port (null unless it was asked for) */
+    private volatile ControlServer controlServer;
+
+    /** Interval to check progress bars - whole seconds, in milliseconds */
     public static final int PROGRESS_INTERVAL = 2000;
 
+    /** Event re-used for every progress repaint */
+    private RowsUpdatedEvent rowsUpdated = new RowsUpdatedEvent(this);
+
+    /** Whether rows are listed soonest first rather than by number */
+    private volatile boolean byDeadline;
+
+    /** The store's alarms in the order they are due (see DeadlineIndex) */
+    private DeadlineIndex deadlines;
+
+    /** Repaints when that order changes, while rows are listed by it */
+    private Runnable orderChanged;
+
+    /** The text rows are filtered on (see setFilter()), or null for all */
+    private volatile String filter;
+
+    /** The alarms shown while filtered, in the order shown */
+    private Alarm[] filtered;
+
+    /** The alarms matching the filter (see DescriptionIndex) */
+    private DescriptionIndex.Matches matches = new DescriptionIndex.Matches();
+
+    /** The store's alarms by their descriptions */
+    private DescriptionIndex descriptions;
+
+    /** Filters again when a description changes, while filtered */
+    private Runnable descriptionChanged;
+
+    /** A repaint for a change of order or filter is waiting to be made */
+    private final AtomicBoolean viewRepaintPosted = new AtomicBoolean();
+
+    /** First and last rows currently scrolled into view */
+    private int firstVisibleRow = 0;
+    private int lastVisibleRow  = Integer.MAX_VALUE;
+
     /** Constructor */
     public AlarmTableModel() {
 
-        for (int x = 0; x < NUM_ALARMS; x++) {
-            alarms[x] = new Alarm(new Integer(x + 1));
+        // bring back the alarms from last time (read while starting up)
+        this(Startup.getEngine());
+
+        // neither is needed to put the window up
+        Startup.afterFirstFrame(new Runnable() {
+
+            public void run() {
+
+                monitor = AlarmMonitor.register(engine);
+
+                if (ControlServer.getConfiguredPort() >= 0) {
+                    startControlServer(ControlServer.getConfiguredPort());
+                }
+            }
+        });
+    }
+
+    /** Construct a view over the given engine's alarms */
+    AlarmTableModel(AlarmEngine engine) {
+
+        this.engine  = engine;
+        store        = engine.getStore();
+        deadlines    = store.getDeadlines();
+        descriptions = store.getDescriptions();
+
+        if (engine.size() == 0) {
+            for (int x = 0; x < INITIAL_ALARMS; x++) {
+                engine.create();
+            }
         }
 
         startProgressTimer();
+        watchViews();
+    }
+
+    /** Return alarm given row */
+    public Alarm getAlarm(int row) {
+
+        row = storeRow(row);
+
+        return row < 0 ? null : engine.getAlarm(row);
+    }
+
+    /**
+     * List the rows soonest first - ringing, then armed by go-off time,
+     * then the rest by number - or, when false, by number
+     */
+    public void setSortedByDeadline(boolean sorted) {
+
+        if (sorted != byDeadline) {
+            byDeadline = sorted;
+            refilter();
+            fireTableDataChanged();
+        }
+    }
+
+    public boolean isSortedByDeadline() {
+        return byDeadline;
+    }
+
+    /**
+     * Show only the alarms whose description contains the text, ignoring
+     * case (null or "" for all). The matches come from the store's
+     * DescriptionIndex, and are kept up to date as descriptions change.
+     */
+    public void setFilter(String text) {
+
+        filter = text == null || text.length() == 0 ? null : text;
+        refilter();
+        fireTableDataChanged();
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * Find the alarms matching the filter, in the order rows are listed.
+     * When few alarms match only they are looked at: found by number (see
+     * AlarmStore.getAlarms()) and, when listed soonest first, sorted by the
+     * DeadlineIndex. When most match, one pass over the rows or the index
+     * picks them out quicker. Clearing the last matches only touches those.
+     */
+    private void refilter() {
+
+        String text = filter;
+
+        matches.clear();
+
+        if (text == null) {
+            filtered = null;
+            return;
+        }
+
+        int     count = descriptions.find(text, matches);
+        Alarm[] shown = new Alarm[count];
+        int     found;
+
+        if (matches.isSparse(store.size())) {
+            Arrays.sort(matches.nums, 0, count);
+            found = store.getAlarms(matches.nums, count, shown);
+            if (byDeadline) {
+                deadlines.sort(shown, found);
+            }
+        } else if (byDeadline) {
+            found = deadlines.getMatched(matches, shown);
+        } else {
+            found = store.getMatched(matches, shown);
+        }
+
+        filtered = found == count ? shown : Arrays.copyOf(shown, found);
+    }
+
+    /** Whether table rows aren't store rows - sorted or filtered */
+    private boolean isMapped() {
+        return byDeadline || filtered != null;
+    }
+
+    /** Return the armed alarm that will go off next, or null */
+    public Alarm getNextAlarm() {
+        return deadlines.getNext();
+    }
+
+    /**
+     * Return the store row shown at a table row: the same, unless the rows
+     * are filtered or listed by deadline (-1 if there is no such row)
+     */
+    private int storeRow(int row) {
+
+        Alarm[] shown = filtered;
+        Alarm   alarm;
+
+        if (shown != null) {
+            alarm = row >= 0 && row < shown.length ? shown[row] : null;
+        } else if (byDeadline) {
+            alarm = deadlines.get(row);
+        } else {
+            return row;
+        }
+
+        return alarm == null ? -1 : alarm.row;
+    }
+
+    /**
+     * Repaint when the order by deadline changes - only when an alarm is
+     * armed, edited, goes off or stops, never because time has passed -
+     * and filter again when a description changes, while filtered.
+     * Changes come from any thread and are folded into one repaint on the
+     * dispatch thread.
+     */
+    private void watchViews() {
+
+        final Runnable repaint = new Runnable() {
+
+            public void run() {
+
+                viewRepaintPosted.set(false);
+
+                if (filter != null) {
+                    refilter();
+                    fireTableDataChanged();
+                } else if (byDeadline && getRowCount() > 0) {
+                    fireTableRowsUpdated(0, getRowCount() - 1);
+                }
+            }
+        };
+
+        orderChanged = new Runnable() {
+
+            public void run() {
+                if (byDeadline && viewRepaintPosted.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(repaint);
+                }
+            }
+        };
+
+        descriptionChanged = new Runnable() {
+
+            public void run() {
+                if (filter != null
+                    && viewRepaintPosted.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(repaint);
+                }
+            }
+        };
+
+        deadlines.addChangeListener(orderChanged);
+        descriptions.addChangeListener(descriptionChanged);
+    }
+
+    /**
+     * Sorted or filtered, the rows of the model's own events are store
+     * rows, not where they are shown, so those are widened: updates to the
+     * whole table, inserts and deletes to a data change. The progress tick's
+     * event is already by table row.
+     */
+    public void fireTableChanged(TableModelEvent e) {
+
+        if (isMapped() && e != rowsUpdated
+            && e.getFirstRow() != TableModelEvent.HEADER_ROW
+            && e.getLastRow() != Integer.MAX_VALUE) {
+
+            if (e.getType() == TableModelEvent.UPDATE && getRowCount() > 0) {
+                e = new TableModelEvent(this, 0, getRowCount() - 1);
+            } else {
+                e = new TableModelEvent(this);
+            }
+        }
+
+        super.fireTableChanged(e);
+    }
+
+    /**
+     * Tell the model which rows are on screen, so that progress updates can
+     * skip the rest (last may be Integer.MAX_VALUE for 'to the end')
+     */
+    public void setVisibleRows(int first, int last) {
+        firstVisibleRow = first;
+        lastVisibleRow  = last;
+    }
+
+    /** Add a new alarm as the last row */
+    public void addAlarm() {
+
+        int row = engine.size();
+
+        engine.create();
+        fireTableRowsInserted(row, row);
+    }
+
+    /** Bracket the addAlarms() calls of an import - see AlarmEngine */
+    public void beginImport() {
+        engine.beginImport();
+    }
+
+    public void endImport() {
+        engine.endImport();
+    }
+
+    /**
+     * Add a chunk of imported alarms as new last rows, with one table event
+     * for the whole chunk
+     */
+    public void addAlarms(AlarmImporter.Chunk chunk) {
+
+        if (chunk.size == 0) {
+            return;
+        }
+
+        int first = engine.addAll(chunk);
+        fireTableRowsInserted(first, first + chunk.size - 1);
+    }
+
+    /** Set the sound of the alarm in the given row (null for the default) */
+    public void setSound(int row, URL soundFileURL) {
+
+        int alarmRow = storeRow(row);
+        if (alarmRow < 0) {
+            return;     // removed since the row was shown
+        }
+
+        store.getAlarm(alarmRow).setSound(soundFileURL);
+        fireTableCellUpdated(row, SOUND);
+    }
+
+    /** Return the names of the alarm groups in use, sorted */
+    public String[] getGroups() {
+        return engine.getGroups();
+    }
+
+    /**
+     * Move every alarm in a group by the given minutes (negative for
+     * earlier), with one table event for the lot - see
+     * AlarmEngine.shiftGroup()
+     */
+    public int shiftGroup(String group, int minutes) {
+        return groupUpdated(engine.shiftGroup(group, minutes * 60000L));
+    }
+
+    public int armGroup(String group) {
+        return groupUpdated(engine.armGroup(group));
+    }
+
+    public int disarmGroup(String group) {
+        return groupUpdated(engine.disarmGroup(group));
+    }
+
+    /** Repaint after a group operation that changed count alarms */
+    private int groupUpdated(int count) {
+
+        if (count > 0) {
+            fireTableRowsUpdated(0, store.size() - 1);
+        }
+
+        return count;
+    }
+
+    /** Stop and remove the alarm in the given row */
+    public void removeAlarm(int row) {
+
+        int alarmRow = storeRow(row);
+        if (alarmRow < 0) {
+            return;     // removed since the row was shown
+        }
+
+        engine.remove(alarmRow);
+        fireTableRowsDeleted(row, row);
     }
 
-    /** Return alarm given number */
-    public Alarm getAlarm(int alarmNum) {
-        return alarms[alarmNum];
+    /**
+     * Let local programs manage the alarms over the given port (see
+     * ControlServer). Their commands are applied on the event dispatch
+     * thread, a batch at a time, with one table event per batch.
+     */
+    public void startControlServer(int port) {
+
+        Executor edt = new Executor() {
+
+            public void execute(Runnable batch) {
+                SwingUtilities.invokeLater(batch);
+            }
+        };
+
+        ControlServer.BatchListener repaint = new ControlServer.BatchListener() {
+
+            public void batchApplied(int firstNew, boolean removed) {
+
+                int size = engine.size();
+
+                if (removed) {
+                    fireTableDataChanged();
+                    return;
+                }
+                if (firstNew > 0) {
+                    fireTableRowsUpdated(0, firstNew - 1);
+                }
+                if (size > firstNew) {
+                    fireTableRowsInserted(firstNew, size - 1);
+                }
+            }
+        };
+
+        try {
+            controlServer = new ControlServer(engine, port, edt, repaint);
+            controlServer.start();
+        } catch (IOException ex) {
+            System.out.println("startControlServer() - port " + port + ": "
+                               + ex.getMessage());
+        }
     }
 
     /** Stop all timers */
     public void stopTimers() {
 
-        progressTimer.stop();
+        UITicker.getInstance().removeListener(progressTick);
+        deadlines.removeChangeListener(orderChanged);
+        descriptions.removeChangeListener(descriptionChanged);
+        engine.shutdown();
 
-        for (int x = 0; x < NUM_ALARMS; x++) {
-            alarms[x].stop();
+        if (controlServer != null) {
+            controlServer.close();
         }
     }
 
@@ -69,7 +469,18 @@ class AlarmTableModel extends AbstractTableModel {
     }
 
     public int getRowCount() {
-        return alarms.length;
+
+        Alarm[] shown = filtered;
+
+        return shown != null ? shown.length : store.size();
+    }
+
+    /** Return the AlarmStore state flags of a row (see AlarmStore.ACTIVE) */
+    public int getState(int row) {
+
+        row = storeRow(row);
+
+        return row < 0 ? AlarmStore.IDLE : store.getFlags(row);
     }
 
     public String getColumnName(int col) {
@@ -79,25 +490,43 @@ class AlarmTableModel extends AbstractTableModel {
     /** Alarm table implementation of getValueAt */
     public Object getValueAt(int row, int col) {
 
-        Object obj   = null;
-        Alarm  alarm = (Alarm) alarms[row];
+        Object obj = null;
+
+        row = storeRow(row);
+        if (row < 0) {
+            return null;
+        }
 
+        // read the store directly - nothing here allocates
         switch (col) {
 
         case ALARM :
-            obj = alarm.getAlarmNum();
+            obj = store.getAlarmNum(row);
             break;
 
         case DESCRIPTION :
-            obj = alarm.getDescription();
+            obj = store.getDescription(row);
+            break;
+
+        case GROUP :
+            obj = store.getGroup(row);
             break;
 
         case TIME :
-            obj = alarm.getTimeString();
+            obj = store.getTimeString(row);
+            break;
+
+        case REPEAT :
+            Recurrence rule = store.getRecurrence(row);
+            obj = rule == null ? "" : rule.toString();
+            break;
+
+        case SOUND :
+            obj = store.getSoundName(row);
             break;
 
         case ACTIVE :
-            obj = alarm.getActive();
+            obj = store.isActive(row) ? Boolean.TRUE : Boolean.FALSE;
             break;
         }
 
@@ -105,20 +534,25 @@ class AlarmTableModel extends AbstractTableModel {
     }
 
     public Class getColumnClass(int c) {
-        return getValueAt(0, c).getClass();
+        return columnClasses[c];
     }
 
     /** Alarm table implementation of isCellEditable */
     public boolean isCellEditable(int row, int col) {
 
-        if ((col == TIME) || (col == DESCRIPTION)) {
+        row = storeRow(row);
+        if (row < 0) {
+            return false;
+        }
 
-            // only allow editing if alarm not set
-            Alarm   alarm       = (Alarm) alarms[row];
-            boolean alarmActive =
-                ((Boolean) alarm.getActive()).booleanValue();
+        if (col == GROUP) {
+            return true;
+        }
+
+        if ((col == TIME) || (col == DESCRIPTION) || (col == REPEAT)) {
 
-            if (alarmActive == false) {
+            // only allow editing if alarm not set
+            if (store.isActive(row) == false) {
                 return true;
             }
         }
@@ -133,7 +567,10 @@ class AlarmTableModel extends AbstractTableModel {
     /** Alarm table implementation of setValueAt */
     public void setValueAt(Object value, int row, int col) {
 
-        Alarm alarm = (Alarm) alarms[row];
+        Alarm alarm = getAlarm(row);
+        if (alarm == null) {
+            return;
+        }
 
         switch (col) {
 
@@ -141,10 +578,18 @@ class AlarmTableModel extends AbstractTableModel {
             alarm.setDescription((String) value);
             break;
 
+        case GROUP :
+            engine.setGroup(alarm.row, (String) value);
+            break;
+
         case TIME :
             alarm.setTimeString((String) value);
             break;
 
+        case REPEAT :
+            alarm.setRepeat((String) value);
+            break;
+
         case ACTIVE :
             alarm.setActive((Boolean) value);
             break;
@@ -157,33 +602,109 @@ class AlarmTableModel extends AbstractTableModel {
         }
     }
 
-    /** Take manual control of updating the progress bar using a timer */
+    /**
+     * Take manual control of updating the progress bar, on the shared UI
+     * tick - in the same pass as the status bar clock
+     */
     private void startProgressTimer() {
 
-        progressTimer = new Timer(PROGRESS_INTERVAL, new ActionListener() {
-
-            public void actionPerformed(ActionEvent evt) {
+        progressTick = new UITicker.Listener() {
 
-                // for each alarm, check if active.
-                for (int x = 0; x < alarms.length; x++) {
+            public void tick(long now) {
 
-                    if (alarms[x].getActive().equals(Boolean.TRUE)) {
+                long start = System.nanoTime();
 
-                        // update the progress bar and fire event to repaint it
-                        alarms[x].updateProgressBar();
-                        fireTableCellUpdated(x, PROGRESS);
+                updateProgress();
 
-                        // if alarm has gone off, update the whole row so it can
-                        // can be re-painted the 'gone off' colour
-                        if (alarms[x].getGoneOff() == true) {
-                            fireTableRowsUpdated(x, x);
-                        }
-                    }
+                if (monitor != null) {
+                    monitor.tickDone(System.nanoTime() - start);
                 }
             }
-        });
+        };
+
+        UITicker.getInstance().addListener(progressTick,
+                                           PROGRESS_INTERVAL / 1000);
+    }
 
-        progressTimer.setCoalesce(false);
-        progressTimer.start();
+    /**
+     * One progress tick: repaint the active rows on screen plus any rows
+     * that have changed state. Nothing is allocated here.
+     */
+    void updateProgress() {
+
+        AlarmChangeTracker changes = store.getChanges();
+        int                last    = Math.min(lastVisibleRow, store.size() - 1);
+
+        if (isMapped()) {
+            // marks are by store row, and every row on screen may be any
+            // alarm - just repaint them; the order only moves when the
+            // indexes say so (see watchViews())
+            last = Math.min(lastVisibleRow, getRowCount() - 1);
+            changes.drain();
+            if (firstVisibleRow <= last) {
+                rowsUpdated.setRows(firstVisibleRow, last);
+                fireTableChanged(rowsUpdated);
+            }
+            return;
+        }
+
+        // the countdown of every active alarm on screen has moved on;
+        // rows that went off or changed state are already marked
+        for (int x = firstVisibleRow; x <= last; x++) {
+            if ((store.getFlags(x) & AlarmStore.ACTIVE) != 0) {
+                changes.mark(x);
+            }
+        }
+
+        fireChangedRows();
+    }
+
+    /**
+     * Drain the dirty rows and repaint them, merging runs of adjacent rows
+     * into one event and dropping rows that are scrolled out of view
+     */
+    private void fireChangedRows() {
+
+        AlarmChangeTracker changes = store.getChanges();
+        int                count   = changes.drain();
+        int[]              rows    = changes.getDrained();
+        int                first   = firstVisibleRow;
+        int                last    = Math.min(lastVisibleRow, store.size() - 1);
+
+        int x = 0;
+        while (x < count) {
+
+            int start = rows[x++];
+            int end   = start;
+
+            while (x < count && rows[x] == end + 1) {
+                end = rows[x++];
+            }
+
+            start = Math.max(start, first);
+            end   = Math.min(end, last);
+
+            if (start <= end) {
+                rowsUpdated.setRows(start, end);
+                fireTableChanged(rowsUpdated);
+            }
+        }
+    }
+
+    /**
+     * A rows-updated event whose row range can be changed, so the progress
+     * tick can re-use one instance rather than allocate one per repaint.
+     * Listeners handle the event on the dispatch thread and do not keep it.
+     */
+    private static class RowsUpdatedEvent extends TableModelEvent {
+
+        public RowsUpdatedEvent(TableModel source) {
+            super(source, 0, 0, ALL_COLUMNS, UPDATE);
+        }
+
+        public void setRows(int first, int last) {
+            firstRow = first;
+            lastRow  = last;
+        }
     }
 }
\ No newline at end of file
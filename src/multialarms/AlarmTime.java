@@ -0,0 +1,459 @@
+package multialarms;
+
+/*
+ * Title:        AlarmTime
+ * Description:  Thread-safe parsing and formatting of alarm go-off times
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.text.ParseException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.TextStyle;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.Locale;
+
+/**
+ * Go-off times as typed into, and shown in, the table's Set column.
+ *
+ * parse() accepts:
+ *
+ *   HH:mm, HH:mm:ss        - today
+ *   E HH:mm[:ss]           - the next such day (today if it is today)
+ *   yyyy-MM-dd HH:mm[:ss]  - that date ('T' may replace the space)
+ *   +15m, +1h30m, +90s     - from now (units h, m and s)
+ *   in 1h30, in 15m, in 2h - from now; a bare number after hours is minutes
+ *
+ * format() gives "E HH:mm" for today and tomorrow and "yyyy-MM-dd HH:mm"
+ * beyond, plus ":ss" if the seconds aren't zero - all of which parse() reads
+ * back to the same time. formatClock() gives the status bar's "HH:mm.ss".
+ *
+ * Both are safe to call from any thread: nothing here is shared except
+ * immutable caches of the current day. Parsing is done by hand, and on
+ * days without a daylight saving change times are plain arithmetic from
+ * the start of the day, so neither allocates much beyond its result.
+ */
+final class AlarmTime {
+
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR   = 60 * MINUTE;
+
+    /** Short day names, Monday first, as the table shows them */
+    private static final String[] DAY_NAMES = new String[7];
+
+    static {
+        for (int x = 0; x < 7; x++) {
+            DAY_NAMES[x] = DayOfWeek.of(x + 1).getDisplayName(
+                TextStyle.SHORT, Locale.getDefault());
+        }
+    }
+
+    /** Today and tomorrow in the default zone - replaced at midnight */
+    private static volatile Days days;
+
+    /** The last time formatted, and its text */
+    private static volatile Formatted lastFormatted = new Formatted(0, 0, null);
+
+    private AlarmTime() {}
+
+    /**
+     * Return the epoch milliseconds of a go-off time expression, relative
+     * to 'now' (epoch milliseconds)
+     */
+    public static long parse(String text, long now) throws ParseException {
+
+        String s   = text.trim();
+        int    len = s.length();
+
+        if (len == 0) {
+            throw new ParseException("Unparseable date: \"" + text + "\"", 0);
+        }
+
+        // relative: +1h30m or in 1h30 - to the whole second, as shown
+        if (s.charAt(0) == '+') {
+            return (now + duration(s, 1, text)) / SECOND * SECOND;
+        }
+        if (s.regionMatches(true, 0, "in ", 0, 3)) {
+            return (now + duration(s, 3, text)) / SECOND * SECOND;
+        }
+
+        Days today = getDays(now);
+
+        // yyyy-MM-dd HH:mm[:ss]
+        if (len >= 10 && s.charAt(4) == '-' && s.charAt(7) == '-') {
+            int year  = digits(s, 0, 4, text);
+            int month = digits(s, 5, 7, text);
+            int day   = digits(s, 8, 10, text);
+
+            if (len == 10) {
+                return atTime(today, year, month, day, 0, text);
+            }
+            char sep = s.charAt(10);
+            if (sep != ' ' && sep != 'T' && sep != 't') {
+                throw error(text, 10);
+            }
+            return atTime(today, year, month, day,
+                          timeOfDay(s, 11, text), text);
+        }
+
+        // [E ]HH:mm[:ss]
+        int  space  = s.indexOf(' ');
+        int  ahead  = 0;
+        int  start  = 0;
+
+        if (space > 0) {
+            int dayOfWeek = dayName(s.substring(0, space));
+            if (dayOfWeek < 0) {
+                throw error(text, 0);
+            }
+            ahead = (dayOfWeek - today.dayOfWeek + 7) % 7;
+            start = space + 1;
+            while (start < len && s.charAt(start) == ' ') {
+                start++;
+            }
+        }
+
+        long millis = timeOfDay(s, start, text);
+
+        if (ahead == 0 && today.simple) {
+            return today.start + millis;
+        }
+        if (ahead == 1 && today.simple) {
+            return today.next + millis;
+        }
+
+        LocalDate date = today.date.plusDays(ahead);
+        return atTime(today, date.getYear(), date.getMonthValue(),
+                      date.getDayOfMonth(), millis, text);
+    }
+
+    /** Return the Set column text for a go-off time, relative to 'now' */
+    public static String format(long time, long now) {
+
+        Formatted last = lastFormatted;
+        Days      today = getDays(now);
+
+        if (last.time == time && last.dayStart == today.start) {
+            return last.text;
+        }
+
+        char[] buffer = new char[32];
+        int    length;
+
+        if (today.simple && time >= today.start && time < today.end) {
+            // plain arithmetic: no daylight saving change today or tomorrow
+            boolean tomorrow = time >= today.next;
+            long    millis   = time - (tomorrow ? today.next : today.start);
+            String  day      = DAY_NAMES[(today.dayOfWeek + (tomorrow ? 1 : 0))
+                                         % 7];
+
+            day.getChars(0, day.length(), buffer, 0);
+            length = day.length();
+            buffer[length++] = ' ';
+            length = appendTime(millis, buffer, length);
+
+        } else {
+            ZonedDateTime local = Instant.ofEpochMilli(time)
+                                         .atZone(ZoneId.systemDefault());
+            LocalDate     date  = local.toLocalDate();
+
+            if (!date.isBefore(today.date) && !date.isAfter(today.date.plusDays(1))) {
+                String day = DAY_NAMES[local.getDayOfWeek().getValue() - 1];
+                day.getChars(0, day.length(), buffer, 0);
+                length = day.length();
+            } else {
+                length = appendDigits(date.getYear(), 4, buffer, 0);
+                buffer[length++] = '-';
+                length = appendDigits(date.getMonthValue(), 2, buffer, length);
+                buffer[length++] = '-';
+                length = appendDigits(date.getDayOfMonth(), 2, buffer, length);
+            }
+
+            buffer[length++] = ' ';
+            length = appendTime(local.toLocalTime().toSecondOfDay() * SECOND,
+                                buffer, length);
+        }
+
+        String text = new String(buffer, 0, length);
+
+        lastFormatted = new Formatted(time, today.start, text);
+
+        return text;
+    }
+
+    /** Return the status bar clock text for an instant - "HH:mm.ss" */
+    public static String formatClock(long now) {
+
+        Days today = getDays(now);
+        int  seconds;
+
+        if (today.simple) {
+            seconds = (int) ((now - today.start) / SECOND);
+        } else {
+            seconds = Instant.ofEpochMilli(now).atZone(today.zone)
+                             .toLocalTime().toSecondOfDay();
+        }
+
+        char[] buffer = new char[8];
+
+        appendDigits(seconds / 3600, 2, buffer, 0);
+        buffer[2] = ':';
+        appendDigits(seconds / 60 % 60, 2, buffer, 3);
+        buffer[5] = '.';
+        appendDigits(seconds % 60, 2, buffer, 6);
+
+        return new String(buffer);
+    }
+
+    // -------------------------------------------------------------------------
+    // PARSING
+    //--------------------------------------------------------------------------
+
+    /** Parse HH:mm[:ss] from 'start' to the end, into ms after midnight */
+    private static long timeOfDay(String s, int start, String text)
+            throws ParseException {
+
+        int len   = s.length();
+        int colon = s.indexOf(':', start);
+
+        if (colon < start + 1 || colon > start + 2 || len < colon + 3) {
+            throw error(text, start);
+        }
+
+        int hours   = digits(s, start, colon, text);
+        int minutes = digits(s, colon + 1, colon + 3, text);
+        int seconds = 0;
+
+        if (len > colon + 3) {
+            if (s.charAt(colon + 3) != ':' || len != colon + 6) {
+                throw error(text, colon + 3);
+            }
+            seconds = digits(s, colon + 4, colon + 6, text);
+        }
+
+        if (hours > 23 || minutes > 59 || seconds > 59) {
+            throw error(text, start);
+        }
+
+        return hours * HOUR + minutes * MINUTE + seconds * SECOND;
+    }
+
+    /**
+     * Parse a duration such as 1h30m, 15m, 90s or 1h30 (minutes implied)
+     * from 'start' to the end, into milliseconds
+     */
+    private static long duration(String s, int start, String text)
+            throws ParseException {
+
+        int     len   = s.length();
+        int     pos   = start;
+        long    total = 0;
+        long    unit  = 0;      // unit of the previous number
+        boolean any   = false;
+
+        while (pos < len && s.charAt(pos) == ' ') {
+            pos++;
+        }
+
+        while (pos < len) {
+            int from = pos;
+            while (pos < len && Character.isDigit(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == from || pos - from > 6) {
+                throw error(text, from);
+            }
+            long value = digits(s, from, pos, text);
+
+            if (pos == len) {
+                // a bare number: minutes after hours, else minutes
+                if (unit == MINUTE || unit == SECOND) {
+                    throw error(text, from);
+                }
+                total += value * MINUTE;
+                any = true;
+                break;
+            }
+
+            char c = Character.toLowerCase(s.charAt(pos++));
+            if (c == 'h' && unit == 0) {
+                unit = HOUR;
+            } else if (c == 'm' && unit != MINUTE && unit != SECOND) {
+                unit = MINUTE;
+            } else if (c == 's' && unit != SECOND) {
+                unit = SECOND;
+            } else {
+                throw error(text, pos - 1);
+            }
+
+            total += value * unit;
+            any = true;
+        }
+
+        if (!any) {
+            throw error(text, start);
+        }
+
+        return total;
+    }
+
+    /** Parse decimal digits from start to end */
+    private static int digits(String s, int start, int end, String text)
+            throws ParseException {
+
+        int value = 0;
+
+        for (int x = start; x < end; x++) {
+            char c = s.charAt(x);
+            if (c < '0' || c > '9') {
+                throw error(text, x);
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /** Return the day of the week of a short name, Monday = 0, or -1 */
+    private static int dayName(String name) {
+
+        for (int x = 0; x < DAY_NAMES.length; x++) {
+            if (DAY_NAMES[x].equalsIgnoreCase(name)) {
+                return x;
+            }
+        }
+
+        return -1;
+    }
+
+    /** The epoch milliseconds of a local date and time of day */
+    private static long atTime(Days today, int year, int month, int day,
+                               long millis, String text) throws ParseException {
+
+        try {
+            LocalDateTime local = LocalDateTime.of(
+                LocalDate.of(year, month, day),
+                LocalTime.ofSecondOfDay(millis / SECOND));
+
+            // a time in a daylight saving gap is moved forward
+            return local.atZone(today.zone).toInstant().toEpochMilli();
+
+        } catch (java.time.DateTimeException ex) {
+            throw error(text, 0);
+        }
+    }
+
+    private static ParseException error(String text, int offset) {
+        return new ParseException("Unparseable date: \"" + text + "\"", offset);
+    }
+
+    // -------------------------------------------------------------------------
+    // FORMATTING
+    //--------------------------------------------------------------------------
+
+    /** Write HH:mm, plus :ss if the seconds aren't zero */
+    private static int appendTime(long millis, char[] buffer, int pos) {
+
+        int seconds = (int) (millis / SECOND);
+
+        pos = appendDigits(seconds / 3600, 2, buffer, pos);
+        buffer[pos++] = ':';
+        pos = appendDigits(seconds / 60 % 60, 2, buffer, pos);
+
+        if (seconds % 60 != 0) {
+            buffer[pos++] = ':';
+            pos = appendDigits(seconds % 60, 2, buffer, pos);
+        }
+
+        return pos;
+    }
+
+    /** Write a number, zero-padded to the given width */
+    private static int appendDigits(int value, int width, char[] buffer,
+                                    int pos) {
+
+        for (int x = pos + width - 1; x >= pos; x--) {
+            buffer[x] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return pos + width;
+    }
+
+    // -------------------------------------------------------------------------
+    // THE CURRENT DAY
+    //--------------------------------------------------------------------------
+
+    /** Return today (as of 'now'), working it out again after midnight */
+    private static Days getDays(long now) {
+
+        Days today = days;
+
+        if (today == null || now < today.start || now >= today.next
+            || !today.zone.equals(ZoneId.systemDefault())) {
+            today = new Days(now);
+            days  = today;
+        }
+
+        return today;
+    }
+
+    /** Today and tomorrow in the default time zone */
+    private static final class Days {
+
+        final ZoneId    zone;
+        final LocalDate date;
+
+        /** Monday = 0 */
+        final int dayOfWeek;
+
+        /** Starts of today, tomorrow and the day after - epoch ms */
+        final long start;
+        final long next;
+        final long end;
+
+        /** No daylight saving change today or tomorrow */
+        final boolean simple;
+
+        Days(long now) {
+
+            zone      = ZoneId.systemDefault();
+            date      = Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+            dayOfWeek = date.getDayOfWeek().getValue() - 1;
+            start     = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            next      = date.plusDays(1).atStartOfDay(zone).toInstant()
+                            .toEpochMilli();
+            end       = date.plusDays(2).atStartOfDay(zone).toInstant()
+                            .toEpochMilli();
+
+            ZoneOffsetTransition change = zone.getRules().nextTransition(
+                Instant.ofEpochMilli(start));
+
+            simple = (change == null
+                      || change.getInstant().toEpochMilli() >= end)
+                     && next - start == 24 * HOUR && end - next == 24 * HOUR;
+        }
+    }
+
+    /** A formatted time, kept for the next call with the same time */
+    private static final class Formatted {
+
+        final long   time;
+        final long   dayStart;
+        final String text;
+
+        Formatted(long time, long dayStart, String text) {
+            this.time     = time;
+            this.dayStart = dayStart;
+            this.text     = text;
+        }
+    }
+}
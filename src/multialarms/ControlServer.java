@@ -0,0 +1,739 @@
+package multialarms;
+
+/*
+ * Title:        ControlServer
+ * Description:  Loopback control protocol for managing alarms in bulk
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Lets other programs on the same machine drive the alarms, over a TCP
+ * port bound to the loopback address only. One thread serves every
+ * connection with a selector, so thousands of clients cost a buffer each
+ * rather than a thread each.
+ *
+ * The protocol is lines of UTF-8 text, fields separated by tabs (so go-off
+ * times and descriptions may hold spaces). Every command gets exactly one
+ * reply line, in order, so clients may pipeline as many commands as they
+ * like without waiting:
+ *
+ *   ADD [time [description [repeat]]]  OK num
+ *   TIME num time                      OK
+ *   DESC num description               OK
+ *   REPEAT num rule                    OK      ("" for a one-off alarm)
+ *   ARM num                            OK
+ *   DISARM num                         OK
+ *   REMOVE num                         OK
+ *   GROUP num group                    OK      ("" for none)
+ *   SHIFT group minutes                OK moved  (eg. "-10" for earlier)
+ *   ARMGROUP group                     OK armed
+ *   DISARMGROUP group                  OK disarmed
+ *   GET num                            OK num state time repeat description
+ *   COUNT                              OK alarms
+ *   PING                               OK
+ *
+ * where state is "off", "on" or "ringing", and time is as typed into the
+ * table (see AlarmTime). A command that fails replies "ERR reason".
+ * The group commands act on a whole group at once (see AlarmEngine).
+ *
+ * Commands are applied in batches: every command read in one pass of the
+ * selector, across all connections, is handed to the executor as a single
+ * task - in the program, one trip to the event dispatch thread and one
+ * table event (see BatchListener). While a batch is being applied the next
+ * one builds up, and a connection with more than MAX_PENDING commands
+ * waiting stops being read until they are done.
+ */
+class ControlServer implements Runnable {
+
+    /** Port used when multialarms.control.port is set to "" or "true" */
+    public static final int DEFAULT_PORT = 7217;
+
+    /** Commands a connection may have waiting before it is no longer read */
+    public static final int MAX_PENDING = 1024;
+
+    /** Longest command line accepted - bytes */
+    public static final int MAX_LINE = 16 * 1024;
+
+    /** Batches of replies a connection may have unwritten while read */
+    private static final int MAX_UNWRITTEN = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final AlarmEngine   engine;
+    private final Executor      applier;
+    private final BatchListener listener;
+
+    private final Selector            selector;
+    private final ServerSocketChannel server;
+
+    /** Connections with commands read but not yet handed to the applier */
+    private final ArrayList<Connection> waiting = new ArrayList<Connection>();
+
+    /** Batches applied, whose replies are still to be queued for writing */
+    private final ConcurrentLinkedQueue<Batch> applied =
+        new ConcurrentLinkedQueue<Batch>();
+
+    /** A batch is with the applier */
+    private volatile boolean applying;
+
+    /** Set by REMOVE while a batch is applied */
+    private boolean removedRows;
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+    // counters
+    private volatile long commandsApplied;
+    private volatile long batchesApplied;
+    private volatile int  connections;
+
+    /**
+     * Tells the owner of a table that a batch of commands has been applied
+     * - on the applier's thread
+     */
+    interface BatchListener {
+
+        /**
+         * 'firstNew' is the number of rows before the batch (so the first
+         * added, if any); 'removed' is true if any rows were removed
+         */
+        public void batchApplied(int firstNew, boolean removed);
+    }
+
+    /**
+     * Open the server on a loopback port (0 for any free port). Batches are
+     * applied by 'applier' - which must run them one at a time, in order -
+     * and then reported to 'listener' (which may be null).
+     */
+    public ControlServer(AlarmEngine engine, int port, Executor applier,
+                         BatchListener listener) throws IOException {
+
+        this.engine   = engine;
+        this.applier  = applier;
+        this.listener = listener;
+
+        selector = Selector.open();
+        server   = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Return the port given by the multialarms.control.port property, or
+     * -1 if it isn't set (the server is off unless asked for)
+     */
+    public static int getConfiguredPort() {
+
+        String port = System.getProperty("multialarms.control.port");
+
+        if (port == null) {
+            return -1;
+        }
+        if (port.length() == 0 || port.equals("true")) {
+            return DEFAULT_PORT;
+        }
+
+        return Integer.parseInt(port);
+    }
+
+    /** Start serving on a daemon thread */
+    public synchronized void start() {
+
+        thread = new Thread(this, "ControlServer");
+        thread.setDaemon(true);
+        thread.start();
+
+        System.out.println("ControlServer - listening on " + getAddress());
+    }
+
+    /** Stop serving, closing every connection */
+    public void close() {
+
+        running = false;
+        selector.wakeup();
+    }
+
+    /** Return the address the server is listening on */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    /** Commands applied since the server started */
+    public long getCommands() {
+        return commandsApplied;
+    }
+
+    /** Batches applied since the server started */
+    public long getBatches() {
+        return batchesApplied;
+    }
+
+    /** Clients connected */
+    public int getConnections() {
+        return connections;
+    }
+
+    // -------------------------------------------------------------------------
+    // SELECTOR THREAD
+    //--------------------------------------------------------------------------
+
+    public void run() {
+
+        try {
+            while (running) {
+                // a bug in one batch mustn't end the loop, hanging every client
+                try {
+                    selector.select();
+
+                    Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        try {
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException ex) {
+                            if (key.attachment() != null) {
+                                ((Connection) key.attachment()).close();
+                            }
+                        }
+                    }
+
+                    queueReplies();
+                    submitBatch();
+                } catch (RuntimeException ex) {
+                    System.out.println("run() - " + ex);
+                    ex.printStackTrace();
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("run() - " + ex);
+        } finally {
+            Iterator<SelectionKey> keys = selector.keys().iterator();
+            while (keys.hasNext()) {
+                Object connection = keys.next().attachment();
+                if (connection != null) {
+                    ((Connection) connection).close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ex) {
+                System.out.println("run() - " + ex);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+
+        SocketChannel channel;
+
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ,
+                                              connection);
+            connections++;
+        }
+    }
+
+    /** Hand the replies of applied batches to their connections */
+    private void queueReplies() {
+
+        Batch batch;
+
+        while ((batch = applied.poll()) != null) {
+            for (int x = 0; x < batch.size; x++) {
+                byte[] replies = batch.replies[x];
+                if (replies == null) {
+                    replies = notApplied(batch.commands[x].length);
+                }
+                batch.connections[x].reply(replies, batch.commands[x].length);
+            }
+        }
+    }
+
+    /** An ERR reply to each of a number of commands a batch didn't get to */
+    private static byte[] notApplied(int count) {
+
+        StringBuilder reply = new StringBuilder();
+
+        for (int x = 0; x < count; x++) {
+            reply.append("ERR\tnot applied\n");
+        }
+
+        return reply.toString().getBytes(UTF8);
+    }
+
+    /** Hand the waiting commands to the applier, unless it is still busy */
+    private void submitBatch() {
+
+        if (applying || waiting.isEmpty()) {
+            return;
+        }
+
+        final Batch batch = new Batch(waiting.size());
+
+        for (int x = 0; x < batch.size; x++) {
+            Connection connection = waiting.get(x);
+            batch.connections[x] = connection;
+            batch.commands[x]    = connection.takeCommands();
+        }
+        waiting.clear();
+
+        applying = true;
+        applier.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    apply(batch);
+                } finally {
+                    applied.add(batch);
+                    applying = false;
+                    selector.wakeup();
+                }
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------------
+    // COMMANDS - on the applier's thread
+    //--------------------------------------------------------------------------
+
+    /** Run the commands of a batch, collecting the replies */
+    private void apply(Batch batch) {
+
+        int firstNew = engine.size();
+        int count    = 0;
+
+        removedRows = false;
+
+        StringBuilder reply = new StringBuilder();
+
+        for (int x = 0; x < batch.size; x++) {
+            String[] lines = batch.commands[x];
+
+            reply.setLength(0);
+            for (int y = 0; y < lines.length; y++) {
+                execute(lines[y], reply);
+            }
+            batch.replies[x] = reply.toString().getBytes(UTF8);
+            count += lines.length;
+        }
+
+        commandsApplied += count;
+        batchesApplied++;
+
+        if (listener != null) {
+            listener.batchApplied(Math.min(firstNew, engine.size()),
+                                  removedRows);
+        }
+    }
+
+    /** Run one command line, appending its reply line */
+    private void execute(String line, StringBuilder reply) {
+
+        String[] field = split(line);
+        String   name  = field[0];
+
+        try {
+            if (name.equals("ADD")) {
+                long       time = 0;
+                Recurrence rule = null;
+
+                if (field.length > 1 && field[1].length() > 0) {
+                    time = parseTime(field[1]);
+                }
+                if (field.length > 3) {
+                    rule = Recurrence.parse(field[3]);
+                }
+
+                Alarm alarm = engine.create();
+                if (time != 0) {
+                    setTime(alarm.row, time);
+                }
+                if (field.length > 2) {
+                    alarm.setDescription(field[2]);
+                }
+                if (rule != null) {
+                    engine.getStore().setRecurrence(alarm.row, rule);
+                }
+
+                reply.append("OK\t").append(alarm.getAlarmNum()).append('\n');
+                return;
+            }
+
+            if (name.equals("PING")) {
+                reply.append("OK\n");
+                return;
+            }
+
+            if (name.equals("COUNT")) {
+                reply.append("OK\t").append(engine.size()).append('\n');
+                return;
+            }
+
+            if (field.length < 2) {
+                throw new IllegalArgumentException(
+                    name.length() == 0 ? "empty command"
+                                       : "unknown command or missing alarm "
+                                         + name);
+            }
+
+            if (name.equals("SHIFT") || name.equals("ARMGROUP")
+                || name.equals("DISARMGROUP")) {
+                int changed = group(name, field);
+                reply.append("OK\t").append(changed).append('\n');
+                return;
+            }
+
+            int row = findRow(field[1]);
+
+            if (name.equals("ARM")) {
+                engine.arm(row);
+            } else if (name.equals("DISARM")) {
+                engine.cancel(row);
+            } else if (name.equals("REMOVE")) {
+                engine.remove(row);
+                removedRows = true;
+            } else if (name.equals("TIME")) {
+                setTime(row, parseTime(argument(field)));
+            } else if (name.equals("GROUP")) {
+                engine.setGroup(row, argument(field));
+            } else if (name.equals("DESC")) {
+                engine.getAlarm(row).setDescription(argument(field));
+            } else if (name.equals("REPEAT")) {
+                engine.getStore().setRecurrence(
+                    row, Recurrence.parse(argument(field)));
+            } else if (name.equals("GET")) {
+                get(row, reply);
+                return;
+            } else {
+                throw new IllegalArgumentException("unknown command " + name);
+            }
+
+            reply.append("OK\n");
+
+        } catch (IllegalArgumentException ex) {
+            reply.append("ERR\t").append(ex.getMessage()).append('\n');
+        } catch (RuntimeException ex) {
+            // eg. the alarm was removed meanwhile - the batch carries on
+            System.out.println("execute() - " + line + ": " + ex);
+            reply.append("ERR\t").append(ex).append('\n');
+        }
+    }
+
+    /** Run a group command, returning the number of alarms it changed */
+    private int group(String name, String[] field) {
+
+        String group = field[1];
+
+        if (name.equals("ARMGROUP")) {
+            return engine.armGroup(group);
+        }
+        if (name.equals("DISARMGROUP")) {
+            return engine.disarmGroup(group);
+        }
+
+        try {
+            return engine.shiftGroup(group,
+                Integer.parseInt(argument(field).trim()) * 60000L);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("bad minutes " + field[2]);
+        }
+    }
+
+    /** Reply to GET: num state time repeat description */
+    private void get(int row, StringBuilder reply) {
+
+        AlarmStore store = engine.getStore();
+        int        flags = store.getFlags(row);
+
+        reply.append("OK\t").append(store.getAlarmNum(row))
+             .append('\t').append((flags & AlarmStore.ACTIVE) == 0 ? "off"
+                                  : (flags & AlarmStore.GONE_OFF) == 0 ? "on"
+                                  : "ringing")
+             .append('\t').append(store.getTimeString(row))
+             .append('\t').append(engine.getAlarm(row).getRepeat())
+             .append('\t').append(store.getDescription(row))
+             .append('\n');
+    }
+
+    private int findRow(String num) {
+
+        int row;
+
+        try {
+            row = engine.getStore().findRow(Integer.parseInt(num));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("bad alarm number " + num);
+        }
+
+        if (row < 0) {
+            throw new IllegalArgumentException("no alarm " + num);
+        }
+
+        return row;
+    }
+
+    private long parseTime(String text) {
+
+        try {
+            return AlarmTime.parse(text, AlarmClock.get().currentTimeMillis());
+        } catch (ParseException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+    }
+
+    private void setTime(int row, long time) {
+
+        long now = AlarmClock.get().currentTimeMillis();
+
+        engine.getStore().setGoOffTime(row, time, AlarmTime.format(time, now));
+    }
+
+    /** The third field of a command, which must be there (but may be "") */
+    private static String argument(String[] field) {
+
+        if (field.length < 3) {
+            throw new IllegalArgumentException(field[0] + " needs a value");
+        }
+
+        return field[2];
+    }
+
+    /** Split a command line at tabs */
+    private static String[] split(String line) {
+
+        int count = 1;
+        for (int x = line.indexOf('\t'); x >= 0; x = line.indexOf('\t', x + 1)) {
+            count++;
+        }
+
+        String[] field = new String[count];
+        int      start = 0;
+
+        for (int x = 0; x < count - 1; x++) {
+            int end = line.indexOf('\t', start);
+            field[x] = line.substring(start, end);
+            start    = end + 1;
+        }
+        field[count - 1] = line.substring(start);
+
+        return field;
+    }
+
+    /**
+     * The commands of some connections, handed to the applier together,
+     * and their replies
+     */
+    private static class Batch {
+
+        final int          size;
+        final Connection[] connections;
+        final String[][]   commands;
+        final byte[][]     replies;
+
+        Batch(int size) {
+            this.size   = size;
+            connections = new Connection[size];
+            commands    = new String[size][];
+            replies     = new byte[size][];
+        }
+    }
+
+    /** A client - used only on the selector thread */
+    private class Connection {
+
+        final SocketChannel channel;
+        SelectionKey        key;
+
+        /** Bytes read, not yet making a whole line */
+        ByteBuffer in = ByteBuffer.allocate(1024);
+
+        /** Whole lines read, not yet handed to the applier */
+        ArrayList<String> commands = new ArrayList<String>();
+
+        /** Commands with the applier, or waiting for it */
+        int pending;
+
+        /** Replies not yet written */
+        ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+
+        boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Read what has arrived, splitting it into command lines */
+        void read() throws IOException {
+
+            int count = channel.read(in);
+
+            if (count < 0) {
+                close();
+                return;
+            }
+
+            byte[] bytes = in.array();
+            int    end   = in.position();
+            int    start = 0;
+
+            for (int x = 0; x < end; x++) {
+                if (bytes[x] == '\n') {
+                    int length = x - start;
+                    if (length > 0 && bytes[x - 1] == '\r') {
+                        length--;
+                    }
+                    if (commands.isEmpty()) {
+                        waiting.add(this);
+                    }
+                    commands.add(new String(bytes, start, length, UTF8));
+                    start = x + 1;
+                }
+            }
+
+            // keep the part line, growing the buffer for a long one
+            in.position(start);
+            in.limit(end);
+            in.compact();
+
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= MAX_LINE) {
+                    throw new IOException("line too long");
+                }
+                ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+
+            updateInterest();
+        }
+
+        /** Return the lines read so far, for a batch */
+        String[] takeCommands() {
+
+            String[] lines = commands.toArray(new String[commands.size()]);
+
+            commands.clear();
+            pending += lines.length;
+
+            return lines;
+        }
+
+        /** Queue the replies to a batch's commands, and write what we can */
+        void reply(byte[] replies, int count) {
+
+            if (closed) {
+                return;
+            }
+
+            pending -= count;
+            out.add(ByteBuffer.wrap(replies));
+
+            try {
+                write();
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        void write() throws IOException {
+
+            while (!out.isEmpty()) {
+                ByteBuffer buffer = out.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;      // the socket is full - wait for OP_WRITE
+                }
+                out.poll();
+            }
+
+            updateInterest();
+        }
+
+        /**
+         * Read only while the client isn't too far ahead, and wait to write
+         * only while there is something to write
+         */
+        private void updateInterest() {
+
+            if (closed) {
+                return;
+            }
+
+            int ops = 0;
+            if (pending + commands.size() < MAX_PENDING
+                && out.size() < MAX_UNWRITTEN) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!out.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+
+            key.interestOps(ops);
+        }
+
+        void close() {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            connections--;
+            waiting.remove(this);
+            key.cancel();
+
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.out.println("close() - " + ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package multialarms;
+
+/*
+ * Title:        DeadlineIndex
+ * Description:  The alarms in the order they are due, kept up to date
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Every alarm of a store, ordered by how soon it needs attention: ringing
+ * alarms first, then armed ones by go-off time, then the rest by number.
+ *
+ * The store calls update() whenever an alarm's flags or go-off time change
+ * and remove() when one goes, and the alarm is moved to its new place in
+ * O(log n) - nothing is re-sorted. The order is a skip list whose links
+ * also count the alarms they jump over, so get() finds the alarm at a
+ * position in O(log n) as well, which is what lets the table show it as a
+ * view without a sorted copy.
+ *
+ * Change listeners are told, on the thread that made the change, when the
+ * order has changed; an update that leaves an alarm where it was (most
+ * flag changes of idle alarms, say) doesn't count.
+ */
+class DeadlineIndex {
+
+    /** Kinds of alarm, in the order they are listed */
+    private static final int RINGING = 0;
+    private static final int ARMED   = 1;
+    private static final int OTHER   = 2;
+
+    /** Enough levels for 4^16 alarms */
+    private static final int MAX_LEVEL = 16;
+
+    /** An alarm's place in the list (see Alarm.deadlineNode) */
+    static final class Node {
+
+        final Alarm  alarm;
+        int          kind;
+        long         time;
+
+        /** Next node at each level, and how many alarms that link moves on */
+        final Node[] next;
+        final int[]  span;
+
+        Node(Alarm alarm, int levels) {
+            this.alarm = alarm;
+            next       = new Node[levels];
+            span       = new int[levels];
+        }
+    }
+
+    private final AlarmStore store;
+
+    /** Before the first node, at every level */
+    private final Node head = new Node(null, MAX_LEVEL);
+    private int        levels = 1;
+    private int        size;
+
+    /** Seed for the node levels (xorshift) */
+    private int seed = 0x2545F491;
+
+    /** Scratch space for the nodes before an insert or removal */
+    private final Node[] before = new Node[MAX_LEVEL];
+    private final int[]  rank   = new int[MAX_LEVEL];
+
+    /** Compares alarms by their nodes, while the index is locked */
+    private final Comparator<Alarm> order = new Comparator<Alarm>() {
+
+        public int compare(Alarm a, Alarm b) {
+
+            Node nodeA = a.deadlineNode;
+            Node nodeB = b.deadlineNode;
+
+            if (nodeA == null || nodeB == null) {
+                return nodeA == nodeB ? a.num - b.num : nodeA == null ? 1 : -1;
+            }
+
+            return nodeA == nodeB ? 0 : before(nodeA, nodeB) ? -1 : 1;
+        }
+    };
+
+    /** Told when the order changes - replaced, never changed in place */
+    private volatile Runnable[] listeners = new Runnable[0];
+
+    DeadlineIndex(AlarmStore store) {
+        this.store = store;
+    }
+
+    public synchronized void addChangeListener(Runnable listener) {
+
+        Runnable[] added = new Runnable[listeners.length + 1];
+        System.arraycopy(listeners, 0, added, 0, listeners.length);
+        added[listeners.length] = listener;
+        listeners = added;
+    }
+
+    public synchronized void removeChangeListener(Runnable listener) {
+
+        Runnable[] current = listeners;
+        for (int x = 0; x < current.length; x++) {
+            if (current[x] == listener) {
+                Runnable[] removed = new Runnable[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, x);
+                System.arraycopy(current, x + 1, removed, x,
+                                 current.length - x - 1);
+                listeners = removed;
+                return;
+            }
+        }
+    }
+
+    /** Return the number of alarms */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Put the alarm in its place for its current flags and go-off time -
+     * adding it if it is new. Both are read here, under the index's lock,
+     * so when two changes race the last update sees the later state.
+     */
+    public void update(Alarm alarm) {
+
+        synchronized (this) {
+
+            int row = alarm.row;
+            if (row < 0) {
+                return;     // removed
+            }
+
+            int  flags = alarm.getFlags();
+            int  kind  = flags == AlarmStore.RINGING ? RINGING
+                       : flags == AlarmStore.ARMED   ? ARMED : OTHER;
+            long time  = kind == OTHER ? 0 : store.getGoOffTime(row);
+            Node node  = alarm.deadlineNode;
+
+            if (node != null) {
+                if (node.kind == kind && node.time == time) {
+                    return;
+                }
+                unlink(node);
+            } else {
+                node               = new Node(alarm, randomLevels());
+                alarm.deadlineNode = node;
+            }
+
+            node.kind = kind;
+            node.time = time;
+            link(node);
+        }
+
+        changed();
+    }
+
+    /** Take out a removed alarm */
+    public void remove(Alarm alarm) {
+
+        synchronized (this) {
+
+            Node node = alarm.deadlineNode;
+            if (node == null) {
+                return;
+            }
+
+            unlink(node);
+            alarm.deadlineNode = null;
+        }
+
+        changed();
+    }
+
+    /** Return the alarm at the given position (0 is the first), or null */
+    public synchronized Alarm get(int position) {
+
+        if (position < 0 || position >= size) {
+            return null;
+        }
+
+        Node node = head;
+        int  left = position + 1;
+
+        for (int level = levels - 1; level >= 0; level--) {
+            while (node.next[level] != null && node.span[level] <= left) {
+                left -= node.span[level];
+                node  = node.next[level];
+            }
+            if (left == 0) {
+                break;
+            }
+        }
+
+        return node.alarm;
+    }
+
+    /** Return the armed alarm that will go off next, or null if none is armed */
+    public synchronized Alarm getNext() {
+
+        Node node = head;
+
+        // the last node before the armed ones
+        for (int level = levels - 1; level >= 0; level--) {
+            while (node.next[level] != null && node.next[level].kind < ARMED) {
+                node = node.next[level];
+            }
+        }
+
+        node = node.next[0];
+
+        return node != null && node.kind == ARMED ? node.alarm : null;
+    }
+
+    /**
+     * Put the alarms in 'matches' into 'into' in the order they are listed,
+     * as many as fit, and return how many that was - walking the whole
+     * list, which is quicker than sort() when most alarms are matches
+     */
+    public synchronized int getMatched(DescriptionIndex.Matches matches,
+                                       Alarm[] into) {
+
+        int count = 0;
+
+        for (Node node = head.next[0]; node != null && count < into.length;
+             node = node.next[0]) {
+            if (matches.contains(node.alarm.num)) {
+                into[count++] = node.alarm;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Sort some of the alarms (the first 'count') into the order they are
+     * listed in, without walking the list. Any no longer in it go last.
+     */
+    public synchronized void sort(Alarm[] alarms, int count) {
+        Arrays.sort(alarms, 0, count, order);
+    }
+
+    /** Return the go-off time the alarm is listed under (0 if not armed) */
+    public synchronized long getTime(Alarm alarm) {
+
+        Node node = alarm.deadlineNode;
+
+        return node == null ? 0 : node.time;
+    }
+
+    /** Whether a comes before b */
+    private static boolean before(Node a, Node b) {
+
+        if (a.kind != b.kind) {
+            return a.kind < b.kind;
+        }
+        if (a.time != b.time) {
+            return a.time < b.time;
+        }
+        return a.alarm.num < b.alarm.num;
+    }
+
+    /** Find the nodes before where 'node' goes, and their positions */
+    private void findBefore(Node node) {
+
+        Node x = head;
+        int  position = 0;
+
+        for (int level = levels - 1; level >= 0; level--) {
+            while (x.next[level] != null && x.next[level] != node
+                   && before(x.next[level], node)) {
+                position += x.span[level];
+                x         = x.next[level];
+            }
+            before[level] = x;
+            rank[level]   = position;
+        }
+    }
+
+    private void link(Node node) {
+
+        int nodeLevels = node.next.length;
+
+        if (nodeLevels > levels) {
+            for (int level = levels; level < nodeLevels; level++) {
+                head.next[level] = null;
+                head.span[level] = size + 1;
+            }
+            levels = nodeLevels;
+        }
+
+        findBefore(node);
+
+        int position = rank[0] + 1;     // where node goes, counting from 1
+
+        for (int level = 0; level < levels; level++) {
+            Node prev = before[level];
+            if (level < nodeLevels) {
+                int jump = position - rank[level];  // prev to node
+
+                node.next[level] = prev.next[level];
+                node.span[level] = prev.span[level] - jump + 1;
+                prev.next[level] = node;
+                prev.span[level] = jump;
+            } else {
+                prev.span[level]++;
+            }
+        }
+
+        size++;
+    }
+
+    private void unlink(Node node) {
+
+        findBefore(node);
+
+        for (int level = 0; level < levels; level++) {
+            Node prev = before[level];
+            if (prev.next[level] == node) {
+                prev.span[level] += node.span[level] - 1;
+                prev.next[level]  = node.next[level];
+                node.next[level]  = null;
+            } else {
+                prev.span[level]--;
+            }
+        }
+
+        while (levels > 1 && head.next[levels - 1] == null) {
+            levels--;
+        }
+
+        size--;
+    }
+
+    /** 1 level, then each more with a chance of 1 in 4 */
+    private int randomLevels() {
+
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+
+        int bits       = seed;
+        int nodeLevels = 1;
+
+        while (nodeLevels < MAX_LEVEL && (bits & 3) == 0) {
+            nodeLevels++;
+            bits >>>= 2;
+        }
+
+        return nodeLevels;
+    }
+
+    private void changed() {
+
+        Runnable[] current = listeners;
+        for (int x = 0; x < current.length; x++) {
+            current[x].run();
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package multialarms;
+
+/*
+ * Title:        DescriptionIndex
+ * Description:  Finds alarms by any part of their description
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A trigram index over the alarms' descriptions, ignoring case, for the
+ * table's filter box. Every three characters of a description (padded at
+ * the end, so every character starts one) map to the alarms containing
+ * them, each with a mask of where in the description they are. The
+ * trigrams are kept sorted in an array of longs and found by binary
+ * search, so neither indexing nor finding makes an object per trigram.
+ * The store keeps it up to date as descriptions are set and alarms come
+ * and go.
+ *
+ * find() of a text of three or more characters intersects the alarms of
+ * its trigrams, starting with the rarest. Lining up their position masks
+ * tells whether the trigrams follow on from each other, so a description
+ * is only read when they are too far in for the mask. A shorter
+ * text is a prefix of the trigrams it occurs in, which sit next to each
+ * other in the index. Neither looks at alarms without the rarest trigram
+ * (or the prefix), and the matches are listed as well as marked, so the
+ * caller needn't look at the others either.
+ *
+ * Change listeners are told, on the thread that made the change, when a
+ * description has been indexed or taken out.
+ */
+class DescriptionIndex {
+
+    /** Pads the end of a description */
+    private static final char END = 0;
+
+    /**
+     * Position mask bits: one for each of the first 31 positions, and one
+     * for anywhere beyond
+     */
+    private static final int NEAR = 0x7FFFFFFF;
+    private static final int FAR  = 0x80000000;
+
+    /** The trigrams in use, sorted - three chars packed in a long */
+    private long[] grams = new long[64];
+
+    /** The alarms of each trigram, in the same places */
+    private Postings[] postings = new Postings[64];
+
+    private int gramCount;
+
+    /** Descriptions too long for the position masks, by alarm number */
+    private final HashMap<Integer, String> longDescriptions =
+        new HashMap<Integer, String>();
+
+    /** Told of each change - replaced, never changed in place */
+    private volatile Runnable[] listeners = new Runnable[0];
+
+    public synchronized void addChangeListener(Runnable listener) {
+
+        Runnable[] added = new Runnable[listeners.length + 1];
+        System.arraycopy(listeners, 0, added, 0, listeners.length);
+        added[listeners.length] = listener;
+        listeners = added;
+    }
+
+    public synchronized void removeChangeListener(Runnable listener) {
+
+        Runnable[] current = listeners;
+        for (int x = 0; x < current.length; x++) {
+            if (current[x] == listener) {
+                Runnable[] removed = new Runnable[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, x);
+                System.arraycopy(current, x + 1, removed, x,
+                                 current.length - x - 1);
+                listeners = removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move an alarm from its old description to its new one - either may
+     * be null, for an alarm being added or removed
+     */
+    public void update(Alarm alarm, String old, String description) {
+
+        if (old != null && old.equals(description)) {
+            return;
+        }
+
+        int num = alarm.num;
+
+        synchronized (this) {
+
+            if (old != null) {
+                for (int x = 0; x < old.length(); x++) {
+                    int place = indexOf(gram(old, x));
+                    if (place >= 0 && postings[place].remove(num)
+                        && postings[place].size == 0) {
+                        removeGram(place);
+                    }
+                }
+                if (old.length() > 31) {
+                    longDescriptions.remove(Integer.valueOf(num));
+                }
+            }
+
+            if (description != null) {
+                for (int x = 0; x < description.length(); x++) {
+                    long gram  = gram(description, x);
+                    int  place = indexOf(gram);
+                    if (place < 0) {
+                        place = -place - 1;
+                        insertGram(place, gram);
+                    }
+                    postings[place].add(num, x < 31 ? 1 << x : FAR);
+                }
+                if (description.length() > 31) {
+                    longDescriptions.put(Integer.valueOf(num), description);
+                }
+            }
+        }
+
+        Runnable[] current = listeners;
+        for (int x = 0; x < current.length; x++) {
+            current[x].run();
+        }
+    }
+
+    /**
+     * Add the alarms whose description contains the text (ignoring case)
+     * to 'matches', which should be clear to start with, and return how
+     * many there are
+     */
+    public synchronized int find(String text, Matches matches) {
+
+        int length = text.length();
+
+        if (length == 0) {
+            return 0;
+        }
+
+        if (length < 3) {
+            return findPrefix(text, matches);
+        }
+
+        // the rarest trigram's alarms are the candidates
+        Postings[] all    = new Postings[length - 2];
+        int        rarest = 0;
+
+        for (int x = 0; x < all.length; x++) {
+            int place = indexOf(gram(text, x));
+            if (place < 0) {
+                return 0;
+            }
+            all[x] = postings[place];
+            if (all[x].size < all[rarest].size) {
+                rarest = x;
+            }
+        }
+
+        int[] nums  = all[rarest].nums;
+        int[] masks = all[rarest].masks;
+
+        matches.reserve(all[rarest].size);
+
+        candidates:
+        for (int slot = 0; slot < nums.length; slot++) {
+
+            int num = nums[slot] - 1;
+            if (num < 0) {
+                continue;
+            }
+
+            // bit p of 'start' stays set while every trigram so far is at
+            // p plus its place in the text
+            int     start = (masks[slot] & NEAR) >>> rarest;
+            boolean far   = (masks[slot] & FAR) != 0;
+
+            for (int x = 0; x < all.length; x++) {
+                if (x != rarest) {
+                    int mask = all[x].getMask(num);
+                    if (mask == 0) {
+                        continue candidates;
+                    }
+                    start &= (mask & NEAR) >>> x;
+                    far   |= (mask & FAR) != 0;
+                }
+            }
+
+            // beyond the mask, the trigrams may be there in another order
+            if (start == 0
+                && (!far || !contains(longDescriptions.get(
+                                          Integer.valueOf(num)), text))) {
+                continue;
+            }
+
+            matches.add(num);
+        }
+
+        return matches.count;
+    }
+
+    /** find() of one or two characters - the trigrams they start */
+    private int findPrefix(String text, Matches matches) {
+
+        long first = gram(text, 0);
+        long last  = text.length() == 1 ? first + (1L << 32)
+                                        : first + (1L << 16);
+        int  place = indexOf(first);
+
+        if (place < 0) {
+            place = -place - 1;
+        }
+
+        for (; place < gramCount && grams[place] < last; place++) {
+            matches.addAll(postings[place]);
+        }
+
+        return matches.count;
+    }
+
+    /** Return the place of a trigram, or -(the place it would go) - 1 */
+    private int indexOf(long gram) {
+        return Arrays.binarySearch(grams, 0, gramCount, gram);
+    }
+
+    /** Put a new trigram, with no alarms yet, in its place */
+    private void insertGram(int place, long gram) {
+
+        if (gramCount == grams.length) {
+            grams    = Arrays.copyOf(grams, gramCount * 2);
+            postings = Arrays.copyOf(postings, gramCount * 2);
+        }
+
+        System.arraycopy(grams, place, grams, place + 1, gramCount - place);
+        System.arraycopy(postings, place, postings, place + 1,
+                         gramCount - place);
+
+        grams[place]    = gram;
+        postings[place] = new Postings();
+        gramCount++;
+    }
+
+    /** Take out the trigram in a place, now no alarm has it */
+    private void removeGram(int place) {
+
+        gramCount--;
+
+        System.arraycopy(grams, place + 1, grams, place, gramCount - place);
+        System.arraycopy(postings, place + 1, postings, place,
+                         gramCount - place);
+
+        postings[gramCount] = null;
+    }
+
+    /** The trigram at a position, in lower case, padded with END */
+    private static long gram(String s, int start) {
+
+        long gram = 0;
+
+        for (int x = start; x < start + 3; x++) {
+            char c = x < s.length() ? Character.toLowerCase(s.charAt(x)) : END;
+            gram   = gram << 16 | c;
+        }
+
+        return gram;
+    }
+
+    /** Whether s contains text, ignoring case */
+    private static boolean contains(String s, String text) {
+
+        int last = s.length() - text.length();
+
+        for (int x = 0; x <= last; x++) {
+            if (s.regionMatches(true, x, text, 0, text.length())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The alarms found by find(): listed, and marked by number so none is
+     * listed twice and so clear() only has to go through those listed,
+     * unless there are many. Used by one thread at a time.
+     */
+    static final class Matches {
+
+        private boolean[] marked = new boolean[64];
+
+        /** The numbers of the alarms found, in no particular order */
+        int[] nums = new int[16];
+        int   count;
+
+        /** Whether the alarm with the given number was found */
+        boolean contains(int num) {
+            return num < marked.length && marked[num];
+        }
+
+        /**
+         * Whether so few were found, out of 'total', that sorting them is
+         * quicker than reading through all
+         */
+        boolean isSparse(int total) {
+            return (long) count * (32 - Integer.numberOfLeadingZeros(count))
+                   < total;
+        }
+
+        /**
+         * Forget the alarms found, for the next find(): unmarking each when
+         * few, clearing all the marks at once when many
+         */
+        void clear() {
+
+            if (isSparse(marked.length)) {
+                for (int x = 0; x < count; x++) {
+                    marked[nums[x]] = false;
+                }
+            } else {
+                Arrays.fill(marked, false);
+            }
+
+            count = 0;
+        }
+
+        /** Make room to list as many more as given */
+        private void reserve(int more) {
+
+            if (count + more > nums.length) {
+                nums = Arrays.copyOf(nums, Math.max(count + more,
+                                                    nums.length * 2));
+            }
+        }
+
+        /**
+         * Add the alarms of a trigram - in one loop over locals, as a short
+         * prefix can match every alarm
+         */
+        private void addAll(Postings postings) {
+
+            reserve(postings.size);
+
+            int[]     slots = postings.nums;
+            boolean[] mark  = marked;
+            int[]     list  = nums;
+            int       added = count;
+
+            for (int slot = 0; slot < slots.length; slot++) {
+                int num = slots[slot] - 1;
+                if (num < 0) {
+                    continue;
+                }
+                if (num >= mark.length) {
+                    mark = Arrays.copyOf(mark, Math.max(num + 1,
+                                                        mark.length * 2));
+                }
+                if (!mark[num]) {
+                    mark[num]     = true;
+                    list[added++] = num;
+                }
+            }
+
+            marked = mark;
+            count  = added;
+        }
+
+        /** Add an alarm, with room reserved for it in the list */
+        private void add(int num) {
+
+            if (num >= marked.length) {
+                marked = Arrays.copyOf(marked, Math.max(num + 1,
+                                                        marked.length * 2));
+            }
+
+            if (!marked[num]) {
+                marked[num]   = true;
+                nums[count++] = num;
+            }
+        }
+    }
+
+    /**
+     * A set of alarm numbers, each with a position mask - open addressing,
+     * so finding one doesn't allocate. Numbers are kept plus one, so an
+     * empty slot is 0.
+     */
+    private static final class Postings {
+
+        int[] nums  = new int[4];
+        int[] masks = new int[4];
+        int   size;
+
+        /** Return the alarm's position mask, or 0 if it isn't here */
+        int getMask(int num) {
+
+            int mask = nums.length - 1;
+
+            for (int slot = hash(num) & mask; nums[slot] != 0;
+                 slot = (slot + 1) & mask) {
+                if (nums[slot] == num + 1) {
+                    return masks[slot];
+                }
+            }
+
+            return 0;
+        }
+
+        /** Add the alarm, or add the positions to its mask */
+        void add(int num, int positions) {
+
+            if ((size + 1) * 4 > nums.length * 3) {
+                resize(nums.length * 2);
+            }
+
+            int mask = nums.length - 1;
+            int slot = hash(num) & mask;
+
+            while (nums[slot] != 0) {
+                if (nums[slot] == num + 1) {
+                    masks[slot] |= positions;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            nums[slot]  = num + 1;
+            masks[slot] = positions;
+            size++;
+        }
+
+        /** Returns 'true' if it was there */
+        boolean remove(int num) {
+
+            int mask = nums.length - 1;
+            int slot = hash(num) & mask;
+
+            while (nums[slot] != num + 1) {
+                if (nums[slot] == 0) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            nums[slot] = 0;
+            size--;
+
+            // move up the alarms after it that it was in the way of
+            for (int next = (slot + 1) & mask; nums[next] != 0;
+                 next = (next + 1) & mask) {
+                int home = hash(nums[next] - 1) & mask;
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    nums[slot]  = nums[next];
+                    masks[slot] = masks[next];
+                    nums[next]  = 0;
+                    slot        = next;
+                }
+            }
+
+            return true;
+        }
+
+        private void resize(int capacity) {
+
+            int[] oldNums  = nums;
+            int[] oldMasks = masks;
+
+            nums  = new int[capacity];
+            masks = new int[capacity];
+            size  = 0;
+
+            for (int x = 0; x < oldNums.length; x++) {
+                if (oldNums[x] != 0) {
+                    add(oldNums[x] - 1, oldMasks[x]);
+                }
+            }
+        }
+
+        private static int hash(int num) {
+            return num * 0x9E3779B9 >>> 7;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package multialarms;
+
+/*
+ * Title:        FireAction
+ * Description:  Something done when an alarm goes off, besides ringing
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * An action attached to an alarm with Alarm.addAction(), run each time the
+ * alarm goes off - see ActionDispatcher, and FireActions for the ones that
+ * come with the program.
+ */
+public interface FireAction {
+
+    /**
+     * The given alarm has gone off. Called on an action thread, never the
+     * scheduler or event dispatch thread, so it may block - but it is
+     * interrupted when its timeout runs out, and should then give up
+     * promptly. Anything thrown is counted as a failure.
+     */
+    public void fire(Alarm alarm) throws Exception;
+}
@@ -0,0 +1,188 @@
+package multialarms;
+
+/*
+ * Title:        FireActions
+ * Description:  The fire actions that come with the program
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+
+/**
+ * Ready-made FireActions, to attach with Alarm.addAction():
+ *
+ *   command - run a program, with the alarm in its environment
+ *   append  - add a line to a log file
+ *   relay   - write a fixed command to a device, such as a serial relay
+ *   request - call a (local) web address
+ *
+ * Each one gives up when interrupted, so the action timeout is honoured.
+ */
+class FireActions {
+
+    /** Only static factories */
+    private FireActions() {}
+
+    /**
+     * Run a program and wait for it, failing if it exits with a non-zero
+     * status. MULTIALARMS_ALARM and MULTIALARMS_DESCRIPTION are set to the
+     * alarm's number and description; the program's output is discarded.
+     */
+    public static FireAction command(final String... command) {
+
+        return new FireAction() {
+
+            public void fire(Alarm alarm) throws Exception {
+
+                ProcessBuilder builder = new ProcessBuilder(command);
+                Map<String, String> env = builder.environment();
+                env.put("MULTIALARMS_ALARM", "" + alarm.getAlarmNum());
+                env.put("MULTIALARMS_DESCRIPTION", alarm.getDescription());
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(nullFile());
+
+                Process process = builder.start();
+                try {
+                    int status = process.waitFor();
+                    if (status != 0) {
+                        throw new IOException(command[0] + " exited with "
+                                              + status);
+                    }
+                } finally {
+                    process.destroy();  // if interrupted, it is still running
+                }
+            }
+
+            public String toString() {
+                return "command " + command[0];
+            }
+        };
+    }
+
+    /**
+     * Append "time alarm description" to a text file, one line per go-off
+     * (the time as 2003-06-01T07:30:00)
+     */
+    public static FireAction append(final File file) {
+
+        return new FireAction() {
+
+            public void fire(Alarm alarm) throws IOException {
+
+                LocalDateTime now = LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(AlarmClock.get().currentTimeMillis()),
+                    ZoneId.systemDefault());
+
+                String line = now.withNano(0) + " " + alarm.getAlarmNum()
+                              + " " + alarm.getDescription()
+                              + System.getProperty("line.separator");
+
+                // one write per line, so lines from different alarms
+                // don't interleave
+                synchronized (FireActions.class) {
+                    OutputStream out = new FileOutputStream(file, true);
+                    try {
+                        out.write(line.getBytes("UTF-8"));
+                    } finally {
+                        out.close();
+                    }
+                }
+            }
+
+            public String toString() {
+                return "append " + file;
+            }
+        };
+    }
+
+    /**
+     * Write a fixed command to a device file - a serial relay (/dev/ttyUSB0,
+     * COM3), or an ordinary file standing in for one
+     */
+    public static FireAction relay(final File device, final byte[] command) {
+
+        return new FireAction() {
+
+            public void fire(Alarm alarm) throws IOException {
+
+                synchronized (FireActions.class) {
+                    OutputStream out = new FileOutputStream(device, true);
+                    try {
+                        out.write(command);
+                        out.flush();
+                    } finally {
+                        out.close();
+                    }
+                }
+            }
+
+            public String toString() {
+                return "relay " + device;
+            }
+        };
+    }
+
+    /**
+     * Call a web address, with the alarm number and description as the
+     * query, failing unless it answers 2xx. The connection gives up after
+     * timeout milliseconds, which should be no more than the action's.
+     */
+    public static FireAction request(final URL url, final int timeout) {
+
+        return new FireAction() {
+
+            public void fire(Alarm alarm) throws IOException {
+
+                URL target = new URL(url
+                    + (url.getQuery() == null ? "?" : "&")
+                    + "alarm=" + alarm.getAlarmNum()
+                    + "&description="
+                    + URLEncoder.encode(alarm.getDescription(), "UTF-8"));
+
+                HttpURLConnection connection =
+                    (HttpURLConnection) target.openConnection();
+                connection.setConnectTimeout(timeout);
+                connection.setReadTimeout(timeout);
+
+                int status = connection.getResponseCode();
+                if (status / 100 != 2) {
+                    connection.disconnect();
+                    throw new IOException(url + " answered " + status);
+                }
+
+                InputStream in     = connection.getInputStream();
+                byte[]      buffer = new byte[512];
+                try {
+                    while (in.read(buffer) >= 0) {
+                        // drain the reply, so the connection can be reused
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+
+            public String toString() {
+                return "request " + url;
+            }
+        };
+    }
+
+    /** Where a command's output goes */
+    private static File nullFile() {
+
+        return new File(File.separatorChar == '\\' ? "NUL" : "/dev/null");
+    }
+}
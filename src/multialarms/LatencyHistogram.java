@@ -0,0 +1,307 @@
+package multialarms;
+
+/*
+ * Title:        LatencyHistogram
+ * Description:  Fixed-size histogram of how late alarms go off and ring
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds, in the style of HdrHistogram:
+ * values below 128 each have a bucket, and above that every power of two
+ * is split into 64 buckets, so any value is held to within 1/64 (1.6%)
+ * of itself. Memory is fixed (LENGTH counters, about 16K) however many
+ * values are recorded, and record() is a single atomic increment, so it
+ * can be called from the scheduler and audio threads as they fire.
+ *
+ * Two histograms are kept for the whole process:
+ *
+ *   FIRED - from an alarm's go-off time to Alarm.goOff() running
+ *   RUNG  - from an alarm's go-off time to the first sample of its ring
+ *           reaching the audio device
+ *
+ * and DISPATCHED, from an alarm going off to each of its FireActions
+ * starting (see ActionDispatcher).
+ */
+final class LatencyHistogram {
+
+    /** Sub-buckets per power of two, and the half of them used above 128 */
+    private static final int SUB_BITS = 7;
+    private static final int HALF     = 1 << (SUB_BITS - 1);
+
+    /** Values at or above this (about 19 hours) are counted as it */
+    private static final long LIMIT = 1L << 36;
+
+    private static final int LENGTH = index(LIMIT - 1) + 1;
+
+    /** Lateness of the go-off event */
+    public static final LatencyHistogram FIRED =
+        new LatencyHistogram("fired");
+
+    /** Lateness of the first audio sample */
+    public static final LatencyHistogram RUNG =
+        new LatencyHistogram("rung");
+
+    /** Wait of fire actions for a thread */
+    public static final LatencyHistogram DISPATCHED =
+        new LatencyHistogram("dispatched");
+
+    private final String          name;
+    private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+    private final AtomicLong      total  = new AtomicLong();
+    private final AtomicLong      max    = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Count one latency, in microseconds (early is counted as 0) */
+    public void record(long micros) {
+
+        long value = Math.min(Math.max(micros, 0), LIMIT - 1);
+
+        counts.incrementAndGet(index(value));
+        total.incrementAndGet();
+
+        long highest = max.get();
+        while (value > highest && !max.compareAndSet(highest, value)) {
+            highest = max.get();
+        }
+    }
+
+    /** Count the lateness of something due at an epoch millisecond time */
+    public void recordSince(long deadlineMillis) {
+        record(nowMicros() - deadlineMillis * 1000);
+    }
+
+    /** Number of latencies recorded */
+    public long getCount() {
+        return total.get();
+    }
+
+    /** Largest latency recorded - in microseconds */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Return the latency (microseconds) that the given percentage of those
+     * recorded are at or below - the top of its bucket, so never optimistic
+     */
+    public long getPercentile(double percent) {
+
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+        long seen = 0;
+
+        for (int x = 0; x < LENGTH; x++) {
+            seen += counts.get(x);
+            if (seen >= rank) {
+                return Math.min(highest(x), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /** Forget everything recorded */
+    public void reset() {
+
+        for (int x = 0; x < LENGTH; x++) {
+            counts.set(x, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    /** Short form for a status bar: "p50 1.2ms p99 3ms p99.9 5ms max 12ms" */
+    public String getSummary() {
+
+        return "p50 " + duration(getPercentile(50))
+               + "  p99 " + duration(getPercentile(99))
+               + "  p99.9 " + duration(getPercentile(99.9))
+               + "  max " + duration(getMax());
+    }
+
+    public String toString() {
+        return name + " (" + getCount() + "): " + getSummary();
+    }
+
+    /**
+     * Write the percentile distribution in HdrHistogram's text layout
+     * (Value, Percentile, TotalCount, 1/(1-Percentile)), with values in
+     * milliseconds, so the usual plotting tools read it
+     */
+    public void export(PrintWriter out) {
+
+        long count = total.get();
+        long seen  = 0;
+
+        out.println("# " + name + " latency, milliseconds");
+        out.println(format("%12s %14s %10s %14s", "Value", "Percentile",
+                           "TotalCount", "1/(1-Percentile)"));
+        out.println();
+
+        for (int x = 0; x < LENGTH && seen < count; x++) {
+            long n = counts.get(x);
+            if (n == 0) {
+                continue;
+            }
+
+            seen += n;
+
+            double fraction = (double) seen / count;
+            String inverse  = fraction < 1
+                              ? format("%14.2f", 1 / (1 - fraction))
+                              : format("%14s", "Infinity");
+
+            out.println(format("%12.3f %14.12f %10d %s",
+                               Math.min(highest(x), max.get()) / 1000.0,
+                               fraction, seen, inverse));
+        }
+
+        out.println(format("#[Mean    = %12.3f, StdDeviation   = %12.3f]",
+                           mean() / 1000, deviation() / 1000));
+        out.println(format("#[Max     = %12.3f, Total count    = %12d]",
+                           max.get() / 1000.0, count));
+        out.println(format("#[Buckets = %12d, SubBuckets     = %12d]",
+                           LENGTH / HALF, 2 * HALF));
+    }
+
+    /** Write FIRED, RUNG and DISPATCHED to a file */
+    public static void exportAll(File file) throws IOException {
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+            new FileOutputStream(file), "UTF-8"));
+
+        try {
+            FIRED.export(out);
+            out.println();
+            RUNG.export(out);
+            out.println();
+            DISPATCHED.export(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Wall-clock time in microseconds (as fine as the platform gives) */
+    static long nowMicros() {
+
+        java.time.Instant now = java.time.Instant.now();
+
+        return now.getEpochSecond() * 1000000 + now.getNano() / 1000;
+    }
+
+    /** Format microseconds briefly, as 850us, 1.2ms, 35ms or 2.4s */
+    static String duration(long micros) {
+
+        if (micros < 1000) {
+            return micros + "us";
+        }
+        if (micros < 10000) {
+            return format("%.1fms", micros / 1000.0);
+        }
+        if (micros < 1000000) {
+            return micros / 1000 + "ms";
+        }
+        return format("%.1fs", micros / 1000000.0);
+    }
+
+    // -------------------------------------------------------------------------
+    // BUCKETS
+    //--------------------------------------------------------------------------
+
+    /** Bucket of a value: exact below 2 * HALF, then HALF per power of two */
+    private static int index(long value) {
+
+        if (value < 2 * HALF) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /** Largest value that falls in a bucket */
+    private static long highest(int index) {
+
+        if (index < 2 * HALF) {
+            return index;
+        }
+
+        int shift = index / HALF - 1;
+        long sub  = index - shift * HALF;
+
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** Middle of a bucket */
+    private static double middle(int index) {
+
+        if (index < 2 * HALF) {
+            return index;
+        }
+
+        int shift = index / HALF - 1;
+        long sub  = index - shift * HALF;
+
+        return (sub << shift) + ((1L << shift) - 1) / 2.0;
+    }
+
+    private double mean() {
+
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+        for (int x = 0; x < LENGTH; x++) {
+            sum += counts.get(x) * middle(x);
+        }
+
+        return sum / count;
+    }
+
+    private double deviation() {
+
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        double mean    = mean();
+        double squares = 0;
+        for (int x = 0; x < LENGTH; x++) {
+            double diff = middle(x) - mean;
+            squares += counts.get(x) * diff * diff;
+        }
+
+        return Math.sqrt(squares / count);
+    }
+
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.ROOT, pattern, args);
+    }
+}
@@ -0,0 +1,705 @@
+package multialarms;
+
+/*
+ * Title:        LeaseTable
+ * Description:  Shared-memory leases, so only one process rings an alarm
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets several MultiAlarms processes on one machine share alarms without
+ * ringing them twice. An alarm is "the same" in two processes if it has the
+ * same description and go-off time; each such alarm has a lease slot in a
+ * memory-mapped file that every process maps (multialarms.leases, by
+ * default multialarms.leases in the temporary directory).
+ *
+ * The file holds:
+ *
+ *   INSTANCES instance slots - id, heartbeat count
+ *   SLOTS lease slots        - key, owner id, go-off time, fired time
+ *
+ * An armed alarm claims its slot; the first process to do so owns it. A
+ * background thread writes this process's heartbeat every RENEW_INTERVAL
+ * and takes over the leases of alarms it has armed whose owner has
+ * stopped beating for LEASE_TIMEOUT - so a lease is renewed by one write
+ * per process, not per alarm, and nothing is renewed when an alarm fires.
+ * A heartbeat is a count, not a time: each process notes when, by its own
+ * monotonic clock, it last saw another's count change, so neither a step
+ * of the wall clock nor a suspend makes a live process look dead. (The
+ * first look at a process says nothing of its age, so it is taken to be
+ * alive until it has been seen not to beat for LEASE_TIMEOUT.)
+ *
+ * When an alarm goes off, tryFire() decides: the owner (or anyone, if the
+ * owner is dead) sets the slot's fired time to the go-off time with a
+ * compare-and-swap, and rings only if that succeeded - so exactly one
+ * process rings even if ownership is changing hands. Others wait up to
+ * LEASE_TIMEOUT for the owner to do so, then fire it late themselves
+ * (fireLate()) - an alarm whose owner died just before it was due is
+ * rung at most LEASE_TIMEOUT late.
+ *
+ * Words are read and swapped in the mapped memory directly where the JVM
+ * allows (sun.misc.Unsafe, whose compare-and-swap is atomic across
+ * processes on a shared mapping); otherwise every access takes a
+ * FileChannel lock on the file. Adding a key always takes the lock.
+ */
+class LeaseTable {
+
+    /** tryFire() - this process rings the alarm */
+    public static final int FIRE = 0;
+
+    /** tryFire() - another process has rung (or is ringing) it */
+    public static final int SKIP = 1;
+
+    /** tryFire() - the live owner hasn't rung it yet: ask fireLate() later */
+    public static final int WAIT = 2;
+
+    /** Heartbeat interval - milliseconds */
+    public static final long RENEW_INTERVAL = 500;
+
+    /** Heartbeat age after which a process is taken to be dead */
+    public static final long LEASE_TIMEOUT = 2000;
+
+    /** Processes that can share the table */
+    public static final int INSTANCES = 64;
+
+    /** Lease slots (a power of two) */
+    public static final int SLOTS = 16384;
+
+    /** Slots looked at for a key before the table is taken to be full */
+    private static final int MAX_PROBE = 64;
+
+    /** Age of a go-off time after which its slot may be re-used */
+    private static final long STALE = 60 * 60 * 1000L;
+
+    private static final long MAGIC = 0x4d414c4541534532L;     // "MALEASE2"
+
+    // layout - all offsets are multiples of 8
+    private static final int INSTANCE_BASE = 64;
+    private static final int INSTANCE_SIZE = 16;
+    private static final int SLOT_BASE     = INSTANCE_BASE
+                                             + INSTANCES * INSTANCE_SIZE;
+    private static final int SLOT_SIZE     = 32;
+    private static final int LENGTH        = SLOT_BASE + SLOTS * SLOT_SIZE;
+
+    // fields of a lease slot
+    private static final int KEY   = 0;
+    private static final int OWNER = 8;
+    private static final int TIME  = 16;
+    private static final int FIRED = 24;
+
+    /**
+     * sun.misc.Unsafe's getLongVolatile, putLongVolatile and
+     * compareAndSwapLong, for direct access to the mapped memory - or null
+     * to lock instead. (Found at run time, as the Java 8 API doesn't
+     * include it.)
+     */
+    private static final MethodHandle[] UNSAFE = findUnsafe();
+    private static final MethodHandle   GET    = UNSAFE == null ? null
+                                                 : UNSAFE[0];
+    private static final MethodHandle   PUT    = UNSAFE == null ? null
+                                                 : UNSAFE[1];
+    private static final MethodHandle   CAS    = UNSAFE == null ? null
+                                                 : UNSAFE[2];
+
+    /** Reads the address field of a direct buffer (set by findUnsafe()) */
+    private static MethodHandle bufferAddress;
+
+    private final File             file;
+    private final RandomAccessFile raf;
+    private final FileChannel      channel;
+    private final MappedByteBuffer buffer;
+
+    /** Address of the mapping, when UNSAFE is used */
+    private final long address;
+
+    /** This process's id, and its instance slot */
+    private final long id;
+    private int        instance;
+
+    /** Keys of the alarms armed here, and their slots */
+    private final ConcurrentHashMap<Long, Integer> armed =
+        new ConcurrentHashMap<Long, Integer>();
+
+    /** This process's heartbeat count */
+    private long beats;
+
+    /**
+     * Each instance slot as last seen here - its id and heartbeat count,
+     * and when (AlarmClock nanoTime()) either last changed; guarded by
+     * seenBeat
+     */
+    private final long[] seenId   = new long[INSTANCES];
+    private final long[] seenBeat = new long[INSTANCES];
+    private final long[] seenAt   = new long[INSTANCES];
+
+    private volatile boolean open = true;
+
+    /**
+     * Return the table named by the multialarms.leases property ("true"
+     * for the default file), or null if it isn't set or can't be opened
+     */
+    public static LeaseTable getConfigured() {
+
+        String name = System.getProperty("multialarms.leases");
+
+        if (name == null || name.equals("false")) {
+            return null;
+        }
+
+        File file = name.length() == 0 || name.equals("true")
+                    ? new File(System.getProperty("java.io.tmpdir"),
+                               "multialarms.leases")
+                    : new File(name);
+
+        try {
+            return new LeaseTable(file);
+        } catch (IOException ex) {
+            System.out.println("getConfigured() - " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    /** Map the shared file (creating it if need be) and join the table */
+    public LeaseTable(File file) throws IOException {
+
+        this.file = file;
+
+        raf     = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        lock();
+        try {
+            if (raf.length() < LENGTH) {
+                raf.setLength(LENGTH);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, LENGTH);
+            if (buffer.getLong(0) != MAGIC) {
+                // new, or written by a version beating in epoch ms
+                for (int x = 0; x < INSTANCES; x++) {
+                    buffer.putLong(instanceOffset(x), 0);
+                }
+                buffer.putLong(0, MAGIC);
+            }
+        } finally {
+            unlock();
+        }
+
+        address = UNSAFE != null ? addressOf(buffer) : 0;
+        id      = newId();
+
+        join();
+
+        Thread renewer = new Thread("LeaseRenewer") {
+
+            public void run() {
+                while (open) {
+                    try {
+                        Thread.sleep(RENEW_INTERVAL);
+                        renew();
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (IOException ex) {
+                        System.out.println("LeaseRenewer - " + ex);
+                    }
+                }
+            }
+        };
+        renewer.setDaemon(true);
+        renewer.start();
+
+        System.out.println("LeaseTable - " + file + " as instance "
+                           + instance + (UNSAFE == null ? " (locking)" : ""));
+    }
+
+    /** Return the lease key of an alarm - never 0 */
+    public static long key(String description, long goOffTime) {
+
+        long hash = 0xcbf29ce484222325L;            // FNV-1a
+
+        for (int x = 0; x < description.length(); x++) {
+            hash = (hash ^ description.charAt(x)) * 0x100000001b3L;
+        }
+        hash = (hash ^ goOffTime) * 0x100000001b3L;
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * An alarm with the given key has been armed here: own its lease, if
+     * no live process does
+     */
+    public void claim(long key, long goOffTime) throws IOException {
+
+        int slot = find(key, goOffTime);
+
+        if (slot < 0) {
+            System.out.println("claim() - " + file + " is full; alarm will "
+                               + "ring here regardless");
+            return;
+        }
+
+        armed.put(Long.valueOf(key), Integer.valueOf(slot));
+        takeOver(slot);
+    }
+
+    /** The alarm with the given key is no longer armed here */
+    public void release(long key) throws IOException {
+
+        Integer slot = armed.remove(Long.valueOf(key));
+
+        if (slot != null) {
+            cas(slotOffset(slot.intValue()) + OWNER, id, 0);
+        }
+    }
+
+    /**
+     * An alarm has gone off here: return FIRE if this process is to ring
+     * it, SKIP if another has, or WAIT if its owner is alive but hasn't
+     * yet - in which case call fireLate() after LEASE_TIMEOUT
+     */
+    public int tryFire(long key, long goOffTime) throws IOException {
+
+        Integer slot = armed.get(Long.valueOf(key));
+
+        if (slot == null) {
+            return FIRE;    // the table was full when it was armed
+        }
+
+        int  offset = slotOffset(slot.intValue());
+        long owner  = get(offset + OWNER);
+
+        if (get(offset + FIRED) == goOffTime) {
+            return SKIP;
+        }
+        if (owner != id && owner != 0 && isAlive(owner)) {
+            return WAIT;
+        }
+
+        return markFired(offset, goOffTime) ? FIRE : SKIP;
+    }
+
+    /**
+     * An alarm told to WAIT is still due: return true if this process is
+     * to ring it (its owner hasn't, so has most likely died)
+     */
+    public boolean fireLate(long key, long goOffTime) throws IOException {
+
+        Integer slot = armed.get(Long.valueOf(key));
+
+        return slot == null || markFired(slotOffset(slot.intValue()),
+                                         goOffTime);
+    }
+
+    /** Return true if this process owns the lease of an armed alarm */
+    public boolean isOwner(long key) throws IOException {
+
+        Integer slot = armed.get(Long.valueOf(key));
+
+        return slot == null || get(slotOffset(slot.intValue()) + OWNER) == id;
+    }
+
+    /** Leave the table, giving up every lease at once */
+    public void close() {
+
+        open = false;
+
+        try {
+            Iterator<Long> keys = armed.keySet().iterator();
+            while (keys.hasNext()) {
+                release(keys.next().longValue());
+            }
+            cas(instanceOffset(instance), id, 0);
+            raf.close();
+        } catch (IOException ex) {
+            System.out.println("close() - " + ex);
+        }
+    }
+
+    public String toString() {
+        return "LeaseTable " + file + " instance " + instance + ", "
+               + armed.size() + " armed";
+    }
+
+    // -------------------------------------------------------------------------
+    // RENEWAL
+    //--------------------------------------------------------------------------
+
+    /** Beat, and take over the leases of dead owners */
+    private void renew() throws IOException {
+
+        if (get(instanceOffset(instance)) != id) {
+            join();     // we were taken for dead (a long pause, a clock step)
+        }
+        put(instanceOffset(instance) + 8, ++beats);
+
+        Iterator<Map.Entry<Long, Integer>> entries =
+            armed.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            takeOver(entries.next().getValue().intValue());
+        }
+    }
+
+    /** Own a lease if its owner is none, or dead */
+    private void takeOver(int slot) throws IOException {
+
+        int  offset = slotOffset(slot) + OWNER;
+        long owner  = get(offset);
+
+        if (owner != id && (owner == 0 || !isAlive(owner))) {
+            cas(offset, owner, id);
+        }
+    }
+
+    /**
+     * Take a free (or dead) instance slot. A process is only known to be
+     * dead once it has been watched not beating, so if every slot is taken
+     * look again after LEASE_TIMEOUT.
+     */
+    private void join() throws IOException {
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int x = 0; x < INSTANCES; x++) {
+                long other = get(instanceOffset(x));
+
+                if ((other == 0 || heartbeatAge(x, other) > LEASE_TIMEOUT)
+                    && cas(instanceOffset(x), other, id)) {
+                    instance = x;
+                    put(instanceOffset(x) + 8, ++beats);    // ours now
+                    return;
+                }
+            }
+
+            if (pass == 0) {
+                try {
+                    Thread.sleep(LEASE_TIMEOUT + RENEW_INTERVAL);
+                } catch (InterruptedException ex) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+        }
+
+        throw new IOException("more than " + INSTANCES + " processes");
+    }
+
+    /** Return true if a process is in the table with a recent heartbeat */
+    private boolean isAlive(long owner) throws IOException {
+
+        for (int x = 0; x < INSTANCES; x++) {
+            if (get(instanceOffset(x)) == owner) {
+                return heartbeatAge(x, owner) <= LEASE_TIMEOUT;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return how long ago, in milliseconds by the monotonic clock, the
+     * process in an instance slot was first seen with its present
+     * heartbeat count - 0 if it has changed since it was last looked at
+     */
+    private long heartbeatAge(int instance, long owner) throws IOException {
+
+        long beat = get(instanceOffset(instance) + 8);
+        long now  = AlarmClock.get().nanoTime();
+
+        synchronized (seenBeat) {
+            if (seenId[instance] != owner || seenBeat[instance] != beat) {
+                seenId[instance]   = owner;
+                seenBeat[instance] = beat;
+                seenAt[instance]   = now;
+                return 0;
+            }
+
+            return (now - seenAt[instance]) / 1000000;
+        }
+    }
+
+    /** Set a slot's fired time, returning false if it was already set */
+    private boolean markFired(int offset, long goOffTime) throws IOException {
+
+        while (true) {
+            long fired = get(offset + FIRED);
+            if (fired == goOffTime) {
+                return false;
+            }
+            if (cas(offset + FIRED, fired, goOffTime)) {
+                return true;
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // SLOTS
+    //--------------------------------------------------------------------------
+
+    /** Return the slot of a key, adding it if new (or -1 if full) */
+    private int find(long key, long goOffTime) throws IOException {
+
+        int start = (int) ((key ^ (key >>> 32)) * 0x9e3779b9L) & (SLOTS - 1);
+
+        // most keys are already there, or the first empty slot is theirs
+        for (int x = 0; x < MAX_PROBE; x++) {
+            int  slot  = (start + x) & (SLOTS - 1);
+            long other = get(slotOffset(slot) + KEY);
+            if (other == key) {
+                return slot;
+            }
+            if (other == 0) {
+                break;
+            }
+        }
+
+        // add it under the file lock, so two processes can't add it twice
+        lock();
+        try {
+            long now   = AlarmClock.get().currentTimeMillis();
+            int  reuse = -1;
+
+            for (int x = 0; x < MAX_PROBE; x++) {
+                int  slot   = (start + x) & (SLOTS - 1);
+                int  offset = slotOffset(slot);
+                long other  = get(offset + KEY);
+
+                if (other == key) {
+                    return slot;
+                }
+                if (reuse < 0 && (other == 0
+                                  || get(offset + TIME) < now - STALE)) {
+                    reuse = slot;
+                }
+                if (other == 0) {
+                    break;
+                }
+            }
+
+            if (reuse >= 0) {
+                int offset = slotOffset(reuse);
+                put(offset + OWNER, 0);
+                put(offset + TIME, goOffTime);
+                put(offset + FIRED, 0);
+                put(offset + KEY, key);     // last, so readers see it whole
+            }
+
+            return reuse;
+
+        } finally {
+            unlock();
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return SLOT_BASE + slot * SLOT_SIZE;
+    }
+
+    private static int instanceOffset(int instance) {
+        return INSTANCE_BASE + instance * INSTANCE_SIZE;
+    }
+
+    // -------------------------------------------------------------------------
+    // SHARED MEMORY ACCESS
+    //--------------------------------------------------------------------------
+
+    private long get(int offset) throws IOException {
+
+        if (GET != null) {
+            try {
+                return (long) GET.invokeExact((Object) null, address + offset);
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex.toString());
+            }
+        }
+
+        lock();
+        try {
+            return buffer.getLong(offset);
+        } finally {
+            unlock();
+        }
+    }
+
+    private void put(int offset, long value) throws IOException {
+
+        if (PUT != null) {
+            try {
+                PUT.invokeExact((Object) null, address + offset, value);
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex.toString());
+            }
+            return;
+        }
+
+        lock();
+        try {
+            buffer.putLong(offset, value);
+        } finally {
+            unlock();
+        }
+    }
+
+    private boolean cas(int offset, long expect, long update)
+            throws IOException {
+
+        if (CAS != null) {
+            try {
+                return (boolean) CAS.invokeExact((Object) null, address + offset,
+                                                 expect, update);
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex.toString());
+            }
+        }
+
+        lock();
+        try {
+            if (buffer.getLong(offset) != expect) {
+                return false;
+            }
+            buffer.putLong(offset, update);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Lock the whole file against other processes. File locks belong to
+     * the JVM, so threads here take turns with a monitor as well; a thread
+     * holding the lock may take it again (the slot accessors do, when the
+     * lock is the only way in).
+     */
+    private void lock() throws IOException {
+
+        synchronized (this) {
+            Thread current = Thread.currentThread();
+
+            if (lockHolder == current) {
+                lockDepth++;
+                return;
+            }
+            while (lockHolder != null) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+            lockHolder = current;
+            lockDepth  = 1;
+        }
+
+        try {
+            fileLock = channel.lock();
+        } catch (IOException ex) {
+            unlock();
+            throw ex;
+        }
+    }
+
+    private void unlock() throws IOException {
+
+        FileLock held;
+
+        synchronized (this) {
+            if (--lockDepth > 0) {
+                return;
+            }
+            held     = fileLock;
+            fileLock = null;
+        }
+
+        try {
+            if (held != null) {
+                held.release();
+            }
+        } finally {
+            synchronized (this) {
+                lockHolder = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /** The thread holding the file lock, how often, and the lock */
+    private Thread   lockHolder;
+    private int      lockDepth;
+    private FileLock fileLock;
+
+    private static long newId() {
+
+        long id = 0;
+        while (id == 0) {
+            id = new Random().nextLong() ^ System.nanoTime();
+        }
+
+        return id;
+    }
+
+    /**
+     * Return handles on Unsafe's volatile get, put and compare-and-swap of
+     * a long at an address, or null if the JVM won't give them
+     */
+    private static MethodHandle[] findUnsafe() {
+
+        try {
+            Class<?> type  = Class.forName("sun.misc.Unsafe");
+            Field    field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            MethodHandle getLong = lookup.findVirtual(type, "getLong",
+                MethodType.methodType(long.class, Object.class, long.class))
+                .bindTo(unsafe);
+            long offset = ((Long) type.getMethod("objectFieldOffset",
+                Field.class).invoke(unsafe,
+                    Buffer.class.getDeclaredField("address"))).longValue();
+            bufferAddress = MethodHandles.insertArguments(getLong, 1, offset);
+
+            return new MethodHandle[] {
+                lookup.findVirtual(type, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class))
+                    .bindTo(unsafe),
+                lookup.findVirtual(type, "putLongVolatile",
+                    MethodType.methodType(void.class, Object.class, long.class,
+                                          long.class))
+                    .bindTo(unsafe),
+                lookup.findVirtual(type, "compareAndSwapLong",
+                    MethodType.methodType(boolean.class, Object.class,
+                                          long.class, long.class, long.class))
+                    .bindTo(unsafe)
+            };
+        } catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    /** Return the address of a direct buffer's memory */
+    private static long addressOf(MappedByteBuffer buffer) {
+
+        try {
+            return (long) bufferAddress.invoke((Object) buffer);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex.toString());
+        }
+    }
+}
@@ -58,8 +58,14 @@ public class MultiAlarms {
 //            ex.printStackTrace();
 //        }
 
-		initResourceBundle();
-		
+        // only the About Dialog shows the version
+        Startup.afterFirstFrame(new Runnable() {
+
+            public void run() {
+                initResourceBundle();
+            }
+        });
+
         MultiAlarmsGUI frame = new MultiAlarmsGUI();
         frame.validate();            
 
@@ -77,12 +83,16 @@ public class MultiAlarms {
 
         frame.setLocation((screenSize.width - frameSize.width) / 2,
                           (screenSize.height - frameSize.height) / 2);
+        Startup.watch(frame);
         frame.setVisible(true);
     }
 
     /** Main method */
     public static void main(String[] args) {
 
+        // the journal is read while the look and feel loads
+        Startup.begin();
+
         try {
 
             KunststoffLookAndFeel.setCurrentTheme(new KunststoffTheme());
@@ -10,20 +10,24 @@ package multialarms;
 
 import java.awt.AWTEvent;
 import java.awt.BorderLayout;
-import java.awt.Color;
-import java.awt.Component;
 import java.awt.Dimension;
-import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
 
 import javax.swing.ImageIcon;
-import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -32,41 +36,73 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
-import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableCellRenderer;
-import javax.swing.table.TableColumnModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 public class MultiAlarmsGUI extends JFrame {
 
     private JPanel contentPane;
 
     // menu components
-    private JMenuBar  menuBar        = new JMenuBar();
-    private JMenu     jMenuFile      = new JMenu();
-    private JMenuItem jMenuFileExit  = new JMenuItem();
-    private JMenu     jMenuHelp      = new JMenu();
-    private JMenuItem jMenuHelpAbout = new JMenuItem();
+    private JMenuBar          menuBar                = new JMenuBar();
+    private JMenu             jMenuFile              = new JMenu();
+    private JMenuItem         jMenuFileImport        = new JMenuItem();
+    private JMenuItem         jMenuFileExportLatency = new JMenuItem();
+    private JMenuItem         jMenuFileExit          = new JMenuItem();
+    private JMenu             jMenuAlarm             = new JMenu();
+    private JMenuItem         jMenuAlarmAdd          = new JMenuItem();
+    private JMenuItem         jMenuAlarmRemove       = new JMenuItem();
+    private JMenuItem         jMenuAlarmSound        = new JMenuItem();
+    private JMenuItem         jMenuAlarmDefaultSound = new JMenuItem();
+    private JMenu             jMenuGroup             = new JMenu();
+    private JMenuItem         jMenuGroupShift        = new JMenuItem();
+    private JMenuItem         jMenuGroupArm          = new JMenuItem();
+    private JMenuItem         jMenuGroupDisarm       = new JMenuItem();
+    private JMenu             jMenuView              = new JMenu();
+    private JCheckBoxMenuItem jMenuViewSoonest       = new JCheckBoxMenuItem();
+    private JMenu             jMenuHelp              = new JMenu();
+    private JMenuItem         jMenuHelpAbout         = new JMenuItem();
 
     // table components
     private JScrollPane     alarmScrollPane = new JScrollPane();
-    private JTable          alarmTable      = new JTable();
     private AlarmTableModel alarmTableModel = new AlarmTableModel();
-
-    /** Image (logo) with white background to use as frame icon */
-    private ImageIcon iconWhite;
+    private AlarmTable      alarmTable      = new AlarmTable(alarmTableModel);
 
     /** Image (logo) with transparent background to use on About Dialog */
     private ImageIcon iconTransparent;
 
+    /** File chooser for alarm sounds (remembers the last directory) */
+    private JFileChooser soundChooser;
+
+    /** File chooser for CSV imports */
+    private JFileChooser importChooser;
+
+    /** File chooser for latency exports */
+    private JFileChooser exportChooser;
+
+    /** Narrows the table to alarms whose description contains its text */
+    private JTextField filterField = new JTextField();
+
     /** status bar component (a label) - used to display the time */
     private JLabel statusBar = new JLabel();
 
-    /** Timer to update the current 'Time:' display on status bar */
-    private Timer clockTimer = new Timer();
+    /** status bar label for how late alarms go off (see LatencyHistogram) */
+    private JLabel latencyBar = new JLabel();
+
+    /** status bar label for the next alarm to go off */
+    private JLabel nextBar = new JLabel();
+
+    /** Buffer for the next alarm's time left (see Alarm.formatTimeLeft()) */
+    private char[] timeLeft = new char[32];
 
-    /** Clock refresh interval - in milliseconds */
+    /** Updates the current 'Time:' display on status bar (see UITicker) */
+    private UITicker.Listener clockTick;
+
+    /** Clock refresh interval - whole seconds, in milliseconds */
     private static final int CLOCK_UPDATE_INTERVAL = 2000;
 
     /** Construct the frame */
@@ -92,30 +128,25 @@ public class MultiAlarmsGUI extends JFrame {
      */
     private void Init() throws Exception {
 
-        try {
+        // These images will be distributed in a JAR file when released,
+        // so this can't really happen, but cater for it, in principle
+        URL iconURL = this.getClass().getResource("bell_white.gif");
 
-            // ImageIcon will throw error if resource is null (ie. not found)
-            // These images will be distributed in a JAR file when released,
-            // so this can't really happen, but cater for it, in principle
-            iconWhite       =
-                new ImageIcon(this.getClass().getResource("bell_white.gif"));
-            iconTransparent =
-                new ImageIcon(this.getClass().getResource("bell.gif"));
-                
-        } catch (NullPointerException ex) {
-            throw new RuntimeException(
-                "Unable to load images 'bell_white.gif', 'bell.gif'");
+        if (iconURL == null) {
+            throw new RuntimeException("Unable to load image 'bell_white.gif'");
         }
 
-        setIconImage(iconWhite.getImage());
+        // decoded in the background, not waited for as ImageIcon would
+        setIconImage(Toolkit.getDefaultToolkit().createImage(iconURL));
 
         contentPane = (JPanel) this.getContentPane();
 
         contentPane.setLayout(new BorderLayout());
-        this.setSize(new Dimension(440, 212));
+        this.setSize(new Dimension(490, 212));
         this.setTitle(MultiAlarms.TITLE);
         createMenus();
         setupTable();
+        setupFilter();
         setTimeDisplay();
     }
 
@@ -124,24 +155,78 @@ public class MultiAlarmsGUI extends JFrame {
 	 */
     private void setupTable() {
 
-        // alarm table properties
-        alarmTable.setPreferredSize(new Dimension(200, 125));
-        alarmTable.setCellSelectionEnabled(true);
-        alarmTable.setModel(alarmTableModel);
-        alarmTable.setRowHeight(25);
-        setColumnWidths();
-
         // alarm table's scrollpane
         alarmScrollPane.setPreferredSize(new Dimension(150, 200));
         alarmScrollPane.setViewportView(alarmTable);
         contentPane.add(alarmScrollPane, BorderLayout.CENTER);
 
-        // setup and initialise table's column renderers/editors
-        initAlarmCol();
-        initDescriptionCol();
-        initTimeCol();
-        initProgressCol();
-        initActiveCol();
+        // let the model know which rows are on screen
+        alarmScrollPane.getViewport().addChangeListener(new ChangeListener() {
+
+            public void stateChanged(ChangeEvent e) {
+                updateVisibleRows();
+            }
+        });
+    }
+
+    /**
+     * Put the filter box above the table - the table narrows on every
+     * keystroke (see AlarmTableModel.setFilter())
+     */
+    private void setupFilter() {
+
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.add(new JLabel("Find: "), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        contentPane.add(filterPanel, BorderLayout.NORTH);
+
+        filterField.setToolTipText("Show only alarms whose description"
+                                   + " contains this");
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+
+            public void insertUpdate(DocumentEvent e) {
+                filterChanged();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                filterChanged();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+    }
+
+    /** The filter box's text has changed */
+    private void filterChanged() {
+
+        if (alarmTable.isEditing()) {
+            alarmTable.getCellEditor().cancelCellEditing();
+        }
+
+        alarmTableModel.setFilter(filterField.getText());
+        updateVisibleRows();
+    }
+
+    /**
+     * Pass the range of rows in the scrollpane's viewport to the table model
+     */
+    private void updateVisibleRows() {
+
+        Rectangle view  = alarmScrollPane.getViewport().getViewRect();
+        int       first = alarmTable.rowAtPoint(view.getLocation());
+        int       last  = alarmTable.rowAtPoint(
+                              new Point(view.x, view.y + view.height - 1));
+
+        if (first < 0) {
+            first = 0;
+        }
+
+        if (last < 0) {     // viewport extends past the last row
+            last = Integer.MAX_VALUE;
+        }
+
+        alarmTableModel.setVisibleRows(first, last);
     }
 
 	/**
@@ -150,6 +235,20 @@ public class MultiAlarmsGUI extends JFrame {
     private void createMenus() {
 
         jMenuFile.setText("File");
+        jMenuFileImport.setText("Import...");
+        jMenuFileImport.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_FileImport(e);
+            }
+        });
+        jMenuFileExportLatency.setText("Export Latency...");
+        jMenuFileExportLatency.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_FileExportLatency(e);
+            }
+        });
         jMenuFileExit.setText("Exit");
         jMenuFileExit.addActionListener(new ActionListener() {
 
@@ -157,6 +256,65 @@ public class MultiAlarmsGUI extends JFrame {
                 action_FileExit(e);
             }
         });
+        jMenuAlarm.setText("Alarms");
+        jMenuAlarmAdd.setText("Add");
+        jMenuAlarmAdd.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_AlarmAdd(e);
+            }
+        });
+        jMenuAlarmRemove.setText("Remove");
+        jMenuAlarmRemove.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_AlarmRemove(e);
+            }
+        });
+        jMenuAlarmSound.setText("Sound...");
+        jMenuAlarmSound.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_AlarmSound(e);
+            }
+        });
+        jMenuAlarmDefaultSound.setText("Default Sound");
+        jMenuAlarmDefaultSound.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_AlarmDefaultSound(e);
+            }
+        });
+        jMenuGroup.setText("Groups");
+        jMenuGroupShift.setText("Shift...");
+        jMenuGroupShift.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_GroupShift(e);
+            }
+        });
+        jMenuGroupArm.setText("Switch On...");
+        jMenuGroupArm.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_GroupArm(e);
+            }
+        });
+        jMenuGroupDisarm.setText("Switch Off...");
+        jMenuGroupDisarm.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_GroupDisarm(e);
+            }
+        });
+        jMenuView.setText("View");
+        jMenuViewSoonest.setText("Soonest First");
+        jMenuViewSoonest.addActionListener(new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                action_ViewSoonest(e);
+            }
+        });
         jMenuHelp.setText("Help");
         jMenuHelpAbout.setText("About");
         jMenuHelpAbout.addActionListener(new ActionListener() {
@@ -165,227 +323,373 @@ public class MultiAlarmsGUI extends JFrame {
                 action_HelpAbout(e);
             }
         });
+        jMenuFile.add(jMenuFileImport);
+        jMenuFile.add(jMenuFileExportLatency);
+        jMenuFile.addSeparator();
         jMenuFile.add(jMenuFileExit);
+        jMenuAlarm.add(jMenuAlarmAdd);
+        jMenuAlarm.add(jMenuAlarmRemove);
+        jMenuAlarm.addSeparator();
+        jMenuAlarm.add(jMenuAlarmSound);
+        jMenuAlarm.add(jMenuAlarmDefaultSound);
+        jMenuGroup.add(jMenuGroupShift);
+        jMenuGroup.addSeparator();
+        jMenuGroup.add(jMenuGroupArm);
+        jMenuGroup.add(jMenuGroupDisarm);
+        jMenuView.add(jMenuViewSoonest);
         jMenuHelp.add(jMenuHelpAbout);
         menuBar.add(jMenuFile);
+        menuBar.add(jMenuAlarm);
+        menuBar.add(jMenuGroup);
+        menuBar.add(jMenuView);
         menuBar.add(jMenuHelp);
         this.setJMenuBar(menuBar);
     }
 
-	/**
-	 * Set the widths for each of the JTable columns
-	 */
-    private void setColumnWidths() {
+    /**
+     * Setup and initialise the time display in status bar
+     */
+    private void setTimeDisplay() {
 
-        TableColumnModel alarmColModel = alarmTable.getColumnModel();
+        // on the same second-aligned tick as the progress bars, so the
+        // seconds shown step evenly and both repaint in one pass
+        clockTick = new UITicker.Listener() {
 
-        alarmColModel.getColumn(AlarmTableModel.ALARM).setPreferredWidth(25);
-        alarmColModel.getColumn(AlarmTableModel.TIME).setPreferredWidth(45);
-        alarmColModel.getColumn(AlarmTableModel.PROGRESS).setPreferredWidth(100);
-        alarmColModel.getColumn(AlarmTableModel.ACTIVE).setPreferredWidth(25);
+            public void tick(long now) {
+                statusBar.setText("Time: " + AlarmTime.formatClock(now));
+                showNext(now);
+                showLatency();
+            }
+        };
+
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(statusBar, BorderLayout.WEST);
+        statusPanel.add(nextBar, BorderLayout.CENTER);
+        statusPanel.add(latencyBar, BorderLayout.EAST);
+        contentPane.add(statusPanel, BorderLayout.SOUTH);
+
+        clockTick.tick(AlarmClock.get().currentTimeMillis());
+        UITicker.getInstance().addListener(clockTick,
+                                           CLOCK_UPDATE_INTERVAL / 1000);
     }
 
-    /**
-     * Convenience method to enable renderers to decide which colour to make
-     * the background
-     */
-    public void setColBackground(Component component, int row) {
+    /** Show which alarm goes off next, and how soon */
+    private void showNext(long now) {
+
+        Alarm next = alarmTableModel.getNextAlarm();
 
-        Alarm   alarm        = alarmTableModel.getAlarm(row);
-        boolean alarmActive  = alarm.getActive().booleanValue();
-        boolean alarmGoneOff = alarm.getGoneOff();
-        Color   colColour    = alarmTable.getBackground();
+        if (next == null || next.row < 0) {
+            nextBar.setText("");
+            return;
+        }
 
-        if (alarmActive && alarmGoneOff) {
-            colColour = Color.lightGray;
-        } else if (alarmActive && !alarmGoneOff) {
-            colColour = Color.yellow;
-        }    // else normal background colour (as initialised)
+        int length = Alarm.formatTimeLeft(
+            Math.max(0, next.getGoOffMillis() - now), timeLeft);
 
-        component.setBackground(colColour);
+        nextBar.setText("  Next: " + next.getAlarmNum() + ", "
+                        + new String(timeLeft, 0, length));
     }
 
-    /**
-     * Setup and initialise the ALARM table column
-     */
-    public void initAlarmCol() {
+    /** Show how late alarms have gone off, once any have */
+    private void showLatency() {
 
-        class AlarmNumRenderer extends DefaultTableCellRenderer {
+        LatencyHistogram fired = LatencyHistogram.FIRED;
 
-            public AlarmNumRenderer() {
-                setHorizontalAlignment(CENTER);
-            }
+        if (fired.getCount() == 0) {
+            return;
+        }
 
-            public Component getTableCellRendererComponent(JTable table,
-                    Object value, boolean isSelected, boolean hasFocus,
-                    int row, int col) {
+        latencyBar.setText("Late: " + fired.getSummary());
+        latencyBar.setToolTipText("<html>" + fired + "<br>"
+                                  + LatencyHistogram.RUNG + "</html>");
+    }
 
-                setColBackground(this, row);
-                setValue(value);
+    // -------------------------------------------------------------------------
+    // EVENTS
+    //--------------------------------------------------------------------------
 
-                return this;
-            }
+    /** Overridden so we can exit when window is closed */
+    protected void processWindowEvent(WindowEvent e) {
 
-            public void setValue(Object value) {
-                super.setValue(value);
-                setFont(new Font("Sans Serif", Font.BOLD, 16));
-            }
+        super.processWindowEvent(e);
+
+        if (e.getID() == WindowEvent.WINDOW_CLOSING) {
+        	
+            action_FileExit(null);
+        }
+    }
+
+    /** File | Import... action performed - add alarms from a CSV file */
+    public void action_FileImport(ActionEvent e) {
+
+        if (importChooser == null) {
+            importChooser = new JFileChooser();
+        }
+
+        if (importChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
 
-        alarmTable.getColumnModel().getColumn(AlarmTableModel.ALARM)
-            .setCellRenderer(new AlarmNumRenderer());
+        final File file = importChooser.getSelectedFile();
+
+        jMenuFileImport.setEnabled(false);
+
+        Thread thread = new Thread("AlarmImport") {
+
+            public void run() {
+                importAlarms(file);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
-     * Setup and initialise the TIME table column
+     * Parse a CSV file a chunk at a time on the calling (import) thread,
+     * adding each chunk to the table on the event dispatch thread
      */
-    public void initTimeCol() {
+    private void importAlarms(File file) {
 
-        class TimeRenderer extends DefaultTableCellRenderer {
+        String message;
 
-            public TimeRenderer() {
-                setHorizontalAlignment(CENTER);
-            }
+        try {
+            AlarmImporter importer = new AlarmImporter(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
 
-            public Component getTableCellRendererComponent(JTable table,
-                    Object value, boolean isSelected, boolean hasFocus,
-                    int row, int col) {
+            alarmTableModel.beginImport();
 
-                setColBackground(this, row);
+            try {
+                AlarmImporter.Chunk chunk;
 
-                return super.getTableCellRendererComponent(table, value,
-                    isSelected, hasFocus, row, col);
+                while ((chunk = importer.next()) != null) {
+                    final AlarmImporter.Chunk added = chunk;
+
+                    // wait for it to be added: the chunk is re-used for the
+                    // next rows, which keeps memory bounded
+                    SwingUtilities.invokeAndWait(new Runnable() {
+
+                        public void run() {
+                            alarmTableModel.addAlarms(added);
+                        }
+                    });
+                }
+            } finally {
+                alarmTableModel.endImport();
+                importer.close();
             }
+
+            message = "Imported " + importer.getImported() + " alarms";
+            if (importer.getRejected() > 0) {
+                message += " (" + importer.getRejected()
+                           + " bad lines skipped - see the console)";
+            }
+
+        } catch (IOException ex) {
+            message = "Import failed: " + ex.getMessage();
+        } catch (InterruptedException ex) {
+            message = "Import interrupted";
+        } catch (InvocationTargetException ex) {
+            ex.getCause().printStackTrace();
+            message = "Import failed: " + ex.getCause();
         }
 
-        alarmTable.getColumnModel().getColumn(AlarmTableModel.TIME)
-            .setCellRenderer(new TimeRenderer());
-    }
+        final String done = message;
 
-    /**
-     * Setup and initialise the PROGRESS table column
-     */
-    public void initProgressCol() {
+        SwingUtilities.invokeLater(new Runnable() {
 
-        class ProgressRenderer implements TableCellRenderer {
+            public void run() {
+                jMenuFileImport.setEnabled(true);
+                JOptionPane.showMessageDialog(MultiAlarmsGUI.this, done,
+                                              MultiAlarms.TITLE,
+                                              JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+    }
 
-            private Alarm alarm;
+    /** File | Export Latency... action performed - save how late alarms rang */
+    public void action_FileExportLatency(ActionEvent e) {
 
-            public Component getTableCellRendererComponent(JTable table,
-                    Object value, boolean isSelected, boolean hasFocus,
-                    int row, int col) {
+        if (exportChooser == null) {
+            exportChooser = new JFileChooser();
+            exportChooser.setSelectedFile(new File("latency.hgrm"));
+        }
 
-                alarm = alarmTableModel.getAlarm(row);
+        if (exportChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
 
-                return alarm.getProgressBar();
-            }
+        try {
+            LatencyHistogram.exportAll(exportChooser.getSelectedFile());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Unable to export latency: "
+                                          + ex.getMessage(), MultiAlarms.TITLE,
+                                          JOptionPane.ERROR_MESSAGE);
         }
+    }
+
+    /** File | Exit action performed */
+    public void action_FileExit(ActionEvent e) {
+    	
+        alarmTableModel.stopTimers();
+        System.exit(0);
+    }
+
+    /** View | Soonest First action performed - switch the table's order */
+    public void action_ViewSoonest(ActionEvent e) {
 
-        alarmTable.getColumnModel().getColumn(AlarmTableModel.PROGRESS)
-            .setCellRenderer(new ProgressRenderer());
+        alarmTableModel.setSortedByDeadline(jMenuViewSoonest.isSelected());
+        updateVisibleRows();
     }
 
-    /**
-     * Setup and initialise the DESCRIPTION table column
-     */
-    public void initDescriptionCol() {
+    /** Alarms | Add action performed */
+    public void action_AlarmAdd(ActionEvent e) {
 
-        class DescriptionRenderer extends DefaultTableCellRenderer {
+        // show every alarm, so the new one is in view
+        filterField.setText("");
 
-            public DescriptionRenderer() {
-                setHorizontalAlignment(CENTER);
-            }
+        alarmTableModel.addAlarm();
 
-            public Component getTableCellRendererComponent(JTable table,
-                    Object value, boolean isSelected, boolean hasFocus,
-                    int row, int col) {
+        int row = alarmTableModel.getRowCount() - 1;
+        alarmTable.scrollRectToVisible(alarmTable.getCellRect(row, 0, true));
+    }
 
-                setColBackground(this, row);
+    /** Alarms | Remove action performed - removes selected (or last) alarm */
+    public void action_AlarmRemove(ActionEvent e) {
 
-                return super.getTableCellRendererComponent(table, value,
-                    isSelected, hasFocus, row, col);
-            }
+        if (alarmTable.isEditing()) {
+            alarmTable.getCellEditor().cancelCellEditing();
+        }
+
+        int row = alarmTable.getSelectedRow();
+        if (row < 0) {
+            row = alarmTableModel.getRowCount() - 1;
         }
 
-        alarmTable.getColumnModel().getColumn(AlarmTableModel.DESCRIPTION)
-            .setCellRenderer(new DescriptionRenderer());
+        if (row >= 0) {
+            alarmTableModel.removeAlarm(row);
+        }
     }
 
-    /**
-     * Setup and initialise the ACTIVE table column
-     */
-    public void initActiveCol() {
+    /** Alarms | Sound... action performed - choose selected alarm's sound */
+    public void action_AlarmSound(ActionEvent e) {
 
-        class ActiveRenderer implements TableCellRenderer {
+        int row = alarmTable.getSelectedRow();
+        if (row < 0) {
+            return;
+        }
 
-            private JCheckBox checkBox = new JCheckBox();
+        if (soundChooser == null) {
+            soundChooser = new JFileChooser();
+        }
 
-            public ActiveRenderer() {
-                checkBox.setHorizontalAlignment(JCheckBox.CENTER);
-            }
+        if (soundChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
 
-            public Component getTableCellRendererComponent(JTable table,
-                    Object value, boolean isSelected, boolean hasFocus,
-                    int row, int col) {
+        try {
+            alarmTableModel.setSound(row,
+                soundChooser.getSelectedFile().toURI().toURL());
+        } catch (MalformedURLException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(),
+                                          MultiAlarms.TITLE,
+                                          JOptionPane.ERROR_MESSAGE);
+        }
+    }
 
-                setColBackground(checkBox, row);
-                checkBox.setSelected(((Boolean) value).booleanValue());
+    /** Alarms | Default Sound action performed */
+    public void action_AlarmDefaultSound(ActionEvent e) {
 
-                return checkBox;
-            }
+        int row = alarmTable.getSelectedRow();
+        if (row >= 0) {
+            alarmTableModel.setSound(row, null);
         }
-
-        alarmTable.getColumnModel().getColumn(AlarmTableModel.ACTIVE)
-            .setCellRenderer(new ActiveRenderer());
     }
 
-    /**
-     * Setup and initialise the time display in status bar
-     */
-    private void setTimeDisplay() {
-       
-        class ClockTask extends TimerTask {
+    /** Groups | Shift... action performed - move a group's alarms */
+    public void action_GroupShift(ActionEvent e) {
 
-            private SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm.ss");
+        String group = chooseGroup("Shift group");
+        if (group == null) {
+            return;
+        }
 
-            public void run() {
-                SwingUtilities.invokeLater(new Runnable() {
-                    public void run() {
-                        statusBar.setText("Time: " + dateFormat.format(new Date()));
-                    }
-                });
-            }
+        String minutes = JOptionPane.showInputDialog(this,
+            "Minutes to move '" + group + "' by (negative for earlier):", "5");
+        if (minutes == null) {
+            return;
         }
 
-        contentPane.add(statusBar, BorderLayout.SOUTH);
-        clockTimer.schedule(new ClockTask(), 0, CLOCK_UPDATE_INTERVAL);
+        try {
+            alarmTableModel.shiftGroup(group, Integer.parseInt(minutes.trim()));
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Not a number of minutes: "
+                                          + minutes, MultiAlarms.TITLE,
+                                          JOptionPane.ERROR_MESSAGE);
+        }
     }
 
-    // -------------------------------------------------------------------------
-    // EVENTS
-    //--------------------------------------------------------------------------
+    /** Groups | Switch On... action performed */
+    public void action_GroupArm(ActionEvent e) {
 
-    /** Overridden so we can exit when window is closed */
-    protected void processWindowEvent(WindowEvent e) {
+        String group = chooseGroup("Switch on group");
+        if (group != null) {
+            alarmTableModel.armGroup(group);
+        }
+    }
 
-        super.processWindowEvent(e);
+    /** Groups | Switch Off... action performed */
+    public void action_GroupDisarm(ActionEvent e) {
 
-        if (e.getID() == WindowEvent.WINDOW_CLOSING) {
-        	
-            action_FileExit(null);
+        String group = chooseGroup("Switch off group");
+        if (group != null) {
+            alarmTableModel.disarmGroup(group);
         }
     }
 
-    /** File | Exit action performed */
-    public void action_FileExit(ActionEvent e) {
-    	
-        alarmTableModel.stopTimers();
-        System.exit(0);
+    /**
+     * Ask which group to act on, offering the selected alarm's group first.
+     * Returns null if cancelled or there are no groups.
+     */
+    private String chooseGroup(String title) {
+
+        if (alarmTable.isEditing()) {
+            alarmTable.getCellEditor().stopCellEditing();
+        }
+
+        String[] groups = alarmTableModel.getGroups();
+        if (groups.length == 0) {
+            JOptionPane.showMessageDialog(this, "No alarm is in a group - type"
+                                          + " a name in the Group column",
+                                          MultiAlarms.TITLE,
+                                          JOptionPane.INFORMATION_MESSAGE);
+            return null;
+        }
+
+        Object selected = groups[0];
+        int    row      = alarmTable.getSelectedRow();
+        if (row >= 0) {
+            String group = (String) alarmTableModel.getValueAt(
+                row, AlarmTableModel.GROUP);
+            if (group.length() > 0) {
+                selected = group;
+            }
+        }
+
+        return (String) JOptionPane.showInputDialog(this, "Group:", title,
+            JOptionPane.QUESTION_MESSAGE, null, groups, selected);
     }
 
     /** Help | About action performed */
     public void action_HelpAbout(ActionEvent e) {
     	
+        // only loaded for the About Dialog (null if not found)
+        if (iconTransparent == null) {
+            URL iconURL = this.getClass().getResource("bell.gif");
+            if (iconURL != null) {
+                iconTransparent = new ImageIcon(iconURL);
+            }
+        }
+
         new AboutDialog(this, MultiAlarms.TITLE,
         	MultiAlarms.VERSION,
             	iconTransparent, true).show();
@@ -0,0 +1,97 @@
+package multialarms;
+
+/*
+ * Title:        MultiAlarmsHeadless
+ * Description:  Main program module for running alarms without a display
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the saved alarms with no window, for machines without a display.
+ * Nothing here (or in the engine) loads AWT or Swing.
+ *
+ * Each argument adds and switches on a new alarm for that go-off time, as
+ * it would be typed into the table (eg. "Mon 14:30"). Alarms going off are
+ * printed; the journal is saved, and how late they went off printed, when
+ * the process is stopped. The engine can be watched, and alarms switched
+ * on and off, over JMX (see AlarmEngineMXBean). With the property
+ * multialarms.control.port set, alarms can also be managed over a local
+ * port (see ControlServer).
+ */
+public class MultiAlarmsHeadless {
+
+    /** Main method */
+    public static void main(String[] args) {
+
+        final AlarmEngine engine =
+            new AlarmEngine(AlarmJournal.getDefaultDirectory());
+
+        AlarmMonitor.register(engine);
+
+        engine.addAlarmListener(new AlarmListener() {
+
+            public void alarmGoneOff(Alarm alarm) {
+                System.out.println("alarm " + alarm.getAlarmNum() + " - "
+                                   + alarm.getDescription());
+            }
+        });
+
+        for (int x = 0; x < args.length; x++) {
+            engine.create().setTimeString(args[x]);
+            engine.arm(engine.size() - 1);
+        }
+
+        int port = ControlServer.getConfiguredPort();
+        if (port >= 0) {
+            try {
+                // no event dispatch thread here, so commands are applied
+                // on the server's own thread
+                new ControlServer(engine, port, new Executor() {
+
+                    public void execute(Runnable batch) {
+                        batch.run();
+                    }
+                }, null).start();
+            } catch (IOException ex) {
+                System.out.println("main() - control port " + port + ": "
+                                   + ex.getMessage());
+            }
+        }
+
+        Runtime.getRuntime().addShutdownHook(
+            new Thread("MultiAlarmsHeadless") {
+
+                public void run() {
+                    engine.shutdown();
+
+                    if (LatencyHistogram.FIRED.getCount() > 0) {
+                        System.out.println("late " + LatencyHistogram.FIRED);
+                        System.out.println("late " + LatencyHistogram.RUNG);
+                    }
+                    if (LatencyHistogram.DISPATCHED.getCount() > 0) {
+                        System.out.println(ActionDispatcher.getInstance());
+                    }
+                }
+            });
+
+        System.out.println("MultiAlarms running headless with "
+                           + engine.size() + " alarms");
+
+        // the engine's threads are daemons - wait here until killed
+        Object forever = new Object();
+        synchronized (forever) {
+            while (true) {
+                try {
+                    forever.wait();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+}
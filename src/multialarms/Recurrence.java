@@ -0,0 +1,415 @@
+package multialarms;
+
+/*
+ * Title:        Recurrence
+ * Description:  Rule for when a recurring alarm goes off again
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+
+/**
+ * A repeat rule, as typed into the table's Repeat column:
+ *
+ *   daily            - every day, at the alarm's time of day
+ *   weekdays         - Monday to Friday, at the alarm's time of day
+ *   every N[m|h]     - every N minutes (or hours) from the alarm's time
+ *   cron M H D Mo W  - cron fields: minute, hour, day of month, month and
+ *                      day of week (0 or 7 is Sunday), each *, a number,
+ *                      a range a-b or a list a,b,c; a range or * may take
+ *                      a step, as in 9-17/2
+ *
+ * A rule is parsed once and shared by every alarm using the same text (see
+ * parse()). next() works forward from the occurrence that just went off,
+ * so it never re-reads the rule text. The last answer is kept, so when
+ * many alarms share a rule and a go-off time, only the first of them
+ * does any date arithmetic.
+ */
+abstract class Recurrence {
+
+    /** Parsed rules, by text - rules are immutable, so they are shared */
+    private static final HashMap<String, Recurrence> rules =
+        new HashMap<String, Recurrence>();
+
+    /** The rule as typed (normalised) */
+    private final String text;
+
+    /** The last next() answer, for the next alarm with the same occurrence */
+    private volatile Occurrence last = new Occurrence(0, 0, null);
+
+    private Recurrence(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Return the rule for the given text, or null for none (an empty
+     * string). Throws IllegalArgumentException, with the reason, if the
+     * text isn't a valid rule.
+     */
+    public static Recurrence parse(String text) {
+
+        text = text.trim().toLowerCase().replaceAll("\\s+", " ");
+
+        if (text.length() == 0) {
+            return null;
+        }
+
+        synchronized (rules) {
+            Recurrence rule = rules.get(text);
+
+            if (rule == null) {
+                rule = create(text);
+                rules.put(text, rule);
+            }
+
+            return rule;
+        }
+    }
+
+    private static Recurrence create(String text) {
+
+        if (text.equals("daily")) {
+            return new Days(text, 0x7f);
+        }
+
+        if (text.equals("weekdays")) {
+            return new Days(text, 0x1f);     // bits are Monday (0) first
+        }
+
+        if (text.startsWith("every ")) {
+            return new Every(text, text.substring(6));
+        }
+
+        if (text.startsWith("cron ")) {
+            return new Cron(text, text.substring(5).split(" "));
+        }
+
+        throw new IllegalArgumentException("unknown repeat '" + text
+            + "' (use daily, weekdays, every N[m|h] or cron ...)");
+    }
+
+    /**
+     * Return the first occurrence after both 'previous' (the occurrence
+     * that just went off) and 'now', or -1 if there are no more. Times are
+     * epoch milliseconds.
+     */
+    public long next(long previous, long now) {
+
+        Occurrence hit = last;
+
+        if (hit.previous == previous && hit.next > now) {
+            return hit.next;
+        }
+
+        long next = compute(previous, now);
+
+        last = new Occurrence(previous, next, null);
+
+        return next;
+    }
+
+    /** Return the Set column text for a time returned by next() */
+    public String format(long time) {
+
+        Occurrence hit = last;
+
+        if (hit.next == time && hit.timeString != null) {
+            return hit.timeString;
+        }
+
+        String timeString = AlarmTime.format(
+            time, AlarmClock.get().currentTimeMillis());
+
+        if (hit.next == time) {
+            last = new Occurrence(hit.previous, hit.next, timeString);
+        }
+
+        return timeString;
+    }
+
+    /** Work out next() - the rule's own arithmetic */
+    protected abstract long compute(long previous, long now);
+
+    public String toString() {
+        return text;
+    }
+
+    // -------------------------------------------------------------------------
+    // RULES
+    //--------------------------------------------------------------------------
+
+    /** Chosen days of the week, at the time of day of the last occurrence */
+    private static final class Days extends Recurrence {
+
+        /** Bit 0 is Monday ... bit 6 is Sunday */
+        private final int days;
+
+        Days(String text, int days) {
+            super(text);
+            this.days = days;
+        }
+
+        protected long compute(long previous, long now) {
+
+            ZoneId        zone = ZoneId.systemDefault();
+            ZonedDateTime time = Instant.ofEpochMilli(previous).atZone(zone);
+            ZonedDateTime from = Instant.ofEpochMilli(now).atZone(zone);
+
+            // skip whole days missed while not running
+            long missed = ChronoUnit.DAYS.between(time.toLocalDate(),
+                                                  from.toLocalDate());
+            if (missed > 1) {
+                time = time.plusDays(missed - 1);
+            }
+
+            // at most a week to the next chosen day (plus today)
+            for (int x = 0; x < 9; x++) {
+                time = time.plusDays(1);    // same local time, across DST
+
+                int bit = 1 << (time.getDayOfWeek().getValue() - 1);
+
+                if ((days & bit) != 0 && time.toInstant().toEpochMilli() > now) {
+                    return time.toInstant().toEpochMilli();
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    /** A fixed period */
+    private static final class Every extends Recurrence {
+
+        private final long period;
+
+        Every(String text, String period) {
+
+            super(text);
+
+            long unit = 60 * 1000L;
+
+            if (period.endsWith("h")) {
+                unit   = 60 * unit;
+                period = period.substring(0, period.length() - 1);
+            } else if (period.endsWith("m")) {
+                period = period.substring(0, period.length() - 1);
+            }
+
+            long count;
+            try {
+                count = Long.parseLong(period.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("bad period in '" + text
+                                                   + "'");
+            }
+
+            if (count <= 0) {
+                throw new IllegalArgumentException("bad period in '" + text
+                                                   + "'");
+            }
+
+            this.period = count * unit;
+        }
+
+        protected long compute(long previous, long now) {
+
+            if (previous > now) {
+                return previous + period;
+            }
+
+            // whole periods, so missed occurrences keep to the same beat
+            return previous + ((now - previous) / period + 1) * period;
+        }
+    }
+
+    /** Cron fields, each a bit mask of the values allowed */
+    private static final class Cron extends Recurrence {
+
+        private final long minutes;     // bits 0-59
+        private final int  hours;       // bits 0-23
+        private final int  daysOfMonth; // bits 1-31
+        private final int  months;      // bits 1-12
+        private final int  daysOfWeek;  // bits 0-6, Sunday is 0
+
+        /** Cron rule: day of month and day of week match if either does */
+        private final boolean eitherDay;
+
+        /** The furthest ahead an occurrence is looked for, in years */
+        private static final int MAX_YEARS = 5;
+
+        Cron(String text, String[] fields) {
+
+            super(text);
+
+            if (fields.length != 5) {
+                throw new IllegalArgumentException(
+                    "cron needs 5 fields: minute hour day month weekday");
+            }
+
+            minutes     = field(fields[0], 0, 59);
+            hours       = (int) field(fields[1], 0, 23);
+            daysOfMonth = (int) field(fields[2], 1, 31);
+            months      = (int) field(fields[3], 1, 12);
+
+            long dow = field(fields[4], 0, 7);
+            if ((dow & (1 << 7)) != 0) {
+                dow |= 1;   // 7 is also Sunday
+            }
+            daysOfWeek = (int) (dow & 0x7f);
+
+            eitherDay = !fields[2].equals("*") && !fields[4].equals("*");
+        }
+
+        /** Parse one field into a mask of the values it allows */
+        private static long field(String field, int min, int max) {
+
+            long mask = 0;
+
+            String[] parts = field.split(",");
+            for (int x = 0; x < parts.length; x++) {
+
+                String part = parts[x];
+                int    step = 1;
+                int    from = min;
+                int    to   = max;
+
+                int slash = part.indexOf('/');
+                if (slash >= 0) {
+                    step = number(part.substring(slash + 1), 1, max);
+                    part = part.substring(0, slash);
+                }
+
+                if (!part.equals("*")) {
+                    int dash = part.indexOf('-');
+                    if (dash >= 0) {
+                        from = number(part.substring(0, dash), min, max);
+                        to   = number(part.substring(dash + 1), min, max);
+                    } else {
+                        from = number(part, min, max);
+                        to   = slash >= 0 ? max : from;
+                    }
+                }
+
+                for (int v = from; v <= to; v += step) {
+                    mask |= 1L << v;
+                }
+            }
+
+            if (mask == 0) {
+                throw new IllegalArgumentException("empty cron field '"
+                                                   + field + "'");
+            }
+
+            return mask;
+        }
+
+        private static int number(String s, int min, int max) {
+
+            try {
+                int value = Integer.parseInt(s);
+                if (value >= min && value <= max) {
+                    return value;
+                }
+            } catch (NumberFormatException ex) {
+                // reported below
+            }
+
+            throw new IllegalArgumentException("bad cron value '" + s
+                + "' (" + min + "-" + max + ")");
+        }
+
+        protected long compute(long previous, long now) {
+
+            ZoneId        zone = ZoneId.systemDefault();
+            LocalDateTime time = LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(Math.max(previous, now)), zone)
+                .truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+            int           year = time.getYear() + MAX_YEARS;
+
+            // move the largest field that doesn't match on to its next
+            // allowed value, resetting the smaller fields
+            while (time.getYear() <= year) {
+
+                if ((months & (1 << time.getMonthValue())) == 0) {
+                    time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS)
+                               .plusMonths(1);
+                    continue;
+                }
+
+                if (!dayMatches(time)) {
+                    time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                    continue;
+                }
+
+                int hour = next(hours, time.getHour(), 24);
+                if (hour != time.getHour()) {
+                    time = hour < 0
+                        ? time.truncatedTo(ChronoUnit.DAYS).plusDays(1)
+                        : time.withHour(hour).withMinute(0);
+                    continue;
+                }
+
+                int minute = next(minutes, time.getMinute(), 60);
+                if (minute < 0) {
+                    time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                    continue;
+                }
+
+                // a local time in a daylight saving gap is moved forward
+                long next = time.withMinute(minute).atZone(zone)
+                                .toInstant().toEpochMilli();
+                if (next > now) {
+                    return next;
+                }
+                time = time.withMinute(minute).plusMinutes(1);
+            }
+
+            return -1;
+        }
+
+        private boolean dayMatches(LocalDateTime time) {
+
+            DayOfWeek day = time.getDayOfWeek();
+            boolean   dom = (daysOfMonth & (1 << time.getDayOfMonth())) != 0;
+            boolean   dow = (daysOfWeek & (1 << (day.getValue() % 7))) != 0;
+
+            return eitherDay ? dom || dow : dom && dow;
+        }
+
+        /** Return the lowest allowed value >= from, or -1 if there is none */
+        private static int next(long mask, int from, int limit) {
+
+            long above = mask >>> from;
+
+            if (above == 0) {
+                return -1;
+            }
+
+            int value = from + Long.numberOfTrailingZeros(above);
+
+            return value < limit ? value : -1;
+        }
+    }
+
+    /** A next() answer, kept for alarms sharing the same occurrence */
+    private static final class Occurrence {
+
+        final long   previous;
+        final long   next;
+        final String timeString;
+
+        Occurrence(long previous, long next, String timeString) {
+            this.previous   = previous;
+            this.next       = next;
+            this.timeString = timeString;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package multialarms;
+
+/*
+ * Title:        SoundCache
+ * Description:  Size-bounded LRU cache of decoded alarm sounds
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decoded sounds, keyed by URL, shared by every alarm that uses the same
+ * file. The total decoded size is bounded by MAX_BYTES; the least recently
+ * used sounds are dropped first.
+ *
+ * Sounds are decoded on a background thread when an alarm is armed (see
+ * load()), so the firing path only ever looks in the cache (see get()).
+ */
+class SoundCache {
+
+    /** Upper bound on the decoded size of all cached sounds - in bytes */
+    public static final int MAX_BYTES = 8 * 1024 * 1024;
+
+    /** The shared cache */
+    private static SoundCache instance;
+
+    /** Cached sounds, least recently used first (keyed by URL string) */
+    private LinkedHashMap<String, AlarmAudio.Sound> sounds =
+        new LinkedHashMap<String, AlarmAudio.Sound>(16, 0.75f, true);
+
+    /** Sounds queued or being decoded */
+    private HashSet<String> loading = new HashSet<String>();
+
+    /** Decodes sounds off the event dispatch and scheduler threads */
+    private ExecutorService loader =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "SoundLoader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    // counters
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long byteSize;
+
+    /** Return the cache shared by all alarms */
+    public static synchronized SoundCache getInstance() {
+
+        if (instance == null) {
+            instance = new SoundCache();
+        }
+
+        return instance;
+    }
+
+    /** Use getInstance() */
+    private SoundCache() {}
+
+    /**
+     * Return the decoded sound for a URL if it is cached, or null.
+     * Never decodes, so it is safe to call when an alarm goes off.
+     */
+    public synchronized AlarmAudio.Sound get(String url) {
+
+        AlarmAudio.Sound sound = sounds.get(url);
+
+        if (sound != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        return sound;
+    }
+
+    /** Decode a sound in the background, unless cached or already loading */
+    public synchronized void load(final String url) {
+
+        if (sounds.containsKey(url) || !loading.add(url)) {
+            return;
+        }
+
+        loader.execute(new Runnable() {
+
+            public void run() {
+
+                AlarmAudio.Sound sound = null;
+
+                try {
+                    sound = AlarmAudio.decode(new URL(url));
+                } catch (MalformedURLException ex) {
+                    System.out.println("SoundCache - " + ex.getMessage());
+                }
+
+                put(url, sound);
+            }
+        });
+    }
+
+    /** Add a decoded sound, evicting old ones to stay within MAX_BYTES */
+    private synchronized void put(String url, AlarmAudio.Sound sound) {
+
+        loading.remove(url);
+
+        if (sound == null || sound.getByteSize() > MAX_BYTES) {
+            return;
+        }
+
+        sounds.put(url, sound);
+        byteSize += sound.getByteSize();
+
+        Iterator<Map.Entry<String, AlarmAudio.Sound>> eldest =
+            sounds.entrySet().iterator();
+
+        while (byteSize > MAX_BYTES) {
+            AlarmAudio.Sound evicted = eldest.next().getValue();
+
+            eldest.remove();
+            byteSize -= evicted.getByteSize();
+            evictions++;
+        }
+    }
+
+    /** Number of get() calls that found the sound decoded */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Number of get() calls that found nothing (the default sound rang) */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Number of sounds dropped to stay within MAX_BYTES */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Decoded size of all cached sounds - in bytes */
+    public synchronized long getByteSize() {
+        return byteSize;
+    }
+
+    /** Number of sounds cached */
+    public synchronized int getCount() {
+        return sounds.size();
+    }
+
+    public synchronized String toString() {
+        return "SoundCache[" + sounds.size() + " sounds, " + byteSize
+               + " bytes, hits=" + hits + " misses=" + misses
+               + " evictions=" + evictions + "]";
+    }
+}
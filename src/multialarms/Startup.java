@@ -0,0 +1,194 @@
+package multialarms;
+
+/*
+ * Title:        Startup
+ * Description:  Keeps the slow parts of starting up off the way to the window
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The order the program starts in. main() calls begin() before anything
+ * else, which reads the journal on a background thread while the look and
+ * feel is installed; the table model collects the engine with
+ * getEngine(). Work the first frame can do without (the properties, the
+ * JMX monitor, the control port) is handed to afterFirstFrame() and run
+ * on a background thread, in order, once the window has opened.
+ *
+ * Two system properties are for measuring it (see StartupBench):
+ *
+ *   multialarms.startup.report  print the time to the first frame and the
+ *                               time until interactive, from the JVM's start
+ *   multialarms.startup.exit    exit, as File | Exit does, once interactive
+ *                               (also the class-data-sharing training run)
+ *
+ * Interactive is when the deferred work is done and the event dispatch
+ * thread has caught up with everything queued before it.
+ */
+class Startup {
+
+    /** The engine being read from the journal (null if begin() wasn't called) */
+    private static FutureTask<AlarmEngine> engineTask;
+
+    /** Whether begin() was called - there is a frame coming */
+    private static boolean begun;
+
+    /** Work waiting for the first frame - null once it has been shown */
+    private static List<Runnable> deferred = new ArrayList<Runnable>();
+
+    /** Milliseconds since the epoch */
+    private static long firstFrame;
+    private static long interactive;
+
+    /** Only static methods */
+    private Startup() {}
+
+    /** Start reading the journal in the background */
+    public static synchronized void begin() {
+
+        begun      = true;
+        engineTask = new FutureTask<AlarmEngine>(new Callable<AlarmEngine>() {
+
+            public AlarmEngine call() {
+
+                // bring back the alarms from last time, if there are any
+                return new AlarmEngine(AlarmJournal.getDefaultDirectory());
+            }
+        });
+
+        startThread(engineTask);
+    }
+
+    /**
+     * The engine begin() started, waiting for the journal to be read if it
+     * has to - or a new one, if begin() wasn't called
+     */
+    public static AlarmEngine getEngine() {
+
+        FutureTask<AlarmEngine> task;
+
+        synchronized (Startup.class) {
+            task       = engineTask;
+            engineTask = null;
+        }
+
+        if (task == null) {
+            return new AlarmEngine(AlarmJournal.getDefaultDirectory());
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted reading the journal");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Run the task in the background once the first frame is on screen -
+     * or now, on this thread, if that has already happened or there is no
+     * frame coming (begin() wasn't called)
+     */
+    public static void afterFirstFrame(Runnable task) {
+
+        synchronized (Startup.class) {
+            if (begun && deferred != null) {
+                deferred.add(task);
+                return;
+            }
+        }
+
+        task.run();
+    }
+
+    /** Watch the frame, to run the deferred work when it opens */
+    public static void watch(Window frame) {
+
+        frame.addWindowListener(new WindowAdapter() {
+
+            public void windowOpened(WindowEvent e) {
+                e.getWindow().removeWindowListener(this);
+                frameShown(e.getWindow());
+            }
+        });
+    }
+
+    /** The first frame is on screen (on the event dispatch thread) */
+    private static void frameShown(final Window frame) {
+
+        final List<Runnable> tasks;
+
+        synchronized (Startup.class) {
+            firstFrame = System.currentTimeMillis();
+            tasks      = deferred;
+            deferred   = null;
+        }
+
+        startThread(new Runnable() {
+
+            public void run() {
+
+                for (int x = 0; x < tasks.size(); x++) {
+                    try {
+                        tasks.get(x).run();
+                    } catch (RuntimeException ex) {
+                        System.out.println("Startup - " + ex);
+                    }
+                }
+
+                // interactive once the event queue is through what came before
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    public void run() {
+                        interactive(frame);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void interactive(Window frame) {
+
+        synchronized (Startup.class) {
+            interactive = System.currentTimeMillis();
+        }
+
+        if (Boolean.getBoolean("multialarms.startup.report")) {
+            long started = ManagementFactory.getRuntimeMXBean().getStartTime();
+            System.out.println("startup: first frame " + (firstFrame - started)
+                               + " ms, interactive " + (interactive - started)
+                               + " ms");
+        }
+
+        if (Boolean.getBoolean("multialarms.startup.exit")) {
+            frame.dispatchEvent(new WindowEvent(frame,
+                                                WindowEvent.WINDOW_CLOSING));
+        }
+    }
+
+    private static void startThread(Runnable task) {
+
+        Thread thread = new Thread(task, "Startup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
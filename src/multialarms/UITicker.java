@@ -0,0 +1,186 @@
+package multialarms;
+
+/*
+ * Title:        UITicker
+ * Description:  One second-aligned tick for everything on screen that moves
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Drives the status bar clock, the progress bars and any other view that
+ * changes with time from one periodic tick.
+ *
+ * Ticks fall on wall-clock second boundaries. They are scheduled on the
+ * shared AlarmScheduler, so there is no timer thread of its own, and each
+ * is a single pass on the event dispatch thread calling every listener
+ * that is due. A listener asks to be called every N seconds and is called
+ * on the seconds divisible by N, so listeners at the same rate always share
+ * a pass, and the ticker only wakes on seconds when one of them is due.
+ *
+ * The next tick is scheduled at the end of each pass, from the wall clock,
+ * so a slow pass doesn't queue up more and a clock jump is followed at the
+ * next tick.
+ */
+class UITicker {
+
+    /** Called on the event dispatch thread at its rate */
+    public interface Listener {
+
+        /** The tick for the given wall-clock time (epoch milliseconds) */
+        void tick(long now);
+    }
+
+    /** The shared ticker */
+    private static UITicker instance;
+
+    /** Listeners and their rates - replaced, never changed in place */
+    private volatile Listener[] listeners = new Listener[0];
+    private volatile int[]      seconds   = new int[0];
+
+    /** The event for the next tick (null when there are no listeners) */
+    private AlarmScheduler.Timeout next;
+
+    /** The second the last pass was for, so none runs twice */
+    private long lastSecond;
+
+    /** Number of passes made */
+    private volatile long passes;
+
+    /** Posts a pass to the event dispatch thread */
+    private final Runnable post = new Runnable() {
+
+        public void run() {
+            SwingUtilities.invokeLater(pass);
+        }
+    };
+
+    private final Runnable pass = new Runnable() {
+
+        public void run() {
+            pass();
+        }
+    };
+
+    /** Return the ticker shared by all views */
+    public static synchronized UITicker getInstance() {
+
+        if (instance == null) {
+            instance = new UITicker();
+        }
+
+        return instance;
+    }
+
+    /** Use getInstance() */
+    private UITicker() {}
+
+    /** Call a listener every 'every' seconds, starting on the next due one */
+    public synchronized void addListener(Listener listener, int every) {
+
+        if (every < 1) {
+            throw new IllegalArgumentException("tick every " + every + "s");
+        }
+
+        Listener[] largerListeners = new Listener[listeners.length + 1];
+        int[]      largerSeconds   = new int[seconds.length + 1];
+
+        System.arraycopy(listeners, 0, largerListeners, 0, listeners.length);
+        System.arraycopy(seconds, 0, largerSeconds, 0, seconds.length);
+        largerListeners[listeners.length] = listener;
+        largerSeconds[seconds.length]     = every;
+
+        seconds   = largerSeconds;
+        listeners = largerListeners;
+
+        schedule();
+    }
+
+    public synchronized void removeListener(Listener listener) {
+
+        for (int x = 0; x < listeners.length; x++) {
+            if (listeners[x] == listener) {
+                Listener[] smallerListeners = new Listener[listeners.length - 1];
+                int[]      smallerSeconds   = new int[seconds.length - 1];
+
+                System.arraycopy(listeners, 0, smallerListeners, 0, x);
+                System.arraycopy(listeners, x + 1, smallerListeners, x,
+                                 smallerListeners.length - x);
+                System.arraycopy(seconds, 0, smallerSeconds, 0, x);
+                System.arraycopy(seconds, x + 1, smallerSeconds, x,
+                                 smallerSeconds.length - x);
+
+                listeners = smallerListeners;
+                seconds   = smallerSeconds;
+
+                schedule();
+                return;
+            }
+        }
+    }
+
+    /** Return the number of passes made on the event dispatch thread */
+    public long getPasses() {
+        return passes;
+    }
+
+    /** One tick: call every listener due this second */
+    private void pass() {
+
+        Listener[] current = listeners;
+        int[]      every   = seconds;
+        long       now     = AlarmClock.get().currentTimeMillis();
+
+        // the tick lands just after the boundary, give or take a scheduler
+        // tick, so round to the nearest second
+        long second = (now + 500) / 1000;
+
+        try {
+            if (second == lastSecond) {
+                return;
+            }
+            lastSecond = second;
+            passes++;
+
+            for (int x = 0; x < current.length && x < every.length; x++) {
+                if (second % every[x] == 0) {
+                    try {
+                        current[x].tick(now);
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                schedule();
+            }
+        }
+    }
+
+    /** Schedule the next tick, for the next second a listener is due on */
+    private void schedule() {
+
+        if (next != null) {
+            next.cancel();
+            next = null;
+        }
+
+        if (listeners.length == 0) {
+            return;
+        }
+
+        long now  = AlarmClock.get().currentTimeMillis();
+        long from = Math.max(now / 1000, lastSecond);
+        long due  = Long.MAX_VALUE;
+
+        for (int x = 0; x < seconds.length; x++) {
+            due = Math.min(due, (from / seconds[x] + 1) * seconds[x]);
+        }
+
+        next = AlarmScheduler.getInstance().scheduleAt(post, due * 1000);
+    }
+}
@@ -0,0 +1,182 @@
+package multialarms;
+
+/*
+ * Title:        ActionDispatcherTest
+ * Description:  Slow fire actions never hold up the scheduler
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   slowActions - ALARMS alarms go off at once, each with an action that
+ *                 blocks until the test lets it go. Every alarm must go
+ *                 off, and the scheduler keep to time, while the actions
+ *                 are stuck; no more than ActionDispatcher.THREADS of them
+ *                 run (or action threads exist) at once, the rest wait in
+ *                 the queue; once let go, all of them complete.
+ */
+class ActionDispatcherTest {
+
+    private static final int ALARMS = 10000;
+
+    /** Longest wait for alarms or actions */
+    private static final long WAIT = 20000;
+
+    /** How late a scheduler task may run while the actions are stuck */
+    private static final long LATE = 1000;
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            new Test("ActionDispatcherTest.slowActions") {
+
+                protected void run() throws Exception {
+
+                    ActionDispatcher dispatcher = ActionDispatcher.getInstance();
+                    AlarmEngine      engine     = new AlarmEngine(null);
+                    AlarmStore       store      = engine.getStore();
+                    SlowAction       action     = new SlowAction();
+                    final AtomicInteger goneOff = new AtomicInteger();
+
+                    long completed = dispatcher.getCompleted();
+                    long rejected  = dispatcher.getRejected();
+
+                    engine.addAlarmListener(new AlarmListener() {
+
+                        public void alarmGoneOff(Alarm alarm) {
+                            goneOff.incrementAndGet();
+                        }
+                    });
+
+                    long time = System.currentTimeMillis() + 1000;
+
+                    for (int x = 0; x < ALARMS; x++) {
+                        engine.create().addAction(action, 2 * WAIT);
+                        store.setGoOffTime(x, time, "");
+                        engine.arm(x);
+                    }
+
+                    try {
+                        long end = time + WAIT;
+                        while (goneOff.get() < ALARMS
+                               && System.currentTimeMillis() < end) {
+                            Thread.sleep(10);
+                        }
+
+                        check(goneOff.get() == ALARMS, goneOff.get()
+                              + " of " + ALARMS + " alarms went off with "
+                              + "their actions stuck");
+                        check(!action.onScheduler,
+                              "an action ran on the scheduler thread");
+
+                        // the actions are still stuck
+                        checkOnTime();
+
+                        check(action.maxRunning.get() == ActionDispatcher.THREADS,
+                              action.maxRunning.get() + " actions ran at once, "
+                              + "with " + ActionDispatcher.THREADS + " threads");
+                        check(dispatcher.getRunning() <= ActionDispatcher.THREADS,
+                              dispatcher.getRunning() + " actions running");
+                        check(actionThreads() <= ActionDispatcher.THREADS,
+                              actionThreads() + " action threads, with a bound of "
+                              + ActionDispatcher.THREADS);
+                        check(dispatcher.getQueued()
+                              == ALARMS - ActionDispatcher.THREADS,
+                              dispatcher.getQueued() + " actions queued");
+                        check(dispatcher.getRejected() == rejected,
+                              "actions were dropped");
+                    } finally {
+                        action.release.countDown();
+                    }
+
+                    try {
+                        long end = System.currentTimeMillis() + WAIT;
+                        while (dispatcher.getCompleted() - completed < ALARMS
+                               && System.currentTimeMillis() < end) {
+                            Thread.sleep(10);
+                        }
+
+                        check(dispatcher.getCompleted() - completed == ALARMS,
+                              dispatcher.getCompleted() - completed + " of "
+                              + ALARMS + " actions completed");
+                        check(action.maxRunning.get() == ActionDispatcher.THREADS,
+                              action.maxRunning.get() + " actions ran at once");
+                    } finally {
+                        engine.shutdown();
+                    }
+                }
+            }
+        };
+    }
+
+    /** Check a task scheduled now runs when due, give or take LATE */
+    private static void checkOnTime() throws InterruptedException {
+
+        final CountDownLatch ran   = new CountDownLatch(1);
+        long                 start = System.currentTimeMillis();
+
+        AlarmScheduler.getInstance().schedule(new Runnable() {
+
+            public void run() {
+                ran.countDown();
+            }
+        }, 100);
+
+        Test.check(ran.await(100 + LATE, TimeUnit.MILLISECONDS),
+                   "the scheduler was held up by the actions");
+        Test.check(System.currentTimeMillis() - start >= 100,
+                   "a scheduler task ran early");
+    }
+
+    /** Return the number of live action threads */
+    private static int actionThreads() {
+
+        Thread[] threads = new Thread[Thread.activeCount() + 100];
+        int      count   = Thread.enumerate(threads);
+        int      actions = 0;
+
+        for (int x = 0; x < count; x++) {
+            if (threads[x].getName().startsWith("FireAction-")) {
+                actions++;
+            }
+        }
+
+        return actions;
+    }
+
+    /** Blocks until released, keeping count of how many run at once */
+    private static class SlowAction implements FireAction {
+
+        final CountDownLatch release    = new CountDownLatch(1);
+        final AtomicInteger  running    = new AtomicInteger();
+        final AtomicInteger  maxRunning = new AtomicInteger();
+
+        volatile boolean onScheduler;
+
+        public void fire(Alarm alarm) throws Exception {
+
+            if (Thread.currentThread().getName().equals("AlarmScheduler")) {
+                onScheduler = true;
+            }
+
+            int now = running.incrementAndGet();
+            int max;
+            while ((max = maxRunning.get()) < now
+                   && !maxRunning.compareAndSet(max, now)) {
+                // raced another action - look again
+            }
+
+            try {
+                release.await(WAIT, TimeUnit.MILLISECONDS);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package multialarms;
+
+/*
+ * Title:        AlarmStateTest
+ * Description:  Arming, stopping and going off racing on the same alarms
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *   armStopFire - for RACE_MILLIS, threads switch the same few alarms on
+ *                 and off and run their go-off events, while the
+ *                 scheduler makes them go off:
+ *
+ *                   one armer   switches them on, each time either due at
+ *                               once (near) or in an hour (far)
+ *                   STOPPERS    switch them off
+ *                   FIRERS      run go-off events of earlier generations
+ *                               (stale, as the scheduler would if one were
+ *                               left over), or of the present one if near,
+ *                               racing the scheduler's own
+ *
+ * Only the armer switches alarms on, so it knows which generation each
+ * arming was. Nothing that runs can make a far generation go off - if one
+ * does, a stale event went off - and no generation may go off twice.
+ * While going off an alarm must be RINGING in the generation going off.
+ * Once the threads have stopped and the near events have run, every alarm
+ * must be IDLE, ARMED, RINGING or STOPPED, and its state must agree with
+ * what was seen: ARMED in a far generation with a pending go-off event,
+ * and gone off if and only if its generation was heard going off.
+ */
+class AlarmStateTest {
+
+    private static final int ALARMS   = 16;
+    private static final int STOPPERS = 2;
+    private static final int FIRERS   = 2;
+
+    private static final long RACE_MILLIS = 2000;
+
+    /** Longest delay of a near arming */
+    private static final int NEAR_MILLIS = 20;
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            new Test("AlarmStateTest.armStopFire") {
+
+                protected void run() throws Exception {
+                    new Race().run();
+                }
+            }
+        };
+    }
+
+    /** One run of the test, with what it has seen */
+    private static class Race implements AlarmListener {
+
+        private final AlarmEngine engine = new AlarmEngine(null);
+        private final AlarmStore  store  = engine.getStore();
+
+        /** Generations armed, by key(), and whether they were near */
+        private final ConcurrentHashMap<Long, Boolean> armed =
+            new ConcurrentHashMap<Long, Boolean>();
+
+        /** Generations heard going off, by key() */
+        private final ConcurrentHashMap<Long, Boolean> fired =
+            new ConcurrentHashMap<Long, Boolean>();
+
+        /** The first thing found wrong, or null */
+        private volatile String failure;
+
+        private volatile boolean racing = true;
+
+        void run() throws Exception {
+
+            for (int x = 0; x < ALARMS; x++) {
+                engine.create();
+            }
+            engine.addAlarmListener(this);
+
+            Thread[] threads = new Thread[1 + STOPPERS + FIRERS];
+
+            threads[0] = new Racer("armer", 0) {
+
+                void step(Random random, Alarm alarm) {
+
+                    boolean near = random.nextBoolean();
+                    long    time = System.currentTimeMillis()
+                                   + (near ? random.nextInt(NEAR_MILLIS) : HOUR);
+
+                    store.setGoOffTime(alarm.row, time, "");
+                    engine.arm(alarm.row);
+
+                    // nothing else switches alarms on
+                    armed.put(key(alarm, alarm.getGeneration()),
+                              Boolean.valueOf(near));
+                }
+            };
+
+            for (int x = 1; x <= STOPPERS; x++) {
+                threads[x] = new Racer("stopper", x) {
+
+                    void step(Random random, Alarm alarm) {
+                        engine.cancel(alarm.row);
+                    }
+                };
+            }
+
+            for (int x = 1 + STOPPERS; x < threads.length; x++) {
+                threads[x] = new Racer("firer", x) {
+
+                    void step(Random random, Alarm alarm) {
+
+                        int generation = alarm.getGeneration();
+
+                        if (random.nextBoolean() && generation > 0) {
+                            int back = 1 + random.nextInt(Math.min(generation, 3));
+                            alarm.getGoOffTask(generation - back).run();
+                        } else if (Boolean.TRUE.equals(
+                                       armed.get(key(alarm, generation)))) {
+                            alarm.getGoOffTask(generation).run();
+                        }
+                    }
+                };
+            }
+
+            try {
+                for (int x = 0; x < threads.length; x++) {
+                    threads[x].start();
+                }
+
+                Thread.sleep(RACE_MILLIS);
+                racing = false;
+
+                for (int x = 0; x < threads.length; x++) {
+                    threads[x].join();
+                }
+
+                // let the last near events go off
+                Thread.sleep(NEAR_MILLIS + 50 * AlarmScheduler.TICK_MILLIS);
+
+                Test.check(failure == null, failure);
+                Test.check(fired.size() > 0, "no alarm went off");
+
+                for (int row = 0; row < ALARMS; row++) {
+                    checkSettled(store.getAlarm(row));
+                }
+            } finally {
+                racing = false;
+                engine.shutdown();
+            }
+        }
+
+        /** Check the state an alarm was left in agrees with what was seen */
+        private void checkSettled(Alarm alarm) {
+
+            int     flags      = alarm.getFlags();
+            int     generation = alarm.getGeneration();
+            Long    key        = key(alarm, generation);
+            boolean goneOff    = fired.containsKey(key);
+
+            Test.check(flags == AlarmStore.IDLE || flags == AlarmStore.ARMED
+                       || flags == AlarmStore.RINGING
+                       || flags == AlarmStore.STOPPED,
+                       alarm + " left in state " + flags);
+
+            Test.check(((flags & AlarmStore.GONE_OFF) != 0) == goneOff,
+                       alarm + " left with flags " + flags + ", generation "
+                       + generation + (goneOff ? " heard" : " not heard")
+                       + " going off");
+
+            AlarmScheduler.Timeout timeout = alarm.getTimeout();
+            boolean pending = timeout != null && !timeout.isCancelled();
+
+            if (flags == AlarmStore.ARMED) {
+                Test.check(pending, alarm + " left armed with no go-off event");
+                Test.check(Boolean.FALSE.equals(armed.get(key)),
+                           alarm + " armed to go off at once never did");
+            } else {
+                Test.check(!pending || flags == AlarmStore.RINGING,
+                           alarm + " left with flags " + flags
+                           + " and a go-off event pending");
+            }
+        }
+
+        /** Called on the thread going off, holding the alarm's lock */
+        public void alarmGoneOff(Alarm alarm) {
+
+            int  generation = alarm.getGeneration();
+            Long key        = key(alarm, generation);
+
+            if (alarm.getFlags() != AlarmStore.RINGING) {
+                fail(alarm + " went off with flags " + alarm.getFlags());
+            }
+            if (fired.putIfAbsent(key, Boolean.TRUE) != null) {
+                fail(alarm + " went off twice in generation " + generation);
+            }
+            if (Boolean.FALSE.equals(armed.get(key))) {
+                fail(alarm + " went off an hour early, in generation "
+                     + generation + " - a stale go-off event");
+            }
+        }
+
+        private void fail(String message) {
+            if (failure == null) {
+                failure = message;
+            }
+        }
+
+        /** An alarm's generation, as a key */
+        private static Long key(Alarm alarm, int generation) {
+            return Long.valueOf(((long) alarm.num << 32) | generation);
+        }
+
+        /** A thread doing one thing to random alarms until the race ends */
+        private abstract class Racer extends Thread {
+
+            private final Random random;
+
+            Racer(String name, int seed) {
+                super("AlarmStateTest-" + name + "-" + seed);
+                random = new Random(seed);
+            }
+
+            abstract void step(Random random, Alarm alarm);
+
+            public void run() {
+                try {
+                    while (racing) {
+                        step(random, store.getAlarm(random.nextInt(ALARMS)));
+                    }
+                } catch (Throwable ex) {
+                    fail(getName() + " threw " + ex);
+                }
+            }
+        }
+    }
+}
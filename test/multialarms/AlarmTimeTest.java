@@ -0,0 +1,214 @@
+package multialarms;
+
+/*
+ * Title:        AlarmTimeTest
+ * Description:  Parsing and formatting go-off times
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.text.ParseException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.TextStyle;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses and formats go-off times in ZONE, which changes to summer time on
+ * 2026-03-29, as of NOW (a Friday morning) unless said otherwise:
+ *
+ *   relative  - +15m, in 1h30, +1h30m, +90s, in 2h: from now, to the second
+ *   absolute  - HH:mm[:ss] today, E HH:mm the next such day, and dates; a
+ *               time in the summer time gap moves forward an hour
+ *   format    - E HH:mm today and tomorrow, yyyy-MM-dd HH:mm beyond, :ss
+ *               only if the seconds aren't zero; the status bar's HH:mm.ss
+ *   roundTrip - every few minutes over four days, on a plain day and on
+ *               the day before the change, format() parses back the same
+ *   rejected  - expressions that aren't times throw ParseException
+ */
+class AlarmTimeTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Amsterdam");
+
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR   = 60 * MINUTE;
+
+    /** Friday 2026-01-09, a little after 08:00 */
+    private static final long NOW = at("2026-01-09T08:00:00") + 12345;
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            new Zoned("AlarmTimeTest.relative") {
+
+                void runZoned() throws ParseException {
+
+                    long now = NOW / SECOND * SECOND;
+
+                    checkParse("+15m", NOW, now + 15 * MINUTE);
+                    checkParse("in 1h30", NOW, now + 90 * MINUTE);
+                    checkParse("+1h30m", NOW, now + 90 * MINUTE);
+                    checkParse("+90s", NOW, now + 90 * SECOND);
+                    checkParse("In 2h", NOW, now + 2 * HOUR);
+                    checkParse(" +1h5m10s ", NOW,
+                               now + HOUR + 5 * MINUTE + 10 * SECOND);
+                }
+            },
+
+            new Zoned("AlarmTimeTest.absolute") {
+
+                void runZoned() throws ParseException {
+
+                    checkParse("10:15", NOW, at("2026-01-09T10:15:00"));
+                    checkParse("7:05:30", NOW, at("2026-01-09T07:05:30"));
+                    checkParse(day(DayOfWeek.FRIDAY) + " 10:15", NOW,
+                               at("2026-01-09T10:15:00"));
+                    checkParse(day(DayOfWeek.SATURDAY) + "  06:00", NOW,
+                               at("2026-01-10T06:00:00"));
+                    checkParse(day(DayOfWeek.THURSDAY).toUpperCase() + " 09:00",
+                               NOW, at("2026-01-15T09:00:00"));
+                    checkParse("2026-02-01 12:00", NOW,
+                               at("2026-02-01T12:00:00"));
+                    checkParse("2026-02-01T12:00:59", NOW,
+                               at("2026-02-01T12:00:59"));
+                    checkParse("2026-02-01", NOW, at("2026-02-01T00:00:00"));
+
+                    // there is no 02:30 that night
+                    checkParse("2026-03-29 02:30", NOW,
+                               at("2026-03-29T03:30:00"));
+                    check(at("2026-03-29T03:30:00") - at("2026-03-29T01:30:00")
+                          == HOUR, "the gap isn't an hour");
+                }
+            },
+
+            new Zoned("AlarmTimeTest.format") {
+
+                void runZoned() {
+
+                    checkFormat(at("2026-01-09T10:15:00"), NOW,
+                                day(DayOfWeek.FRIDAY) + " 10:15");
+                    checkFormat(at("2026-01-10T00:00:00"), NOW,
+                                day(DayOfWeek.SATURDAY) + " 00:00");
+                    checkFormat(at("2026-01-10T23:59:05"), NOW,
+                                day(DayOfWeek.SATURDAY) + " 23:59:05");
+                    checkFormat(at("2026-01-11T00:00:00"), NOW,
+                                "2026-01-11 00:00");
+                    checkFormat(at("2026-01-08T18:00:30"), NOW,
+                                "2026-01-08 18:00:30");
+
+                    // a day with the change in it is worked out the long way
+                    long saturday = at("2026-03-28T12:00:00");
+                    checkFormat(at("2026-03-29T03:00:00"), saturday,
+                                day(DayOfWeek.SUNDAY) + " 03:00");
+                    checkFormat(at("2026-03-29T01:59:59"), saturday,
+                                day(DayOfWeek.SUNDAY) + " 01:59:59");
+
+                    String clock = AlarmTime.formatClock(
+                        at("2026-03-29T14:05:09") + 999);
+                    check(clock.equals("14:05.09"), "the clock shows " + clock);
+                }
+            },
+
+            new Zoned("AlarmTimeTest.roundTrip") {
+
+                void runZoned() throws ParseException {
+
+                    long[] days = {
+                        at("2026-01-09T00:00:00"), at("2026-03-28T00:00:00")
+                    };
+
+                    for (int x = 0; x < days.length; x++) {
+                        long now = days[x] + 15 * HOUR;
+
+                        for (long time = days[x]; time < days[x] + 96 * HOUR;
+                             time += 7 * MINUTE + 13 * SECOND) {
+                            checkParse(AlarmTime.format(time, now), now, time);
+                        }
+                    }
+                }
+            },
+
+            new Zoned("AlarmTimeTest.rejected") {
+
+                void runZoned() {
+
+                    String[] texts = {
+                        "", "   ", "+", "in", "+15x", "+m", "+15m30",
+                        "in 1h30m15", "+1h2h", "+5s3m", "+1234567m",
+                        "25:00", "12:60", "12:00:60", "12:5", "12:05:5",
+                        "1205", ":05", "12:05:", "Xyz 10:00",
+                        "2026-13-01 10:00", "2026-02-30 10:00",
+                        "2026-02-01x10:00", "2026-02-01 10", "20x6-02-01"
+                    };
+
+                    for (int x = 0; x < texts.length; x++) {
+                        try {
+                            long time = AlarmTime.parse(texts[x], NOW);
+                            check(false, "'" + texts[x] + "' was read as "
+                                  + LocalDateTime.ofInstant(
+                                      Instant.ofEpochMilli(time), ZONE));
+                        } catch (ParseException ex) {
+                            // as it should
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private static void checkParse(String text, long now, long expected)
+            throws ParseException {
+
+        long time = AlarmTime.parse(text, now);
+
+        Test.check(time == expected, "'" + text + "' was read as "
+                   + LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZONE));
+    }
+
+    private static void checkFormat(long time, long now, String expected) {
+
+        String text = AlarmTime.format(time, now);
+
+        Test.check(text.equals(expected), "formatted as '" + text
+                   + "', not '" + expected + "'");
+    }
+
+    /** Return a day's short name, as the table shows it */
+    private static String day(DayOfWeek day) {
+        return day.getDisplayName(TextStyle.SHORT, Locale.getDefault());
+    }
+
+    /** Return the epoch milliseconds of a local time in ZONE */
+    private static long at(String local) {
+        return LocalDateTime.parse(local).atZone(ZONE).toInstant()
+                            .toEpochMilli();
+    }
+
+    /** A test run with ZONE as the default time zone */
+    private abstract static class Zoned extends Test {
+
+        Zoned(String name) {
+            super(name);
+        }
+
+        abstract void runZoned() throws Exception;
+
+        protected void run() throws Exception {
+
+            TimeZone previous = TimeZone.getDefault();
+
+            TimeZone.setDefault(TimeZone.getTimeZone(ZONE));
+            try {
+                runZoned();
+            } finally {
+                TimeZone.setDefault(previous);
+            }
+        }
+    }
+}
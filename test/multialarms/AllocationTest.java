@@ -0,0 +1,179 @@
+package multialarms;
+
+/*
+ * Title:        AllocationTest
+ * Description:  The progress tick and cell renderers allocate nothing
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.lang.management.ManagementFactory;
+
+import javax.swing.UIManager;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import com.incors.plaf.kunststoff.KunststoffLookAndFeel;
+import com.incors.plaf.kunststoff.KunststoffTheme;
+
+/**
+ * What runs every progress tick must not allocate, or a large table
+ * makes garbage the whole time it is counting down. Each test warms its
+ * loop up (so the JIT has settled), then runs it again and checks with
+ * the thread's allocation counter that not a byte was allocated. The
+ * first run after warming up can allocate once, as compiled code takes
+ * over, so a few runs are made - an allocation per call shows in each.
+ *
+ *   progressTick - AlarmTableModel.updateProgress(), by number, soonest
+ *                  first and filtered
+ *   renderCells  - every cell of a screenful of rows set up for painting,
+ *                  as JTable does - each renderer, the countdown text
+ *
+ * A third of the alarms are switched off, a third counting down and a
+ * third ringing, so every path is taken. The JTable's own handling of the
+ * tick's events (repaint rectangles) is Swing's, and isn't counted.
+ */
+class AllocationTest {
+
+    private static final int ALARMS      = 200;
+    private static final int SCREEN_ROWS = 25;
+
+    private static final int WARM_UP = 20000;
+    private static final int RUNS    = 2000;
+    private static final int ROUNDS  = 5;
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            new Test("AllocationTest.progressTick") {
+
+                protected void run() {
+
+                    final AlarmTableModel model  = createModel();
+                    final long[]          events = new long[1];
+                    String[]              views  = { "by number",
+                                                     "soonest first",
+                                                     "filtered" };
+
+                    // in place of the JTable
+                    model.addTableModelListener(new TableModelListener() {
+
+                        public void tableChanged(TableModelEvent e) {
+                            events[0]++;
+                        }
+                    });
+
+                    Runnable tick = new Runnable() {
+
+                        public void run() {
+                            model.updateProgress();
+                        }
+                    };
+
+                    for (int view = 0; view < views.length; view++) {
+
+                        model.setSortedByDeadline(view == 1);
+                        model.setFilter(view == 2 ? "alarm 1" : null);
+                        events[0] = 0;
+
+                        checkNoAllocation("updateProgress() " + views[view],
+                                          tick);
+                        check(events[0] > 0, "updateProgress() " + views[view]
+                                             + " repainted nothing");
+                    }
+                }
+            },
+
+            new Test("AllocationTest.renderCells") {
+
+                protected void run() throws Exception {
+
+                    KunststoffLookAndFeel.setCurrentTheme(new KunststoffTheme());
+                    UIManager.setLookAndFeel(new KunststoffLookAndFeel());
+
+                    final AlarmTable table = new AlarmTable(createModel());
+                    final int        rows  = Math.min(SCREEN_ROWS,
+                                                      table.getRowCount());
+
+                    checkNoAllocation("rendering cells", new Runnable() {
+
+                        public void run() {
+                            for (int row = 0; row < rows; row++) {
+                                for (int col = 0; col < table.getColumnCount();
+                                     col++) {
+                                    table.prepareRenderer(
+                                        table.getCellRenderer(row, col),
+                                        row, col);
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        };
+    }
+
+    /** ALARMS alarms, a third each off, counting down and ringing */
+    private static AlarmTableModel createModel() {
+
+        AlarmEngine engine = new AlarmEngine(null);
+        AlarmStore  store  = engine.getStore();
+        long        now    = System.currentTimeMillis();
+
+        for (int x = 0; x < ALARMS; x++) {
+            long time = now + x * 61000L;
+            engine.create();
+            store.setGoOffTime(x, time, AlarmTime.format(time, now));
+        }
+
+        // the test ticks the model itself (which also stops the alarms)
+        AlarmTableModel model = new AlarmTableModel(engine);
+        model.stopTimers();
+        model.setVisibleRows(0, SCREEN_ROWS - 1);
+
+        for (int x = 0; x < ALARMS; x++) {
+            store.setStartTime(x, now - 60000);
+            store.setFlag(x, AlarmStore.ACTIVE, x % 3 != 0);
+            store.setFlag(x, AlarmStore.GONE_OFF, x % 3 == 2);
+        }
+
+        return model;
+    }
+
+    /** Warm the loop up, then check a run of it allocates nothing */
+    private static void checkNoAllocation(String what, Runnable loop) {
+
+        for (int x = 0; x < WARM_UP; x++) {
+            loop.run();
+        }
+
+        long bytes = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS && bytes > 0; round++) {
+
+            // reading the counter may itself allocate
+            long overhead = allocated();
+            overhead = allocated() - overhead;
+
+            long before = allocated();
+            for (int x = 0; x < RUNS; x++) {
+                loop.run();
+            }
+            bytes = Math.min(bytes, allocated() - before - overhead);
+        }
+
+        Test.check(bytes <= 0, what + " allocated " + bytes + " bytes over "
+                               + RUNS + " runs, at best");
+    }
+
+    /** Bytes allocated by this thread so far */
+    private static long allocated() {
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,269 @@
+package multialarms;
+
+/*
+ * Title:        ClockJumpTest
+ * Description:  Re-arming and catching up when the wall clock jumps
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.util.ArrayList;
+
+/**
+ * Steps the wall clock under armed alarms with AlarmClock.set(), as NTP
+ * or a resume from suspend would, and checks what the engine does:
+ *
+ *   catchUpFire     - forward past two alarms: both go off now, in order,
+ *                     and ring; a later one is pushed back by the step
+ *   catchUpSkip     - the same: the two are marked gone off, silently
+ *   catchUpCollapse - the same: listeners hear of both, only the last rings
+ *   backward        - back: an alarm due in a second isn't due for the
+ *                     step more, and doesn't go off when it first was
+ *   smallStep       - a step under AlarmClock.JUMP_THRESHOLD isn't a jump
+ *
+ * The scheduler notices a jump on its next tick, so each test waits (at
+ * most WAIT milliseconds) for the engine to have handled it.
+ */
+class ClockJumpTest {
+
+    private static final long SECOND = 1000;
+
+    /** Longest wait for the scheduler to act */
+    private static final long WAIT = 5000;
+
+    /** A jump is measured against the monotonic clock, to a millisecond or so */
+    private static final long SLACK = 50;
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            catchUp("catchUpFire", AlarmEngine.FIRE_NOW),
+
+            catchUp("catchUpSkip", AlarmEngine.SKIP),
+
+            catchUp("catchUpCollapse", AlarmEngine.COLLAPSE),
+
+            new Test("ClockJumpTest.backward") {
+
+                protected void run() throws Exception {
+
+                    SteppedClock clock = new SteppedClock();
+                    Fixture      alarms = new Fixture(clock, AlarmEngine.FIRE_NOW,
+                                                      new long[] { SECOND });
+
+                    try {
+                        long start = alarms.store.getStartTime(0);
+
+                        clock.step(-10 * SECOND);
+                        alarms.waitForJumps(1);
+
+                        // past when it was first due, on either clock
+                        Thread.sleep(2 * SECOND);
+
+                        check(alarms.heard().length == 0,
+                              "an alarm went off after the clock went back");
+                        check(alarms.store.getFlags(0) == AlarmStore.ARMED,
+                              "the alarm isn't counting down: flags "
+                              + alarms.store.getFlags(0));
+                        check(near(alarms.store.getStartTime(0), start - 10 * SECOND),
+                              "the start time didn't move with the clock");
+                        check(alarms.engine.getTimeLeft(0) > 8 * SECOND,
+                              "the alarm is due in "
+                              + alarms.engine.getTimeLeft(0) + "ms");
+                    } finally {
+                        alarms.close();
+                    }
+                }
+            },
+
+            new Test("ClockJumpTest.smallStep") {
+
+                protected void run() throws Exception {
+
+                    SteppedClock clock = new SteppedClock();
+                    Fixture      alarms = new Fixture(clock, AlarmEngine.FIRE_NOW,
+                                                      new long[] { 60 * SECOND });
+
+                    try {
+                        clock.step(AlarmClock.JUMP_THRESHOLD * 3 / 5);
+
+                        // several scheduler ticks
+                        Thread.sleep(20 * AlarmScheduler.TICK_MILLIS);
+
+                        check(alarms.engine.getClockJumps() == 0,
+                              "a step of " + AlarmClock.JUMP_THRESHOLD * 3 / 5
+                              + "ms was taken for a jump");
+                    } finally {
+                        alarms.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Alarms due in 2s, 3s and 60s; the clock steps 10s forward, past the
+     * first two
+     */
+    private static Test catchUp(String name, final int policy) {
+
+        return new Test("ClockJumpTest." + name) {
+
+            protected void run() throws Exception {
+
+                SteppedClock clock  = new SteppedClock();
+                Fixture      alarms = new Fixture(clock, policy, new long[] {
+                    2 * SECOND, 3 * SECOND, 60 * SECOND });
+
+                try {
+                    Alarm first  = alarms.engine.getAlarm(0);
+                    Alarm second = alarms.engine.getAlarm(1);
+                    long  start  = alarms.store.getStartTime(2);
+
+                    clock.step(10 * SECOND);
+                    alarms.waitForJumps(1);
+
+                    if (policy == AlarmEngine.SKIP) {
+                        alarms.waitForGoneOff(1);
+                        check(alarms.heard().length == 0,
+                              "skipped alarms were heard going off");
+                        check(first.getGoneOff() && !first.isRinging(),
+                              "the first alarm wasn't skipped");
+                        check(!second.isRinging(), "a skipped alarm rang");
+                    } else {
+                        alarms.waitForHeard(2);
+                        Alarm[] heard = alarms.heard();
+                        check(heard.length == 2 && heard[0] == first
+                              && heard[1] == second,
+                              "the missed alarms didn't go off in order");
+                        check(second.isRinging(), "the last missed didn't ring");
+                        check(first.isRinging() == (policy == AlarmEngine.FIRE_NOW),
+                              policy == AlarmEngine.FIRE_NOW
+                              ? "the first missed didn't ring"
+                              : "collapsed, the first missed rang too");
+                    }
+
+                    check(alarms.store.getFlags(2) == AlarmStore.ARMED,
+                          "the later alarm isn't counting down: flags "
+                          + alarms.store.getFlags(2));
+                    check(near(alarms.store.getStartTime(2), start + 10 * SECOND),
+                          "the later alarm's start didn't move with the clock");
+                } finally {
+                    alarms.close();
+                }
+            }
+        };
+    }
+
+    /** Whether a time is the expected one, give or take SLACK */
+    private static boolean near(long time, long expected) {
+        return Math.abs(time - expected) <= SLACK;
+    }
+
+    /** The real clocks, with the wall clock moved on or back at will */
+    static class SteppedClock extends AlarmClock {
+
+        private volatile long offset;
+
+        public long currentTimeMillis() {
+            return System.currentTimeMillis() + offset;
+        }
+
+        /** Move the wall clock (forward if positive) - from one thread */
+        void step(long millis) {
+            offset += millis;
+        }
+    }
+
+    /**
+     * An engine on a stepped clock, with an alarm armed for each of the
+     * given delays (in rows 0, 1, ...) and a listener hearing them go off
+     */
+    private static class Fixture implements AlarmListener {
+
+        final AlarmEngine engine;
+        final AlarmStore  store;
+
+        private final AlarmClock       previous = AlarmClock.get();
+        private final ArrayList<Alarm> heard    = new ArrayList<Alarm>();
+
+        Fixture(SteppedClock clock, int policy, long[] delays) {
+
+            // the engine listens to the clock in use when it is made
+            AlarmClock.set(clock);
+
+            engine = new AlarmEngine(null);
+            store  = engine.getStore();
+            engine.setCatchUp(policy);
+            engine.addAlarmListener(this);
+
+            long now = clock.currentTimeMillis();
+
+            for (int x = 0; x < delays.length; x++) {
+                engine.create();
+                store.setGoOffTime(x, now + delays[x], "");
+                engine.arm(x);
+            }
+
+            // take the present as where the next jump is measured from
+            clock.checkJump();
+        }
+
+        public synchronized void alarmGoneOff(Alarm alarm) {
+            heard.add(alarm);
+            notifyAll();
+        }
+
+        /** Return the alarms heard going off, in order */
+        synchronized Alarm[] heard() {
+            return heard.toArray(new Alarm[heard.size()]);
+        }
+
+        synchronized void waitForHeard(int count) throws InterruptedException {
+
+            long end = System.currentTimeMillis() + WAIT;
+
+            while (heard.size() < count && System.currentTimeMillis() < end) {
+                wait(50);
+            }
+
+            Test.check(heard.size() >= count, "heard " + heard.size()
+                       + " alarms go off, waiting for " + count);
+        }
+
+        void waitForJumps(int count) throws InterruptedException {
+
+            long end = System.currentTimeMillis() + WAIT;
+
+            while (engine.getClockJumps() < count
+                   && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+
+            Test.check(engine.getClockJumps() >= count, "the engine saw "
+                       + engine.getClockJumps() + " jumps, waiting for "
+                       + count);
+        }
+
+        /** Wait for the alarm in the given row to be marked gone off */
+        void waitForGoneOff(int row) throws InterruptedException {
+
+            long end = System.currentTimeMillis() + WAIT;
+
+            while (!store.isGoneOff(row) && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+
+            Test.check(store.isGoneOff(row), "alarm in row " + row
+                       + " wasn't marked gone off");
+        }
+
+        /** Stop the alarms and put the clock back */
+        void close() {
+            engine.shutdown();
+            AlarmClock.set(previous);
+        }
+    }
+}
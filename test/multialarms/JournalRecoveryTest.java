@@ -0,0 +1,246 @@
+package multialarms;
+
+/*
+ * Title:        JournalRecoveryTest
+ * Description:  Alarms written to the journal survive the process being killed
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ *   killAndRecover - a separate JVM (main() below) journals ALARMS alarms,
+ *                    changes their go-off times ROUNDS times over (enough
+ *                    to compact the journal at least once), removes every
+ *                    third one and arms some of the rest, then is killed
+ *                    outright. A new engine on the same directory must
+ *                    hold exactly the alarms left, in order, with their
+ *                    last times, groups, repeat rules and flags - and go
+ *                    on journalling: a change made after recovery must
+ *                    survive a normal restart too.
+ *
+ * Alarm k (0 first) is described as "alarm k"; everything else about it
+ * follows from k (see checkRecovered()).
+ */
+class JournalRecoveryTest {
+
+    private static final int ALARMS = 3000;
+    private static final int ROUNDS = 150;
+
+    private static final long MINUTE = 60 * 1000L;
+
+    /** Longest wait for the writing process, or for a compaction */
+    private static final long WAIT = 60000;
+
+    /** Printed by the writing process once everything is journalled */
+    private static final String WRITTEN = "JournalRecoveryTest written";
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            new Test("JournalRecoveryTest.killAndRecover") {
+
+                protected void run() throws Exception {
+
+                    File directory = new File(
+                        System.getProperty("java.io.tmpdir"),
+                        "multialarms-journal-test-" + System.nanoTime());
+
+                    try {
+                        long base = writeAndKill(directory);
+
+                        AlarmEngine engine = new AlarmEngine(directory, null);
+                        try {
+                            checkRecovered(engine.getStore(), base, -1);
+
+                            // the recovered journal takes new changes:
+                            // alarm 0 is gone already, so this is alarm 1
+                            engine.remove(0);
+                        } finally {
+                            engine.shutdown();
+                        }
+
+                        engine = new AlarmEngine(directory, null);
+                        try {
+                            checkRecovered(engine.getStore(), base, 1);
+                        } finally {
+                            engine.shutdown();
+                        }
+                    } finally {
+                        delete(directory);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Run the writing process on a new directory and kill it once it has
+     * journalled everything; return the time alarm 0 was set for
+     */
+    private static long writeAndKill(File directory) throws Exception {
+
+        long base = System.currentTimeMillis() + 24 * 60 * MINUTE;
+
+        Process writer = new ProcessBuilder(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-cp", System.getProperty("java.class.path"),
+            JournalRecoveryTest.class.getName(),
+            directory.getPath(), String.valueOf(base))
+            .redirectErrorStream(true).start();
+
+        try {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(writer.getInputStream()));
+            String line;
+
+            while ((line = in.readLine()) != null && !line.equals(WRITTEN)) {
+                // alarm logging
+            }
+
+            Test.check(line != null, "the writing process stopped early");
+        } finally {
+            writer.destroyForcibly();
+            writer.waitFor();
+        }
+
+        return base;
+    }
+
+    /**
+     * The writing process: journal the alarms into the directory given,
+     * alarm 0 set for the time given, then wait to be killed
+     */
+    public static void main(String[] args) throws Exception {
+
+        File        directory = new File(args[0]);
+        long        base      = Long.parseLong(args[1]);
+        AlarmEngine engine    = new AlarmEngine(directory, null);
+        AlarmStore  store     = engine.getStore();
+
+        for (int k = 0; k < ALARMS; k++) {
+            engine.create();
+            store.setDescription(k, "alarm " + k);
+            store.setGroup(k, group(k));
+            store.setRecurrence(k, Recurrence.parse(rule(k)));
+        }
+
+        // the last round sets each alarm to its final time
+        for (int round = ROUNDS - 1; round >= 0; round--) {
+            for (int k = 0; k < ALARMS; k++) {
+                store.setGoOffTime(k, base + k * MINUTE - round, "");
+            }
+        }
+
+        // opening wrote snapshot 1; the removes go in the journal after
+        // the compaction's, to be replayed
+        long end = System.currentTimeMillis() + WAIT;
+
+        while (snapshotGeneration(directory) < 2
+               && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        for (int k = 0, row = 0; k < ALARMS; k++) {
+            if (removed(k)) {
+                engine.remove(row);
+            } else {
+                if (armed(k)) {
+                    engine.arm(row);
+                }
+                row++;
+            }
+        }
+
+        System.out.println(WRITTEN);
+        System.out.flush();
+
+        Thread.sleep(WAIT);
+    }
+
+    /**
+     * Check a recovered store holds the alarms the writing process left,
+     * less those up to alarm 'gone' (-1 for none), which were removed since
+     */
+    private static void checkRecovered(AlarmStore store, long base,
+                                       int gone) {
+
+        int row = 0;
+
+        for (int k = gone + 1; k < ALARMS; k++) {
+            if (removed(k)) {
+                continue;
+            }
+
+            Test.check(row < store.size(), "only " + store.size()
+                       + " alarms recovered");
+
+            String     description = store.getDescription(row);
+            Recurrence rule        = store.getRecurrence(row);
+
+            Test.check(description.equals("alarm " + k), "row " + row
+                       + " is " + description + ", not alarm " + k);
+            Test.check(store.getGoOffTime(row) == base + k * MINUTE,
+                       description + " lost its last go-off time");
+            Test.check(store.getGroup(row).equals(group(k)),
+                       description + " is in group '" + store.getGroup(row)
+                       + "'");
+            Test.check(rule(k).equals(rule == null ? "" : rule.toString()),
+                       description + " repeats '" + rule + "'");
+            Test.check(store.isActive(row) == armed(k),
+                       description + " has flags " + store.getFlags(row));
+            row++;
+        }
+
+        Test.check(row == store.size(), store.size() + " alarms recovered, "
+                   + "expected " + row);
+    }
+
+    /** Return the generation of the snapshot in a directory */
+    private static long snapshotGeneration(File directory) throws IOException {
+
+        DataInputStream in = new DataInputStream(new FileInputStream(
+            new File(directory, "alarms.snapshot")));
+
+        try {
+            in.readInt();       // magic
+            return in.readLong();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean removed(int k) {
+        return k % 3 == 0;
+    }
+
+    private static boolean armed(int k) {
+        return k % 4 == 1;
+    }
+
+    private static String group(int k) {
+        return k % 5 == 0 ? "group " + k % 3 : "";
+    }
+
+    private static String rule(int k) {
+        return k % 7 == 0 ? "daily" : "";
+    }
+
+    private static void delete(File directory) {
+
+        File[] files = directory.listFiles();
+
+        for (int x = 0; files != null && x < files.length; x++) {
+            files[x].delete();
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,195 @@
+package multialarms;
+
+/*
+ * Title:        RecurrenceTest
+ * Description:  When repeat rules next go off
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.TimeZone;
+
+/**
+ * Asks rules when they next go off (Recurrence.next()) in ZONE, which
+ * changes to summer time on 2026-03-29 and back on 2026-10-25:
+ *
+ *   dailyAcrossDst      - daily keeps to the local time across both
+ *                         changes, 23 and 25 hours apart, and skips days
+ *                         missed
+ *   weekdaysOverWeekend - from Friday, or from the weekend, to Monday
+ *   everyCatchUp        - every 90m, after a gap, goes off at the next time
+ *                         on the old beat rather than a period after now
+ *   cronEitherDay       - cron 0 9 1 * 1 is the 1st of the month or any
+ *                         Monday; with no day of the month, Mondays only
+ *   rejected            - rules that aren't valid throw, naming the fault
+ */
+class RecurrenceTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Amsterdam");
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR   = 60 * MINUTE;
+
+    static Test[] tests() {
+
+        return new Test[] {
+
+            new Zoned("RecurrenceTest.dailyAcrossDst") {
+
+                void runZoned() {
+
+                    Recurrence daily = Recurrence.parse("daily");
+
+                    checkNext(daily, "2026-03-28T07:30", "2026-03-29T07:30");
+                    check(at("2026-03-29T07:30") - at("2026-03-28T07:30")
+                          == 23 * HOUR, "no hour lost to summer time");
+
+                    checkNext(daily, "2026-10-24T07:30", "2026-10-25T07:30");
+                    check(at("2026-10-25T07:30") - at("2026-10-24T07:30")
+                          == 25 * HOUR, "no hour gained from winter time");
+
+                    // not running for ten days, over the change
+                    check(daily.next(at("2026-03-20T07:30"),
+                                     at("2026-03-30T12:00"))
+                          == at("2026-03-31T07:30"),
+                          "daily didn't skip the missed days");
+                }
+            },
+
+            new Zoned("RecurrenceTest.weekdaysOverWeekend") {
+
+                void runZoned() {
+
+                    Recurrence weekdays = Recurrence.parse("weekdays");
+
+                    checkNext(weekdays, "2026-01-08T08:00", "2026-01-09T08:00");
+                    checkNext(weekdays, "2026-01-09T08:00", "2026-01-12T08:00");
+
+                    check(weekdays.next(at("2026-01-09T08:00"),
+                                        at("2026-01-11T10:00"))
+                          == at("2026-01-12T08:00"),
+                          "weekdays went off at the weekend");
+                }
+            },
+
+            new Zoned("RecurrenceTest.everyCatchUp") {
+
+                void runZoned() {
+
+                    Recurrence every    = Recurrence.parse("every 90m");
+                    long       previous = at("2026-01-09T08:00");
+
+                    check(every.next(previous, previous + MINUTE)
+                          == previous + 90 * MINUTE, "every 90m isn't");
+                    check(every.next(previous, previous + 5 * HOUR)
+                          == previous + 6 * HOUR,
+                          "after a gap, every 90m lost its beat");
+                    check(every.next(previous, previous + 6 * HOUR)
+                          == previous + 7 * HOUR + 30 * MINUTE,
+                          "every 90m went off again at the time it was due");
+                    check(every.next(previous + HOUR, previous)
+                          == previous + 2 * HOUR + 30 * MINUTE,
+                          "every 90m, set ahead, didn't count from then");
+
+                    check(Recurrence.parse("every 2h").next(previous, previous)
+                          == previous + 2 * HOUR, "every 2h isn't");
+                }
+            },
+
+            new Zoned("RecurrenceTest.cronEitherDay") {
+
+                void runZoned() {
+
+                    Recurrence cron = Recurrence.parse("cron 0 9 1 * 1");
+
+                    // Thursday the 1st: that day; the next is a Monday
+                    checkNext(cron, "2026-01-01T08:00", "2026-01-01T09:00");
+                    checkNext(cron, "2026-01-01T09:00", "2026-01-05T09:00");
+
+                    // Monday the 31st, then Tuesday the 1st
+                    checkNext(cron, "2026-08-25T10:00", "2026-08-31T09:00");
+                    checkNext(cron, "2026-08-31T09:00", "2026-09-01T09:00");
+                    checkNext(cron, "2026-09-01T09:00", "2026-09-07T09:00");
+
+                    checkNext(Recurrence.parse("cron 0 9 * * 1"),
+                              "2026-08-31T09:00", "2026-09-07T09:00");
+                    checkNext(Recurrence.parse("cron */20 9-10 * * 7"),
+                              "2026-01-11T10:40", "2026-01-18T09:00");
+                }
+            },
+
+            new Test("RecurrenceTest.rejected") {
+
+                protected void run() {
+
+                    check(Recurrence.parse(" ") == null,
+                          "an empty rule isn't no rule");
+
+                    String[] rules = {
+                        "weekly", "every", "every 0m", "every -5m",
+                        "every 5d", "every xh", "cron 0 9 * *",
+                        "cron 0 9 * * * *", "cron 60 * * * *",
+                        "cron 0 24 * * *", "cron 0 9 0 * *",
+                        "cron 0 9 32 * *", "cron 0 9 * 13 *",
+                        "cron 0 9 * * 8", "cron a * * * *",
+                        "cron 0 9 5-x * *", "cron */0 * * * *"
+                    };
+
+                    for (int x = 0; x < rules.length; x++) {
+                        try {
+                            Recurrence.parse(rules[x]);
+                            check(false, "'" + rules[x] + "' was accepted");
+                        } catch (IllegalArgumentException ex) {
+                            check(ex.getMessage() != null,
+                                  "'" + rules[x] + "' rejected without why");
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /** Check a rule next goes off at 'next' after 'previous', from then */
+    private static void checkNext(Recurrence rule, String previous,
+                                  String next) {
+
+        long time = rule.next(at(previous), at(previous));
+
+        Test.check(time == at(next), rule + " after " + previous
+                   + " went off at "
+                   + LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZONE)
+                   + ", not " + next);
+    }
+
+    /** Return the epoch milliseconds of a local time in ZONE */
+    private static long at(String local) {
+        return LocalDateTime.parse(local).atZone(ZONE).toInstant()
+                            .toEpochMilli();
+    }
+
+    /** A test run with ZONE as the default time zone */
+    private abstract static class Zoned extends Test {
+
+        Zoned(String name) {
+            super(name);
+        }
+
+        abstract void runZoned() throws Exception;
+
+        protected void run() throws Exception {
+
+            TimeZone previous = TimeZone.getDefault();
+
+            TimeZone.setDefault(TimeZone.getTimeZone(ZONE));
+            try {
+                runZoned();
+            } finally {
+                TimeZone.setDefault(previous);
+            }
+        }
+    }
+}
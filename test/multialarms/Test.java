@@ -0,0 +1,44 @@
+package multialarms;
+
+/*
+ * Title:        Test
+ * Description:  One self-checking test, run by TestRunner
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+/**
+ * A test: run() exercises something and calls check() on what it finds;
+ * a failed check (or any exception) fails the test.
+ *
+ * Tests live in the multialarms package, so they can reach the
+ * package-private classes they test.
+ */
+abstract class Test {
+
+    /** Name in the report, as class.method */
+    private final String name;
+
+    Test(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Run the test - throws if it fails */
+    protected abstract void run() throws Exception;
+
+    /** Fail the test, with the message, unless the condition holds */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    public String toString() {
+        return name;
+    }
+}
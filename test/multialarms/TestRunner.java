@@ -0,0 +1,131 @@
+package multialarms;
+
+/*
+ * Title:        TestRunner
+ * Description:  Runs the tests and reports which failed
+ * Company:      MosesSoft
+ * @author       Peter van der Woude
+ * @version      1.0
+ */
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Runs every test (or those whose names contain one of the given words),
+ * one after another, and exits with status 1 if any failed:
+ *
+ *   java multialarms.TestRunner [word...]
+ *
+ * Run with -Djava.awt.headless=true; nothing here needs a display. Alarm
+ * logging (System.out) is discarded while tests run.
+ */
+public class TestRunner {
+
+    /** Words selecting tests by name - empty for all */
+    private ArrayList<String> filters = new ArrayList<String>();
+
+    /** Results go here; System.out is swallowed while running */
+    private PrintStream report = System.out;
+
+    /** Every test, in the order run */
+    static Test[] all() {
+
+        ArrayList<Test> list = new ArrayList<Test>();
+
+        add(list, AllocationTest.tests());
+        add(list, ClockJumpTest.tests());
+        add(list, ActionDispatcherTest.tests());
+        add(list, AlarmStateTest.tests());
+        add(list, JournalRecoveryTest.tests());
+        add(list, RecurrenceTest.tests());
+        add(list, AlarmTimeTest.tests());
+
+        return list.toArray(new Test[list.size()]);
+    }
+
+    private static void add(ArrayList<Test> list, Test[] tests) {
+        for (int x = 0; x < tests.length; x++) {
+            list.add(tests[x]);
+        }
+    }
+
+    /** Main method */
+    public static void main(String[] args) {
+
+        TestRunner runner = new TestRunner();
+
+        for (int x = 0; x < args.length; x++) {
+            runner.filters.add(args[x]);
+        }
+
+        int failed = runner.runAll();
+
+        // alarms and renderers leave non-daemon threads behind
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /** Run the selected tests, returning how many failed */
+    private int runAll() {
+
+        Test[] tests  = all();
+        int    run    = 0;
+        int    failed = 0;
+
+        System.setOut(new PrintStream(new OutputStream() {
+
+            public void write(int b) {}
+
+            public void write(byte[] b, int off, int len) {}
+        }));
+
+        for (int x = 0; x < tests.length; x++) {
+            if (selected(tests[x].getName())) {
+                run++;
+                if (!run(tests[x])) {
+                    failed++;
+                }
+            }
+        }
+
+        System.setOut(report);
+
+        report.println(run + " tests, " + failed + " failed");
+
+        return failed;
+    }
+
+    private boolean selected(String name) {
+
+        if (filters.isEmpty()) {
+            return true;
+        }
+
+        for (int x = 0; x < filters.size(); x++) {
+            if (name.indexOf(filters.get(x)) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** Run one test, reporting it - returns whether it passed */
+    private boolean run(Test test) {
+
+        long start = System.currentTimeMillis();
+
+        try {
+            test.run();
+        } catch (Throwable ex) {
+            report.println("FAIL " + test + ": " + ex);
+            ex.printStackTrace(report);
+            return false;
+        }
+
+        report.println("ok   " + test + " ("
+                       + (System.currentTimeMillis() - start) + " ms)");
+        return true;
+    }
+}